@@ -44,7 +44,10 @@ import com.mewna.catnip.rest.Rest;
 import com.mewna.catnip.rest.RestRequester;
 import com.mewna.catnip.rest.Routes;
 import com.mewna.catnip.shard.EventType;
+import com.mewna.catnip.shard.GatewayEncoding;
+import com.mewna.catnip.shard.LocalDispatcher;
 import com.mewna.catnip.shard.event.EventBuffer;
+import com.mewna.catnip.shard.event.LaneStats;
 import com.mewna.catnip.shard.manager.ShardManager;
 import com.mewna.catnip.shard.session.SessionManager;
 import io.vertx.core.Vertx;
@@ -55,6 +58,7 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 
@@ -148,7 +152,10 @@ public interface Catnip {
     
     /**
      * @return The event bus used by the vert.x instance that this catnip
-     * instance uses.
+     * instance uses. Consumers should be registered through this bus rather
+     * than through {@code vertx().eventBus()}, as catnip can keep track of
+     * them so that it can skip work for events that nothing is listening to.
+     * See {@link CatnipOptions#trackEventBusConsumers(boolean)}.
      *
      * @see #vertx()
      */
@@ -156,6 +163,18 @@ public interface Catnip {
     @CheckReturnValue
     EventBus eventBus();
     
+    /**
+     * @param address The event bus address to check.
+     *
+     * @return Whether or not anything may be consuming messages sent to the
+     * given address. Always {@code true} unless
+     * {@link CatnipOptions#trackEventBusConsumers(boolean)} is set, since
+     * consumers registered straight on {@code vertx().eventBus()} can't be
+     * seen otherwise.
+     */
+    @CheckReturnValue
+    boolean hasEventBusConsumers(@Nonnull String address);
+    
     /**
      * Start all shards asynchronously. To customize the shard spawning /
      * management strategy, see {@link CatnipOptions}.
@@ -317,6 +336,31 @@ public interface Catnip {
     @CheckReturnValue
     Set<String> disabledEvents();
     
+    /**
+     * @return The payload encoding used for gateway connections. JSON by
+     * default.
+     */
+    @Nonnull
+    @CheckReturnValue
+    GatewayEncoding gatewayEncoding();
+    
+    /**
+     * @return Whether or not gateway connections use {@code zlib-stream}
+     * transport compression. Disabled by default.
+     */
+    @CheckReturnValue
+    boolean compressGateway();
+    
+    /**
+     * @return Queue depth and processing time of each dispatch lane, if
+     * events are being processed on per-guild lanes. Empty otherwise.
+     *
+     * @see CatnipOptions#dispatchLanes(int)
+     */
+    @Nonnull
+    @CheckReturnValue
+    List<LaneStats> dispatchLaneStats();
+    
     /**
      * Opens a voice connection to the provided guild and channel. The connection is
      * opened asynchronously, with
@@ -396,6 +440,29 @@ public interface Catnip {
         presence(null, game, type, url);
     }
     
+    /**
+     * @return The in-process dispatcher for this catnip instance. Listeners
+     * added to it are invoked directly, without going through the event bus.
+     */
+    @Nonnull
+    @CheckReturnValue
+    LocalDispatcher dispatcher();
+    
+    /**
+     * Add a local listener for the specified event type. The listener is
+     * invoked synchronously, on the dispatching thread, and only ever sees
+     * events from this JVM; see {@link LocalDispatcher}.
+     *
+     * @param type     The type of event to listen on.
+     * @param listener The listener for the event object.
+     * @param <T>      The object type of event being listened on.
+     *
+     * @return The local dispatcher the listener was added to.
+     */
+    default <T> LocalDispatcher onLocal(@Nonnull final EventType<T> type, @Nonnull final Consumer<? super T> listener) {
+        return dispatcher().listen(type, listener);
+    }
+    
     /**
      * Add a consumer for the specified event type.
      *
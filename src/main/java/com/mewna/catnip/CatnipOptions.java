@@ -38,6 +38,7 @@ import com.mewna.catnip.internal.ratelimit.MemoryRatelimiter;
 import com.mewna.catnip.internal.ratelimit.Ratelimiter;
 import com.mewna.catnip.rest.bucket.BucketBackend;
 import com.mewna.catnip.rest.bucket.MemoryBucketBackend;
+import com.mewna.catnip.shard.GatewayEncoding;
 import com.mewna.catnip.shard.event.CachingBuffer;
 import com.mewna.catnip.shard.event.EventBuffer;
 import com.mewna.catnip.shard.manager.DefaultShardManager;
@@ -50,8 +51,10 @@ import lombok.Setter;
 import lombok.experimental.Accessors;
 import okhttp3.OkHttpClient;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.file.Path;
 import java.util.EnumSet;
 import java.util.Set;
 
@@ -92,4 +95,37 @@ public final class CatnipOptions {
     private Set<String> disabledEvents = ImmutableSet.of();
     @Nonnull
     private OkHttpClient restHttpClient = new OkHttpClient();
+    @Nonnull
+    private GatewayEncoding gatewayEncoding = GatewayEncoding.JSON;
+    private boolean compressGateway;
+    /**
+     * If set, gateway payloads and events are only published to event bus
+     * addresses that have consumers registered through
+     * {@link Catnip#eventBus()}, which lets catnip skip building and
+     * publishing ones nothing would receive. Consumers registered straight on
+     * {@code vertx().eventBus()} can't be seen, and won't get anything that
+     * was skipped. Has no effect when vert.x is clustered. Disabled by
+     * default.
+     */
+    private boolean trackEventBusConsumers;
+    /**
+     * If greater than zero, events are processed on this many single-threaded
+     * lanes, hashed by guild id, instead of on each shard's event loop. Events
+     * without a guild still run on their shard's event loop. The event buffer
+     * must be safe to call concurrently for different guilds; the default
+     * {@link CachingBuffer} and {@link com.mewna.catnip.shard.event.NoopBuffer}
+     * are. Disabled by default.
+     */
+    @Nonnegative
+    private int dispatchLanes;
+    /**
+     * If set, the cache and every shard's session are written to this file
+     * on {@link Catnip#shutdown()}, and loaded back in from it on
+     * {@link Catnip#connect()}, so that shards can RESUME instead of
+     * IDENTIFYing after a restart. The file is written asynchronously, once
+     * the shards have stopped and everything they'd received has been
+     * cached. Only works with a {@link MemoryEntityCache}. See {@link com.mewna.catnip.cache.CacheSnapshot}.
+     */
+    @Nullable
+    private Path cacheSnapshot;
 }
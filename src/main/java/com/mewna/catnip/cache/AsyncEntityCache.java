@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Like {@link EntityCache}, but for caches whose entities may have to be
+ * fetched from somewhere else, such as an out-of-process store, so looking
+ * one up can't be done without waiting. Every lookup completes with
+ * {@code null} if the entity isn't cached, and only fails if it couldn't be
+ * fetched at all.
+ * <p/>
+ * Only lookups by id are supported, since iterating over everything in a
+ * remote store isn't something that can be done cheaply.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+public interface AsyncEntityCache {
+    @Nonnull
+    default CompletionStage<Guild> guild(@Nonnull final String id) {
+        return guild(Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<Guild> guild(long id);
+    
+    @Nonnull
+    default CompletionStage<User> user(@Nonnull final String id) {
+        return user(Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<User> user(long id);
+    
+    @Nonnull
+    default CompletionStage<Presence> presence(@Nonnull final String id) {
+        return presence(Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<Presence> presence(long id);
+    
+    @Nonnull
+    default CompletionStage<Member> member(@Nonnull final String guildId, @Nonnull final String id) {
+        return member(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<Member> member(long guildId, long id);
+    
+    @Nonnull
+    default CompletionStage<Role> role(@Nonnull final String guildId, @Nonnull final String id) {
+        return role(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<Role> role(long guildId, long id);
+    
+    @Nonnull
+    default CompletionStage<GuildChannel> channel(@Nonnull final String guildId, @Nonnull final String id) {
+        return channel(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<GuildChannel> channel(long guildId, long id);
+    
+    @Nonnull
+    default CompletionStage<CustomEmoji> emoji(@Nonnull final String guildId, @Nonnull final String id) {
+        return emoji(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<CustomEmoji> emoji(long guildId, long id);
+    
+    @Nonnull
+    default CompletionStage<VoiceState> voiceState(@Nonnull final String guildId, @Nonnull final String id) {
+        return voiceState(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(id));
+    }
+    
+    @Nonnull
+    CompletionStage<VoiceState> voiceState(long guildId, long id);
+}
@@ -48,4 +48,18 @@ public enum CacheFlag {
      * need to save memory.
      */
     DROP_GAME_STATUSES,
+    /**
+     * Store cached members in a compact form, with ids as primitives and
+     * without a guild id, and only build full {@link com.mewna.catnip.entity.guild.Member}
+     * entities when they're accessed. This uses several times less memory,
+     * at the cost of allocating a new member entity on every lookup. Join
+     * dates are only kept to the millisecond.
+     */
+    COMPACT_MEMBERS,
+    /**
+     * Index the names of cached guilds, users, and members, so that looking
+     * them up by name doesn't scan the whole cache. Costs roughly two hundred
+     * bytes of heap per indexed entity. See {@link com.mewna.catnip.cache.view.DefaultNamedCacheView}.
+     */
+    INDEX_NAMES,
 }
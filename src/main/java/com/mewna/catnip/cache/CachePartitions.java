@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.cache.view.DefaultCacheView;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.VoiceState;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Splits everything cached for guilds up by the shard each guild is on, ie.
+ * {@code (guild_id >> 22) % shard_count}. Each shard only writes to its own
+ * partition, so shards don't contend with each other, and everything a shard
+ * cached can be dropped at once, by dropping its partition, when its session
+ * is lost.
+ * <p/>
+ * Partitions are created the first time something is cached for one of
+ * their guilds. When catnip asks the gateway how many shards it should run,
+ * the shard count isn't known until it's started; anything cached before then
+ * (ie. a cache snapshot) is moved into the right partitions the first time
+ * the cache is used after the shard count changes. That happens before any
+ * shard has connected, so nothing is written to the old partitions while
+ * they're being moved.
+ *
+ * @author amy
+ * @since 1/8/19.
+ */
+final class CachePartitions {
+    private final IntSupplier shardCount;
+    private final Supplier<Partition> factory;
+    private volatile AtomicReferenceArray<Partition> partitions = new AtomicReferenceArray<>(1);
+    
+    CachePartitions(@Nonnull final IntSupplier shardCount, @Nonnull final Supplier<Partition> factory) {
+        this.shardCount = shardCount;
+        this.factory = factory;
+    }
+    
+    static int shardOf(final long guildId, @Nonnegative final int shardCount) {
+        return (int) ((guildId >>> 22) % shardCount);
+    }
+    
+    @Nonnull
+    private AtomicReferenceArray<Partition> layout() {
+        final AtomicReferenceArray<Partition> current = partitions;
+        final int count = Math.max(1, shardCount.getAsInt());
+        return current.length() == count ? current : repartition(count);
+    }
+    
+    @Nonnull
+    private synchronized AtomicReferenceArray<Partition> repartition(final int count) {
+        final AtomicReferenceArray<Partition> old = partitions;
+        if(old.length() == count) {
+            return old;
+        }
+        final AtomicReferenceArray<Partition> layout = new AtomicReferenceArray<>(count);
+        for(int i = 0; i < old.length(); i++) {
+            final Partition partition = old.get(i);
+            if(partition != null) {
+                partition.moveTo(guild -> partition(layout, guild));
+            }
+        }
+        partitions = layout;
+        return layout;
+    }
+    
+    @Nonnull
+    private Partition partition(@Nonnull final AtomicReferenceArray<Partition> layout, final long guildId) {
+        final int shard = shardOf(guildId, layout.length());
+        Partition partition = layout.get(shard);
+        while(partition == null) {
+            layout.compareAndSet(shard, null, factory.get());
+            partition = layout.get(shard);
+        }
+        return partition;
+    }
+    
+    /**
+     * @return The partition the guild's on, creating it if needed.
+     */
+    @Nonnull
+    Partition partition(final long guildId) {
+        return partition(layout(), guildId);
+    }
+    
+    /**
+     * @return The partition the guild's on, or {@code null} if nothing has
+     * been cached for its shard.
+     */
+    @Nullable
+    Partition peek(final long guildId) {
+        final AtomicReferenceArray<Partition> layout = layout();
+        return layout.get(shardOf(guildId, layout.length()));
+    }
+    
+    /**
+     * @return The shard's partition, or {@code null} if nothing has been
+     * cached for it.
+     */
+    @Nullable
+    Partition shard(@Nonnegative final int shard) {
+        final AtomicReferenceArray<Partition> layout = layout();
+        return shard < layout.length() ? layout.get(shard) : null;
+    }
+    
+    /**
+     * Drops the shard's partition. Nothing in it can be seen from the cache
+     * once this returns.
+     *
+     * @return The dropped partition, or {@code null} if nothing had been
+     * cached for the shard.
+     */
+    @Nullable
+    Partition drop(@Nonnegative final int shard) {
+        final AtomicReferenceArray<Partition> layout = layout();
+        return shard < layout.length() ? layout.getAndSet(shard, null) : null;
+    }
+    
+    /**
+     * @return A live view of the given part of every partition that exists.
+     */
+    @Nonnull
+    <T> Collection<T> all(@Nonnull final Function<Partition, T> part) {
+        return new AbstractCollection<T>() {
+            @Nonnull
+            @Override
+            public Iterator<T> iterator() {
+                final AtomicReferenceArray<Partition> layout = layout();
+                return new Iterator<T>() {
+                    private int index = -1;
+                    private Partition next = advance();
+                    
+                    private Partition advance() {
+                        while(++index < layout.length()) {
+                            final Partition partition = layout.get(index);
+                            if(partition != null) {
+                                return partition;
+                            }
+                        }
+                        return null;
+                    }
+                    
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+                    
+                    @Override
+                    public T next() {
+                        if(next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        final Partition partition = next;
+                        next = advance();
+                        return part.apply(partition);
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                final AtomicReferenceArray<Partition> layout = layout();
+                int size = 0;
+                for(int i = 0; i < layout.length(); i++) {
+                    if(layout.get(i) != null) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+    
+    /**
+     * Everything cached for the guilds on one shard.
+     */
+    static final class Partition {
+        final DefaultNamedCacheView<Guild> guilds;
+        final Map<Long, DefaultNamedCacheView<Member>> members = new ConcurrentHashMap<>();
+        final Map<Long, DefaultNamedCacheView<Role>> roles = new ConcurrentHashMap<>();
+        final Map<Long, DefaultNamedCacheView<GuildChannel>> channels = new ConcurrentHashMap<>();
+        final Map<Long, DefaultNamedCacheView<CustomEmoji>> emojis = new ConcurrentHashMap<>();
+        final Map<Long, DefaultCacheView<VoiceState>> voiceStates = new ConcurrentHashMap<>();
+        // Role id -> ids of members with it, and voice channel id -> ids of
+        // users connected to it
+        final Map<Long, SecondaryIndex> roleIndex = new ConcurrentHashMap<>();
+        final Map<Long, SecondaryIndex> voiceChannelIndex = new ConcurrentHashMap<>();
+        
+        Partition(@Nonnull final DefaultNamedCacheView<Guild> guilds) {
+            this.guilds = guilds;
+        }
+        
+        private void moveTo(@Nonnull final Function<Long, Partition> target) {
+            guilds.forEach(guild -> target.apply(Long.parseUnsignedLong(guild.id())).guilds.put(guild.id(), guild));
+            members.forEach((id, view) -> target.apply(id).members.put(id, view));
+            roles.forEach((id, view) -> target.apply(id).roles.put(id, view));
+            channels.forEach((id, view) -> target.apply(id).channels.put(id, view));
+            emojis.forEach((id, view) -> target.apply(id).emojis.put(id, view));
+            voiceStates.forEach((id, view) -> target.apply(id).voiceStates.put(id, view));
+            roleIndex.forEach((id, index) -> target.apply(id).roleIndex.put(id, index));
+            voiceChannelIndex.forEach((id, index) -> target.apply(id).voiceChannelIndex.put(id, index));
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.offheap.EntityCodec;
+import com.mewna.catnip.cache.offheap.EntityCodecs;
+import com.mewna.catnip.cache.offheap.SlabReader;
+import com.mewna.catnip.cache.offheap.SlabWriter;
+import com.mewna.catnip.cache.view.DefaultCacheView;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.event.CachingBuffer;
+import com.mewna.catnip.shard.event.EventBuffer;
+import com.mewna.catnip.shard.session.SessionManager;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes the contents of a {@link MemoryEntityCache}, along with every
+ * shard's gateway session and seqnum, to a file, and loads them back in. With
+ * a snapshot taken on shutdown and loaded on startup, shards RESUME their old
+ * sessions instead of IDENTIFYing, and don't have to wait for every guild to
+ * be streamed and chunked again. See {@link com.mewna.catnip.CatnipOptions#cacheSnapshot(Path)}.
+ * <p/>
+ * Discord only keeps sessions around for a few minutes after a shard
+ * disconnects. If a session can't be resumed, the shard IDENTIFYs as usual,
+ * and the guilds it receives replace what was loaded from the snapshot.
+ * <p/>
+ * The file is big-endian, and starts with a header, followed by records:
+ * <pre>
+ * header: int magic ("CTNP"), int version, long time written (epoch millis)
+ * record: byte kind, int length, then length bytes of payload
+ * </pre>
+ * Entities are encoded with {@link EntityCodecs}; guild-scoped ones are
+ * prefixed with their guild's id as a long, and presences with their user's
+ * id. The last record is always of kind {@link #END}. Records are written and
+ * read one at a time, so neither side ever holds the whole snapshot in
+ * memory; loading maps the file in windows rather than reading it through a
+ * stream. Readers skip records of kinds they don't know.
+ *
+ * @author amy
+ * @since 1/4/19.
+ */
+public final class CacheSnapshot {
+    /**
+     * The format version written by this class. Snapshots with a newer
+     * version are refused.
+     */
+    public static final int VERSION = 1;
+    
+    private static final int MAGIC = 0x43544E50;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final long WINDOW_SIZE = 64L << 20;
+    
+    private static final int END = 0;
+    private static final int SESSION = 1;
+    private static final int SELF_USER = 2;
+    private static final int USER = 3;
+    private static final int PRESENCE = 4;
+    private static final int GUILD = 5;
+    private static final int ROLE = 6;
+    private static final int CHANNEL = 7;
+    private static final int EMOJI = 8;
+    private static final int VOICE_STATE = 9;
+    private static final int MEMBER = 10;
+    private static final int DM_CHANNEL = 11;
+    
+    private CacheSnapshot() {
+    }
+    
+    /**
+     * Writes a snapshot of the given catnip instance's cache and sessions. The
+     * snapshot is written to a temporary file next to the given one first, and
+     * then moved into place, so a crash half-way through never leaves a
+     * broken snapshot behind.
+     * <p/>
+     * The shards must have stopped, and the cache must have been
+     * {@link EntityCacheWorker#flush() flushed}, or the sessions that are
+     * saved can be ahead of what's cached.
+     *
+     * @return How many records were written.
+     *
+     * @throws IllegalArgumentException If the cache worker isn't a
+     *                                  {@link MemoryEntityCache}.
+     */
+    @Nonnegative
+    @SuppressWarnings("UnusedReturnValue")
+    public static long write(@Nonnull final Path file, @Nonnull final Catnip catnip) throws IOException {
+        final MemoryEntityCache cache = cacheOf(catnip);
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        final Writer writer;
+        try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writer = new Writer(catnip, out);
+            // A shard's seqnum is stored as soon as an event comes in, before
+            // it's cached, so this is only consistent with the cache once the
+            // shards have stopped and the cache has been flushed; see
+            // CatnipImpl#shutdown(boolean). A shard that's still buffering
+            // events for its READY guilds never cached them, so it has to
+            // IDENTIFY again.
+            final SessionManager sessions = catnip.sessionManager();
+            final EventBuffer buffer = catnip.eventBuffer();
+            for(final int shard : catnip.shardManager().shardIds()) {
+                final String session = sessions.session(shard);
+                if(session != null
+                        && !(buffer instanceof CachingBuffer && ((CachingBuffer) buffer).buffering(shard))) {
+                    final SlabWriter record = SlabWriter.get();
+                    record.writeInt(shard);
+                    record.writeString(session);
+                    record.writeInt(sessions.seqnum(shard));
+                    writer.write(SESSION, record);
+                }
+            }
+            final User self = catnip.selfUser();
+            if(self != null) {
+                writer.write(SELF_USER, 0, EntityCodecs.USER, self);
+            }
+            // Users go before members, so that name indexes can see the
+            // names of members without nicknames as they're loaded
+            cache.userCache.forEach(user -> writer.write(USER, 0, EntityCodecs.USER, user));
+            cache.presenceCache.forEachKey(id -> {
+                final Presence presence = cache.presenceCache.getById(id);
+                if(presence != null) {
+                    writer.write(PRESENCE, id, EntityCodecs.PRESENCE, presence);
+                }
+            });
+            cache.guilds().forEach(guild -> writer.write(GUILD, 0, EntityCodecs.GUILD, guild));
+            writer.writeAll(ROLE, cache.roleCache, EntityCodecs.ROLE);
+            writer.writeAll(CHANNEL, cache.guildChannelCache, EntityCodecs.CHANNEL);
+            writer.writeAll(EMOJI, cache.emojiCache, EntityCodecs.EMOJI);
+            writer.writeAll(VOICE_STATE, cache.voiceStateCache, EntityCodecs.VOICE_STATE);
+            writer.writeAll(MEMBER, cache.memberCache, EntityCodecs.MEMBER);
+            cache.dmChannelCache.forEach(channel -> writer.write(DM_CHANNEL, 0, EntityCodecs.DM_CHANNEL, channel));
+            out.writeByte(END);
+            out.writeInt(0);
+        } catch(final SnapshotException e) {
+            Files.deleteIfExists(temp);
+            throw e.getCause();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return writer.records;
+    }
+    
+    /**
+     * Loads a snapshot into the given catnip instance's cache and session
+     * manager. This should be done before any shards connect. If loading
+     * fails part-way through, any sessions that were already loaded are
+     * cleared again, so that shards IDENTIFY and replace whatever made it
+     * into the cache.
+     *
+     * @return How many records were loaded.
+     *
+     * @throws IOException              If the file can't be read, isn't a
+     *                                  snapshot, or is from a newer version
+     *                                  of catnip.
+     * @throws IllegalArgumentException If the cache worker isn't a
+     *                                  {@link MemoryEntityCache}.
+     */
+    @Nonnegative
+    @CheckReturnValue
+    public static long load(@Nonnull final Path file, @Nonnull final Catnip catnip) throws IOException {
+        final Loader loader = new Loader(catnip, cacheOf(catnip));
+        try {
+            load(file, loader);
+        } catch(final IOException | RuntimeException e) {
+            for(final int shard : loader.shards) {
+                catnip.sessionManager().clearSession(shard);
+                catnip.sessionManager().clearSeqnum(shard);
+            }
+            throw e;
+        }
+        return loader.records;
+    }
+    
+    private static void load(@Nonnull final Path file, @Nonnull final Loader loader) throws IOException {
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if(size < HEADER_SIZE + RECORD_HEADER_SIZE) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            long base = 0;
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, base, Math.min(size, WINDOW_SIZE));
+            if(window.getInt(0) != MAGIC) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            final int version = window.getInt(4);
+            if(version > VERSION) {
+                throw new IOException("Cache snapshot " + file + " has version " + version
+                        + ", but only versions up to " + VERSION + " are supported");
+            }
+            long position = HEADER_SIZE;
+            while(true) {
+                if(position + RECORD_HEADER_SIZE > size) {
+                    throw new IOException("Cache snapshot " + file + " is truncated");
+                }
+                if(position + RECORD_HEADER_SIZE > base + window.limit()) {
+                    base = position;
+                    window = channel.map(MapMode.READ_ONLY, base, Math.min(size - base, WINDOW_SIZE));
+                }
+                final int kind = window.get((int) (position - base));
+                final int length = window.getInt((int) (position - base) + 1);
+                if(kind == END) {
+                    break;
+                }
+                final long end = position + RECORD_HEADER_SIZE + length;
+                if(end > size) {
+                    throw new IOException("Cache snapshot " + file + " is truncated");
+                }
+                if(end > base + window.limit()) {
+                    base = position;
+                    window = channel.map(MapMode.READ_ONLY, base, Math.min(size - base, Math.max(WINDOW_SIZE, end - base)));
+                }
+                loader.load(kind, new SlabReader(window, (int) (position - base) + RECORD_HEADER_SIZE));
+                position = end;
+            }
+        }
+    }
+    
+    @Nonnull
+    private static MemoryEntityCache cacheOf(@Nonnull final Catnip catnip) {
+        final EntityCacheWorker cache = catnip.cacheWorker();
+        if(!(cache instanceof MemoryEntityCache)) {
+            throw new IllegalArgumentException("Only MemoryEntityCache can be snapshotted, not " + cache.getClass().getName());
+        }
+        return (MemoryEntityCache) cache;
+    }
+    
+    private static final class Writer {
+        private final Catnip catnip;
+        private final DataOutputStream out;
+        private long records;
+        
+        private Writer(@Nonnull final Catnip catnip, @Nonnull final DataOutputStream out) {
+            this.catnip = catnip;
+            this.out = out;
+        }
+        
+        private <T> void writeAll(final int kind, @Nonnull final Map<Long, ? extends DefaultCacheView<T>> views,
+                                  @Nonnull final EntityCodec<T> codec) {
+            views.forEach((guild, view) -> view.forEach(entity -> write(kind, guild, codec, entity)));
+        }
+        
+        /**
+         * @param prefix The guild or user id to write in front of the entity,
+         *               or 0 for none.
+         */
+        private <T> void write(final int kind, final long prefix, @Nonnull final EntityCodec<T> codec, @Nonnull final T entity) {
+            final SlabWriter record = SlabWriter.get();
+            if(prefix != 0) {
+                record.writeLong(prefix);
+            }
+            try {
+                codec.encode(record, entity);
+            } catch(final RuntimeException e) {
+                // Leave it out; it'll be cached again the next time it changes
+                catnip.logAdapter().warn("Couldn't snapshot {}", entity, e);
+                return;
+            }
+            write(kind, record);
+        }
+        
+        private void write(final int kind, @Nonnull final SlabWriter record) {
+            try {
+                out.writeByte(kind);
+                out.writeInt(record.length());
+                out.write(record.buffer(), 0, record.length());
+                records++;
+            } catch(final IOException e) {
+                throw new SnapshotException(e);
+            }
+        }
+    }
+    
+    private static final class Loader {
+        private final Catnip catnip;
+        private final MemoryEntityCache cache;
+        private final Collection<Integer> shards = new ArrayList<>();
+        private long records;
+        // Entities are grouped by guild, so this saves a string per entity
+        private long lastGuild;
+        private String lastGuildId;
+        
+        private Loader(@Nonnull final Catnip catnip, @Nonnull final MemoryEntityCache cache) {
+            this.catnip = catnip;
+            this.cache = cache;
+        }
+        
+        @Nonnull
+        private String guild(@Nonnull final SlabReader in) {
+            final long guild = in.readLong();
+            if(guild != lastGuild || lastGuildId == null) {
+                lastGuild = guild;
+                lastGuildId = Long.toUnsignedString(guild);
+            }
+            return lastGuildId;
+        }
+        
+        private void load(final int kind, @Nonnull final SlabReader in) {
+            switch(kind) {
+                case SESSION: {
+                    final int shard = in.readInt();
+                    //noinspection ConstantConditions
+                    catnip.sessionManager().session(shard, in.readString());
+                    catnip.sessionManager().seqnum(shard, in.readInt());
+                    shards.add(shard);
+                    break;
+                }
+                case SELF_USER: {
+                    ((CatnipImpl) catnip).selfUser(EntityCodecs.USER.decode(in, catnip, null));
+                    break;
+                }
+                case USER: {
+                    cache.cacheUser(EntityCodecs.USER.decode(in, catnip, null));
+                    break;
+                }
+                case PRESENCE: {
+                    final String id = Long.toUnsignedString(in.readLong());
+                    cache.cachePresence(id, EntityCodecs.PRESENCE.decode(in, catnip, null));
+                    break;
+                }
+                case GUILD: {
+                    cache.cacheGuild(EntityCodecs.GUILD.decode(in, catnip, null));
+                    break;
+                }
+                case ROLE: {
+                    cache.cacheRole(EntityCodecs.ROLE.decode(in, catnip, guild(in)));
+                    break;
+                }
+                case CHANNEL: {
+                    cache.cacheChannel(EntityCodecs.CHANNEL.decode(in, catnip, guild(in)));
+                    break;
+                }
+                case EMOJI: {
+                    cache.cacheEmoji(EntityCodecs.EMOJI.decode(in, catnip, guild(in)));
+                    break;
+                }
+                case VOICE_STATE: {
+                    cache.cacheVoiceState(EntityCodecs.VOICE_STATE.decode(in, catnip, guild(in)));
+                    break;
+                }
+                case MEMBER: {
+                    cache.cacheMember(EntityCodecs.MEMBER.decode(in, catnip, guild(in)));
+                    break;
+                }
+                case DM_CHANNEL: {
+                    cache.cacheChannel(EntityCodecs.DM_CHANNEL.decode(in, catnip, null));
+                    break;
+                }
+                default: {
+                    // Written by a newer catnip with the same format version
+                    return;
+                }
+            }
+            records++;
+        }
+    }
+    
+    /**
+     * Wraps an {@link IOException} thrown while writing from inside a cache
+     * iteration, so it can be unwrapped and rethrown afterwards.
+     */
+    private static final class SnapshotException extends RuntimeException {
+        private SnapshotException(@Nonnull final IOException cause) {
+            super(cause);
+        }
+        
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * A single thread that applies cache updates, fed by a preallocated ring
+ * buffer in the style of the LMAX disruptor. Any number of threads can
+ * publish updates; they're applied one at a time, in the order they were
+ * published, so everything a writer is responsible for only ever has the one
+ * thread writing to it, and an update never has to wait on a future for the
+ * ones before it.
+ * <p/>
+ * Publishing claims the next sequence number, fills in the slot it maps to,
+ * and then marks the slot as available for that sequence number. The writer
+ * applies slots in sequence order as they become available, and spins for a
+ * little while before parking when there's nothing to apply.
+ * <p/>
+ * Part of the ring is held back for tasks, which are few and must never be
+ * lost (ex. committing a guild that was built elsewhere, or invalidating a
+ * shard). Publishing an update fails straight away once only that part is
+ * left, instead of waiting for the writer to catch up, since it's usually
+ * done from an event loop. Publishing a task only waits if the whole ring is
+ * full, which the writer frees up without waiting on anything else.
+ * <p/>
+ * The future for an update is completed on the context it was published
+ * from, if any, so that whatever's waiting on it carries on there rather than
+ * on the writer thread.
+ *
+ * @author amy
+ * @since 1/9/19.
+ */
+final class CacheWriter {
+    private static final int SPINS = 1000;
+    
+    private final Slot[] slots;
+    private final int mask;
+    // How many slots updates can't use
+    private final int reserved;
+    // The sequence number each slot was last published for
+    private final AtomicLongArray available;
+    // The next sequence number to be claimed by a publisher
+    private final AtomicLong claimed = new AtomicLong();
+    // The last sequence number the writer has applied
+    private final AtomicLong applied = new AtomicLong(-1L);
+    private final BiFunction<String, JsonObject, Future<Void>> handler;
+    private final String name;
+    private final Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+    
+    /**
+     * @param size    The number of slots in the ring, rounded up to a power of
+     *                two. An eighth of them are held back for tasks.
+     * @param handler Applies an update on the writer thread.
+     */
+    CacheWriter(@Nonnull final String name, @Nonnegative final int size,
+                @Nonnull final BiFunction<String, JsonObject, Future<Void>> handler) {
+        final int capacity = size <= 2 ? 2 : Integer.highestOneBit(size - 1) << 1;
+        reserved = Math.max(1, capacity / 8);
+        slots = new Slot[capacity];
+        for(int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+        available = new AtomicLongArray(capacity);
+        for(int i = 0; i < capacity; i++) {
+            available.set(i, -1L);
+        }
+        this.handler = handler;
+        this.name = name;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Queues a cache update.
+     *
+     * @return A future that's completed once the update has been applied, on
+     * the calling context if there is one. It's already failed if the ring
+     * was full, in which case the update wasn't queued.
+     */
+    @Nonnull
+    Future<Void> publish(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        final long sequence = claim(slots.length - reserved);
+        if(sequence < 0) {
+            return Future.failedFuture(new IllegalStateException("Cache writer " + name + " is full"));
+        }
+        return fill(sequence, eventType, payload, null);
+    }
+    
+    /**
+     * Queues a task to run on the writer thread, after every update that's
+     * already been queued. Waits for the writer to make room if the ring is
+     * full, and runs the task straight away if called from the writer thread.
+     *
+     * @return A future that's completed once the task has run, on the calling
+     * context if there is one. Only failed if the task threw, or if the writer
+     * was stopped.
+     */
+    @Nonnull
+    Future<Void> publish(@Nonnull final Runnable task) {
+        if(Thread.currentThread() == thread) {
+            try {
+                task.run();
+                return Future.succeededFuture();
+            } catch(final Exception e) {
+                return Future.failedFuture(e);
+            }
+        }
+        long sequence;
+        while((sequence = claim(slots.length)) < 0) {
+            if(!running) {
+                return Future.failedFuture(new IllegalStateException("Cache writer " + name + " is stopped"));
+            }
+            LockSupport.parkNanos(1000L);
+        }
+        return fill(sequence, null, null, task);
+    }
+    
+    /**
+     * @return The next sequence number, if fewer than {@code limit} slots are
+     * waiting to be applied, otherwise -1.
+     */
+    private long claim(final int limit) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if(sequence - limit > applied.get()) {
+                return -1L;
+            }
+        } while(!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+    
+    @Nonnull
+    private Future<Void> fill(final long sequence, final String eventType, final JsonObject payload,
+                              final Runnable task) {
+        final Future<Void> result = Future.future();
+        final Slot slot = slots[(int) sequence & mask];
+        slot.eventType = eventType;
+        slot.payload = payload;
+        slot.task = task;
+        slot.context = Vertx.currentContext();
+        slot.result = result;
+        // A full volatile write, so that it can't be reordered with reading
+        // whether the writer is about to park
+        available.set((int) sequence & mask, sequence);
+        if(sleeping) {
+            LockSupport.unpark(thread);
+        }
+        return result;
+    }
+    
+    /**
+     * @return How many updates are waiting to be applied.
+     */
+    long backlog() {
+        return claimed.get() - applied.get() - 1;
+    }
+    
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+    
+    private void run() {
+        long next = 0;
+        int idle = 0;
+        while(running) {
+            final int index = (int) next & mask;
+            if(available.get(index) != next) {
+                if(++idle < SPINS) {
+                    continue;
+                }
+                sleeping = true;
+                // Published between the check above and here
+                if(available.get(index) != next && running) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+                idle = 0;
+                continue;
+            }
+            idle = 0;
+            final Slot slot = slots[index];
+            final Context context = slot.context;
+            final Future<Void> result = slot.result;
+            Future<Void> outcome;
+            try {
+                if(slot.task != null) {
+                    slot.task.run();
+                    outcome = Future.succeededFuture();
+                } else {
+                    outcome = handler.apply(slot.eventType, slot.payload);
+                }
+            } catch(final Exception e) {
+                outcome = Future.failedFuture(e);
+            }
+            slot.eventType = null;
+            slot.payload = null;
+            slot.task = null;
+            slot.context = null;
+            slot.result = null;
+            applied.lazySet(next);
+            next++;
+            // Only once the slot's been freed, so that nothing waiting on the
+            // update can see it as still queued
+            outcome.setHandler(res -> complete(context, result, res));
+        }
+    }
+    
+    private static void complete(final Context context, final Future<Void> result, final AsyncResult<Void> res) {
+        if(context == null) {
+            result.handle(res);
+        } else {
+            context.runOnContext(__ -> result.handle(res));
+        }
+    }
+    
+    private static final class Slot {
+        private String eventType;
+        private JsonObject payload;
+        private Runnable task;
+        private Context context;
+        private Future<Void> result;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.util.Utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * A cached member, stored as primitives. The guild id isn't stored at all;
+ * it's implied by the {@link CompactMemberCacheView} that holds the member.
+ *
+ * @author amy
+ * @since 12/29/18.
+ */
+final class CompactMember {
+    static final long NO_JOIN_DATE = Long.MIN_VALUE;
+    private static final byte DEAF = 1;
+    private static final byte MUTE = 1 << 1;
+    
+    final long id;
+    @Nullable
+    final String nick;
+    // Sorted, and shared between members with the same roles
+    final long[] roleIds;
+    // Epoch millis
+    final long joinedAt;
+    private final byte flags;
+    
+    CompactMember(final long id, @Nullable final String nick, @Nonnull final long[] roleIds, final long joinedAt,
+                  final boolean deaf, final boolean mute) {
+        this.id = id;
+        this.nick = nick;
+        this.roleIds = roleIds;
+        this.joinedAt = joinedAt;
+        flags = (byte) ((deaf ? DEAF : 0) | (mute ? MUTE : 0));
+    }
+    
+    /**
+     * @param member The member to compact.
+     * @param roles  Interns the sorted role id array, so that members with
+     *               the same roles share one array.
+     */
+    @Nonnull
+    static CompactMember of(@Nonnull final Member member, @Nonnull final UnaryOperator<long[]> roles) {
+        final Set<String> roleIds = member.roleIds();
+        final long[] sorted = new long[roleIds.size()];
+        int i = 0;
+        for(final String roleId : roleIds) {
+            sorted[i++] = Long.parseUnsignedLong(roleId);
+        }
+        Arrays.sort(sorted);
+        final OffsetDateTime joinedAt = member.joinedAt();
+        //noinspection ConstantConditions
+        return new CompactMember(Long.parseUnsignedLong(member.id()), member.nick(), roles.apply(sorted),
+                joinedAt == null ? NO_JOIN_DATE : joinedAt.toInstant().toEpochMilli(),
+                member.deaf(), member.mute());
+    }
+    
+    boolean deaf() {
+        return (flags & DEAF) != 0;
+    }
+    
+    boolean mute() {
+        return (flags & MUTE) != 0;
+    }
+    
+    /**
+     * Builds a full member entity. Nothing is cached; every call builds a new
+     * one.
+     */
+    @Nonnull
+    Member materialize(@Nullable final Catnip catnip, @Nonnull final String guildId) {
+        final ImmutableSet.Builder<String> roles = ImmutableSet.builder();
+        for(final long roleId : roleIds) {
+            roles.add(Long.toUnsignedString(roleId));
+        }
+        return MemberImpl.builder()
+                .catnip(catnip)
+                .id(Long.toUnsignedString(id))
+                .guildId(guildId)
+                .nick(nick)
+                .roleIds(roles.build())
+                .joinedAt(joinedAt == NO_JOIN_DATE ? null
+                        : Utils.formatTimestamp(Math.floorDiv(joinedAt, 1000), (int) Math.floorMod(joinedAt, 1000) * 1_000_000))
+                .deaf(deaf())
+                .mute(mute())
+                .build();
+    }
+}
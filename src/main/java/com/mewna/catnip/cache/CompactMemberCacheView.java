@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.util.ConcurrentLongMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.*;
+
+/**
+ * Member cache for a single guild that stores members as
+ * {@link CompactMember}s. Full {@link Member} entities are only built when
+ * they're accessed, and aren't kept around afterwards, so prefer looking up
+ * members by id over scanning the whole cache with {@link #find(Predicate)}.
+ * Name lookups are done against the compact members, and only build the
+ * members that match.
+ *
+ * @author amy
+ * @since 12/29/18.
+ */
+final class CompactMemberCacheView extends DefaultNamedCacheView<Member> {
+    // Role combinations come and go as roles are edited; rather than track
+    // which arrays are still used, start over once there's a lot of them.
+    // Members already cached keep their arrays.
+    private static final int MAX_INTERNED_ROLE_SETS = 4096;
+    private static final long[] NO_ROLES = new long[0];
+    
+    private final Catnip catnip;
+    private final String guildId;
+    private final LongFunction<User> users;
+    private final ConcurrentLongMap<CompactMember> members = new ConcurrentLongMap<>(1);
+    private final Map<RoleSet, long[]> roleSets = new ConcurrentHashMap<>();
+    
+    /**
+     * @param catnip  The catnip instance to give materialized members.
+     * @param guildId The guild this cache holds members for.
+     * @param users   Looks up users from the cache, for members without a
+     *                nickname.
+     */
+    CompactMemberCacheView(@Nullable final Catnip catnip, final long guildId, @Nonnull final LongFunction<User> users) {
+        // Only used for members that have already been built; everything
+        // else goes through compactName(CompactMember)
+        super(m -> m.nick() != null ? m.nick() : username(users, Long.parseUnsignedLong(m.id())), 1);
+        this.catnip = catnip;
+        this.guildId = Long.toUnsignedString(guildId);
+        this.users = users;
+    }
+    
+    @Nullable
+    private static String username(@Nonnull final LongFunction<User> users, final long id) {
+        final User user = users.apply(id);
+        return user == null ? null : user.username();
+    }
+    
+    @Nonnull
+    private long[] intern(@Nonnull final long[] roleIds) {
+        if(roleIds.length == 0) {
+            return NO_ROLES;
+        }
+        if(roleSets.size() >= MAX_INTERNED_ROLE_SETS) {
+            roleSets.clear();
+        }
+        final long[] existing = roleSets.putIfAbsent(new RoleSet(roleIds), roleIds);
+        return existing == null ? roleIds : existing;
+    }
+    
+    @Nullable
+    private Member materialize(@Nullable final CompactMember member) {
+        return member == null ? null : member.materialize(catnip, guildId);
+    }
+    
+    @Nonnull
+    private String compactName(@Nonnull final CompactMember member) {
+        if(member.nick != null) {
+            return member.nick;
+        }
+        final String name = username(users, member.id);
+        return name == null ? "" : name;
+    }
+    
+    @Nullable
+    CompactMember compact(final long id) {
+        return members.get(id);
+    }
+    
+    /**
+     * @return A copy of this cache, with every member materialized. There's
+     * no live map view, as members are only built on access.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, Member> map() {
+        final ImmutableMap.Builder<Long, Member> builder = ImmutableMap.builder();
+        members.forEach((id, member) -> builder.put(id, member.materialize(catnip, guildId)));
+        return builder.build();
+    }
+    
+    @Nullable
+    @Override
+    protected String currentName(final long id) {
+        final CompactMember member = members.get(id);
+        return member == null ? null : compactName(member);
+    }
+    
+    @Nullable
+    @Override
+    public Member put(final long key, @Nonnull final Member value) {
+        final CompactMember old = members.put(key, CompactMember.of(value, this::intern));
+        refreshName(key);
+        return materialize(old);
+    }
+    
+    @Nullable
+    @Override
+    public Member remove(final long key) {
+        final CompactMember old = members.remove(key);
+        refreshName(key);
+        return materialize(old);
+    }
+    
+    @Override
+    public long size() {
+        return members.size();
+    }
+    
+    @Override
+    public Member getById(final long id) {
+        return materialize(members.get(id));
+    }
+    
+    @Override
+    public Member findAny(@Nonnull final Predicate<Member> filter) {
+        final Iterator<CompactMember> iterator = members.valueIterator();
+        while(iterator.hasNext()) {
+            final Member member = materialize(iterator.next());
+            if(filter.test(member)) {
+                return member;
+            }
+        }
+        return null;
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<Member>> C find(@Nonnull final Predicate<Member> filter, @Nonnull final Supplier<C> supplier) {
+        final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        members.forEachValue(e -> {
+            final Member member = materialize(e);
+            if(filter.test(member)) {
+                collection.add(member);
+            }
+        });
+        return collection;
+    }
+    
+    @Nonnull
+    @Override
+    protected Collection<Member> findByName(@Nonnull final Predicate<String> filter) {
+        final Collection<Member> collection = new ArrayList<>();
+        members.forEachValue(e -> {
+            if(filter.test(compactName(e))) {
+                collection.add(materialize(e));
+            }
+        });
+        return collection;
+    }
+    
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer consumer) {
+        members.forEachKey(consumer);
+    }
+    
+    @Override
+    public void forEach(@Nonnull final Consumer<? super Member> action) {
+        members.forEachValue(e -> action.accept(materialize(e)));
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Long> keys() {
+        return members.keySet();
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<Member> values() {
+        return new AbstractCollection<Member>() {
+            @Nonnull
+            @Override
+            public Iterator<Member> iterator() {
+                return CompactMemberCacheView.this.iterator();
+            }
+            
+            @Override
+            public int size() {
+                return members.size();
+            }
+        };
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<Member>> C snapshot(@Nonnull final Supplier<C> supplier) {
+        final C r = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        members.forEachValue(e -> r.add(materialize(e)));
+        return r;
+    }
+    
+    @Nonnull
+    @Override
+    public Iterator<Member> iterator() {
+        final Iterator<CompactMember> iterator = members.valueIterator();
+        return new Iterator<Member>() {
+            private CompactMember last;
+            
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            
+            @Override
+            public Member next() {
+                last = iterator.next();
+                return materialize(last);
+            }
+            
+            @Override
+            public void remove() {
+                iterator.remove();
+                refreshName(last.id);
+            }
+        };
+    }
+    
+    /**
+     * Key for interning role id arrays by their contents.
+     */
+    private static final class RoleSet {
+        private final long[] roleIds;
+        private final int hash;
+        
+        private RoleSet(@Nonnull final long[] roleIds) {
+            this.roleIds = roleIds;
+            hash = Arrays.hashCode(roleIds);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof RoleSet && Arrays.equals(roleIds, ((RoleSet) obj).roleIds);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import com.mewna.catnip.entity.channel.UserDMChannel;
 import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.guild.Member;
 import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.message.Message;
 import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
 import com.mewna.catnip.entity.user.Presence;
 import com.mewna.catnip.entity.user.User;
@@ -41,6 +42,8 @@ import com.mewna.catnip.entity.user.VoiceState;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * If you're looking to implement your own caching system, you want
@@ -194,6 +197,69 @@ public interface EntityCache {
     @Nonnull
     NamedCacheView<Member> members();
     
+    /**
+     * Get the guilds the user with the specified ID is a cached member of.
+     * This is a single lookup, not a search through every guild's members.
+     *
+     * @param userId The ID of the user whose guilds are to be fetched.
+     *
+     * @return The user's guilds. Empty if they aren't a member of any cached
+     * guild. Updates to the cache will not update this list.
+     */
+    @Nonnull
+    default List<Guild> mutualGuilds(@Nonnull final String userId) {
+        return mutualGuilds(Long.parseUnsignedLong(userId));
+    }
+    
+    /**
+     * Get the guilds the user with the specified ID is a cached member of.
+     * This is a single lookup, not a search through every guild's members.
+     *
+     * @param userId The ID of the user whose guilds are to be fetched.
+     *
+     * @return The user's guilds. Empty if they aren't a member of any cached
+     * guild. Updates to the cache will not update this list. Always empty,
+     * unless overridden.
+     */
+    @Nonnull
+    default List<Guild> mutualGuilds(final long userId) {
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Get the members of the guild with the given ID that have the role with
+     * the given ID. This is a single lookup, not a search through all of the
+     * guild's members. The {@code @everyone} role, whose ID is the guild's,
+     * gets all of the guild's members.
+     *
+     * @param guildId The ID of the guild the role is from.
+     * @param roleId  The ID of the role whose members are to be fetched.
+     *
+     * @return The role's members. Updates to the cache will not update this
+     * list.
+     */
+    @Nonnull
+    default List<Member> roleMembers(@Nonnull final String guildId, @Nonnull final String roleId) {
+        return roleMembers(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(roleId));
+    }
+    
+    /**
+     * Get the members of the guild with the given ID that have the role with
+     * the given ID. This is a single lookup, not a search through all of the
+     * guild's members. The {@code @everyone} role, whose ID is the guild's,
+     * gets all of the guild's members.
+     *
+     * @param guildId The ID of the guild the role is from.
+     * @param roleId  The ID of the role whose members are to be fetched.
+     *
+     * @return The role's members. Updates to the cache will not update this
+     * list. Always empty, unless overridden.
+     */
+    @Nonnull
+    default List<Member> roleMembers(final long guildId, final long roleId) {
+        return Collections.emptyList();
+    }
+    
     /**
      * Get the role with the given ID from the guild with the given ID. May be
      * {@code null}.
@@ -339,6 +405,64 @@ public interface EntityCache {
     @Nonnull
     CacheView<UserDMChannel> dmChannels();
     
+    /**
+     * Get the message with the given ID from the channel with the given ID.
+     * Only recent messages are cached, and only if the cache worker caches
+     * messages at all. May be {@code null}.
+     *
+     * @param channelId The ID of the channel the message was sent in.
+     * @param id        The ID of the message.
+     *
+     * @return The message, as of its latest edit, or {@code null} if it isn't
+     * cached.
+     */
+    @Nullable
+    default Message message(@Nonnull final String channelId, @Nonnull final String id) {
+        return message(Long.parseUnsignedLong(channelId), Long.parseUnsignedLong(id));
+    }
+    
+    /**
+     * Get the message with the given ID from the channel with the given ID.
+     * Only recent messages are cached, and only if the cache worker caches
+     * messages at all. May be {@code null}.
+     *
+     * @param channelId The ID of the channel the message was sent in.
+     * @param id        The ID of the message.
+     *
+     * @return The message, as of its latest edit, or {@code null} if it isn't
+     * cached. Always {@code null}, unless overridden.
+     */
+    @Nullable
+    default Message message(final long channelId, final long id) {
+        return null;
+    }
+    
+    /**
+     * Get the cached messages of the channel with the given ID.
+     *
+     * @param channelId The ID of the channel.
+     *
+     * @return The channel's cached messages, oldest first. Updates to the
+     * cache will not update this list.
+     */
+    @Nonnull
+    default List<Message> messages(@Nonnull final String channelId) {
+        return messages(Long.parseUnsignedLong(channelId));
+    }
+    
+    /**
+     * Get the cached messages of the channel with the given ID.
+     *
+     * @param channelId The ID of the channel.
+     *
+     * @return The channel's cached messages, oldest first. Updates to the
+     * cache will not update this list. Always empty, unless overridden.
+     */
+    @Nonnull
+    default List<Message> messages(final long channelId) {
+        return Collections.emptyList();
+    }
+    
     /**
      * Get the custom emojis with the given ID from the guild with the given ID.
      * May be {@code null},
@@ -446,6 +570,38 @@ public interface EntityCache {
     @Nonnull
     CacheView<VoiceState> voiceStates(final long guildId);
     
+    /**
+     * Get the voice states of everyone connected to the voice channel with
+     * the given ID. This is a single lookup, not a search through all of the
+     * guild's voice states.
+     *
+     * @param guildId   The ID of the guild the channel is in.
+     * @param channelId The ID of the voice channel.
+     *
+     * @return The voice states of the channel. Updates to the cache will not
+     * update this list.
+     */
+    @Nonnull
+    default List<VoiceState> channelVoiceStates(@Nonnull final String guildId, @Nonnull final String channelId) {
+        return channelVoiceStates(Long.parseUnsignedLong(guildId), Long.parseUnsignedLong(channelId));
+    }
+    
+    /**
+     * Get the voice states of everyone connected to the voice channel with
+     * the given ID. This is a single lookup, not a search through all of the
+     * guild's voice states.
+     *
+     * @param guildId   The ID of the guild the channel is in.
+     * @param channelId The ID of the voice channel.
+     *
+     * @return The voice states of the channel. Updates to the cache will not
+     * update this list. Always empty, unless overridden.
+     */
+    @Nonnull
+    default List<VoiceState> channelVoiceStates(final long guildId, final long channelId) {
+        return Collections.emptyList();
+    }
+    
     /**
      * Get all voice states for the entire bot.
      *
@@ -38,7 +38,9 @@ import com.mewna.catnip.entity.user.VoiceState;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Map;
 
@@ -77,6 +79,59 @@ public interface EntityCacheWorker extends EntityCache {
     void bulkCachePresences(@Nonnull Map<String, Presence> presences);
     
     void bulkCacheVoiceStates(@Nonnull Collection<VoiceState> voiceStates);
+    
+    /**
+     * Whether or not this cache worker caches messages. Message events are
+     * only passed to {@link #updateCache(String, JsonObject)} if it does.
+     *
+     * @return {@code false}, unless overridden.
+     */
+    default boolean cachesMessages() {
+        return false;
+    }
+    
+    /**
+     * Drop everything cached for the guilds on a shard. Called when the shard
+     * has lost its session and is about to IDENTIFY again, since everything
+     * it cached is sent again, and anything that's not is stale. Does
+     * nothing by default.
+     *
+     * @param shardId The id of the shard.
+     */
+    default void invalidateShard(@Nonnegative final int shardId) {
+    }
+    
+    /**
+     * Called when catnip is shut down, once its shards have stopped, so that
+     * everything they'd already received is cached before catnip saves
+     * anything that depends on the cache, such as a cache snapshot.
+     *
+     * @return A future that's completed once every update passed to
+     * {@link #updateCache(String, JsonObject)} so far has been applied.
+     * Already completed by default.
+     */
+    @Nonnull
+    default Future<Void> flush() {
+        return Future.succeededFuture();
+    }
+    
+    /**
+     * Called when catnip is shut down, after its shards have been. Does
+     * nothing by default.
+     */
+    default void shutdown() {
+    }
+    
+    /**
+     * The cache of member permissions that {@link com.mewna.catnip.util.PermissionUtil}
+     * checks against, if this cache worker keeps one up to date.
+     *
+     * @return {@code null}, unless overridden.
+     */
+    @Nullable
+    default PermissionCache permissionCache() {
+        return null;
+    }
 
     @Nonnull
     EntityCache catnip(@Nonnull Catnip catnip);
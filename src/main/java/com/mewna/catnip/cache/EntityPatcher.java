@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.GuildImpl;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.*;
+import com.mewna.catnip.entity.user.User;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.mewna.catnip.entity.impl.EntityBuilder.stringListOf;
+
+/**
+ * Applies update events to cached entities. Cached entities may be held onto
+ * by anyone, so they're never changed in place; instead, an update that does
+ * change something produces a copy of the cached entity with the changes
+ * applied, and an update that doesn't change anything we store produces
+ * nothing, so the cache doesn't have to be written to at all. Most
+ * {@code PRESENCE_UPDATE}s are the latter.
+ *
+ * @author amy
+ * @since 1/3/19.
+ */
+final class EntityPatcher {
+    private final Catnip catnip;
+    private final EntityBuilder entityBuilder;
+    
+    EntityPatcher(@Nonnull final Catnip catnip) {
+        this.catnip = catnip;
+        entityBuilder = new EntityBuilder(catnip);
+    }
+    
+    /**
+     * @param user A possibly-partial user object; missing fields are left as
+     *             they are.
+     *
+     * @return The patched user, or {@code null} if nothing changed.
+     */
+    @Nullable
+    @CheckReturnValue
+    User patchUser(@Nonnull final User old, @Nonnull final JsonObject user) {
+        final String username = user.getString("username", old.username());
+        final String discriminator = user.getString("discriminator", old.discriminator());
+        final String avatar = user.containsKey("avatar") ? user.getString("avatar") : old.avatar();
+        final boolean bot = user.getBoolean("bot", old.bot());
+        if(Objects.equals(username, old.username()) && Objects.equals(discriminator, old.discriminator())
+                && Objects.equals(avatar, old.avatar()) && bot == old.bot()) {
+            return null;
+        }
+        return UserImpl.builder()
+                .catnip(catnip)
+                .id(old.id())
+                .username(username)
+                .discriminator(discriminator)
+                .avatar(avatar)
+                .bot(bot)
+                .build();
+    }
+    
+    /**
+     * @param payload A {@code GUILD_MEMBER_UPDATE} payload.
+     *
+     * @return The patched member, or {@code null} if their nickname and
+     * roles didn't change.
+     */
+    @Nullable
+    @CheckReturnValue
+    Member patchMember(@Nonnull final Member old, @Nonnull final JsonObject payload) {
+        final String nick = payload.getString("nick");
+        final JsonArray roles = payload.getJsonArray("roles");
+        final boolean sameRoles = roles == null || sameIds(old.roleIds(), roles);
+        if(sameRoles && Objects.equals(nick, old.nick())) {
+            return null;
+        }
+        final Set<String> roleIds = sameRoles ? old.roleIds() : ImmutableSet.copyOf(stringListOf(roles));
+        if(old instanceof MemberImpl) {
+            // Carries over the join date without parsing and re-formatting it
+            return ((MemberImpl) old).toBuilder().nick(nick).roleIds(roleIds).build();
+        }
+        return MemberImpl.builder()
+                .catnip(catnip)
+                .id(old.id())
+                .guildId(old.guildId())
+                .nick(nick)
+                .roleIds(roleIds)
+                .joinedAt(old.joinedAt() == null ? null : old.joinedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .deaf(old.deaf())
+                .mute(old.mute())
+                .build();
+    }
+    
+    /**
+     * @param old     The cached presence, if any.
+     * @param payload A {@code PRESENCE_UPDATE} payload.
+     *
+     * @return The new presence, or {@code null} if neither the status nor
+     * the activity changed.
+     */
+    @Nullable
+    @CheckReturnValue
+    Presence patchPresence(@Nullable final Presence old, @Nonnull final JsonObject payload) {
+        if(old != null && old.status() == OnlineStatus.fromString(payload.getString("status"))
+                && sameActivity(old.activity(), payload.getJsonObject("game", null))) {
+            return null;
+        }
+        return entityBuilder.createPresence(payload);
+    }
+    
+    /**
+     * {@code GUILD_UPDATE}s don't have the fields that are only sent with
+     * {@code GUILD_CREATE}, so those are carried over from the cached guild.
+     *
+     * @param payload A {@code GUILD_UPDATE} payload.
+     *
+     * @return The patched guild, or {@code null} if nothing changed.
+     */
+    @Nullable
+    @CheckReturnValue
+    Guild patchGuild(@Nonnull final Guild old, @Nonnull final JsonObject payload) {
+        final GuildImpl updated = (GuildImpl) entityBuilder.createGuild(payload, false);
+        if(sameGuild(old, updated)) {
+            return null;
+        }
+        final String joinedAt;
+        if(old instanceof GuildImpl) {
+            joinedAt = ((GuildImpl) old).rawJoinedAt();
+        } else {
+            joinedAt = old.joinedAt() == null ? null : old.joinedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+        return updated.joinedAt(joinedAt)
+                .large(old.large())
+                .unavailable(old.unavailable())
+                .memberCount(old.memberCount());
+    }
+    
+    static boolean sameRole(@Nonnull final Role old, @Nonnull final JsonObject role) {
+        return Objects.equals(old.name(), role.getString("name"))
+                && old.color() == role.getInteger("color", 0)
+                && old.hoist() == role.getBoolean("hoist", false)
+                && old.position() == role.getInteger("position", 0)
+                && old.permissionsRaw() == role.getLong("permissions", 0L)
+                && old.managed() == role.getBoolean("managed", false)
+                && old.mentionable() == role.getBoolean("mentionable", false);
+    }
+    
+    static boolean sameEmoji(@Nonnull final CustomEmoji old, @Nonnull final JsonObject emoji) {
+        return Objects.equals(old.name(), emoji.getString("name"))
+                && old.requiresColons() == emoji.getBoolean("require_colons", true)
+                && old.managed() == emoji.getBoolean("managed", false)
+                && old.animated() == emoji.getBoolean("animated", false)
+                && sameIds(old.roles(), emoji.getJsonArray("roles", new JsonArray()));
+    }
+    
+    private static boolean sameIds(@Nonnull final Collection<String> old, @Nonnull final JsonArray ids) {
+        if(old.size() != ids.size()) {
+            return false;
+        }
+        for(final Object id : ids) {
+            if(!old.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean sameGuild(@Nonnull final Guild old, @Nonnull final Guild updated) {
+        return Objects.equals(old.name(), updated.name())
+                && Objects.equals(old.icon(), updated.icon())
+                && Objects.equals(old.splash(), updated.splash())
+                && old.owned() == updated.owned()
+                && Objects.equals(old.ownerId(), updated.ownerId())
+                && Objects.equals(old.permissions(), updated.permissions())
+                && Objects.equals(old.region(), updated.region())
+                && Objects.equals(old.afkChannelId(), updated.afkChannelId())
+                && old.afkTimeout() == updated.afkTimeout()
+                && old.embedEnabled() == updated.embedEnabled()
+                && Objects.equals(old.embedChannelId(), updated.embedChannelId())
+                && old.verificationLevel() == updated.verificationLevel()
+                && old.defaultMessageNotifications() == updated.defaultMessageNotifications()
+                && old.explicitContentFilter() == updated.explicitContentFilter()
+                && Objects.equals(old.features(), updated.features())
+                && old.mfaLevel() == updated.mfaLevel()
+                && Objects.equals(old.applicationId(), updated.applicationId())
+                && old.widgetEnabled() == updated.widgetEnabled()
+                && Objects.equals(old.widgetChannelId(), updated.widgetChannelId())
+                && Objects.equals(old.systemChannelId(), updated.systemChannelId());
+    }
+    
+    private static boolean sameActivity(@Nullable final Activity old, @Nullable final JsonObject game) {
+        if(old == null || game == null) {
+            return old == null && game == null;
+        }
+        return Objects.equals(old.name(), game.getString("name"))
+                && old.type() == ActivityType.byId(game.getInteger("type", 0))
+                && Objects.equals(old.url(), game.getString("url"))
+                && Objects.equals(old.applicationId(), game.getString("application_id"))
+                && Objects.equals(old.details(), game.getString("details"))
+                && Objects.equals(old.state(), game.getString("state"))
+                && old.instance() == game.getBoolean("instance", false)
+                && Objects.equals(old.flags(), ActivityFlag.fromInt(game.getInteger("flags", 0)))
+                && sameTimestamps(old.timestamps(), game.getJsonObject("timestamps", null))
+                && sameParty(old.party(), game.getJsonObject("party", null))
+                && sameAssets(old.assets(), game.getJsonObject("assets", null))
+                && sameSecrets(old.secrets(), game.getJsonObject("secrets", null));
+    }
+    
+    private static boolean sameTimestamps(@Nullable final ActivityTimestamps old, @Nullable final JsonObject timestamps) {
+        if(old == null || timestamps == null) {
+            return old == null && timestamps == null;
+        }
+        return old.start() == timestamps.getLong("start", -1L) && old.end() == timestamps.getLong("end", -1L);
+    }
+    
+    private static boolean sameParty(@Nullable final ActivityParty old, @Nullable final JsonObject party) {
+        if(old == null || party == null) {
+            return old == null && party == null;
+        }
+        final JsonArray size = party.getJsonArray("size");
+        return Objects.equals(old.id(), party.getString("id"))
+                && old.currentSize() == (size == null ? -1 : size.getInteger(0))
+                && old.maxSize() == (size == null ? -1 : size.getInteger(1));
+    }
+    
+    private static boolean sameAssets(@Nullable final ActivityAssets old, @Nullable final JsonObject assets) {
+        if(old == null || assets == null) {
+            return old == null && assets == null;
+        }
+        return Objects.equals(old.largeImage(), assets.getString("large_image"))
+                && Objects.equals(old.largeText(), assets.getString("large_text"))
+                && Objects.equals(old.smallImage(), assets.getString("small_image"))
+                && Objects.equals(old.smallText(), assets.getString("small_text"));
+    }
+    
+    private static boolean sameSecrets(@Nullable final ActivitySecrets old, @Nullable final JsonObject secrets) {
+        if(old == null || secrets == null) {
+            return old == null && secrets == null;
+        }
+        return Objects.equals(old.join(), secrets.getString("join"))
+                && Objects.equals(old.spectate(), secrets.getString("spectate"))
+                && Objects.equals(old.match(), secrets.getString("match"));
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.DefaultCacheView;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.VoiceState;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+
+/**
+ * Caches {@code GUILD_CREATE}s for a {@link MemoryEntityCache}. Rather than
+ * building a whole guild in one blocking task, the roles, channels, members
+ * and so on of a guild are built at the same time on a bounded worker pool,
+ * into fresh per-guild views that nothing can see yet. Once they're all built
+ * the views are swapped in on the calling context, with the guild itself put
+ * last, so a guild is either fully cached or not cached at all.
+ * <p>
+ * Any other cache update for a guild that's still being ingested waits for
+ * that guild to be committed, so updates for a guild are always applied in
+ * the order they were received. When a shard's cache is invalidated, anything
+ * still queued or being built for its guilds is thrown away, rather than
+ * being cached on top of the shard's next session.
+ *
+ * @author amy
+ * @since 1/1/19.
+ */
+final class GuildIngestor {
+    // Members are the only thing a guild has enough of to be worth splitting
+    // up; 1000 is also the size of a member chunk
+    private static final int MEMBERS_PER_TASK = 1000;
+    
+    private final MemoryEntityCache cache;
+    private final EntityBuilder entityBuilder;
+    private final WorkerExecutor pool;
+    /**
+     * Guilds that are being ingested, mapped to a future that's completed
+     * once the last update queued behind the ingestion has been applied.
+     */
+    private final Map<Long, Future<Void>> pending = new ConcurrentHashMap<>();
+    /**
+     * Shard id -> how many times the shard has been invalidated. Work is
+     * tagged with its shard's generation when it's received, and dropped if
+     * that's changed by the time it would be applied.
+     */
+    private final Map<Integer, AtomicInteger> generations = new ConcurrentHashMap<>();
+    
+    GuildIngestor(@Nonnull final MemoryEntityCache cache, @Nonnull final Catnip catnip, final int threads) {
+        this.cache = cache;
+        entityBuilder = new EntityBuilder(catnip);
+        pool = catnip.vertx().createSharedWorkerExecutor("catnip-guild-ingest", threads);
+    }
+    
+    /**
+     * @return The id of the guild the given event is about, or {@code null}
+     * if it isn't about a guild.
+     */
+    @Nullable
+    static String guildOf(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        switch(eventType) {
+            case Raw.GUILD_CREATE:
+            case Raw.GUILD_UPDATE:
+            case Raw.GUILD_DELETE: {
+                return payload.getString("id", null);
+            }
+            default: {
+                final Object guild = payload.getValue("guild_id");
+                return guild instanceof String ? (String) guild : null;
+            }
+        }
+    }
+    
+    /**
+     * Caches the given guild, after any updates for it that are still
+     * waiting on a previous ingestion of it.
+     */
+    @Nonnull
+    Future<Void> ingest(@Nonnull final String guildId, @Nonnull final JsonObject payload) {
+        final long guild = Long.parseUnsignedLong(guildId);
+        final int shard = cache.shardOf(guild);
+        final int generation = generation(shard);
+        return after(guild, shard, generation, () -> ingest0(guildId, payload, shard, generation), true);
+    }
+    
+    /**
+     * Applies the given update now, or once the guild it's for has been
+     * ingested if it's being ingested right now.
+     */
+    @Nonnull
+    Future<Void> update(@Nonnull final String guildId, @Nonnull final Supplier<Future<Void>> update) {
+        final long guild = Long.parseUnsignedLong(guildId);
+        final int shard = cache.shardOf(guild);
+        return after(guild, shard, generation(shard), update, false);
+    }
+    
+    /**
+     * Throws away everything that's queued or being built for the shard's
+     * guilds. Called when the shard's cache is invalidated.
+     */
+    void invalidate(final int shard) {
+        generations.computeIfAbsent(shard, __ -> new AtomicInteger()).incrementAndGet();
+    }
+    
+    /**
+     * @return How many times the shard has been invalidated.
+     */
+    int generation(final int shard) {
+        final AtomicInteger generation = generations.get(shard);
+        return generation == null ? 0 : generation.get();
+    }
+    
+    /**
+     * @return Whether no guild is being ingested, and no update is waiting
+     * on one.
+     */
+    boolean idle() {
+        return pending.isEmpty();
+    }
+    
+    @Nonnull
+    private Future<Void> after(final long guild, final int shard, final int generation,
+                               @Nonnull final Supplier<Future<Void>> task, final boolean ingestion) {
+        final Future<Void> done = Future.future();
+        final boolean[] queued = {false};
+        @SuppressWarnings("unchecked")
+        final Future<Void>[] previous = new Future[1];
+        pending.compute(guild, (__, tail) -> {
+            if(tail == null && !ingestion) {
+                return null;
+            }
+            queued[0] = true;
+            previous[0] = tail;
+            return done;
+        });
+        if(!queued[0]) {
+            // Nothing in flight for this guild
+            return task.get();
+        }
+        final Future<Void> result = Future.future();
+        final Runnable run = () -> {
+            Future<Void> future;
+            try {
+                // Queued behind an ingestion from before the shard was
+                // invalidated
+                future = generation(shard) == generation ? task.get() : Future.succeededFuture();
+            } catch(final Exception e) {
+                cache.catnip().logAdapter().warn("Got error updating cache for guild {}", Long.toUnsignedString(guild), e);
+                future = Future.failedFuture(e);
+            }
+            future.setHandler(res -> {
+                // Let whoever's waiting on this update see it before the next
+                // one is applied
+                result.handle(res);
+                pending.remove(guild, done);
+                done.complete(null);
+            });
+        };
+        if(previous[0] == null) {
+            run.run();
+        } else {
+            // Each pending future only ever has the one handler: the task
+            // queued right behind it
+            previous[0].setHandler(__ -> run.run());
+        }
+        return result;
+    }
+    
+    @Nonnull
+    private Future<Void> ingest0(@Nonnull final String id, @Nonnull final JsonObject payload, final int shard,
+                                 final int generation) {
+        final Future<Void> future = Future.future();
+        build(id, payload).setHandler(res -> {
+            if(res.succeeded()) {
+                // Unless the shard was invalidated while this was being built
+                if(generation(shard) == generation) {
+                    cache.commitGuild(Long.parseUnsignedLong(id), res.result());
+                }
+            } else {
+                cache.catnip().logAdapter().warn("Couldn't ingest guild {}", id, res.cause());
+            }
+            // The guild being cached is best-effort, like any other cache
+            // update, so this never fails
+            future.complete(null);
+        });
+        return future;
+    }
+    
+    /**
+     * Builds everything in the guild on the worker pool, without caching any
+     * of it.
+     */
+    @Nonnull
+    Future<Ingestion> build(@Nonnull final String id, @Nonnull final JsonObject payload) {
+        final long guildId = Long.parseUnsignedLong(id);
+        final Ingestion ingestion = new Ingestion();
+        final List<Future> tasks = new ArrayList<>();
+        tasks.add(submit(() -> {
+            ingestion.guild = entityBuilder.createGuild(payload, false);
+            ingestion.roles = collect(payload.getJsonArray("roles"), cache.createRoleCache(guildId),
+                    e -> entityBuilder.createRole(id, e), Role::id);
+            ingestion.channels = collect(payload.getJsonArray("channels"), cache.createChannelCache(guildId),
+                    e -> entityBuilder.createGuildChannel(id, e), GuildChannel::id);
+            ingestion.emojis = collect(payload.getJsonArray("emojis"), cache.createEmojiCache(guildId),
+                    e -> entityBuilder.createCustomEmoji(id, e), CustomEmoji::id);
+            ingestion.voiceStates = collect(payload.getJsonArray("voice_states"), cache.createVoiceStateCache(guildId),
+                    e -> entityBuilder.createVoiceState(id, e), VoiceState::userId);
+            if(ingestion.voiceStates != null) {
+                ingestion.voiceStates.forEach(state ->
+                        MemoryEntityCache.indexVoiceState(ingestion.voiceChannelIndex, null, state));
+            }
+            final JsonArray presences = payload.getJsonArray("presences");
+            if(presences != null) {
+                final Map<String, Presence> map = new HashMap<>(presences.size() * 2);
+                for(final Object presence : presences) {
+                    final JsonObject json = (JsonObject) presence;
+                    map.put(json.getJsonObject("user").getString("id"), entityBuilder.createPresence(json));
+                }
+                ingestion.presences = map;
+            }
+        }));
+        final JsonArray members = payload.getJsonArray("members");
+        if(members != null) {
+            // Member views are safe to write to from several threads at once,
+            // they're just tuned for that not usually happening
+            final DefaultNamedCacheView<Member> view = cache.newMemberCache(guildId);
+            ingestion.members = view;
+            for(int start = 0; start < members.size(); start += MEMBERS_PER_TASK) {
+                final int from = start;
+                final int to = Math.min(members.size(), start + MEMBERS_PER_TASK);
+                tasks.add(submit(() -> {
+                    for(int i = from; i < to; i++) {
+                        final Member member = entityBuilder.createMember(id, members.getJsonObject(i));
+                        view.put(member.id(), member);
+                        MemoryEntityCache.indexRoles(ingestion.roleIndex, null, member);
+                    }
+                }));
+            }
+        }
+        return CompositeFuture.all(tasks).map(ingestion);
+    }
+    
+    @Nonnull
+    private Future<Void> submit(@Nonnull final Runnable task) {
+        final Future<Void> future = Future.future();
+        pool.<Void>executeBlocking(f -> {
+            task.run();
+            f.complete(null);
+        }, false, future);
+        return future;
+    }
+    
+    @Nullable
+    private static <T, V extends DefaultCacheView<T>> V collect(@Nullable final JsonArray array, @Nonnull final V view,
+                                                                 @Nonnull final Function<JsonObject, T> builder,
+                                                                 @Nonnull final Function<T, String> key) {
+        if(array == null) {
+            return null;
+        }
+        for(final Object object : array) {
+            final T entity = builder.apply((JsonObject) object);
+            view.put(key.apply(entity), entity);
+        }
+        return view;
+    }
+    
+    /**
+     * Everything built for a single guild, handed off to the cache in one go
+     * once all of it's been built. A {@code null} view means the payload
+     * didn't have that field, and the cached one should be left alone.
+     */
+    static final class Ingestion {
+        Guild guild;
+        DefaultNamedCacheView<Role> roles;
+        DefaultNamedCacheView<GuildChannel> channels;
+        DefaultNamedCacheView<Member> members;
+        DefaultNamedCacheView<CustomEmoji> emojis;
+        DefaultCacheView<VoiceState> voiceStates;
+        Map<String, Presence> presences;
+        final SecondaryIndex roleIndex = new SecondaryIndex();
+        final SecondaryIndex voiceChannelIndex = new SecondaryIndex();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Maps each user to the ids of the guilds they're a cached member of, so
+ * that finding a user's guilds doesn't mean looking them up in every guild's
+ * member cache.
+ * <p/>
+ * A user's guild ids are kept in a sorted {@code long[]}, which is replaced
+ * rather than modified whenever the user joins or leaves a guild, so readers
+ * never lock and always see a consistent set. Most users are in a handful of
+ * guilds, so copying the array is cheaper than anything with nodes. Writers
+ * lock one of a fixed number of stripes, picked by user id, since the same
+ * user can be cached in different guilds from different event loops at once.
+ *
+ * @author amy
+ * @since 1/5/19.
+ */
+final class MembershipIndex {
+    private static final long[] NONE = new long[0];
+    private static final int STRIPES = 64;
+    
+    private final ConcurrentLongMap<long[]> guilds = new ConcurrentLongMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    
+    MembershipIndex() {
+        for(int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    @Nonnull
+    private Object lock(final long user) {
+        return locks[(int) (user ^ user >>> 32) & STRIPES - 1];
+    }
+    
+    void add(final long user, final long guild) {
+        synchronized(lock(user)) {
+            final long[] old = guilds.get(user);
+            if(old == null) {
+                guilds.put(user, new long[] {guild});
+                return;
+            }
+            final int index = Arrays.binarySearch(old, guild);
+            if(index >= 0) {
+                return;
+            }
+            final int insert = -index - 1;
+            final long[] updated = new long[old.length + 1];
+            System.arraycopy(old, 0, updated, 0, insert);
+            updated[insert] = guild;
+            System.arraycopy(old, insert, updated, insert + 1, old.length - insert);
+            guilds.put(user, updated);
+        }
+    }
+    
+    void remove(final long user, final long guild) {
+        synchronized(lock(user)) {
+            final long[] old = guilds.get(user);
+            if(old == null) {
+                return;
+            }
+            final int index = Arrays.binarySearch(old, guild);
+            if(index < 0) {
+                return;
+            }
+            if(old.length == 1) {
+                guilds.remove(user);
+                return;
+            }
+            final long[] updated = new long[old.length - 1];
+            System.arraycopy(old, 0, updated, 0, index);
+            System.arraycopy(old, index + 1, updated, index, old.length - index - 1);
+            guilds.put(user, updated);
+        }
+    }
+    
+    /**
+     * @return The ids of the guilds the user is a member of, in ascending
+     * order. Must not be modified.
+     */
+    @Nonnull
+    long[] guilds(final long user) {
+        final long[] ids = guilds.get(user);
+        return ids == null ? NONE : ids;
+    }
+}
@@ -37,20 +37,26 @@ import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.guild.Member;
 import com.mewna.catnip.entity.guild.Role;
 import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.MessageImpl;
+import com.mewna.catnip.entity.message.Message;
 import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
 import com.mewna.catnip.entity.user.Presence;
 import com.mewna.catnip.entity.user.User;
 import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -65,36 +71,112 @@ import static com.mewna.catnip.shard.DiscordEvent.Raw;
 @Accessors(fluent = true, chain = true)
 @SuppressWarnings({"unused", "MismatchedQueryAndUpdateOfCollection"})
 public class MemoryEntityCache implements EntityCacheWorker {
+    // Per-guild caches are written to by one thread at a time, give or take,
+    // so they don't need more than one segment
+    private static final int GUILD_CACHE_CONCURRENCY = 1;
+    // How often a flush checks on guilds that are still being ingested
+    private static final long FLUSH_POLL_MILLIS = 10;
+    
+    // Everything cached for a guild lives in the partition of the shard the
+    // guild is on; the per-guild maps below are views over the partitions
+    private final CachePartitions partitions = new CachePartitions(this::shardCount, this::createPartition);
     @SuppressWarnings("WeakerAccess")
-    protected final DefaultNamedCacheView<Guild> guildCache = new DefaultNamedCacheView<>(Guild::name);
-    @SuppressWarnings("WeakerAccess")
-    protected final DefaultNamedCacheView<User> userCache = new DefaultNamedCacheView<>(User::username);
+    protected final DefaultNamedCacheView<User> userCache = createUserCache();
     @SuppressWarnings("WeakerAccess")
     protected final DefaultCacheView<UserDMChannel> dmChannelCache = new DefaultCacheView<>();
     @SuppressWarnings("WeakerAccess")
-    protected final Map<Long, DefaultNamedCacheView<Member>> memberCache = new ConcurrentHashMap<>();
+    protected final Map<Long, DefaultNamedCacheView<Member>> memberCache = new PartitionedMap<>(partitions, p -> p.members);
     @SuppressWarnings("WeakerAccess")
-    protected final Map<Long, DefaultNamedCacheView<Role>> roleCache = new ConcurrentHashMap<>();
+    protected final Map<Long, DefaultNamedCacheView<Role>> roleCache = new PartitionedMap<>(partitions, p -> p.roles);
     @SuppressWarnings("WeakerAccess")
-    protected final Map<Long, DefaultNamedCacheView<GuildChannel>> guildChannelCache = new ConcurrentHashMap<>();
+    protected final Map<Long, DefaultNamedCacheView<GuildChannel>> guildChannelCache = new PartitionedMap<>(partitions, p -> p.channels);
     @SuppressWarnings("WeakerAccess")
-    protected final Map<Long, DefaultNamedCacheView<CustomEmoji>> emojiCache = new ConcurrentHashMap<>();
+    protected final Map<Long, DefaultNamedCacheView<CustomEmoji>> emojiCache = new PartitionedMap<>(partitions, p -> p.emojis);
     @SuppressWarnings("WeakerAccess")
-    protected final Map<Long, DefaultCacheView<VoiceState>> voiceStateCache = new ConcurrentHashMap<>();
+    protected final Map<Long, DefaultCacheView<VoiceState>> voiceStateCache = new PartitionedMap<>(partitions, p -> p.voiceStates);
     @SuppressWarnings("WeakerAccess")
-    protected final DefaultCacheView<Presence> presenceCache = new DefaultCacheView<>();
+    protected final DefaultCacheView<Presence> presenceCache = createPresenceCache();
     @SuppressWarnings("WeakerAccess")
     protected final AtomicReference<User> selfUser = new AtomicReference<>(null);
     protected final Function<Member, String> memberNameFunction = m -> {
         if(m.nick() != null) {
             return m.nick();
         }
-        final User u = user(m.id());
+        final User u = peekUser(m.idAsLong());
         return u == null ? null : u.username();
     };
     @Getter
     private Catnip catnip;
     private EntityBuilder entityBuilder;
+    private EntityPatcher patcher;
+    /**
+     * How many worker threads {@code GUILD_CREATE}s are cached on. Guilds,
+     * and the members of large guilds, are built in parallel on these. Has to
+     * be set before this cache is given to catnip. Defaults to the number of
+     * available processors.
+     */
+    @Getter
+    @Setter
+    private int guildIngestThreads = Runtime.getRuntime().availableProcessors();
+    private GuildIngestor ingestor;
+    private final MembershipIndex userGuilds = new MembershipIndex();
+    private final Map<Long, SecondaryIndex> roleIndex = new PartitionedMap<>(partitions, p -> p.roleIndex);
+    private final Map<Long, SecondaryIndex> voiceChannelIndex = new PartitionedMap<>(partitions, p -> p.voiceChannelIndex);
+    /**
+     * How many of the most recent messages are cached per channel. Messages
+     * are only cached if this is greater than zero. Has to be set before this
+     * cache is given to catnip. Disabled by default.
+     */
+    @Getter
+    @Setter
+    private int messagesPerChannel;
+    /**
+     * The most memory, in bytes of encoded messages, that cached messages may
+     * take up across all channels. Once it's exceeded, the messages of the
+     * channels that least recently had a message sent are dropped. Has to be
+     * set before this cache is given to catnip. Defaults to 64MB.
+     */
+    @Getter
+    @Setter
+    private long maxMessageBytes = 64L << 20;
+    private MessageCache messageCache;
+    /**
+     * How many threads cache updates are applied on. If greater than zero,
+     * every update is queued in a ring buffer for the thread responsible for
+     * the shard the update is for, and applied there, in the order updates
+     * were received; each shard's partition of the cache then only ever has
+     * one thread writing to it. {@code GUILD_CREATE}s are still built on the
+     * {@link #guildIngestThreads() ingest threads}, and committed by their
+     * writer once they've been built; the writer carries on with other
+     * guilds' updates in the meantime. Has to be set before this cache is
+     * given to catnip. Disabled by default.
+     */
+    @Getter
+    @Setter
+    private int writerThreads;
+    /**
+     * How many updates each writer thread's ring buffer holds, rounded up to
+     * a power of two. Rather than block the event loop until there's room, an
+     * update for a shard whose writer is full drops the shard's cache, and
+     * makes the shard IDENTIFY again so that everything is sent again. Has to
+     * be set before this cache is given to catnip. Defaults to 65536.
+     */
+    @Getter
+    @Setter
+    private int writerBufferSize = 1 << 16;
+    private CacheWriter[] writers;
+    /**
+     * Guilds whose {@code GUILD_CREATE} is being built for a writer, mapped to
+     * the updates for them that the writer has reached since, in order. Each
+     * guild's updates are only ever touched by its writer.
+     */
+    private final Map<Long, Deque<Deferred>> building = new ConcurrentHashMap<>();
+    /**
+     * Shards whose updates overflowed their writer. Their updates are ignored
+     * until they IDENTIFY again, since everything is sent again then.
+     */
+    private final Set<Integer> resyncing = ConcurrentHashMap.newKeySet();
+    private PermissionCache permissionCache;
     
     @Nonnull
     @CheckReturnValue
@@ -113,12 +195,186 @@ public class MemoryEntityCache implements EntityCacheWorker {
         };
     }
     
-    private void cacheChannel(final Channel channel) {
+    /**
+     * Creates the cache that holds all users. This is called from the
+     * constructor, so implementations can't rely on any state of their own.
+     */
+    @Nonnull
+    protected DefaultNamedCacheView<User> createUserCache() {
+        return new DefaultNamedCacheView<>(User::username);
+    }
+    
+    /**
+     * Creates the cache that holds all presences. This is called from the
+     * constructor, so implementations can't rely on any state of their own.
+     */
+    @Nonnull
+    protected DefaultCacheView<Presence> createPresenceCache() {
+        return new DefaultCacheView<>();
+    }
+    
+    /**
+     * Looks up a cached user for the cache's own use, such as naming members
+     * or patching updates. Unlike {@link #user(long)}, this isn't a lookup
+     * made by the bot, so implementations that keep statistics shouldn't
+     * count it.
+     */
+    @Nullable
+    protected User peekUser(final long id) {
+        return userCache.getById(id);
+    }
+    
+    /**
+     * Looks up a cached presence for the cache's own use. See
+     * {@link #peekUser(long)}.
+     */
+    @Nullable
+    protected Presence peekPresence(final long id) {
+        return presenceCache.getById(id);
+    }
+    
+    /**
+     * Called whenever a user becomes a cached member of a guild they weren't
+     * a cached member of before. Does nothing by default.
+     */
+    protected void memberCached(final long guildId, final long userId) {
+    }
+    
+    /**
+     * Called whenever a cached member is removed from a guild's cache, or
+     * replaced along with the rest of a guild's members. Does nothing by
+     * default.
+     */
+    protected void memberUncached(final long guildId, final long userId) {
+    }
+    
+    private void trackMember(final long guildId, final long userId) {
+        userGuilds.add(userId, guildId);
+        memberCached(guildId, userId);
+    }
+    
+    private void untrackMember(final long guildId, final long userId) {
+        userGuilds.remove(userId, guildId);
+        memberUncached(guildId, userId);
+    }
+    
+    /**
+     * Moves a member between the roles they had and the roles they have now
+     * in the given index. Either may be {@code null} if they weren't or
+     * aren't cached.
+     */
+    static void indexRoles(@Nonnull final SecondaryIndex index, @Nullable final Member old, @Nullable final Member member) {
+        if(old != null) {
+            final long id = Long.parseUnsignedLong(old.id());
+            for(final String role : old.roleIds()) {
+                if(member == null || !member.roleIds().contains(role)) {
+                    index.remove(Long.parseUnsignedLong(role), id);
+                }
+            }
+        }
+        if(member != null) {
+            final long id = Long.parseUnsignedLong(member.id());
+            for(final String role : member.roleIds()) {
+                if(old == null || !old.roleIds().contains(role)) {
+                    index.add(Long.parseUnsignedLong(role), id);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves a user between the voice channel they were in and the one
+     * they're in now in the given index.
+     */
+    static void indexVoiceState(@Nonnull final SecondaryIndex index, @Nullable final VoiceState old,
+                                @Nonnull final VoiceState state) {
+        final String channel = state.channelId();
+        final String oldChannel = old == null ? null : old.channelId();
+        if(Objects.equals(channel, oldChannel)) {
+            return;
+        }
+        final long id = Long.parseUnsignedLong(state.userId());
+        if(oldChannel != null) {
+            index.remove(Long.parseUnsignedLong(oldChannel), id);
+        }
+        if(channel != null) {
+            index.add(Long.parseUnsignedLong(channel), id);
+        }
+    }
+    
+    @Nonnull
+    private SecondaryIndex roleIndex(final long guildId) {
+        return roleIndex.computeIfAbsent(guildId, __ -> new SecondaryIndex());
+    }
+    
+    private int shardCount() {
+        return catnip == null ? 1 : catnip.shardManager().shardCount();
+    }
+    
+    @Nonnull
+    private CachePartitions.Partition createPartition() {
+        // Written to by the partition's shard
+        final DefaultNamedCacheView<Guild> guilds = new DefaultNamedCacheView<>(Guild::name, GUILD_CACHE_CONCURRENCY);
+        return new CachePartitions.Partition(indexNames() ? guilds.enableNameIndex() : guilds);
+    }
+    
+    /**
+     * Creates the cache that holds the members of a guild, the first time a
+     * member of that guild is cached.
+     */
+    @Nonnull
+    protected DefaultNamedCacheView<Member> createMemberCache(final long guildId) {
+        if(catnip.cacheFlags().contains(CacheFlag.COMPACT_MEMBERS)) {
+            return new CompactMemberCacheView(catnip, guildId, this::peekUser);
+        }
+        return new DefaultNamedCacheView<>(memberNameFunction, GUILD_CACHE_CONCURRENCY);
+    }
+    
+    /**
+     * Creates the cache that holds the roles of a guild, the first time a
+     * role in that guild is cached.
+     */
+    @Nonnull
+    protected DefaultNamedCacheView<Role> createRoleCache(final long guildId) {
+        return new DefaultNamedCacheView<>(Role::name, GUILD_CACHE_CONCURRENCY);
+    }
+    
+    /**
+     * Creates the cache that holds the channels of a guild, the first time a
+     * channel in that guild is cached.
+     */
+    @Nonnull
+    protected DefaultNamedCacheView<GuildChannel> createChannelCache(final long guildId) {
+        return new DefaultNamedCacheView<>(GuildChannel::name, GUILD_CACHE_CONCURRENCY);
+    }
+    
+    /**
+     * Creates the cache that holds the emojis of a guild, the first time an
+     * emoji in that guild is cached.
+     */
+    @Nonnull
+    protected DefaultNamedCacheView<CustomEmoji> createEmojiCache(final long guildId) {
+        return new DefaultNamedCacheView<>(CustomEmoji::name, GUILD_CACHE_CONCURRENCY);
+    }
+    
+    /**
+     * Creates the cache that holds the voice states of a guild, the first time
+     * a voice state in that guild is cached.
+     */
+    @Nonnull
+    protected DefaultCacheView<VoiceState> createVoiceStateCache(final long guildId) {
+        return new DefaultCacheView<>(GUILD_CACHE_CONCURRENCY);
+    }
+    
+    void cacheChannel(final Channel channel) {
         if(channel.isGuild()) {
             final GuildChannel gc = (GuildChannel) channel;
-            guildChannelCache.computeIfAbsent(Long.parseUnsignedLong(gc.guildId()),
-                    __ -> new DefaultNamedCacheView<>(GuildChannel::name))
+            final long guildId = Long.parseUnsignedLong(gc.guildId());
+            final GuildChannel old = guildChannelCache.computeIfAbsent(guildId, this::createChannelCache)
                     .put(gc.id(), gc);
+            if(old == null || !PermissionCache.sameOverrides(old.overrides(), gc.overrides())) {
+                permissionCache.invalidateChannel(guildId, Long.parseUnsignedLong(gc.id()));
+            }
         } else if(channel.isUserDM()) {
             final UserDMChannel dm = (UserDMChannel) channel;
             dmChannelCache.put(dm.userId(), dm);
@@ -130,33 +386,252 @@ public class MemoryEntityCache implements EntityCacheWorker {
         }
     }
     
-    private void cacheRole(final Role role) {
-        roleCache.computeIfAbsent(Long.parseUnsignedLong(role.guildId()), __ -> new DefaultNamedCacheView<>(Role::name))
-                .put(role.id(), role);
+    void cacheRole(final Role role) {
+        final long guildId = Long.parseUnsignedLong(role.guildId());
+        final Role old = roleCache.computeIfAbsent(guildId, this::createRoleCache).put(role.id(), role);
+        if(old == null || old.permissionsRaw() != role.permissionsRaw()) {
+            invalidateRole(guildId, Long.parseUnsignedLong(role.id()));
+        }
     }
     
-    private void cacheUser(final User user) {
-        userCache.put(user.id(), user);
+    private void invalidateRole(final long guildId, final long roleId) {
+        final SecondaryIndex index = roleIndex(guildId);
+        permissionCache.invalidateRole(guildId, roleId, member -> index.contains(roleId, member));
+    }
+    
+    void cacheUser(final User user) {
+        final User old = userCache.put(user.id(), user);
+        if(old != null && indexNames() && !Objects.equals(old.username(), user.username())) {
+            // Members without a nickname are named after their user
+            final long id = Long.parseUnsignedLong(user.id());
+            for(final long guild : userGuilds.guilds(id)) {
+                final DefaultNamedCacheView<Member> members = memberCache.get(guild);
+                if(members != null) {
+                    members.refreshName(id);
+                }
+            }
+        }
     }
     
-    private void cacheMember(final Member member) {
-        memberCache.computeIfAbsent(Long.parseUnsignedLong(member.guildId()), __ -> new DefaultNamedCacheView<>(memberNameFunction))
-                .put(member.id(), member);
+    private boolean indexNames() {
+        return catnip.cacheFlags().contains(CacheFlag.INDEX_NAMES);
     }
     
-    private void cacheEmoji(final CustomEmoji emoji) {
+    @Nonnull
+    DefaultNamedCacheView<Member> newMemberCache(final long guildId) {
+        final DefaultNamedCacheView<Member> cache = createMemberCache(guildId);
+        return indexNames() ? cache.enableNameIndex() : cache;
+    }
+    
+    void cacheMember(final Member member) {
+        final long guildId = Long.parseUnsignedLong(member.guildId());
+        final long id = Long.parseUnsignedLong(member.id());
+        final Member old = memberCache.computeIfAbsent(guildId, this::newMemberCache).put(id, member);
+        if(old == null) {
+            trackMember(guildId, id);
+        }
+        indexRoles(roleIndex(guildId), old, member);
+        if(old == null || !old.roleIds().equals(member.roleIds())) {
+            permissionCache.invalidateMember(guildId, id);
+        }
+    }
+    
+    void cacheGuild(final Guild guild) {
+        partitions.partition(Long.parseUnsignedLong(guild.id())).guilds.put(guild.id(), guild);
+    }
+    
+    void cacheEmoji(final CustomEmoji emoji) {
         emojiCache.computeIfAbsent(Long.parseUnsignedLong(Objects.requireNonNull(emoji.guildId(), "Cannot cache emoji with null guild id!")),
-                __ -> new DefaultNamedCacheView<>(CustomEmoji::name))
+                this::createEmojiCache)
                 .put(emoji.id(), emoji);
     }
     
-    private void cachePresence(final String id, final Presence presence) {
+    void cachePresence(final String id, final Presence presence) {
         presenceCache.put(id, presence);
     }
     
+    /**
+     * Swaps in everything built for a guild by the {@link GuildIngestor}. The
+     * guild is put last, so anything that can see the guild can see all of
+     * its roles, channels and members too. Called on the context the guild
+     * was received on, or on its writer.
+     */
+    void commitGuild(final long guildId, @Nonnull final GuildIngestor.Ingestion ingestion) {
+        if(ingestion.roles != null) {
+            roleCache.put(guildId, ingestion.roles);
+        }
+        if(ingestion.channels != null) {
+            guildChannelCache.put(guildId, ingestion.channels);
+        }
+        if(ingestion.members != null) {
+            roleIndex.put(guildId, ingestion.roleIndex);
+            ingestion.members.forEachKey(id -> trackMember(guildId, id));
+            final DefaultNamedCacheView<Member> old = memberCache.put(guildId, ingestion.members);
+            if(old != null) {
+                final Set<Long> kept = ingestion.members.keys();
+                old.forEachKey(id -> {
+                    // Users who are still members stay in the index
+                    if(!kept.contains(id)) {
+                        userGuilds.remove(id, guildId);
+                    }
+                    memberUncached(guildId, id);
+                });
+            }
+        }
+        if(ingestion.emojis != null) {
+            emojiCache.put(guildId, ingestion.emojis);
+        }
+        if(ingestion.voiceStates != null) {
+            voiceChannelIndex.put(guildId, ingestion.voiceChannelIndex);
+            voiceStateCache.put(guildId, ingestion.voiceStates);
+        }
+        if(ingestion.presences != null) {
+            bulkCachePresences(ingestion.presences);
+        }
+        partitions.partition(guildId).guilds.put(guildId, ingestion.guild);
+        permissionCache.invalidateGuild(guildId);
+    }
+    
     @Nonnull
     @Override
     public Future<Void> updateCache(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        final String guild = GuildIngestor.guildOf(eventType, payload);
+        if(writers != null) {
+            final int shard = guild == null ? -1 : shardOf(Long.parseUnsignedLong(guild));
+            if(shard >= 0 && resyncing.contains(shard)) {
+                // Stale; the shard is about to send everything again
+                return Future.succeededFuture();
+            }
+            final Future<Void> published = writerFor(Math.max(shard, 0)).publish(eventType, payload);
+            if(published.failed()) {
+                // Dropping the update would leave whatever it changed stale
+                // for good, so the shard's cache is built again instead. It
+                // isn't known which shard an update without a guild is from.
+                if(shard >= 0) {
+                    resync(shard);
+                } else {
+                    for(int i = 0; i < shardCount(); i++) {
+                        resync(i);
+                    }
+                }
+            }
+            return published;
+        }
+        if(Raw.GUILD_CREATE.equals(eventType)) {
+            // Guilds are built in parallel on a worker pool, since there
+            // could be massive guilds that take a significant amount of time
+            // to cache, and there are a lot of them when (re)connecting.
+            return ingestor.ingest(Objects.requireNonNull(guild, "GUILD_CREATE without a guild id!"), payload);
+        }
+        if(guild != null) {
+            // Updates to a guild that's still being ingested have to wait
+            // for it to be cached first
+            return ingestor.update(guild, () -> applyUpdate(eventType, payload));
+        }
+        return applyUpdate(eventType, payload);
+    }
+    
+    int shardOf(final long guildId) {
+        return CachePartitions.shardOf(guildId, Math.max(1, shardCount()));
+    }
+    
+    @Nonnull
+    CacheWriter writerFor(final int shardId) {
+        return writers[shardId % writers.length];
+    }
+    
+    /**
+     * Applies an update on its writer thread.
+     */
+    @Nonnull
+    private Future<Void> write(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        final String guild = GuildIngestor.guildOf(eventType, payload);
+        if(guild != null) {
+            final long guildId = Long.parseUnsignedLong(guild);
+            final Deque<Deferred> deferred = building.get(guildId);
+            if(deferred != null) {
+                // Updates for a guild that's being built wait for it, so
+                // that they're applied in order
+                final Deferred update = new Deferred(eventType, payload, ingestor.generation(shardOf(guildId)));
+                deferred.add(update);
+                return update.result;
+            }
+            if(Raw.GUILD_CREATE.equals(eventType)) {
+                return build(guildId, payload, new ArrayDeque<>());
+            }
+        }
+        return applyUpdate(eventType, payload);
+    }
+    
+    /**
+     * Builds a guild on the ingest threads, and then commits it on its
+     * writer, through the writer's ring. The writer isn't held up while the
+     * guild is built; updates for the guild that it reaches in the meantime
+     * are deferred until the guild has been committed.
+     */
+    @Nonnull
+    private Future<Void> build(final long guildId, @Nonnull final JsonObject payload,
+                               @Nonnull final Deque<Deferred> deferred) {
+        final int shard = shardOf(guildId);
+        final int generation = ingestor.generation(shard);
+        final Future<Void> result = Future.future();
+        building.put(guildId, deferred);
+        ingestor.build(Long.toUnsignedString(guildId), payload).setHandler(res -> writerFor(shard).publish(() -> {
+            if(res.failed()) {
+                catnip.logAdapter().warn("Couldn't ingest guild {}", Long.toUnsignedString(guildId), res.cause());
+            } else if(ingestor.generation(shard) == generation) {
+                // Unless the shard was invalidated while this was being built
+                commitGuild(guildId, res.result());
+            }
+            result.complete();
+            applyDeferred(guildId, deferred);
+        }));
+        return result;
+    }
+    
+    /**
+     * Applies the updates that were deferred while a guild was being built,
+     * until they run out or one of them is the guild being sent again.
+     */
+    private void applyDeferred(final long guildId, @Nonnull final Deque<Deferred> deferred) {
+        final int shard = shardOf(guildId);
+        Deferred update;
+        while((update = deferred.poll()) != null) {
+            if(update.generation != ingestor.generation(shard)) {
+                // From before the shard was invalidated
+                update.result.complete();
+                continue;
+            }
+            if(Raw.GUILD_CREATE.equals(update.eventType)) {
+                // Whatever's left waits for this one instead
+                build(guildId, update.payload, deferred).setHandler(update.result);
+                return;
+            }
+            try {
+                applyUpdate(update.eventType, update.payload).setHandler(update.result);
+            } catch(final Exception e) {
+                catnip.logAdapter().warn("Got error updating cache for guild {}", Long.toUnsignedString(guildId), e);
+                update.result.fail(e);
+            }
+        }
+        building.remove(guildId);
+    }
+    
+    /**
+     * Drops the shard's cache, after whatever of its updates are already
+     * queued, and has the shard IDENTIFY again, so that everything for its
+     * guilds is sent again. Its updates are ignored until then.
+     */
+    private void resync(@Nonnegative final int shardId) {
+        if(resyncing.add(shardId)) {
+            catnip.logAdapter().warn("Cache writer for shard {} is full, resyncing the shard", shardId);
+            writerFor(shardId).publish(() -> dropPartition(shardId));
+            catnip.eventBus().publish(CatnipShard.controlAddress(shardId), new JsonObject().put("mode", "RESYNC"));
+        }
+    }
+    
+    @Nonnull
+    private Future<Void> applyUpdate(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
         switch(eventType) {
             // Lifecycle
             case Raw.READY: {
@@ -178,39 +653,77 @@ public class MemoryEntityCache implements EntityCacheWorker {
                 final Channel channel = entityBuilder.createChannel(payload);
                 if(channel.isGuild()) {
                     final GuildChannel gc = (GuildChannel) channel;
-                    final DefaultNamedCacheView<GuildChannel> channels = guildChannelCache.get(gc.guildId());
+                    final DefaultNamedCacheView<GuildChannel> channels = guildChannelCache.get(Long.parseUnsignedLong(gc.guildId()));
                     if(channels != null) {
                         channels.remove(gc.id());
                     }
+                    permissionCache.invalidateChannel(Long.parseUnsignedLong(gc.guildId()), Long.parseUnsignedLong(gc.id()));
                 } else if(channel.isUserDM()) {
                     final UserDMChannel dm = (UserDMChannel) channel;
                     dmChannelCache.remove(dm.userId());
                 } else {
                     catnip.logAdapter().warn("I don't know how to delete non-guild channel {}!", channel.id());
                 }
+                if(messageCache != null) {
+                    messageCache.removeChannel(Long.parseUnsignedLong(channel.id()));
+                }
                 break;
             }
             // Guilds
-            case Raw.GUILD_CREATE: {
-                // This is wrapped in a blocking executor because there could
-                // be cases of massive guilds that end blocking for a
-                // significant amount of time while the guild is being cached.
-                final Future<Void> future = Future.future();
-                catnip().vertx().executeBlocking(f -> {
-                    final Guild guild = entityBuilder.createGuild(payload);
-                    guildCache.put(guild.id(), guild);
-                    f.complete(null);
-                }, __ -> future.complete(null));
-                return future;
-            }
             case Raw.GUILD_UPDATE: {
-                final Guild guild = entityBuilder.createGuild(payload);
-                guildCache.put(guild.id(), guild);
+                final String id = payload.getString("id");
+                final Guild old = guild(id);
+                if(old == null) {
+                    final Guild guild = entityBuilder.createGuild(payload);
+                    cacheGuild(guild);
+                } else {
+                    // Only touch what actually changed
+                    final JsonArray roles = payload.getJsonArray("roles");
+                    if(roles != null) {
+                        for(final Object object : roles) {
+                            final JsonObject json = (JsonObject) object;
+                            final Role role = role(id, json.getString("id"));
+                            if(role == null || !EntityPatcher.sameRole(role, json)) {
+                                cacheRole(entityBuilder.createRole(id, json));
+                            }
+                        }
+                    }
+                    final JsonArray emojis = payload.getJsonArray("emojis");
+                    if(emojis != null) {
+                        for(final Object object : emojis) {
+                            final JsonObject json = (JsonObject) object;
+                            final CustomEmoji emoji = emoji(id, json.getString("id"));
+                            if(emoji == null || !EntityPatcher.sameEmoji(emoji, json)) {
+                                cacheEmoji(entityBuilder.createCustomEmoji(id, json));
+                            }
+                        }
+                    }
+                    final Guild guild = patcher.patchGuild(old, payload);
+                    if(guild != null) {
+                        cacheGuild(guild);
+                        if(!guild.ownerId().equals(old.ownerId())) {
+                            // Owners have every permission
+                            final long guildId = Long.parseUnsignedLong(id);
+                            permissionCache.invalidateMember(guildId, Long.parseUnsignedLong(old.ownerId()));
+                            permissionCache.invalidateMember(guildId, Long.parseUnsignedLong(guild.ownerId()));
+                        }
+                    }
+                }
                 break;
             }
             case Raw.GUILD_DELETE: {
                 final Guild guild = entityBuilder.createGuild(payload);
-                guildCache.remove(guild.id());
+                final long guildId = Long.parseUnsignedLong(guild.id());
+                if(payload.getBoolean("unavailable", false)) {
+                    // An outage; everything else is kept, and replaced when
+                    // the guild is sent again
+                    final CachePartitions.Partition partition = partitions.peek(guildId);
+                    if(partition != null) {
+                        partition.guilds.remove(guild.id());
+                    }
+                } else {
+                    removeGuild(guildId);
+                }
                 break;
             }
             // Roles
@@ -231,7 +744,12 @@ public class MemoryEntityCache implements EntityCacheWorker {
             case Raw.GUILD_ROLE_DELETE: {
                 final String guild = payload.getString("guild_id");
                 final String role = payload.getString("role_id");
-                Optional.ofNullable(roleCache.get(guild)).ifPresent(e -> e.remove(role));
+                Optional.ofNullable(roleCache.get(Long.parseUnsignedLong(guild))).ifPresent(e -> e.remove(role));
+                // Before the role is dropped from the index, which is what
+                // finds the members it applied to
+                invalidateRole(Long.parseUnsignedLong(guild), Long.parseUnsignedLong(role));
+                Optional.ofNullable(roleIndex.get(Long.parseUnsignedLong(guild)))
+                        .ifPresent(e -> e.removeGroup(Long.parseUnsignedLong(role)));
                 break;
             }
             // Members
@@ -243,34 +761,37 @@ public class MemoryEntityCache implements EntityCacheWorker {
                 break;
             }
             case Raw.GUILD_MEMBER_UPDATE: {
-                // This doesn't send an object like all the other events, so we build a fake
-                // payload object and create an entity from that
+                // This only sends the fields that can change, so we patch
+                // them onto the cached member
                 final JsonObject user = payload.getJsonObject("user");
                 final String id = user.getString("id");
                 final String guild = payload.getString("guild_id");
                 final Member old = member(guild, id);
                 if(old != null) {
-                    @SuppressWarnings("ConstantConditions")
-                    final JsonObject data = new JsonObject()
-                            .put("user", user)
-                            .put("roles", payload.getJsonArray("roles"))
-                            .put("nick", payload.getString("nick"))
-                            .put("deaf", old.deaf())
-                            .put("mute", old.mute())
-                            .put("joined_at", old.joinedAt()
-                                    // If we have an old member cached, this shouldn't be an issue
-                                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-                    final Member member = entityBuilder.createMember(guild, data);
-                    cacheMember(member);
+                    final User oldUser = peekUser(Long.parseUnsignedLong(id));
+                    final User updatedUser = oldUser == null ? entityBuilder.createUser(user) : patcher.patchUser(oldUser, user);
+                    if(updatedUser != null) {
+                        cacheUser(updatedUser);
+                    }
+                    final Member member = patcher.patchMember(old, payload);
+                    if(member != null) {
+                        cacheMember(member);
+                    }
                 } else {
                     catnip.logAdapter().warn("Got GUILD_MEMBER_UPDATE for {} in {}, but we don't have them cached?!", id, guild);
                 }
                 break;
             }
             case Raw.GUILD_MEMBER_REMOVE: {
-                final String guild = payload.getString("guild_id");
-                final String user = payload.getJsonObject("user").getString("id");
-                Optional.ofNullable(memberCache.get(guild)).ifPresent(e -> e.remove(user));
+                final long guild = Long.parseUnsignedLong(payload.getString("guild_id"));
+                final long user = Long.parseUnsignedLong(payload.getJsonObject("user").getString("id"));
+                final DefaultNamedCacheView<Member> members = memberCache.get(guild);
+                final Member removed = members == null ? null : members.remove(user);
+                if(removed != null) {
+                    untrackMember(guild, user);
+                    indexRoles(roleIndex(guild), removed, null);
+                    permissionCache.invalidateMember(guild, user);
+                }
                 break;
             }
             // Member chunking
@@ -300,7 +821,7 @@ public class MemoryEntityCache implements EntityCacheWorker {
             case Raw.PRESENCE_UPDATE: {
                 final JsonObject user = payload.getJsonObject("user");
                 final String id = user.getString("id");
-                final User old = user(id);
+                final User old = peekUser(Long.parseUnsignedLong(id));
                 if(old == null && !catnip.chunkMembers()) {
                     catnip.logAdapter().warn("Received PRESENCE_UPDATE for uncached user {}!?", id);
                 } else if(old != null) {
@@ -308,18 +829,16 @@ public class MemoryEntityCache implements EntityCacheWorker {
                     // - username
                     // - discriminator
                     // - avatar
-                    // so we check the existing cache for a user, and update as needed
-                    final User updated = entityBuilder.createUser(new JsonObject()
-                            .put("id", id)
-                            .put("bot", old.bot())
-                            .put("username", user.getString("username", old.username()))
-                            .put("discriminator", user.getString("discriminator", old.discriminator()))
-                            .put("avatar", user.getString("avatar", old.avatar()))
-                    );
-                    cacheUser(updated);
+                    // but usually doesn't, in which case nothing is written
+                    final User updated = patcher.patchUser(old, user);
+                    if(updated != null) {
+                        cacheUser(updated);
+                    }
                     if(!catnip.cacheFlags().contains(CacheFlag.DROP_GAME_STATUSES)) {
-                        final Presence presence = entityBuilder.createPresence(payload);
-                        cachePresence(id, presence);
+                        final Presence presence = patcher.patchPresence(peekPresence(Long.parseUnsignedLong(id)), payload);
+                        if(presence != null) {
+                            cachePresence(id, presence);
+                        }
                     }
                 } else if(catnip.chunkMembers()) {
                     catnip.logAdapter().warn("Received PRESENCE_UPDATE for unknown user {}!? (member chunking enabled)", id);
@@ -334,19 +853,55 @@ public class MemoryEntityCache implements EntityCacheWorker {
                 }
                 break;
             }
+            // Messages
+            case Raw.MESSAGE_CREATE: {
+                if(messageCache != null) {
+                    messageCache.put(Long.parseUnsignedLong(payload.getString("channel_id")),
+                            Long.parseUnsignedLong(payload.getString("id")), encodeMessage(payload));
+                }
+                break;
+            }
+            case Raw.MESSAGE_UPDATE: {
+                if(messageCache != null) {
+                    // Updates only have the fields that changed; embed
+                    // updates don't even have an author
+                    messageCache.update(Long.parseUnsignedLong(payload.getString("channel_id")),
+                            Long.parseUnsignedLong(payload.getString("id")),
+                            old -> encodeMessage(new JsonObject(Buffer.buffer(old)).mergeIn(payload)));
+                }
+                break;
+            }
+            case Raw.MESSAGE_DELETE: {
+                if(messageCache != null) {
+                    messageCache.remove(Long.parseUnsignedLong(payload.getString("channel_id")),
+                            Long.parseUnsignedLong(payload.getString("id")));
+                }
+                break;
+            }
+            case Raw.MESSAGE_DELETE_BULK: {
+                if(messageCache != null) {
+                    final long channel = Long.parseUnsignedLong(payload.getString("channel_id"));
+                    for(final Object id : payload.getJsonArray("ids")) {
+                        messageCache.remove(channel, Long.parseUnsignedLong((String) id));
+                    }
+                }
+                break;
+            }
         }
         // Default case; most events don't need to have special future cases
         return Future.succeededFuture();
     }
     
-    private void cacheVoiceState(final VoiceState state) {
+    void cacheVoiceState(final VoiceState state) {
         final String guild = state.guildId();
         if(guild == null) {
             catnip.logAdapter().warn("Not caching voice state for {} due to null guild", state.userId());
             return;
         }
-        voiceStateCache.computeIfAbsent(Long.parseUnsignedLong(guild), __ -> new DefaultCacheView<>())
+        final long guildId = Long.parseUnsignedLong(guild);
+        final VoiceState old = voiceStateCache.computeIfAbsent(guildId, this::createVoiceStateCache)
                 .put(state.userId(), state);
+        indexVoiceState(voiceChannelIndex.computeIfAbsent(guildId, __ -> new SecondaryIndex()), old, state);
     }
     
     @Override
@@ -387,13 +942,14 @@ public class MemoryEntityCache implements EntityCacheWorker {
     @Nullable
     @Override
     public Guild guild(final long id) {
-        return guildCache.getById(id);
+        final CachePartitions.Partition partition = partitions.peek(id);
+        return partition == null ? null : partition.guilds.getById(id);
     }
     
     @Nonnull
     @Override
     public NamedCacheView<Guild> guilds() {
-        return guildCache;
+        return new CompositeNamedCacheView<>(partitions.all(p -> p.guilds), Guild::name);
     }
     
     @Nullable
@@ -434,6 +990,57 @@ public class MemoryEntityCache implements EntityCacheWorker {
         return new CompositeNamedCacheView<>(memberCache.values(), memberNameFunction);
     }
     
+    @Nonnull
+    @Override
+    public List<Guild> mutualGuilds(final long userId) {
+        final long[] ids = userGuilds.guilds(userId);
+        final List<Guild> guilds = new ArrayList<>(ids.length);
+        for(final long id : ids) {
+            final Guild guild = guild(id);
+            if(guild != null) {
+                guilds.add(guild);
+            }
+        }
+        return guilds;
+    }
+    
+    @Nonnull
+    @Override
+    public List<Member> roleMembers(final long guildId, final long roleId) {
+        final DefaultNamedCacheView<Member> members = memberCache.get(guildId);
+        if(members == null) {
+            return Collections.emptyList();
+        }
+        if(roleId == guildId) {
+            // @everyone isn't in anyone's role ids
+            return members.snapshot(ArrayList::new);
+        }
+        return lookup(roleIndex.get(guildId), roleId, members);
+    }
+    
+    @Nonnull
+    @Override
+    public List<VoiceState> channelVoiceStates(final long guildId, final long channelId) {
+        final DefaultCacheView<VoiceState> states = voiceStateCache.get(guildId);
+        return states == null ? Collections.emptyList() : lookup(voiceChannelIndex.get(guildId), channelId, states);
+    }
+    
+    @Nonnull
+    private static <T> List<T> lookup(@Nullable final SecondaryIndex index, final long group,
+                                      @Nonnull final DefaultCacheView<T> view) {
+        if(index == null) {
+            return Collections.emptyList();
+        }
+        final List<T> result = new ArrayList<>(index.size(group));
+        index.forEach(group, id -> {
+            final T entity = view.getById(id);
+            if(entity != null) {
+                result.add(entity);
+            }
+        });
+        return result;
+    }
+    
     @Nonnull
     @Override
     public NamedCacheView<User> users() {
@@ -486,6 +1093,86 @@ public class MemoryEntityCache implements EntityCacheWorker {
         return dmChannelCache.getById(id);
     }
     
+    @Override
+    public boolean cachesMessages() {
+        return messageCache != null;
+    }
+    
+    @Nullable
+    @Override
+    public Message message(final long channelId, final long id) {
+        final byte[] message = messageCache == null ? null : messageCache.get(channelId, id);
+        return message == null ? null : decodeMessage(message);
+    }
+    
+    @Nonnull
+    @Override
+    public List<Message> messages(final long channelId) {
+        if(messageCache == null) {
+            return Collections.emptyList();
+        }
+        final List<byte[]> encoded = messageCache.all(channelId);
+        final List<Message> messages = new ArrayList<>(encoded.size());
+        for(final byte[] message : encoded) {
+            messages.add(decodeMessage(message));
+        }
+        return messages;
+    }
+    
+    /**
+     * Encodes a message for the message cache. Its author and member are
+     * what takes up most of a message, so if they're cached they're left
+     * out, keeping only the author's id, and looked up again when the
+     * message is decoded. Authors that aren't cached, such as webhooks, are
+     * kept as they are.
+     */
+    @Nonnull
+    private byte[] encodeMessage(@Nonnull final JsonObject payload) {
+        final JsonObject author = payload.getJsonObject("author", null);
+        if(author == null || author.size() <= 1 || payload.getString("webhook_id", null) != null) {
+            return payload.toBuffer().getBytes();
+        }
+        final long authorId = Long.parseUnsignedLong(author.getString("id"));
+        final String guildId = payload.getString("guild_id", null);
+        final boolean userCached = peekUser(authorId) != null;
+        final boolean memberCached = payload.containsKey("member") && guildId != null
+                && member(Long.parseUnsignedLong(guildId), authorId) != null;
+        if(!userCached && !memberCached) {
+            return payload.toBuffer().getBytes();
+        }
+        // Shallow, since the payload is still dispatched to listeners
+        final JsonObject compact = new JsonObject(new LinkedHashMap<>(payload.getMap()));
+        if(userCached) {
+            compact.put("author", new JsonObject().put("id", author.getString("id")));
+        }
+        if(memberCached) {
+            compact.remove("member");
+        }
+        return compact.toBuffer().getBytes();
+    }
+    
+    @Nonnull
+    private Message decodeMessage(@Nonnull final byte[] encoded) {
+        final JsonObject data = new JsonObject(Buffer.buffer(encoded));
+        final MessageImpl message = (MessageImpl) entityBuilder.createMessage(data);
+        final JsonObject author = data.getJsonObject("author", null);
+        if(author == null || data.getString("webhook_id", null) != null) {
+            return message;
+        }
+        final long authorId = Long.parseUnsignedLong(author.getString("id"));
+        if(author.size() == 1) {
+            // If it's been dropped from the cache since, only its id is known
+            final User user = peekUser(authorId);
+            if(user != null) {
+                message.author(user);
+            }
+        }
+        if(!data.containsKey("member") && message.guildId() != null) {
+            message.member(member(Long.parseUnsignedLong(message.guildId()), authorId));
+        }
+        return message;
+    }
+    
     @Nonnull
     @Override
     public CacheView<UserDMChannel> dmChannels() {
@@ -532,11 +1219,188 @@ public class MemoryEntityCache implements EntityCacheWorker {
         return new CompositeCacheView<>(voiceStateCache.values());
     }
     
+    /**
+     * Drops everything cached for the shard's guilds. The shard's partition
+     * is dropped at once; what's tracked outside of it, such as which guilds
+     * each user is in, is then cleaned up from the dropped partition. With
+     * {@link #writerThreads() writer threads}, this happens on the shard's
+     * writer, after any of its updates that are still queued, since the
+     * writer could be applying them right now.
+     */
+    @Override
+    public void invalidateShard(@Nonnegative final int shardId) {
+        if(writers != null) {
+            writerFor(shardId).publish(() -> dropPartition(shardId));
+            // Everything from here on is from the shard's next session
+            resyncing.remove(shardId);
+        } else {
+            dropPartition(shardId);
+        }
+    }
+    
+    /**
+     * Drops everything cached for a guild the bot was removed from.
+     * Members are dropped along with it, so that it stops showing up in
+     * their users' mutual guilds.
+     */
+    private void removeGuild(final long guildId) {
+        final CachePartitions.Partition partition = partitions.peek(guildId);
+        if(partition != null) {
+            partition.guilds.remove(guildId);
+        }
+        final DefaultNamedCacheView<Member> members = memberCache.remove(guildId);
+        if(members != null) {
+            members.forEachKey(id -> untrackMember(guildId, id));
+        }
+        final DefaultNamedCacheView<GuildChannel> channels = guildChannelCache.remove(guildId);
+        if(channels != null && messageCache != null) {
+            channels.forEachKey(messageCache::removeChannel);
+        }
+        roleCache.remove(guildId);
+        emojiCache.remove(guildId);
+        voiceStateCache.remove(guildId);
+        roleIndex.remove(guildId);
+        voiceChannelIndex.remove(guildId);
+        permissionCache.invalidateGuild(guildId);
+    }
+    
+    private void dropPartition(final int shardId) {
+        // Before the partition is dropped, so a guild that's being ingested
+        // can't be committed into the next one
+        ingestor.invalidate(shardId);
+        final CachePartitions.Partition dropped = partitions.drop(shardId);
+        if(dropped == null) {
+            return;
+        }
+        dropped.members.forEach((guildId, members) -> members.forEachKey(id -> untrackMember(guildId, id)));
+        dropped.guilds.forEachKey(permissionCache::invalidateGuild);
+        if(messageCache != null) {
+            dropped.channels.values().forEach(channels -> channels.forEachKey(messageCache::removeChannel));
+        }
+    }
+    
+    /**
+     * @return How many cache updates are queued for writer threads but
+     * haven't been applied yet, or 0 if there are no writer threads.
+     */
+    public long writerBacklog() {
+        long backlog = 0;
+        if(writers != null) {
+            for(final CacheWriter writer : writers) {
+                backlog += writer.backlog();
+            }
+        }
+        return backlog;
+    }
+    
+    /**
+     * Waits for the writers to get through everything that's queued on them,
+     * and for every guild that's being ingested to be committed, along with
+     * the updates waiting on it. New updates can keep both of those from
+     * ever settling, so this should only be called once the shards have
+     * stopped.
+     */
+    @Nonnull
+    @Override
+    public Future<Void> flush() {
+        final Future<Void> flushed = Future.future();
+        flush(flushed);
+        return flushed;
+    }
+    
+    private void flush(@Nonnull final Future<Void> flushed) {
+        final List<Future> barriers = new ArrayList<>();
+        if(writers != null) {
+            for(final CacheWriter writer : writers) {
+                barriers.add(writer.publish(() -> {
+                }));
+            }
+        }
+        CompositeFuture.all(barriers).setHandler(res -> {
+            if(res.failed()) {
+                // Writers were stopped, nothing else is getting applied
+                flushed.fail(res.cause());
+            } else if(building.isEmpty() && ingestor.idle()) {
+                flushed.complete();
+            } else {
+                // Guilds are still being built on the ingest threads
+                catnip.vertx().setTimer(FLUSH_POLL_MILLIS, __ -> flush(flushed));
+            }
+        });
+    }
+    
+    @Override
+    public void shutdown() {
+        if(writers != null) {
+            for(final CacheWriter writer : writers) {
+                writer.stop();
+            }
+        }
+    }
+    
+    /**
+     * @return How much is cached for the shard's guilds.
+     */
+    @Nonnull
+    public PartitionStats partitionStats(@Nonnegative final int shardId) {
+        final CachePartitions.Partition partition = partitions.shard(shardId);
+        if(partition == null) {
+            return new PartitionStats(shardId, 0, 0, 0, 0, 0, 0);
+        }
+        return new PartitionStats(shardId, partition.guilds.size(), sizeOf(partition.members), sizeOf(partition.roles),
+                sizeOf(partition.channels), sizeOf(partition.emojis), sizeOf(partition.voiceStates));
+    }
+    
+    private static long sizeOf(@Nonnull final Map<Long, ? extends CacheView<?>> views) {
+        long size = 0;
+        for(final CacheView<?> view : views.values()) {
+            size += view.size();
+        }
+        return size;
+    }
+    
+    @Nonnull
+    @Override
+    public PermissionCache permissionCache() {
+        return permissionCache;
+    }
+    
     @Nonnull
     @Override
     public EntityCache catnip(@Nonnull final Catnip catnip) {
         this.catnip = catnip;
         entityBuilder = new EntityBuilder(catnip);
+        patcher = new EntityPatcher(catnip);
+        ingestor = new GuildIngestor(this, catnip, guildIngestThreads);
+        permissionCache = new PermissionCache(catnip);
+        if(messagesPerChannel > 0) {
+            messageCache = new MessageCache(messagesPerChannel, maxMessageBytes);
+        }
+        if(writerThreads > 0) {
+            writers = new CacheWriter[writerThreads];
+            for(int i = 0; i < writerThreads; i++) {
+                writers[i] = new CacheWriter("catnip-cache-writer-" + i, writerBufferSize, this::write);
+            }
+        }
+        if(indexNames()) {
+            userCache.enableNameIndex();
+        }
         return this;
     }
+    
+    /**
+     * An update for a guild that was being built when its writer reached it.
+     */
+    private static final class Deferred {
+        private final String eventType;
+        private final JsonObject payload;
+        private final int generation;
+        private final Future<Void> result = Future.future();
+        
+        private Deferred(final String eventType, final JsonObject payload, final int generation) {
+            this.eventType = eventType;
+            this.payload = payload;
+            this.generation = generation;
+        }
+    }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the most recent messages of each channel for a
+ * {@link MemoryEntityCache}, encoded as bytes rather than as entities. Each
+ * channel gets a ring buffer of up to a fixed number of messages, so a busy
+ * channel only ever holds its latest ones, and on top of that the encoded
+ * messages of all channels together are kept under a memory cap. Once the cap
+ * is exceeded, the channels that least recently had a message sent to them
+ * have their messages dropped first.
+ * <p/>
+ * A ring starts out small and grows to its full size as messages are sent, so
+ * channels that rarely see a message don't pay for a full ring. Deleting a
+ * message leaves a hole in its ring, which is reused once the ring wraps
+ * around to it. Lookups scan a ring from its newest message back, since
+ * recent messages are the ones most likely to be edited or deleted.
+ *
+ * @author amy
+ * @since 1/6/19.
+ */
+final class MessageCache {
+    private static final int MIN_RING_SIZE = 8;
+    // Returned by rings that were dropped while being written to
+    private static final long CLOSED = Long.MIN_VALUE;
+    
+    private final int capacity;
+    private final long maxBytes;
+    private final ConcurrentLongMap<Ring> channels = new ConcurrentLongMap<>();
+    /**
+     * Channels in the order they last had a message cached in them, least
+     * recent first. Guarded by itself.
+     */
+    private final LinkedHashMap<Long, Ring> activity = new LinkedHashMap<>(16, 0.75F, true);
+    private final AtomicLong bytes = new AtomicLong();
+    
+    MessageCache(@Nonnegative final int capacity, @Nonnegative final long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+    
+    void put(final long channel, final long id, @Nonnull final byte[] message) {
+        while(true) {
+            final Ring ring = channels.computeIfAbsent(channel, __ -> new Ring(Math.min(capacity, MIN_RING_SIZE)));
+            final long delta = ring.put(id, message, capacity);
+            if(delta == CLOSED) {
+                continue;
+            }
+            synchronized(activity) {
+                activity.put(channel, ring);
+            }
+            if(bytes.addAndGet(delta) > maxBytes) {
+                evict(channel);
+            }
+            return;
+        }
+    }
+    
+    /**
+     * Replaces a cached message with the result of the given function, if
+     * it's cached.
+     */
+    void update(final long channel, final long id, @Nonnull final UnaryOperator<byte[]> update) {
+        final Ring ring = channels.get(channel);
+        if(ring != null) {
+            final long delta = ring.update(id, update);
+            if(delta != CLOSED) {
+                bytes.addAndGet(delta);
+            }
+        }
+    }
+    
+    void remove(final long channel, final long id) {
+        final Ring ring = channels.get(channel);
+        if(ring != null) {
+            final long delta = ring.remove(id);
+            if(delta != CLOSED) {
+                bytes.addAndGet(delta);
+            }
+        }
+    }
+    
+    void removeChannel(final long channel) {
+        final Ring ring = channels.remove(channel);
+        if(ring != null) {
+            synchronized(activity) {
+                activity.remove(channel, ring);
+            }
+            bytes.addAndGet(-ring.close());
+        }
+    }
+    
+    @Nullable
+    byte[] get(final long channel, final long id) {
+        final Ring ring = channels.get(channel);
+        return ring == null ? null : ring.get(id);
+    }
+    
+    /**
+     * @return The cached messages of the channel, oldest first.
+     */
+    @Nonnull
+    List<byte[]> all(final long channel) {
+        final Ring ring = channels.get(channel);
+        return ring == null ? Collections.emptyList() : ring.all();
+    }
+    
+    long bytes() {
+        return bytes.get();
+    }
+    
+    private void evict(final long writing) {
+        synchronized(activity) {
+            final Iterator<Map.Entry<Long, Ring>> iterator = activity.entrySet().iterator();
+            while(bytes.get() > maxBytes && iterator.hasNext()) {
+                final Map.Entry<Long, Ring> entry = iterator.next();
+                if(entry.getKey() == writing) {
+                    // The channel that was just written to is the most
+                    // recent one, so everything else is gone already
+                    break;
+                }
+                iterator.remove();
+                channels.remove(entry.getKey(), entry.getValue());
+                bytes.addAndGet(-entry.getValue().close());
+            }
+        }
+    }
+    
+    private static final class Ring {
+        private long[] ids;
+        private byte[][] messages;
+        // The slot the next message goes into; the oldest one once full
+        private int next;
+        private int size;
+        private boolean closed;
+        
+        private Ring(final int size) {
+            ids = new long[size];
+            messages = new byte[size][];
+        }
+        
+        private int slot(final int age) {
+            return (next - 1 - age + ids.length) % ids.length;
+        }
+        
+        private int find(final long id) {
+            for(int age = 0; age < size; age++) {
+                final int slot = slot(age);
+                if(ids[slot] == id && messages[slot] != null) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        private void grow(final int capacity) {
+            final int length = Math.min(capacity, ids.length * 2);
+            final long[] newIds = new long[length];
+            final byte[][] newMessages = new byte[length][];
+            // Full, so the oldest message is in the next slot
+            final int tail = ids.length - next;
+            System.arraycopy(ids, next, newIds, 0, tail);
+            System.arraycopy(ids, 0, newIds, tail, next);
+            System.arraycopy(messages, next, newMessages, 0, tail);
+            System.arraycopy(messages, 0, newMessages, tail, next);
+            ids = newIds;
+            messages = newMessages;
+            next = size;
+        }
+        
+        synchronized long put(final long id, @Nonnull final byte[] message, final int capacity) {
+            if(closed) {
+                return CLOSED;
+            }
+            final int existing = find(id);
+            if(existing >= 0) {
+                final long delta = message.length - messages[existing].length;
+                messages[existing] = message;
+                return delta;
+            }
+            if(size == ids.length && size < capacity) {
+                grow(capacity);
+            }
+            long delta = message.length;
+            if(size == ids.length) {
+                final byte[] evicted = messages[next];
+                if(evicted != null) {
+                    delta -= evicted.length;
+                }
+            } else {
+                size++;
+            }
+            ids[next] = id;
+            messages[next] = message;
+            next = (next + 1) % ids.length;
+            return delta;
+        }
+        
+        synchronized long update(final long id, @Nonnull final UnaryOperator<byte[]> update) {
+            final int slot = closed ? -1 : find(id);
+            if(slot < 0) {
+                return CLOSED;
+            }
+            final byte[] old = messages[slot];
+            messages[slot] = update.apply(old);
+            return messages[slot].length - old.length;
+        }
+        
+        synchronized long remove(final long id) {
+            final int slot = closed ? -1 : find(id);
+            if(slot < 0) {
+                return CLOSED;
+            }
+            final long delta = -messages[slot].length;
+            messages[slot] = null;
+            return delta;
+        }
+        
+        /**
+         * Stops this ring from taking any more messages.
+         *
+         * @return How many bytes of messages it held.
+         */
+        synchronized long close() {
+            closed = true;
+            long bytes = 0;
+            for(final byte[] message : messages) {
+                if(message != null) {
+                    bytes += message.length;
+                }
+            }
+            ids = new long[0];
+            messages = new byte[0][];
+            size = 0;
+            next = 0;
+            return bytes;
+        }
+        
+        @Nullable
+        synchronized byte[] get(final long id) {
+            final int slot = find(id);
+            return slot < 0 ? null : messages[slot];
+        }
+        
+        @Nonnull
+        synchronized List<byte[]> all() {
+            final List<byte[]> all = new ArrayList<>(size);
+            for(int age = size - 1; age >= 0; age--) {
+                final byte[] message = messages[slot(age)];
+                if(message != null) {
+                    all.add(message);
+                }
+            }
+            return all;
+        }
+    }
+}
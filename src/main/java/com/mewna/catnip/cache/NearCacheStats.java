@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+/**
+ * A point-in-time view of how a {@link NearCachedEntityCache} is doing. All
+ * counts are since the cache was created.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+@Value
+@Accessors(fluent = true)
+public class NearCacheStats {
+    /**
+     * How many lookups were answered by the near-cache.
+     */
+    private long hitCount;
+    /**
+     * How many lookups had to go to the remote store, or would have had to
+     * if they'd been made through {@link NearCachedEntityCache#async()}.
+     */
+    private long missCount;
+    /**
+     * How many batched reads were sent to the remote store.
+     */
+    private long remoteReads;
+    /**
+     * How many batched writes were sent to the remote store.
+     */
+    private long remoteWrites;
+    /**
+     * The mean time from a lookup missing the near-cache to it completing,
+     * in nanoseconds.
+     */
+    private long meanMissLatency;
+    /**
+     * The longest time from a lookup missing the near-cache to it
+     * completing, in nanoseconds.
+     */
+    private long maxMissLatency;
+    /**
+     * How many writes are waiting to be sent to the remote store.
+     */
+    private long pendingWrites;
+    /**
+     * How many entities are in the near-cache right now.
+     */
+    private long size;
+    
+    /**
+     * @return The fraction of lookups answered by the near-cache, or
+     * {@code 1} if there haven't been any lookups yet.
+     */
+    public double hitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 1D : (double) hitCount / requests;
+    }
+}
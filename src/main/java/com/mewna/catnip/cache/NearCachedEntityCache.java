@@ -0,0 +1,886 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.offheap.EntityCodec;
+import com.mewna.catnip.cache.offheap.EntityCodecs;
+import com.mewna.catnip.cache.offheap.SlabReader;
+import com.mewna.catnip.cache.offheap.SlabWriter;
+import com.mewna.catnip.cache.remote.EntityKey;
+import com.mewna.catnip.cache.remote.EntityKey.Kind;
+import com.mewna.catnip.cache.remote.RemoteStore;
+import com.mewna.catnip.entity.channel.Channel;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.shard.DiscordEvent.Raw;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * An entity cache that keeps everything in a {@link RemoteStore}, such as a
+ * store shared between several processes, with a bounded near-cache of
+ * recently-used entities in front of it.
+ * <p/>
+ * Lookups that miss the near-cache have to go to the store, so they can only
+ * be made through {@link #async()}; misses made at the same time are sent to
+ * the store as one batched read. The plain {@link EntityCache} lookups only
+ * ever see the near-cache, and return {@code null} on a miss rather than
+ * blocking, and the views are always empty, since iterating over a remote
+ * store isn't something that can be done cheaply.
+ * <p/>
+ * Writes go to the near-cache right away, and are sent to the store in
+ * batches every {@link #writeBehindMillis()}. Until a write has been sent,
+ * lookups see it rather than what's in the store. Leaving a guild removes
+ * everything cached for it the same way.
+ * <p/>
+ * Updates that have to wait on the store complete their futures back on the
+ * context they were made from.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+@Accessors(fluent = true, chain = true)
+@SuppressWarnings("unused")
+public class NearCachedEntityCache extends NoopEntityCache {
+    // Stands in for a removal that hasn't been sent to the store yet
+    private static final byte[] REMOVED = new byte[0];
+    private static final long SHUTDOWN_FLUSH_SECONDS = 10L;
+    private static final Map<Kind, EntityCodec<?>> CODECS = new EnumMap<>(Kind.class);
+    
+    static {
+        CODECS.put(Kind.GUILD, EntityCodecs.GUILD);
+        CODECS.put(Kind.USER, EntityCodecs.USER);
+        CODECS.put(Kind.PRESENCE, EntityCodecs.PRESENCE);
+        CODECS.put(Kind.MEMBER, EntityCodecs.MEMBER);
+        CODECS.put(Kind.ROLE, EntityCodecs.ROLE);
+        CODECS.put(Kind.CHANNEL, EntityCodecs.CHANNEL);
+        CODECS.put(Kind.EMOJI, EntityCodecs.EMOJI);
+        CODECS.put(Kind.VOICE_STATE, EntityCodecs.VOICE_STATE);
+    }
+    
+    private final RemoteStore store;
+    /**
+     * How many entities the near-cache can hold. Has to be set before the
+     * cache is given to catnip.
+     */
+    @Getter
+    @Setter
+    private long nearCacheSize = 100_000L;
+    /**
+     * The most keys sent to the store in one read.
+     */
+    @Getter
+    @Setter
+    private int maxBatchSize = 256;
+    /**
+     * How long a miss waits for other misses to batch with before the read
+     * is sent.
+     */
+    @Getter
+    @Setter
+    private long readBatchMillis = 1L;
+    /**
+     * How often pending writes are sent to the store. Has to be set before
+     * the cache is given to catnip.
+     */
+    @Getter
+    @Setter
+    private long writeBehindMillis = 100L;
+    
+    private final Map<EntityKey, byte[]> pendingWrites = new ConcurrentHashMap<>();
+    // Guilds that were left, whose removal hasn't been sent to the store yet;
+    // guild id -> the removal, so that leaving again isn't mistaken for it
+    private final Map<Long, Object> pendingGuildRemovals = new ConcurrentHashMap<>();
+    // The batch of writes being sent, if any. Only one is sent at a time, so
+    // they can't land out of order
+    private final AtomicReference<CompletableFuture<Void>> writing = new AtomicReference<>();
+    private final Map<EntityKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<EntityKey> queuedReads = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean readScheduled = new AtomicBoolean();
+    // The last update queued for each guild, so that updates are applied in
+    // order even when some of them have to wait on the store
+    private final Map<Long, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder remoteReads = new LongAdder();
+    private final LongAdder remoteWrites = new LongAdder();
+    private final LongAdder missLatency = new LongAdder();
+    private final LongAdder completedMisses = new LongAdder();
+    private final LongAccumulator maxMissLatency = new LongAccumulator(Math::max, 0L);
+    
+    private final AsyncEntityCache async = new AsyncView();
+    private Cache<EntityKey, Object> near;
+    private Catnip catnip;
+    private EntityBuilder entityBuilder;
+    private EntityPatcher patcher;
+    private long flushTimer = -1L;
+    
+    public NearCachedEntityCache(@Nonnull final RemoteStore store) {
+        this.store = store;
+    }
+    
+    /**
+     * @return Lookups that go to the remote store when the near-cache misses.
+     */
+    @Nonnull
+    public AsyncEntityCache async() {
+        return async;
+    }
+    
+    @Nonnull
+    public NearCacheStats stats() {
+        final long completed = completedMisses.sum();
+        return new NearCacheStats(hits.sum(), misses.sum(), remoteReads.sum(), remoteWrites.sum(),
+                completed == 0 ? 0L : missLatency.sum() / completed, maxMissLatency.get(),
+                pendingWrites.size(), near == null ? 0L : near.size());
+    }
+    
+    @Nonnull
+    @Override
+    public EntityCache catnip(@Nonnull final Catnip catnip) {
+        this.catnip = catnip;
+        entityBuilder = new EntityBuilder(catnip);
+        patcher = new EntityPatcher(catnip);
+        near = CacheBuilder.newBuilder().maximumSize(nearCacheSize).build();
+        flushTimer = catnip.vertx().setPeriodic(writeBehindMillis, __ -> flushWrites());
+        return this;
+    }
+    
+    @Override
+    public void shutdown() {
+        if(flushTimer != -1L) {
+            catnip.vertx().cancelTimer(flushTimer);
+            flushTimer = -1L;
+        }
+        // Best-effort; anything that fails to send is lost. The batch that's
+        // being sent has to land first, and anything written while it was
+        // goes in the batches after it
+        while(!pendingWrites.isEmpty() || !pendingGuildRemovals.isEmpty() || writing.get() != null) {
+            CompletableFuture<Void> batch = writing.get();
+            if(batch == null) {
+                batch = flushWrites();
+                if(batch == null) {
+                    // Another thread started one first
+                    continue;
+                }
+            }
+            try {
+                batch.get(SHUTDOWN_FLUSH_SECONDS, TimeUnit.SECONDS);
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch(final ExecutionException | TimeoutException e) {
+                // Already logged if it failed
+                return;
+            }
+        }
+    }
+    
+    // Lookups
+    
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private <T> T peek(@Nonnull final EntityKey key) {
+        // Not counted in the stats, which are about how well the near-cache
+        // saves trips to the store
+        final Object cached = near.getIfPresent(key);
+        if(cached != null) {
+            return (T) cached;
+        }
+        final byte[] pending = pendingWrites.get(key);
+        return pending == null || pending == REMOVED ? null : (T) decode(key, pending);
+    }
+    
+    private boolean guildRemoved(@Nonnull final EntityKey key) {
+        return key.guildId() != 0L && pendingGuildRemovals.containsKey(key.guildId());
+    }
+    
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private <T> CompletionStage<T> lookup(@Nonnull final EntityKey key) {
+        final Object cached = near.getIfPresent(key);
+        if(cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture((T) cached);
+        }
+        misses.increment();
+        final long start = System.nanoTime();
+        final byte[] pending = pendingWrites.get(key);
+        if(pending != null || guildRemoved(key)) {
+            final Object entity = pending == null || pending == REMOVED ? null : decode(key, pending);
+            recordMiss(start);
+            return CompletableFuture.completedFuture((T) entity);
+        }
+        final CompletableFuture<Object> future = inFlight.computeIfAbsent(key, k -> {
+            queuedReads.add(k);
+            return new CompletableFuture<>();
+        });
+        if(queuedReads.size() >= maxBatchSize) {
+            flushReads();
+        } else if(readScheduled.compareAndSet(false, true)) {
+            catnip.vertx().setTimer(Math.max(1L, readBatchMillis), __ -> {
+                readScheduled.set(false);
+                flushReads();
+            });
+        }
+        return future.thenApply(entity -> {
+            recordMiss(start);
+            return (T) entity;
+        });
+    }
+    
+    private void recordMiss(final long start) {
+        final long latency = System.nanoTime() - start;
+        missLatency.add(latency);
+        completedMisses.increment();
+        maxMissLatency.accumulate(latency);
+    }
+    
+    private void flushReads() {
+        while(!queuedReads.isEmpty()) {
+            final List<EntityKey> batch = new ArrayList<>(Math.min(maxBatchSize, queuedReads.size()));
+            EntityKey key;
+            while(batch.size() < maxBatchSize && (key = queuedReads.poll()) != null) {
+                batch.add(key);
+            }
+            if(batch.isEmpty()) {
+                return;
+            }
+            remoteReads.increment();
+            store.getAll(batch).whenComplete((found, e) -> {
+                for(final EntityKey k : batch) {
+                    final CompletableFuture<Object> future = inFlight.remove(k);
+                    if(future == null) {
+                        continue;
+                    }
+                    if(e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        try {
+                            future.complete(resolve(k, found.get(k)));
+                        } catch(final Exception ex) {
+                            future.completeExceptionally(ex);
+                        }
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Works out what a read from the store should complete with, given that
+     * the entity may have been written while the read was being made.
+     */
+    @Nullable
+    private Object resolve(@Nonnull final EntityKey key, @Nullable final byte[] bytes) {
+        final byte[] pending = pendingWrites.get(key);
+        if(pending != null) {
+            return pending == REMOVED ? null : decode(key, pending);
+        }
+        if(bytes == null || guildRemoved(key)) {
+            return null;
+        }
+        final Object entity = decode(key, bytes);
+        final Object winner = near.asMap().putIfAbsent(key, entity);
+        if(winner != null) {
+            return winner;
+        }
+        // A write that came in between the check above and caching what the
+        // store sent is newer than it, so it has to win
+        final byte[] written = pendingWrites.get(key);
+        if(written != null) {
+            near.asMap().remove(key, entity);
+            return written == REMOVED ? null : decode(key, written);
+        }
+        return entity;
+    }
+    
+    @Nonnull
+    private Object decode(@Nonnull final EntityKey key, @Nonnull final byte[] bytes) {
+        return CODECS.get(key.kind()).decode(new SlabReader(ByteBuffer.wrap(bytes), 0), catnip,
+                key.guildId() == 0L ? null : Long.toUnsignedString(key.guildId()));
+    }
+    
+    // Writes
+    
+    @SuppressWarnings("unchecked")
+    private <T> void put(@Nonnull final EntityKey key, @Nonnull final T entity) {
+        final SlabWriter writer = SlabWriter.get();
+        ((EntityCodec<T>) CODECS.get(key.kind())).encode(writer, entity);
+        pendingWrites.put(key, Arrays.copyOf(writer.buffer(), writer.length()));
+        near.put(key, entity);
+    }
+    
+    private void remove(@Nonnull final EntityKey key) {
+        pendingWrites.put(key, REMOVED);
+        near.invalidate(key);
+    }
+    
+    /**
+     * Drops everything cached for a guild, and queues removing it from the
+     * store. Writes for the guild that haven't been sent yet are dropped
+     * too, since the removal is sent before them.
+     */
+    private void removeGuild(final long guildId) {
+        pendingGuildRemovals.put(guildId, new Object());
+        pendingWrites.keySet().removeIf(key -> key.guildId() == guildId);
+        near.asMap().keySet().removeIf(key -> key.guildId() == guildId);
+        remove(EntityKey.of(Kind.GUILD, guildId));
+    }
+    
+    /**
+     * Starts sending everything that's pending to the store, unless there's
+     * nothing to send or a batch is already being sent.
+     *
+     * @return The batch that was started, if any.
+     */
+    @Nullable
+    private CompletableFuture<Void> flushWrites() {
+        if(pendingWrites.isEmpty() && pendingGuildRemovals.isEmpty()) {
+            return null;
+        }
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        if(!writing.compareAndSet(null, done)) {
+            return null;
+        }
+        final Map<Long, Object> guilds = new HashMap<>(pendingGuildRemovals);
+        final Map<EntityKey, byte[]> batch = new HashMap<>(pendingWrites);
+        final Map<EntityKey, byte[]> puts = new HashMap<>(batch.size() * 2);
+        final List<EntityKey> removals = new ArrayList<>();
+        batch.forEach((key, bytes) -> {
+            if(bytes == REMOVED) {
+                removals.add(key);
+            } else {
+                puts.put(key, bytes);
+            }
+        });
+        remoteWrites.increment();
+        final CompletionStage<Void> sent;
+        try {
+            // Guilds are removed first, since anything written for them
+            // since is newer
+            sent = guilds.isEmpty()
+                    ? store.writeAll(puts, removals)
+                    : store.removeGuilds(guilds.keySet()).thenCompose(__ -> store.writeAll(puts, removals));
+        } catch(final Exception e) {
+            catnip.logAdapter().warn("Couldn't write {} entities to the remote store", batch.size(), e);
+            writing.set(null);
+            done.completeExceptionally(e);
+            return done;
+        }
+        sent.whenComplete((__, e) -> {
+            if(e == null) {
+                // Anything written again since the batch was taken is still
+                // waiting to be sent
+                batch.forEach(pendingWrites::remove);
+                guilds.forEach(pendingGuildRemovals::remove);
+            } else {
+                // Left pending, to be retried with the next batch
+                catnip.logAdapter().warn("Couldn't write {} entities to the remote store", batch.size(), e);
+            }
+            writing.set(null);
+            if(e == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+    
+    // Updates
+    
+    @Nonnull
+    @Override
+    public Future<Void> updateCache(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        final String guild = GuildIngestor.guildOf(eventType, payload);
+        final Future<Void> future = Future.future();
+        // Lookups that miss complete on the store's threads
+        final Context context = Vertx.currentContext();
+        inOrder(guild == null ? 0L : Long.parseUnsignedLong(guild), () -> apply(eventType, payload))
+                .whenComplete((__, e) -> {
+                    if(e != null) {
+                        catnip.logAdapter().warn("Got error updating cache for {}", eventType, e);
+                    }
+                    // Best-effort, like any other cache update
+                    if(context == null) {
+                        future.complete(null);
+                    } else {
+                        context.runOnContext(___ -> future.complete(null));
+                    }
+                });
+        return future;
+    }
+    
+    @Nonnull
+    private CompletionStage<Void> inOrder(final long guild, @Nonnull final Supplier<CompletionStage<Void>> update) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CompletableFuture<Void> previous = tails.put(guild, done);
+        final CompletionStage<Void> applied = previous == null
+                ? safely(update)
+                : previous.thenCompose(__ -> safely(update));
+        applied.whenComplete((__, e) -> {
+            tails.remove(guild, done);
+            done.complete(null);
+        });
+        return applied;
+    }
+    
+    @Nonnull
+    private static CompletionStage<Void> safely(@Nonnull final Supplier<CompletionStage<Void>> update) {
+        try {
+            return update.get();
+        } catch(final Exception e) {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private CompletionStage<Void> apply(@Nonnull final String eventType, @Nonnull final JsonObject payload) {
+        switch(eventType) {
+            // Channels
+            case Raw.CHANNEL_CREATE:
+            case Raw.CHANNEL_UPDATE: {
+                final Channel channel = entityBuilder.createChannel(payload);
+                if(channel.isGuild()) {
+                    cacheChannel((GuildChannel) channel);
+                }
+                break;
+            }
+            case Raw.CHANNEL_DELETE: {
+                final Channel channel = entityBuilder.createChannel(payload);
+                if(channel.isGuild()) {
+                    final GuildChannel gc = (GuildChannel) channel;
+                    remove(EntityKey.of(Kind.CHANNEL, id(gc.guildId()), id(gc.id())));
+                }
+                break;
+            }
+            // Guilds
+            case Raw.GUILD_CREATE: {
+                cacheGuild(payload);
+                break;
+            }
+            case Raw.GUILD_UPDATE: {
+                final String id = payload.getString("id");
+                cacheAll(payload.getJsonArray("roles"), e -> cacheRole(entityBuilder.createRole(id, e)));
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_EMOJI)) {
+                    cacheAll(payload.getJsonArray("emojis"), e -> cacheEmoji(entityBuilder.createCustomEmoji(id, e)));
+                }
+                return async.guild(id).thenAccept(old -> {
+                    final Guild guild = old == null
+                            ? entityBuilder.createGuild(payload, false)
+                            : patcher.patchGuild(old, payload);
+                    if(guild != null) {
+                        put(EntityKey.of(Kind.GUILD, id(guild.id())), guild);
+                    }
+                });
+            }
+            case Raw.GUILD_DELETE: {
+                if(payload.getBoolean("unavailable", false)) {
+                    // An outage; the rest is replaced when it's sent again
+                    remove(EntityKey.of(Kind.GUILD, id(payload.getString("id"))));
+                } else {
+                    removeGuild(id(payload.getString("id")));
+                }
+                break;
+            }
+            // Roles
+            case Raw.GUILD_ROLE_CREATE:
+            case Raw.GUILD_ROLE_UPDATE: {
+                cacheRole(entityBuilder.createRole(payload.getString("guild_id"), payload.getJsonObject("role")));
+                break;
+            }
+            case Raw.GUILD_ROLE_DELETE: {
+                remove(EntityKey.of(Kind.ROLE, id(payload.getString("guild_id")), id(payload.getString("role_id"))));
+                break;
+            }
+            // Members
+            case Raw.GUILD_MEMBER_ADD: {
+                cacheUser(entityBuilder.createUser(payload.getJsonObject("user")));
+                cacheMember(entityBuilder.createMember(payload.getString("guild_id"), payload));
+                break;
+            }
+            case Raw.GUILD_MEMBER_UPDATE: {
+                // This only sends the fields that can change, so we patch
+                // them onto the cached member
+                final JsonObject user = payload.getJsonObject("user");
+                final String id = user.getString("id");
+                final String guild = payload.getString("guild_id");
+                return async.member(guild, id).thenCombine(async.user(id), (oldMember, oldUser) -> {
+                    if(oldMember == null) {
+                        catnip.logAdapter().warn("Got GUILD_MEMBER_UPDATE for {} in {}, but we don't have them cached?!", id, guild);
+                        return null;
+                    }
+                    final User updatedUser = oldUser == null ? entityBuilder.createUser(user) : patcher.patchUser(oldUser, user);
+                    if(updatedUser != null) {
+                        cacheUser(updatedUser);
+                    }
+                    final Member member = patcher.patchMember(oldMember, payload);
+                    if(member != null) {
+                        cacheMember(member);
+                    }
+                    return null;
+                });
+            }
+            case Raw.GUILD_MEMBER_REMOVE: {
+                remove(EntityKey.of(Kind.MEMBER, id(payload.getString("guild_id")),
+                        id(payload.getJsonObject("user").getString("id"))));
+                break;
+            }
+            // Member chunking
+            case Raw.GUILD_MEMBERS_CHUNK: {
+                final String guild = payload.getString("guild_id");
+                cacheAll(payload.getJsonArray("members"), e -> cacheMember(entityBuilder.createMember(guild, e)));
+                break;
+            }
+            // Emojis
+            case Raw.GUILD_EMOJIS_UPDATE: {
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_EMOJI)) {
+                    final String guild = payload.getString("guild_id");
+                    cacheAll(payload.getJsonArray("emojis"), e -> cacheEmoji(entityBuilder.createCustomEmoji(guild, e)));
+                }
+                break;
+            }
+            // Users
+            case Raw.PRESENCE_UPDATE: {
+                final JsonObject user = payload.getJsonObject("user");
+                final String id = user.getString("id");
+                return async.user(id).thenCombine(async.presence(id), (oldUser, oldPresence) -> {
+                    if(oldUser == null) {
+                        // Presence updates only have the full user when
+                        // something about it changed
+                        return null;
+                    }
+                    final User updated = patcher.patchUser(oldUser, user);
+                    if(updated != null) {
+                        cacheUser(updated);
+                    }
+                    if(!catnip.cacheFlags().contains(CacheFlag.DROP_GAME_STATUSES)) {
+                        final Presence presence = patcher.patchPresence(oldPresence, payload);
+                        if(presence != null) {
+                            put(EntityKey.of(Kind.PRESENCE, id(id)), presence);
+                        }
+                    }
+                    return null;
+                });
+            }
+            // Voice
+            case Raw.VOICE_STATE_UPDATE: {
+                if(!catnip.cacheFlags().contains(CacheFlag.DROP_VOICE_STATES)) {
+                    cacheVoiceState(entityBuilder.createVoiceState(payload));
+                }
+                break;
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    private void cacheGuild(@Nonnull final JsonObject payload) {
+        final String id = payload.getString("id");
+        final Guild guild = entityBuilder.createGuild(payload, false);
+        cacheAll(payload.getJsonArray("roles"), e -> cacheRole(entityBuilder.createRole(id, e)));
+        cacheAll(payload.getJsonArray("channels"), e -> cacheChannel(entityBuilder.createGuildChannel(id, e)));
+        cacheAll(payload.getJsonArray("members"), e -> {
+            cacheUser(entityBuilder.createUser(e.getJsonObject("user")));
+            cacheMember(entityBuilder.createMember(id, e));
+        });
+        if(!catnip.cacheFlags().contains(CacheFlag.DROP_EMOJI)) {
+            cacheAll(payload.getJsonArray("emojis"), e -> cacheEmoji(entityBuilder.createCustomEmoji(id, e)));
+        }
+        if(!catnip.cacheFlags().contains(CacheFlag.DROP_VOICE_STATES)) {
+            cacheAll(payload.getJsonArray("voice_states"), e -> cacheVoiceState(entityBuilder.createVoiceState(id, e)));
+        }
+        if(!catnip.cacheFlags().contains(CacheFlag.DROP_GAME_STATUSES)) {
+            cacheAll(payload.getJsonArray("presences"), e ->
+                    put(EntityKey.of(Kind.PRESENCE, id(e.getJsonObject("user").getString("id"))),
+                            entityBuilder.createPresence(e)));
+        }
+        // Last, so that anything looking the guild up finds everything in it
+        put(EntityKey.of(Kind.GUILD, id(id)), guild);
+    }
+    
+    private static void cacheAll(@Nullable final JsonArray array, @Nonnull final Consumer<JsonObject> cache) {
+        if(array != null) {
+            for(final Object object : array) {
+                cache.accept((JsonObject) object);
+            }
+        }
+    }
+    
+    private void cacheUser(@Nonnull final User user) {
+        put(EntityKey.of(Kind.USER, id(user.id())), user);
+    }
+    
+    private void cacheMember(@Nonnull final Member member) {
+        put(EntityKey.of(Kind.MEMBER, id(member.guildId()), id(member.id())), member);
+    }
+    
+    private void cacheRole(@Nonnull final Role role) {
+        put(EntityKey.of(Kind.ROLE, id(role.guildId()), id(role.id())), role);
+    }
+    
+    private void cacheChannel(@Nonnull final GuildChannel channel) {
+        put(EntityKey.of(Kind.CHANNEL, id(channel.guildId()), id(channel.id())), channel);
+    }
+    
+    private void cacheEmoji(@Nonnull final CustomEmoji emoji) {
+        final String guild = emoji.guildId();
+        if(guild != null) {
+            put(EntityKey.of(Kind.EMOJI, id(guild), id(emoji.id())), emoji);
+        }
+    }
+    
+    private void cacheVoiceState(@Nonnull final VoiceState state) {
+        final String guild = state.guildId();
+        if(guild == null) {
+            catnip.logAdapter().warn("Not caching voice state for {} due to null guild", state.userId());
+            return;
+        }
+        put(EntityKey.of(Kind.VOICE_STATE, id(guild), id(state.userId())), state);
+    }
+    
+    private static long id(@Nonnull final String id) {
+        return Long.parseUnsignedLong(id);
+    }
+    
+    @Override
+    public void bulkCacheUsers(@Nonnull final Collection<User> users) {
+        users.forEach(this::cacheUser);
+    }
+    
+    @Override
+    public void bulkCacheChannels(@Nonnull final Collection<GuildChannel> channels) {
+        channels.forEach(this::cacheChannel);
+    }
+    
+    @Override
+    public void bulkCacheRoles(@Nonnull final Collection<Role> roles) {
+        roles.forEach(this::cacheRole);
+    }
+    
+    @Override
+    public void bulkCacheMembers(@Nonnull final Collection<Member> members) {
+        members.forEach(this::cacheMember);
+    }
+    
+    @Override
+    public void bulkCacheEmoji(@Nonnull final Collection<CustomEmoji> emoji) {
+        emoji.forEach(this::cacheEmoji);
+    }
+    
+    @Override
+    public void bulkCachePresences(@Nonnull final Map<String, Presence> presences) {
+        presences.forEach((id, presence) -> put(EntityKey.of(Kind.PRESENCE, id(id)), presence));
+    }
+    
+    @Override
+    public void bulkCacheVoiceStates(@Nonnull final Collection<VoiceState> voiceStates) {
+        voiceStates.forEach(this::cacheVoiceState);
+    }
+    
+    // Near-cache-only lookups
+    
+    @Nullable
+    @Override
+    public Guild guild(@Nonnull final String id) {
+        return guild(id(id));
+    }
+    
+    @Nullable
+    @Override
+    public Guild guild(final long id) {
+        return peek(EntityKey.of(Kind.GUILD, id));
+    }
+    
+    @Nullable
+    @Override
+    public User user(@Nonnull final String id) {
+        return user(id(id));
+    }
+    
+    @Nullable
+    @Override
+    public User user(final long id) {
+        return peek(EntityKey.of(Kind.USER, id));
+    }
+    
+    @Nullable
+    @Override
+    public Presence presence(@Nonnull final String id) {
+        return presence(id(id));
+    }
+    
+    @Nullable
+    @Override
+    public Presence presence(final long id) {
+        return peek(EntityKey.of(Kind.PRESENCE, id));
+    }
+    
+    @Nullable
+    @Override
+    public Member member(@Nonnull final String guildId, @Nonnull final String id) {
+        return member(id(guildId), id(id));
+    }
+    
+    @Nullable
+    @Override
+    public Member member(final long guildId, final long id) {
+        return peek(EntityKey.of(Kind.MEMBER, guildId, id));
+    }
+    
+    @Nullable
+    @Override
+    public Role role(@Nonnull final String guildId, @Nonnull final String id) {
+        return role(id(guildId), id(id));
+    }
+    
+    @Nullable
+    @Override
+    public Role role(final long guildId, final long id) {
+        return peek(EntityKey.of(Kind.ROLE, guildId, id));
+    }
+    
+    @Nullable
+    @Override
+    public GuildChannel channel(@Nonnull final String guildId, @Nonnull final String id) {
+        return channel(id(guildId), id(id));
+    }
+    
+    @Nullable
+    @Override
+    public GuildChannel channel(final long guildId, final long id) {
+        return peek(EntityKey.of(Kind.CHANNEL, guildId, id));
+    }
+    
+    @Nullable
+    @Override
+    public CustomEmoji emoji(@Nonnull final String guildId, @Nonnull final String id) {
+        return emoji(id(guildId), id(id));
+    }
+    
+    @Nullable
+    @Override
+    public CustomEmoji emoji(final long guildId, final long id) {
+        return peek(EntityKey.of(Kind.EMOJI, guildId, id));
+    }
+    
+    @Nullable
+    @Override
+    public VoiceState voiceState(@Nonnull final String guildId, @Nonnull final String id) {
+        return voiceState(id(guildId), id(id));
+    }
+    
+    @Nullable
+    @Override
+    public VoiceState voiceState(final long guildId, final long id) {
+        return peek(EntityKey.of(Kind.VOICE_STATE, guildId, id));
+    }
+    
+    private final class AsyncView implements AsyncEntityCache {
+        @Nonnull
+        @Override
+        public CompletionStage<Guild> guild(final long id) {
+            return lookup(EntityKey.of(Kind.GUILD, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<User> user(final long id) {
+            return lookup(EntityKey.of(Kind.USER, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<Presence> presence(final long id) {
+            return lookup(EntityKey.of(Kind.PRESENCE, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<Member> member(final long guildId, final long id) {
+            return lookup(EntityKey.of(Kind.MEMBER, guildId, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<Role> role(final long guildId, final long id) {
+            return lookup(EntityKey.of(Kind.ROLE, guildId, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<GuildChannel> channel(final long guildId, final long id) {
+            return lookup(EntityKey.of(Kind.CHANNEL, guildId, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<CustomEmoji> emoji(final long guildId, final long id) {
+            return lookup(EntityKey.of(Kind.EMOJI, guildId, id));
+        }
+        
+        @Nonnull
+        @Override
+        public CompletionStage<VoiceState> voiceState(final long guildId, final long id) {
+            return lookup(EntityKey.of(Kind.VOICE_STATE, guildId, id));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.Iterators;
+import com.mewna.catnip.cache.CachePartitions.Partition;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A map from guild id to something cached for that guild, backed by one of
+ * the maps in each {@link CachePartitions.Partition partition}. Reads and
+ * writes go straight to the map of the partition the guild is on; iterating
+ * goes over every partition in turn.
+ *
+ * @param <V> Type of the values.
+ *
+ * @author amy
+ * @since 1/8/19.
+ */
+final class PartitionedMap<V> extends AbstractMap<Long, V> {
+    private final CachePartitions partitions;
+    private final Function<Partition, Map<Long, V>> part;
+    
+    PartitionedMap(@Nonnull final CachePartitions partitions, @Nonnull final Function<Partition, Map<Long, V>> part) {
+        this.partitions = partitions;
+        this.part = part;
+    }
+    
+    @Override
+    public V get(final Object key) {
+        if(!(key instanceof Long)) {
+            return null;
+        }
+        final Partition partition = partitions.peek((Long) key);
+        return partition == null ? null : part.apply(partition).get(key);
+    }
+    
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public V put(@Nonnull final Long key, @Nonnull final V value) {
+        return part.apply(partitions.partition(key)).put(key, value);
+    }
+    
+    @Override
+    public V remove(final Object key) {
+        if(!(key instanceof Long)) {
+            return null;
+        }
+        final Partition partition = partitions.peek((Long) key);
+        return partition == null ? null : part.apply(partition).remove(key);
+    }
+    
+    @Override
+    public V computeIfAbsent(@Nonnull final Long key, @Nonnull final Function<? super Long, ? extends V> function) {
+        return part.apply(partitions.partition(key)).computeIfAbsent(key, function);
+    }
+    
+    @Override
+    public int size() {
+        int size = 0;
+        for(final Map<Long, V> map : partitions.all(part)) {
+            size += map.size();
+        }
+        return size;
+    }
+    
+    @Nonnull
+    @Override
+    public Set<Entry<Long, V>> entrySet() {
+        return new AbstractSet<Entry<Long, V>>() {
+            @Nonnull
+            @Override
+            public Iterator<Entry<Long, V>> iterator() {
+                return Iterators.concat(Iterators.transform(partitions.all(part).iterator(),
+                        map -> map.entrySet().iterator()));
+            }
+            
+            @Override
+            public int size() {
+                return PartitionedMap.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.PermissionOverride;
+import com.mewna.catnip.util.ConcurrentLongMap;
+import com.mewna.catnip.util.PermissionUtil;
+import com.mewna.catnip.util.PermissionUtil.Overrides;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+
+/**
+ * Memoizes the permissions of members, both guild-wide and in channels, so
+ * that checking them doesn't mean walking a member's roles and a channel's
+ * overrides every time. Entries are computed on first use, and dropped by
+ * the cache worker when something they were computed from changes: a role's
+ * permissions, a channel's overrides, a member's roles, or a guild's owner.
+ * <p/>
+ * Each guild has a version that's bumped whenever any of its entries are
+ * dropped. An entry computed while the guild's version changed is thrown
+ * away rather than kept, since it may have been computed from entities that
+ * were replaced halfway through.
+ *
+ * @author amy
+ * @since 1/7/19.
+ */
+public final class PermissionCache {
+    // Guild-wide permissions are stored as the permissions in channel 0
+    private static final long GUILD_WIDE = 0L;
+    
+    private final Catnip catnip;
+    private final ConcurrentLongMap<GuildPermissions> guilds = new ConcurrentLongMap<>();
+    
+    public PermissionCache(@Nonnull final Catnip catnip) {
+        this.catnip = catnip;
+    }
+    
+    /**
+     * @return Whether or not the two lists of overrides grant the same
+     * permissions, ignoring their order.
+     */
+    static boolean sameOverrides(@Nonnull final List<PermissionOverride> old,
+                                 @Nonnull final List<PermissionOverride> overrides) {
+        if(old.size() != overrides.size()) {
+            return false;
+        }
+        for(final PermissionOverride override : overrides) {
+            boolean found = false;
+            for(final PermissionOverride o : old) {
+                if(o.id().equals(override.id())) {
+                    found = o.type() == override.type() && o.allowRaw() == override.allowRaw()
+                            && o.denyRaw() == override.denyRaw();
+                    break;
+                }
+            }
+            if(!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return The member's guild-wide permissions.
+     *
+     * @see PermissionUtil#effectivePermissions(Catnip, Member)
+     */
+    public long permissions(@Nonnull final Member member) {
+        return permissions(member, null);
+    }
+    
+    /**
+     * @return The member's permissions in the channel, or their guild-wide
+     * permissions if the channel is {@code null}.
+     *
+     * @see PermissionUtil#effectivePermissions(Catnip, Member, GuildChannel)
+     */
+    public long permissions(@Nonnull final Member member, @Nullable final GuildChannel channel) {
+        final GuildPermissions guild = guilds.computeIfAbsent(Long.parseUnsignedLong(member.guildId()),
+                __ -> new GuildPermissions());
+        final int version = guild.version.get();
+        final ConcurrentLongMap<Long> channels = guild.members.computeIfAbsent(Long.parseUnsignedLong(member.id()),
+                __ -> new ConcurrentLongMap<>(1));
+        final long key = channel == null ? GUILD_WIDE : Long.parseUnsignedLong(channel.id());
+        final Long cached = channels.get(key);
+        if(cached != null) {
+            return cached;
+        }
+        final Long permissions = channel == null
+                ? PermissionUtil.effectivePermissions(catnip, member)
+                : PermissionUtil.effectivePermissions(catnip, member, channel);
+        channels.put(key, permissions);
+        if(guild.version.get() != version) {
+            channels.remove(key, permissions);
+        }
+        return permissions;
+    }
+    
+    /**
+     * @return The channel's overrides, mapped by the role or member they're
+     * for. Rebuilt whenever the channel's overrides are replaced.
+     */
+    @Nonnull
+    public Overrides overrides(@Nonnull final GuildChannel channel) {
+        final GuildPermissions guild = guilds.computeIfAbsent(Long.parseUnsignedLong(channel.guildId()),
+                __ -> new GuildPermissions());
+        final long id = Long.parseUnsignedLong(channel.id());
+        final Overrides cached = guild.overrides.get(id);
+        if(cached != null && cached.isFor(channel)) {
+            return cached;
+        }
+        final Overrides overrides = Overrides.of(channel);
+        guild.overrides.put(id, overrides);
+        return overrides;
+    }
+    
+    void invalidateGuild(final long guildId) {
+        final GuildPermissions guild = guilds.remove(guildId);
+        if(guild != null) {
+            guild.version.incrementAndGet();
+        }
+    }
+    
+    void invalidateMember(final long guildId, final long memberId) {
+        final GuildPermissions guild = guilds.get(guildId);
+        if(guild != null) {
+            guild.version.incrementAndGet();
+            guild.members.remove(memberId);
+        }
+    }
+    
+    void invalidateChannel(final long guildId, final long channelId) {
+        final GuildPermissions guild = guilds.get(guildId);
+        if(guild != null) {
+            guild.version.incrementAndGet();
+            guild.overrides.remove(channelId);
+            guild.members.forEachValue(channels -> channels.remove(channelId));
+        }
+    }
+    
+    /**
+     * Drops the permissions of every member with the role. The
+     * {@code @everyone} role, whose id is the guild's, drops the whole guild.
+     *
+     * @param hasRole Whether or not the member with the given id has the role.
+     */
+    void invalidateRole(final long guildId, final long roleId, @Nonnull final LongPredicate hasRole) {
+        if(roleId == guildId) {
+            invalidateGuild(guildId);
+            return;
+        }
+        final GuildPermissions guild = guilds.get(guildId);
+        if(guild != null) {
+            guild.version.incrementAndGet();
+            guild.members.keyIterator().forEachRemaining((long id) -> {
+                if(hasRole.test(id)) {
+                    guild.members.remove(id);
+                }
+            });
+        }
+    }
+    
+    /**
+     * @return How many members have permissions cached in the guild.
+     */
+    int size(final long guildId) {
+        final GuildPermissions guild = guilds.get(guildId);
+        return guild == null ? 0 : guild.members.size();
+    }
+    
+    private static final class GuildPermissions {
+        // Member id -> channel id -> permissions
+        private final ConcurrentLongMap<ConcurrentLongMap<Long>> members = new ConcurrentLongMap<>(1);
+        private final ConcurrentLongMap<Overrides> overrides = new ConcurrentLongMap<>(1);
+        private final AtomicInteger version = new AtomicInteger();
+    }
+}
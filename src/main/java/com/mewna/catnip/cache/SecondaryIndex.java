@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+
+import javax.annotation.Nonnull;
+import java.util.function.LongConsumer;
+
+/**
+ * Maps the ids of groups within a guild, such as roles or voice channels, to
+ * the ids of the entities in them, such as members or voice states, so that
+ * finding everything in a group doesn't mean scanning all of a guild's
+ * entities. Kept up to date as entities are cached and uncached, rather than
+ * rebuilt.
+ * <p/>
+ * Each group is a {@link ConcurrentLongMap} used as a set, so ids aren't
+ * boxed, and any number of threads can write to an index at once; guilds
+ * being ingested fill theirs from several worker threads. Groups are only
+ * removed by {@link #removeGroup(long)}, ie. when the role or channel they're
+ * for is deleted, so emptying one never races with something being added to
+ * it.
+ *
+ * @author amy
+ * @since 1/5/19.
+ */
+final class SecondaryIndex {
+    private static final Boolean PRESENT = Boolean.TRUE;
+    // Per-guild, like the views whose entities are indexed
+    private static final int CONCURRENCY = 1;
+    
+    private final ConcurrentLongMap<ConcurrentLongMap<Boolean>> groups = new ConcurrentLongMap<>(CONCURRENCY);
+    
+    void add(final long group, final long id) {
+        groups.computeIfAbsent(group, __ -> new ConcurrentLongMap<>(CONCURRENCY)).put(id, PRESENT);
+    }
+    
+    void remove(final long group, final long id) {
+        final ConcurrentLongMap<Boolean> ids = groups.get(group);
+        if(ids != null) {
+            ids.remove(id);
+        }
+    }
+    
+    void removeGroup(final long group) {
+        groups.remove(group);
+    }
+    
+    /**
+     * Calls the consumer with the id of every entity in the group. Weakly
+     * consistent, like iterating any other cache view.
+     */
+    void forEach(final long group, @Nonnull final LongConsumer consumer) {
+        final ConcurrentLongMap<Boolean> ids = groups.get(group);
+        if(ids != null) {
+            ids.forEachKey(consumer);
+        }
+    }
+    
+    boolean contains(final long group, final long id) {
+        final ConcurrentLongMap<Boolean> ids = groups.get(group);
+        return ids != null && ids.containsKey(id);
+    }
+    
+    int size(final long group) {
+        final ConcurrentLongMap<Boolean> ids = groups.get(group);
+        return ids == null ? 0 : ids.size();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache view that evicts entities according to a {@link CacheBound}. Until
+ * it's given one, it behaves exactly like {@link DefaultNamedCacheView}.
+ * Also used for presences, which don't have names, with a name function that
+ * always returns {@code null}.
+ * <p>
+ * Expired entities are hidden from lookups by id straight away, but are only
+ * removed from the view, and so from scans of it, the next time something is
+ * written to it.
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+final class BoundedCacheView<T> extends DefaultNamedCacheView<T> {
+    private volatile EvictionTracker tracker;
+    
+    BoundedCacheView(@Nonnull final Function<T, String> nameFunction) {
+        super(nameFunction);
+    }
+    
+    /**
+     * Starts enforcing the given bound, evicting anything already cached that
+     * it doesn't allow for.
+     */
+    void bound(@Nonnull final CacheBound bound, @Nonnull final LongPredicate pinned, @Nonnull final LongSupplier clock) {
+        final EvictionTracker tracker = new EvictionTracker(bound, pinned, key -> super.remove(key), clock);
+        forEachKey(tracker::recordWrite);
+        this.tracker = tracker;
+    }
+    
+    /**
+     * @return Statistics for this view, or {@code null} if it isn't bounded.
+     */
+    @Nullable
+    EvictionStats stats() {
+        final EvictionTracker tracker = this.tracker;
+        return tracker == null ? null : tracker.stats();
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        final T old = super.put(key, value);
+        final EvictionTracker tracker = this.tracker;
+        if(tracker != null) {
+            tracker.recordWrite(key);
+        }
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        final T old = super.remove(key);
+        final EvictionTracker tracker = this.tracker;
+        if(tracker != null) {
+            tracker.recordRemove(key);
+        }
+        return old;
+    }
+    
+    @Override
+    public T getById(final long id) {
+        final T value = super.getById(id);
+        final EvictionTracker tracker = this.tracker;
+        if(tracker == null) {
+            return value;
+        }
+        if(value == null || tracker.expired(id)) {
+            tracker.recordMiss();
+            return null;
+        }
+        tracker.recordHit(id);
+        return value;
+    }
+    
+    /**
+     * Same as {@link #getById(long)}, but isn't counted in the statistics and
+     * doesn't count as a use of the entity for eviction.
+     */
+    @Nullable
+    T peek(final long id) {
+        final T value = super.getById(id);
+        final EvictionTracker tracker = this.tracker;
+        return value == null || tracker == null || !tracker.expired(id) ? value : null;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.EntityCache;
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.cache.view.DefaultCacheView;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.util.ConcurrentLongMap;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An entity cache that caps how many users and presences it keeps, and/or
+ * for how long, so that a bot can run in a fixed memory budget instead of
+ * caching every user it ever sees. Everything else is cached the same way as
+ * {@link MemoryEntityCache}.
+ * <p/>
+ * Users that are cached members of a guild, and their presences, are pinned
+ * by default, and are never evicted; see {@link CacheBound#pinMembers()}. So
+ * a cache can hold more than its maximum size if that many users are pinned.
+ * <p/>
+ * Bounds have to be set before this is given to catnip:
+ * <pre>{@code
+ * new CatnipOptions(token).cacheWorker(new BoundedEntityCache()
+ *         .userBound(new CacheBound().maximumSize(100_000))
+ *         .presenceBound(new CacheBound().maximumSize(10_000).expireAfterWrite(Duration.ofMinutes(30))));
+ * }</pre>
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+@Accessors(fluent = true, chain = true)
+public class BoundedEntityCache extends MemoryEntityCache {
+    /**
+     * How many guilds each user is a cached member of, for pinning.
+     */
+    private final ConcurrentLongMap<int[]> memberships = new ConcurrentLongMap<>();
+    @Getter
+    @Setter
+    @Nonnull
+    private CacheBound userBound = new CacheBound();
+    @Getter
+    @Setter
+    @Nonnull
+    private CacheBound presenceBound = new CacheBound();
+    
+    @Nonnull
+    @Override
+    protected DefaultNamedCacheView<User> createUserCache() {
+        return new BoundedCacheView<>(User::username);
+    }
+    
+    @Nonnull
+    @Override
+    protected DefaultCacheView<Presence> createPresenceCache() {
+        return new BoundedCacheView<>(__ -> null);
+    }
+    
+    @Nullable
+    @Override
+    protected User peekUser(final long id) {
+        return ((BoundedCacheView<User>) userCache).peek(id);
+    }
+    
+    @Nullable
+    @Override
+    protected Presence peekPresence(final long id) {
+        return ((BoundedCacheView<Presence>) presenceCache).peek(id);
+    }
+    
+    @Override
+    protected void memberCached(final long guildId, final long userId) {
+        synchronized(memberships) {
+            final int[] count = memberships.get(userId);
+            if(count == null) {
+                memberships.put(userId, new int[] {1});
+            } else {
+                count[0]++;
+            }
+        }
+    }
+    
+    @Override
+    protected void memberUncached(final long guildId, final long userId) {
+        synchronized(memberships) {
+            final int[] count = memberships.get(userId);
+            if(count != null && --count[0] == 0) {
+                memberships.remove(userId);
+            }
+        }
+    }
+    
+    /**
+     * @return Eviction statistics for the user cache, or {@code null} if it
+     * isn't bounded.
+     */
+    @Nullable
+    public EvictionStats userStats() {
+        return ((BoundedCacheView<User>) userCache).stats();
+    }
+    
+    /**
+     * @return Eviction statistics for the presence cache, or {@code null} if
+     * it isn't bounded.
+     */
+    @Nullable
+    public EvictionStats presenceStats() {
+        return ((BoundedCacheView<Presence>) presenceCache).stats();
+    }
+    
+    @Nonnull
+    @Override
+    public EntityCache catnip(@Nonnull final Catnip catnip) {
+        super.catnip(catnip);
+        bound((BoundedCacheView<User>) userCache, userBound);
+        bound((BoundedCacheView<Presence>) presenceCache, presenceBound);
+        return this;
+    }
+    
+    private void bound(@Nonnull final BoundedCacheView<?> view, @Nonnull final CacheBound bound) {
+        if(bound.bounded()) {
+            view.bound(bound, bound.pinMembers() ? memberships::containsKey : __ -> false, System::nanoTime);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+/**
+ * Limits on how much of one kind of entity a {@link BoundedEntityCache}
+ * keeps around. By default, nothing is ever evicted.
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+@Getter
+@Setter
+@Accessors(fluent = true, chain = true)
+public final class CacheBound {
+    /**
+     * The most entities to keep cached. Entities pinned by cached members are
+     * never evicted to make room, so this can be exceeded if enough of them
+     * are pinned.
+     */
+    @Nonnegative
+    private long maximumSize = Long.MAX_VALUE;
+    /**
+     * How to pick what to evict once there are more than {@link #maximumSize}
+     * entities cached.
+     */
+    @Nonnull
+    private EvictionPolicy policy = EvictionPolicy.TINY_LFU;
+    /**
+     * How long an entity stays cached after it was last written, or
+     * {@code null} to keep entities until they're evicted for size.
+     */
+    @Nullable
+    private Duration expireAfterWrite;
+    /**
+     * Whether or not to keep the entities of users that are cached members of
+     * any guild. Evicting these means that ex. the names of members without
+     * nicknames can't be looked up.
+     */
+    private boolean pinMembers = true;
+    
+    /**
+     * @return Whether or not these limits can ever evict anything.
+     */
+    public boolean bounded() {
+        return maximumSize != Long.MAX_VALUE || expireAfterWrite != null;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+/**
+ * A point-in-time view of how a bounded cache is doing. All counts are since
+ * the cache was created.
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+@Value
+@Accessors(fluent = true)
+public class EvictionStats {
+    /**
+     * How many lookups by id found something.
+     */
+    private long hitCount;
+    /**
+     * How many lookups by id didn't find anything, including ones that found
+     * an expired entity.
+     */
+    private long missCount;
+    /**
+     * How many entities were evicted to stay under the maximum size.
+     */
+    private long evictionCount;
+    /**
+     * How many entities were evicted for being older than the TTL.
+     */
+    private long expirationCount;
+    /**
+     * How many entities are tracked right now.
+     */
+    private long size;
+    
+    /**
+     * @return The fraction of lookups that found something, or {@code 1} if
+     * there haven't been any lookups yet.
+     */
+    public double hitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 1D : (double) hitCount / requests;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps track of the keys in a {@link BoundedCacheView}, and decides which of
+ * them to evict when.
+ * <p>
+ * Every key has a node that sits in one of three access-ordered queues, and
+ * in a write-ordered queue if entities expire. With {@link EvictionPolicy#LRU}
+ * only the probation queue is used. With {@link EvictionPolicy#TINY_LFU} new
+ * keys start out in the window queue, move on to probation once they fall
+ * out of it, and are promoted to the protected queue if they're accessed
+ * again while on probation. When the cache is full, the key that most
+ * recently came in on probation is compared against the oldest key on
+ * probation, and whichever of them was seen less often is evicted.
+ * <p>
+ * Writes take a lock. Reads are recorded in a small lossy buffer that's
+ * drained under the lock, so that lookups don't contend with each other.
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+final class EvictionTracker {
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    
+    private final long maximumSize;
+    private final long ttl;
+    private final LongPredicate pinned;
+    private final LongConsumer evictor;
+    private final LongSupplier clock;
+    private final FrequencySketch sketch;
+    private final long windowSize;
+    private final long protectedSize;
+    
+    private final ConcurrentLongMap<Node> nodes = new ConcurrentLongMap<>(1);
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protect = new AccessQueue();
+    private final Node writeOrder = new Node(0);
+    
+    private final AtomicLongArray reads = new AtomicLongArray(READ_BUFFER_SIZE);
+    private final AtomicInteger readCount = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long evictions;
+    private volatile long expirations;
+    
+    /**
+     * @param bound   The limits to enforce.
+     * @param pinned  Whether or not a key is pinned. Pinned keys are never
+     *                evicted or expired.
+     * @param evictor Removes a key from the cache. Called with the lock held.
+     * @param clock   The current time, in nanoseconds.
+     */
+    EvictionTracker(@Nonnull final CacheBound bound, @Nonnull final LongPredicate pinned,
+                    @Nonnull final LongConsumer evictor, @Nonnull final LongSupplier clock) {
+        maximumSize = bound.maximumSize();
+        ttl = bound.expireAfterWrite() == null ? 0 : Math.max(1, bound.expireAfterWrite().toNanos());
+        this.pinned = pinned;
+        this.evictor = evictor;
+        this.clock = clock;
+        if(bound.policy() == EvictionPolicy.TINY_LFU && maximumSize != Long.MAX_VALUE) {
+            sketch = new FrequencySketch(maximumSize);
+            windowSize = Math.max(1, maximumSize / 100);
+            protectedSize = (maximumSize - windowSize) * 4 / 5;
+        } else {
+            sketch = null;
+            windowSize = 0;
+            protectedSize = 0;
+        }
+        writeOrder.writePrev = writeOrder;
+        writeOrder.writeNext = writeOrder;
+    }
+    
+    void recordWrite(final long key) {
+        lock.lock();
+        try {
+            drainReads();
+            final long now = clock.getAsLong();
+            Node node = nodes.get(key);
+            if(node == null) {
+                node = new Node(key);
+                nodes.put(key, node);
+                (sketch == null ? probation : window).addLast(node);
+            } else {
+                onAccess(node);
+                unlinkWrite(node);
+            }
+            node.writtenAt = now;
+            linkWrite(node);
+            if(sketch != null) {
+                sketch.increment(key);
+            }
+            expire(now);
+            evictForSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void recordRemove(final long key) {
+        lock.lock();
+        try {
+            final Node node = nodes.remove(key);
+            if(node != null) {
+                node.queue.remove(node);
+                unlinkWrite(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void recordHit(final long key) {
+        hits.increment();
+        final int count = readCount.getAndIncrement();
+        reads.lazySet(count & READ_BUFFER_MASK, key);
+        if((count & READ_BUFFER_MASK) == READ_BUFFER_MASK && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    void recordMiss() {
+        misses.increment();
+    }
+    
+    /**
+     * @return Whether or not the given key is past its TTL, and should be
+     * treated as if it isn't cached. Doesn't take the lock.
+     */
+    boolean expired(final long key) {
+        if(ttl == 0) {
+            return false;
+        }
+        final Node node = nodes.get(key);
+        return node != null && clock.getAsLong() - node.writtenAt >= ttl && !pinned.test(key);
+    }
+    
+    @Nonnull
+    EvictionStats stats() {
+        return new EvictionStats(hits.sum(), misses.sum(), evictions, expirations, nodes.size());
+    }
+    
+    private void drainReads() {
+        for(int i = 0; i < READ_BUFFER_SIZE; i++) {
+            final long key = reads.getAndSet(i, 0);
+            if(key != 0) {
+                final Node node = nodes.get(key);
+                if(node != null) {
+                    onAccess(node);
+                    if(sketch != null) {
+                        sketch.increment(key);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void onAccess(@Nonnull final Node node) {
+        if(node.queue == probation && sketch != null) {
+            probation.remove(node);
+            protect.addLast(node);
+            while(protect.size > protectedSize) {
+                final Node demoted = protect.first();
+                protect.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else {
+            node.queue.moveToLast(node);
+        }
+    }
+    
+    private void expire(final long now) {
+        if(ttl == 0) {
+            return;
+        }
+        long attempts = nodes.size();
+        Node node;
+        while((node = writeOrder.writeNext) != writeOrder && now - node.writtenAt >= ttl && attempts-- > 0) {
+            if(pinned.test(node.key)) {
+                // Check again a TTL from now
+                unlinkWrite(node);
+                node.writtenAt = now;
+                linkWrite(node);
+            } else {
+                evict(node);
+                expirations++;
+            }
+        }
+    }
+    
+    private void evictForSize() {
+        if(sketch != null) {
+            while(window.size > windowSize) {
+                final Node node = window.first();
+                window.remove(node);
+                probation.addLast(node);
+            }
+        }
+        long attempts = nodes.size();
+        while(nodes.size() > maximumSize && attempts-- > 0) {
+            Node victim = probation.first();
+            if(victim == null) {
+                victim = protect.first() != null ? protect.first() : window.first();
+            }
+            if(pinned.test(victim.key)) {
+                victim.queue.moveToLast(victim);
+                continue;
+            }
+            if(sketch != null) {
+                final Node candidate = probation.last();
+                if(candidate != null && candidate != victim && !pinned.test(candidate.key)
+                        && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    // Not popular enough to be let in over what's already here
+                    victim = candidate;
+                }
+            }
+            evict(victim);
+            evictions++;
+        }
+    }
+    
+    private void evict(@Nonnull final Node node) {
+        nodes.remove(node.key);
+        node.queue.remove(node);
+        unlinkWrite(node);
+        evictor.accept(node.key);
+    }
+    
+    private void linkWrite(@Nonnull final Node node) {
+        if(ttl != 0) {
+            node.writePrev = writeOrder.writePrev;
+            node.writeNext = writeOrder;
+            writeOrder.writePrev.writeNext = node;
+            writeOrder.writePrev = node;
+        }
+    }
+    
+    private void unlinkWrite(@Nonnull final Node node) {
+        if(node.writeNext != null) {
+            node.writePrev.writeNext = node.writeNext;
+            node.writeNext.writePrev = node.writePrev;
+            node.writePrev = null;
+            node.writeNext = null;
+        }
+    }
+    
+    private static final class Node {
+        private final long key;
+        private volatile long writtenAt;
+        private AccessQueue queue;
+        private Node prev;
+        private Node next;
+        private Node writePrev;
+        private Node writeNext;
+        
+        private Node(final long key) {
+            this.key = key;
+        }
+    }
+    
+    /**
+     * A doubly-linked list of nodes, least recently accessed first.
+     */
+    private static final class AccessQueue {
+        private final Node head = new Node(0);
+        private long size;
+        
+        private AccessQueue() {
+            head.prev = head;
+            head.next = head;
+        }
+        
+        private Node first() {
+            return head.next == head ? null : head.next;
+        }
+        
+        private Node last() {
+            return head.prev == head ? null : head.prev;
+        }
+        
+        private void addLast(@Nonnull final Node node) {
+            node.queue = this;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+        
+        private void remove(@Nonnull final Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+        }
+        
+        private void moveToLast(@Nonnull final Node node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+}
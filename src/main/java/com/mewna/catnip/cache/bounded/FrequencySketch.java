@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A count-min sketch of how often each key was seen recently, for
+ * {@link EvictionPolicy#TINY_LFU}. Counters are 4 bits, sixteen to a long,
+ * and each key is counted in four of them, picked by different hashes; its
+ * frequency is the smallest of the four. Every counter is halved once the
+ * sketch has seen ten times as many keys as the cache holds, so that what was
+ * popular a while ago doesn't stay popular forever.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author amy
+ * @since 1/2/19.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L,
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+    
+    private final long[] table;
+    private final int mask;
+    private final long sampleSize;
+    private long additions;
+    
+    FrequencySketch(@Nonnegative final long maximumSize) {
+        final int size = (int) Math.min(MAX_TABLE_SIZE, Math.max(16, Long.highestOneBit(Math.max(1, maximumSize) - 1) << 1));
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = 10L * Math.min(maximumSize, MAX_TABLE_SIZE);
+    }
+    
+    private static long hash(final long key, final int row) {
+        long h = (key ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return h;
+    }
+    
+    /**
+     * @return How often the given key was seen, up to 15.
+     */
+    int frequency(final long key) {
+        int frequency = 15;
+        for(int row = 0; row < 4; row++) {
+            final long h = hash(key, row);
+            final int shift = ((int) h & 15) << 2;
+            frequency = Math.min(frequency, (int) (table[(int) (h >>> 32) & mask] >>> shift) & 15);
+        }
+        return frequency;
+    }
+    
+    void increment(final long key) {
+        boolean added = false;
+        for(int row = 0; row < 4; row++) {
+            final long h = hash(key, row);
+            final int index = (int) (h >>> 32) & mask;
+            final int shift = ((int) h & 15) << 2;
+            if((table[index] >>> shift & 15) != 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if(added && ++additions >= sampleSize) {
+            for(int i = 0; i < table.length; i++) {
+                table[i] = table[i] >>> 1 & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+}
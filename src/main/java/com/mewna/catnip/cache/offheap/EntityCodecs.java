@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.channel.TextChannel;
+import com.mewna.catnip.entity.channel.UserDMChannel;
+import com.mewna.catnip.entity.channel.VoiceChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Guild.ContentFilterLevel;
+import com.mewna.catnip.entity.guild.Guild.MFALevel;
+import com.mewna.catnip.entity.guild.Guild.NotificationLevel;
+import com.mewna.catnip.entity.guild.Guild.VerificationLevel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.PermissionOverride;
+import com.mewna.catnip.entity.guild.PermissionOverride.OverrideType;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.*;
+import com.mewna.catnip.entity.impl.GuildImpl.GuildImplBuilder;
+import com.mewna.catnip.entity.impl.PresenceImpl.*;
+import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl.ActivityImplBuilder;
+import com.mewna.catnip.entity.misc.Emoji.CustomEmoji;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.*;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.entity.util.Permission;
+import com.mewna.catnip.util.Utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Codecs for the entities {@link OffHeapEntityCache} stores off-heap, and
+ * that {@link com.mewna.catnip.cache.CacheSnapshot} writes to disk. Changing
+ * how an entity is encoded means bumping the snapshot format version.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+public final class EntityCodecs {
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    
+    public static final EntityCodec<User> USER = new EntityCodec<User>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final User user) {
+            out.writeSnowflake(user.id());
+            out.writeString(user.username());
+            out.writeString(user.discriminator());
+            out.writeString(user.avatar());
+            out.writeBoolean(user.bot());
+        }
+        
+        @Nonnull
+        @Override
+        public User decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            return UserImpl.builder()
+                    .catnip(catnip)
+                    .id(in.readSnowflake())
+                    .username(in.readString())
+                    .discriminator(in.readString())
+                    .avatar(in.readString())
+                    .bot(in.readBoolean())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<Member> MEMBER = new EntityCodec<Member>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final Member member) {
+            out.writeSnowflake(member.id());
+            out.writeString(member.nick());
+            final Set<String> roleIds = member.roleIds();
+            out.writeVarInt(roleIds.size());
+            for(final String roleId : roleIds) {
+                out.writeSnowflake(roleId);
+            }
+            writeTimestamp(out, member.joinedAt());
+            out.writeBoolean(member.deaf());
+            out.writeBoolean(member.mute());
+        }
+        
+        @Nonnull
+        @Override
+        public Member decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            final String id = in.readSnowflake();
+            final String nick = in.readString();
+            final int roleCount = in.readVarInt();
+            final ImmutableSet.Builder<String> roleIds = ImmutableSet.builder();
+            for(int i = 0; i < roleCount; i++) {
+                roleIds.add(in.readSnowflake());
+            }
+            final String joinedAt = readTimestamp(in);
+            return MemberImpl.builder()
+                    .catnip(catnip)
+                    .id(id)
+                    .guildId(guildId)
+                    .nick(nick)
+                    .roleIds(roleIds.build())
+                    .joinedAt(joinedAt)
+                    .deaf(in.readBoolean())
+                    .mute(in.readBoolean())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<Role> ROLE = new EntityCodec<Role>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final Role role) {
+            out.writeSnowflake(role.id());
+            out.writeString(role.name());
+            out.writeInt(role.color());
+            out.writeInt(role.position());
+            out.writeLong(role.permissionsRaw());
+            out.writeBoolean(role.hoist());
+            out.writeBoolean(role.managed());
+            out.writeBoolean(role.mentionable());
+        }
+        
+        @Nonnull
+        @Override
+        public Role decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            return RoleImpl.builder()
+                    .catnip(catnip)
+                    .id(in.readSnowflake())
+                    .guildId(guildId)
+                    .name(in.readString())
+                    .color(in.readInt())
+                    .position(in.readInt())
+                    .permissionsRaw(in.readLong())
+                    .hoist(in.readBoolean())
+                    .managed(in.readBoolean())
+                    .mentionable(in.readBoolean())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<GuildChannel> CHANNEL = new EntityCodec<GuildChannel>() {
+        private static final int TEXT = 0;
+        private static final int VOICE = 1;
+        private static final int CATEGORY = 2;
+        
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final GuildChannel channel) {
+            if(channel.isText()) {
+                out.writeByte(TEXT);
+            } else if(channel.isVoice()) {
+                out.writeByte(VOICE);
+            } else if(channel.isCategory()) {
+                out.writeByte(CATEGORY);
+            } else {
+                throw new IllegalArgumentException("Don't know how to store channel of type " + channel.type());
+            }
+            out.writeSnowflake(channel.id());
+            out.writeString(channel.name());
+            out.writeInt(channel.position());
+            out.writeSnowflake(channel.parentId());
+            final List<PermissionOverride> overrides = channel.overrides();
+            out.writeVarInt(overrides.size());
+            for(final PermissionOverride override : overrides) {
+                out.writeSnowflake(override.id());
+                out.writeByte(override.type().ordinal());
+                out.writeLong(override.allowRaw());
+                out.writeLong(override.denyRaw());
+            }
+            if(channel.isText()) {
+                final TextChannel text = channel.asTextChannel();
+                out.writeString(text.topic());
+                out.writeBoolean(text.nsfw());
+                out.writeInt(text.rateLimitPerUser());
+            } else if(channel.isVoice()) {
+                final VoiceChannel voice = channel.asVoiceChannel();
+                out.writeInt(voice.bitrate());
+                out.writeInt(voice.userLimit());
+            }
+        }
+        
+        @Nonnull
+        @Override
+        public GuildChannel decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            final int type = in.readByte();
+            final String id = in.readSnowflake();
+            final String name = in.readString();
+            final int position = in.readInt();
+            final String parentId = in.readSnowflake();
+            final int overrideCount = in.readVarInt();
+            final ImmutableList.Builder<PermissionOverride> overrides = ImmutableList.builder();
+            for(int i = 0; i < overrideCount; i++) {
+                overrides.add(PermissionOverrideImpl.builder()
+                        .catnip(catnip)
+                        .id(in.readSnowflake())
+                        .type(OverrideType.values()[in.readByte()])
+                        .allowRaw(in.readLong())
+                        .denyRaw(in.readLong())
+                        .build());
+            }
+            switch(type) {
+                case TEXT:
+                    return TextChannelImpl.builder()
+                            .catnip(catnip)
+                            .id(id)
+                            .name(name)
+                            .guildId(guildId)
+                            .position(position)
+                            .parentId(parentId)
+                            .overrides(overrides.build())
+                            .topic(in.readString())
+                            .nsfw(in.readBoolean())
+                            .rateLimitPerUser(in.readInt())
+                            .build();
+                case VOICE:
+                    return VoiceChannelImpl.builder()
+                            .catnip(catnip)
+                            .id(id)
+                            .name(name)
+                            .guildId(guildId)
+                            .position(position)
+                            .parentId(parentId)
+                            .overrides(overrides.build())
+                            .bitrate(in.readInt())
+                            .userLimit(in.readInt())
+                            .build();
+                case CATEGORY:
+                    return CategoryImpl.builder()
+                            .catnip(catnip)
+                            .id(id)
+                            .name(name)
+                            .guildId(guildId)
+                            .position(position)
+                            .parentId(parentId)
+                            .overrides(overrides.build())
+                            .build();
+                default:
+                    throw new IllegalStateException("Unknown stored channel type " + type);
+            }
+        }
+    };
+    
+    public static final EntityCodec<Guild> GUILD = new EntityCodec<Guild>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final Guild guild) {
+            out.writeSnowflake(guild.id());
+            out.writeString(guild.name());
+            out.writeString(guild.icon());
+            out.writeString(guild.splash());
+            out.writeBoolean(guild.owned());
+            out.writeSnowflake(guild.ownerId());
+            out.writeLong(Permission.from(guild.permissions()));
+            out.writeString(guild.region());
+            out.writeSnowflake(guild.afkChannelId());
+            out.writeInt(guild.afkTimeout());
+            out.writeBoolean(guild.embedEnabled());
+            out.writeSnowflake(guild.embedChannelId());
+            out.writeVarInt(guild.verificationLevel().getKey());
+            out.writeVarInt(guild.defaultMessageNotifications().getKey());
+            out.writeVarInt(guild.explicitContentFilter().getKey());
+            final List<String> features = guild.features();
+            out.writeVarInt(features.size());
+            for(final String feature : features) {
+                out.writeString(feature);
+            }
+            out.writeVarInt(guild.mfaLevel().getKey());
+            out.writeSnowflake(guild.applicationId());
+            out.writeBoolean(guild.widgetEnabled());
+            out.writeSnowflake(guild.widgetChannelId());
+            out.writeSnowflake(guild.systemChannelId());
+            writeTimestamp(out, guild.joinedAt());
+            out.writeBoolean(guild.large());
+            out.writeBoolean(guild.unavailable());
+            out.writeLong(guild.memberCount());
+        }
+        
+        @Nonnull
+        @Override
+        public Guild decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            final GuildImplBuilder builder = GuildImpl.builder()
+                    .catnip(catnip)
+                    .id(in.readSnowflake())
+                    .name(in.readString())
+                    .icon(in.readString())
+                    .splash(in.readString())
+                    .owned(in.readBoolean())
+                    .ownerId(in.readSnowflake())
+                    .permissions(Permission.toSet(in.readLong()))
+                    .region(in.readString())
+                    .afkChannelId(in.readSnowflake())
+                    .afkTimeout(in.readInt())
+                    .embedEnabled(in.readBoolean())
+                    .embedChannelId(in.readSnowflake())
+                    .verificationLevel(VerificationLevel.byKey(in.readVarInt()))
+                    .defaultMessageNotifications(NotificationLevel.byKey(in.readVarInt()))
+                    .explicitContentFilter(ContentFilterLevel.byKey(in.readVarInt()));
+            final int featureCount = in.readVarInt();
+            final ImmutableList.Builder<String> features = ImmutableList.builder();
+            for(int i = 0; i < featureCount; i++) {
+                features.add(in.readString());
+            }
+            return builder.features(features.build())
+                    .mfaLevel(MFALevel.byKey(in.readVarInt()))
+                    .applicationId(in.readSnowflake())
+                    .widgetEnabled(in.readBoolean())
+                    .widgetChannelId(in.readSnowflake())
+                    .systemChannelId(in.readSnowflake())
+                    .joinedAt(readTimestamp(in))
+                    .large(in.readBoolean())
+                    .unavailable(in.readBoolean())
+                    .memberCount(in.readLong())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<CustomEmoji> EMOJI = new EntityCodec<CustomEmoji>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final CustomEmoji emoji) {
+            out.writeSnowflake(emoji.id());
+            out.writeString(emoji.name());
+            final List<String> roles = emoji.roles();
+            out.writeVarInt(roles.size());
+            for(final String role : roles) {
+                out.writeSnowflake(role);
+            }
+            final User user = emoji.user();
+            out.writeBoolean(user != null);
+            if(user != null) {
+                USER.encode(out, user);
+            }
+            out.writeBoolean(emoji.requiresColons());
+            out.writeBoolean(emoji.managed());
+            out.writeBoolean(emoji.animated());
+        }
+        
+        @Nonnull
+        @Override
+        public CustomEmoji decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            final String id = in.readSnowflake();
+            final String name = in.readString();
+            final int roleCount = in.readVarInt();
+            final ImmutableList.Builder<String> roles = ImmutableList.builder();
+            for(int i = 0; i < roleCount; i++) {
+                roles.add(in.readSnowflake());
+            }
+            return CustomEmojiImpl.builder()
+                    .catnip(catnip)
+                    .id(id)
+                    .guildId(guildId)
+                    .name(name)
+                    .roles(roles.build())
+                    .user(in.readBoolean() ? USER.decode(in, catnip, null) : null)
+                    .requiresColons(in.readBoolean())
+                    .managed(in.readBoolean())
+                    .animated(in.readBoolean())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<VoiceState> VOICE_STATE = new EntityCodec<VoiceState>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final VoiceState state) {
+            out.writeSnowflake(state.userId());
+            out.writeSnowflake(state.channelId());
+            out.writeString(state.sessionId());
+            out.writeBoolean(state.deaf());
+            out.writeBoolean(state.mute());
+            out.writeBoolean(state.selfDeaf());
+            out.writeBoolean(state.selfMute());
+            out.writeBoolean(state.suppress());
+        }
+        
+        @Nonnull
+        @Override
+        public VoiceState decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            return VoiceStateImpl.builder()
+                    .catnip(catnip)
+                    .guildId(guildId)
+                    .userId(in.readSnowflake())
+                    .channelId(in.readSnowflake())
+                    .sessionId(in.readString())
+                    .deaf(in.readBoolean())
+                    .mute(in.readBoolean())
+                    .selfDeaf(in.readBoolean())
+                    .selfMute(in.readBoolean())
+                    .suppress(in.readBoolean())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<Presence> PRESENCE = new EntityCodec<Presence>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final Presence presence) {
+            out.writeByte(presence.status().ordinal());
+            final Activity activity = presence.activity();
+            out.writeBoolean(activity != null);
+            if(activity == null) {
+                return;
+            }
+            out.writeString(activity.name());
+            out.writeVarInt(activity.type().id());
+            out.writeString(activity.url());
+            final ActivityTimestamps timestamps = activity.timestamps();
+            out.writeLong(timestamps == null ? NO_TIMESTAMP : timestamps.start());
+            if(timestamps != null) {
+                out.writeLong(timestamps.end());
+            }
+            out.writeSnowflake(activity.applicationId());
+            out.writeString(activity.details());
+            out.writeString(activity.state());
+            final ActivityParty party = activity.party();
+            out.writeBoolean(party != null);
+            if(party != null) {
+                out.writeString(party.id());
+                out.writeInt(party.currentSize());
+                out.writeInt(party.maxSize());
+            }
+            final ActivityAssets assets = activity.assets();
+            out.writeBoolean(assets != null);
+            if(assets != null) {
+                out.writeString(assets.largeImage());
+                out.writeString(assets.largeText());
+                out.writeString(assets.smallImage());
+                out.writeString(assets.smallText());
+            }
+            final ActivitySecrets secrets = activity.secrets();
+            out.writeBoolean(secrets != null);
+            if(secrets != null) {
+                out.writeString(secrets.join());
+                out.writeString(secrets.spectate());
+                out.writeString(secrets.match());
+            }
+            out.writeBoolean(activity.instance());
+            int flags = 0;
+            if(activity.flags() != null) {
+                for(final ActivityFlag flag : activity.flags()) {
+                    flags |= 1 << flag.ordinal();
+                }
+            }
+            out.writeVarInt(flags);
+        }
+        
+        @Nonnull
+        @Override
+        public Presence decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            final OnlineStatus status = OnlineStatus.values()[in.readByte()];
+            if(!in.readBoolean()) {
+                return PresenceImpl.builder().catnip(catnip).status(status).build();
+            }
+            final ActivityImplBuilder activity = ActivityImpl.builder()
+                    .name(in.readString())
+                    .type(ActivityType.byId(in.readVarInt()))
+                    .url(in.readString());
+            final long start = in.readLong();
+            if(start != NO_TIMESTAMP) {
+                activity.timestamps(ActivityTimestampsImpl.builder().start(start).end(in.readLong()).build());
+            }
+            activity.applicationId(in.readSnowflake())
+                    .details(in.readString())
+                    .state(in.readString());
+            if(in.readBoolean()) {
+                activity.party(ActivityPartyImpl.builder()
+                        .id(in.readString())
+                        .currentSize(in.readInt())
+                        .maxSize(in.readInt())
+                        .build());
+            }
+            if(in.readBoolean()) {
+                activity.assets(ActivityAssetsImpl.builder()
+                        .largeImage(in.readString())
+                        .largeText(in.readString())
+                        .smallImage(in.readString())
+                        .smallText(in.readString())
+                        .build());
+            }
+            if(in.readBoolean()) {
+                activity.secrets(ActivitySecretsImpl.builder()
+                        .join(in.readString())
+                        .spectate(in.readString())
+                        .match(in.readString())
+                        .build());
+            }
+            activity.instance(in.readBoolean());
+            final int flags = in.readVarInt();
+            final Set<ActivityFlag> flagSet = EnumSet.noneOf(ActivityFlag.class);
+            for(final ActivityFlag flag : ActivityFlag.values()) {
+                if((flags & 1 << flag.ordinal()) != 0) {
+                    flagSet.add(flag);
+                }
+            }
+            return PresenceImpl.builder()
+                    .catnip(catnip)
+                    .status(status)
+                    .activity(activity.flags(flagSet).build())
+                    .build();
+        }
+    };
+    
+    public static final EntityCodec<UserDMChannel> DM_CHANNEL = new EntityCodec<UserDMChannel>() {
+        @Override
+        public void encode(@Nonnull final SlabWriter out, @Nonnull final UserDMChannel channel) {
+            out.writeSnowflake(channel.id());
+            out.writeSnowflake(channel.userId());
+        }
+        
+        @Nonnull
+        @Override
+        public UserDMChannel decode(@Nonnull final SlabReader in, @Nullable final Catnip catnip, @Nullable final String guildId) {
+            return UserDMChannelImpl.builder()
+                    .catnip(catnip)
+                    .id(in.readSnowflake())
+                    .userId(in.readSnowflake())
+                    .build();
+        }
+    };
+    
+    private EntityCodecs() {
+    }
+    
+    private static void writeTimestamp(@Nonnull final SlabWriter out, @Nullable final OffsetDateTime timestamp) {
+        if(timestamp == null) {
+            out.writeLong(NO_TIMESTAMP);
+        } else {
+            final Instant instant = timestamp.toInstant();
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+    
+    @Nullable
+    private static String readTimestamp(@Nonnull final SlabReader in) {
+        final long seconds = in.readLong();
+        return seconds == NO_TIMESTAMP ? null : Utils.formatTimestamp(seconds, in.readInt());
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+/**
+ * Open-addressing hash map from {@code long} to {@code long}, used as the
+ * index of a {@link SlabStore}. Not thread-safe; the store guards it.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+final class LongLongMap {
+    /**
+     * Returned when a key isn't present. Slab addresses are never negative.
+     */
+    static final long MISSING = -1L;
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 8;
+    
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    // Key 0 marks an empty slot, so it's stored on the side
+    private boolean hasZero;
+    private long zeroValue;
+    
+    LongLongMap() {
+        this(MIN_CAPACITY);
+    }
+    
+    LongLongMap(final int expected) {
+        int capacity = MIN_CAPACITY;
+        while(capacity / 2 < expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+    
+    private static int hash(final long key) {
+        // MurmurHash3 finalizer
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+    
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    long get(final long key) {
+        if(key == EMPTY) {
+            return hasZero ? zeroValue : MISSING;
+        }
+        for(int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if(k == key) {
+                return values[i];
+            }
+            if(k == EMPTY) {
+                return MISSING;
+            }
+        }
+    }
+    
+    /**
+     * @return The previous value, or {@link #MISSING}.
+     */
+    long put(final long key, final long value) {
+        if(key == EMPTY) {
+            final long old = hasZero ? zeroValue : MISSING;
+            if(!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        int i = hash(key) & mask;
+        for(; ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if(k == key) {
+                final long old = values[i];
+                values[i] = value;
+                return old;
+            }
+            if(k == EMPTY) {
+                break;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if(size > keys.length / 4 * 3) {
+            rehash(keys.length << 1);
+        }
+        return MISSING;
+    }
+    
+    /**
+     * @return The removed value, or {@link #MISSING}.
+     */
+    long remove(final long key) {
+        if(key == EMPTY) {
+            if(!hasZero) {
+                return MISSING;
+            }
+            hasZero = false;
+            size--;
+            return zeroValue;
+        }
+        for(int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if(k == key) {
+                final long old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            if(k == EMPTY) {
+                return MISSING;
+            }
+        }
+    }
+    
+    /**
+     * Empties a slot by moving later entries of the same probe run back into
+     * it, so that lookups never need tombstones.
+     */
+    private void shiftBack(int free) {
+        for(int i = (free + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            final int ideal = hash(keys[i]) & mask;
+            // Only move the entry if its ideal slot isn't between the free
+            // slot and where it currently is
+            if(((i - ideal) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = EMPTY;
+        values[free] = 0L;
+    }
+    
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+        for(int i = 0; i < oldKeys.length; i++) {
+            final long key = oldKeys[i];
+            if(key != EMPTY) {
+                int slot = hash(key) & mask;
+                while(keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+    
+    void forEach(final EntryConsumer consumer) {
+        if(hasZero) {
+            consumer.accept(EMPTY, zeroValue);
+        }
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+    
+    long[] keys() {
+        final long[] out = new long[size];
+        int n = 0;
+        if(hasZero) {
+            out[n++] = EMPTY;
+        }
+        for(final long key : keys) {
+            if(key != EMPTY) {
+                out[n++] = key;
+            }
+        }
+        return out;
+    }
+    
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long key, long value);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * A cache view that keeps its entities encoded in a {@link SlabStore}, and
+ * decodes them on every access. Decoded entities aren't kept around, so
+ * prefer looking entities up by id over scanning the whole cache.
+ * <p/>
+ * Iteration works on a snapshot of the ids in the cache, decoding each
+ * entity as it's reached; entities removed in the meantime are skipped.
+ *
+ * @param <T> Type of the entity held by this cache.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+final class OffHeapCacheView<T> extends DefaultNamedCacheView<T> {
+    private final SlabStore store = new SlabStore();
+    private final EntityCodec<T> codec;
+    private final Supplier<Catnip> catnip;
+    private final String guildId;
+    private final Function<SlabReader, T> decoder;
+    
+    /**
+     * @param codec        Encodes and decodes the entities.
+     * @param nameFunction Gets the name of an entity, for name lookups.
+     * @param catnip       Supplies the catnip instance to give decoded
+     *                     entities.
+     * @param guildId      The guild this view holds entities for, or
+     *                     {@code null} if it's not per-guild.
+     */
+    OffHeapCacheView(@Nonnull final EntityCodec<T> codec, @Nonnull final Function<T, String> nameFunction,
+                     @Nonnull final Supplier<Catnip> catnip, @Nullable final String guildId) {
+        // The superclass' map is never used, so don't let it take up space
+        super(nameFunction, 1);
+        this.codec = codec;
+        this.catnip = catnip;
+        this.guildId = guildId;
+        decoder = in -> codec.decode(in, catnip.get(), guildId);
+    }
+    
+    /**
+     * @return How many bytes of direct memory this view takes up.
+     */
+    long offHeapBytes() {
+        return store.capacity();
+    }
+    
+    /**
+     * @return A copy of this cache, with every entity decoded. There's no
+     * live map view, as entities are only decoded on access.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, T> map() {
+        final ImmutableMap.Builder<Long, T> builder = ImmutableMap.builder();
+        for(final long id : store.keys()) {
+            final T entity = getById(id);
+            if(entity != null) {
+                builder.put(id, entity);
+            }
+        }
+        return builder.build();
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        final SlabWriter writer = SlabWriter.get();
+        codec.encode(writer, value);
+        final T old = store.put(key, writer, decoder);
+        refreshName(key);
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        final T old = store.remove(key, decoder);
+        refreshName(key);
+        return old;
+    }
+    
+    @Override
+    public long size() {
+        return store.size();
+    }
+    
+    @Override
+    public T getById(final long id) {
+        return store.read(id, decoder);
+    }
+    
+    @Override
+    public T findAny(@Nonnull final Predicate<T> filter) {
+        for(final long id : store.keys()) {
+            final T entity = getById(id);
+            if(entity != null && filter.test(entity)) {
+                return entity;
+            }
+        }
+        return null;
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C find(@Nonnull final Predicate<T> filter, @Nonnull final Supplier<C> supplier) {
+        final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        for(final long id : store.keys()) {
+            final T entity = getById(id);
+            if(entity != null && filter.test(entity)) {
+                collection.add(entity);
+            }
+        }
+        return collection;
+    }
+    
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer consumer) {
+        for(final long id : store.keys()) {
+            consumer.accept(id);
+        }
+    }
+    
+    @Override
+    public void forEach(@Nonnull final Consumer<? super T> action) {
+        for(final long id : store.keys()) {
+            final T entity = getById(id);
+            if(entity != null) {
+                action.accept(entity);
+            }
+        }
+    }
+    
+    /**
+     * @return A copy of the ids in this cache.
+     */
+    @Nonnull
+    @Override
+    public Set<Long> keys() {
+        final ImmutableSet.Builder<Long> builder = ImmutableSet.builder();
+        forEachKey(builder::add);
+        return builder.build();
+    }
+    
+    @Nonnull
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+            @Nonnull
+            @Override
+            public Iterator<T> iterator() {
+                return OffHeapCacheView.this.iterator();
+            }
+            
+            @Override
+            public int size() {
+                return store.size();
+            }
+        };
+    }
+    
+    @Nonnull
+    @Override
+    public <C extends Collection<T>> C snapshot(@Nonnull final Supplier<C> supplier) {
+        final C r = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
+        forEach(r::add);
+        return r;
+    }
+    
+    @Nonnull
+    @Override
+    public Iterator<T> iterator() {
+        final long[] ids = store.keys();
+        return new Iterator<T>() {
+            private int index;
+            private T next;
+            private long nextId;
+            private long lastId;
+            private boolean canRemove;
+            
+            @Override
+            public boolean hasNext() {
+                while(next == null && index < ids.length) {
+                    nextId = ids[index++];
+                    next = getById(nextId);
+                }
+                return next != null;
+            }
+            
+            @Override
+            public T next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final T entity = next;
+                next = null;
+                lastId = nextId;
+                canRemove = true;
+                return entity;
+            }
+            
+            @Override
+            public void remove() {
+                if(!canRemove) {
+                    throw new IllegalStateException();
+                }
+                canRemove = false;
+                store.remove(lastId, in -> null);
+                refreshName(lastId);
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.cache.view.DefaultNamedCacheView;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.user.User;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * An entity cache that keeps users, members, roles, and guild channels in
+ * direct memory instead of on the Java heap, so that a very large cache
+ * doesn't drive up GC pause times. Everything else is cached the same way as
+ * {@link MemoryEntityCache}.
+ * <p/>
+ * Entities are encoded into direct {@link java.nio.ByteBuffer} slabs indexed
+ * by snowflake, and decoded every time they're accessed. A lookup by id
+ * costs more than with {@link MemoryEntityCache} and allocates the entity,
+ * and scanning a whole cache decodes every entity in it. Direct memory is
+ * limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum
+ * heap size; raise it when moving a large cache off-heap.
+ * <p/>
+ * To use it, set it as the cache worker in {@link com.mewna.catnip.CatnipOptions}.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+public class OffHeapEntityCache extends MemoryEntityCache {
+    @Nonnull
+    @Override
+    protected DefaultNamedCacheView<User> createUserCache() {
+        return new OffHeapCacheView<>(EntityCodecs.USER, User::username, this::catnip, null);
+    }
+    
+    @Nonnull
+    @Override
+    protected DefaultNamedCacheView<Member> createMemberCache(final long guildId) {
+        return new OffHeapCacheView<>(EntityCodecs.MEMBER, memberNameFunction, this::catnip, Long.toUnsignedString(guildId));
+    }
+    
+    @Nonnull
+    @Override
+    protected DefaultNamedCacheView<Role> createRoleCache(final long guildId) {
+        return new OffHeapCacheView<>(EntityCodecs.ROLE, Role::name, this::catnip, Long.toUnsignedString(guildId));
+    }
+    
+    @Nonnull
+    @Override
+    protected DefaultNamedCacheView<GuildChannel> createChannelCache(final long guildId) {
+        return new OffHeapCacheView<>(EntityCodecs.CHANNEL, GuildChannel::name, this::catnip, Long.toUnsignedString(guildId));
+    }
+    
+    /**
+     * @return How many bytes of direct memory the cache currently takes up.
+     */
+    @Nonnegative
+    public long offHeapBytes() {
+        return offHeapBytes(userCache)
+                + offHeapBytes(memberCache.values())
+                + offHeapBytes(roleCache.values())
+                + offHeapBytes(guildChannelCache.values());
+    }
+    
+    private static long offHeapBytes(@Nonnull final Collection<? extends DefaultNamedCacheView<?>> views) {
+        long bytes = 0;
+        for(final DefaultNamedCacheView<?> view : views) {
+            bytes += offHeapBytes(view);
+        }
+        return bytes;
+    }
+    
+    private static long offHeapBytes(@Nonnull final DefaultNamedCacheView<?> view) {
+        return view instanceof OffHeapCacheView ? ((OffHeapCacheView<?>) view).offHeapBytes() : 0;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes an entity straight out of a slab. Only uses absolute reads, so
+ * any number of readers can share a slab.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+public final class SlabReader {
+    private final ByteBuffer slab;
+    private int position;
+    
+    public SlabReader(@Nonnull final ByteBuffer slab, final int position) {
+        this.slab = slab;
+        this.position = position;
+    }
+    
+    public int readByte() {
+        return slab.get(position++);
+    }
+    
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+    
+    public int readInt() {
+        final int value = slab.getInt(position);
+        position += 4;
+        return value;
+    }
+    
+    public long readLong() {
+        final long value = slab.getLong(position);
+        position += 8;
+        return value;
+    }
+    
+    public int readVarInt() {
+        int value = 0;
+        for(int shift = 0; ; shift += 7) {
+            final int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+    
+    @Nullable
+    public String readSnowflake() {
+        final long id = readLong();
+        return id == 0L ? null : Long.toUnsignedString(id);
+    }
+    
+    @Nullable
+    public String readString() {
+        final int length = readVarInt() - 1;
+        if(length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        // Bulk copy; the duplicate has its own position
+        final ByteBuffer view = slab.duplicate();
+        view.position(position);
+        view.get(bytes);
+        position += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Stores encoded entities in direct {@link ByteBuffer} slabs, indexed by
+ * snowflake.
+ * <p/>
+ * Records are appended to the newest slab as {@code [int length][bytes]}, and
+ * the index maps an id to the record's address, {@code slab << 32 | offset}.
+ * Replacing or removing a record leaves the old bytes behind as garbage;
+ * once there's more garbage than live data, the live records are copied into
+ * fresh slabs and the old ones are left for the GC to free. Slabs start
+ * small and double in size up to {@link #MAX_SLAB}, so a store holding a
+ * handful of entities doesn't cost much more than they do.
+ * <p/>
+ * Reads share a read lock and decode straight out of the slab; writes take
+ * the write lock.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+final class SlabStore {
+    private static final int MIN_SLAB = 1 << 9;
+    private static final int MAX_SLAB = 1 << 22;
+    
+    private final Lock readLock;
+    private final Lock writeLock;
+    private List<ByteBuffer> slabs = new ArrayList<>(1);
+    private ByteBuffer current;
+    private LongLongMap index = new LongLongMap();
+    // Bytes taken up by records in the index, and by records that have since
+    // been replaced or removed
+    private long live;
+    private long garbage;
+    private long capacity;
+    
+    SlabStore() {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+    }
+    
+    private static long address(final int slab, final int offset) {
+        return (long) slab << 32 | offset;
+    }
+    
+    /**
+     * @param id      The id to store the record under.
+     * @param writer  The encoded record.
+     * @param decoder Decodes the record being replaced, if there is one.
+     *
+     * @return The decoded record that was replaced, if any.
+     */
+    @Nullable
+    <T> T put(final long id, @Nonnull final SlabWriter writer, @Nonnull final Function<SlabReader, T> decoder) {
+        writeLock.lock();
+        try {
+            final long address = append(writer.buffer(), writer.length());
+            final long old = index.put(id, address);
+            live += writer.length() + 4;
+            if(old != LongLongMap.MISSING) {
+                final T previous = decode(old, decoder);
+                release(old);
+                return previous;
+            }
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * @return The decoded record that was removed, if any.
+     */
+    @Nullable
+    <T> T remove(final long id, @Nonnull final Function<SlabReader, T> decoder) {
+        writeLock.lock();
+        try {
+            final long old = index.remove(id);
+            if(old != LongLongMap.MISSING) {
+                final T previous = decode(old, decoder);
+                release(old);
+                return previous;
+            }
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Decodes the record for the given id, if there is one. The decoder runs
+     * under the read lock, so it mustn't call back into the store.
+     */
+    @Nullable
+    <T> T read(final long id, @Nonnull final Function<SlabReader, T> decoder) {
+        readLock.lock();
+        try {
+            final long address = index.get(id);
+            return address == LongLongMap.MISSING ? null : decode(address, decoder);
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    private <T> T decode(final long address, @Nonnull final Function<SlabReader, T> decoder) {
+        // Skip the length prefix
+        return decoder.apply(new SlabReader(slabs.get((int) (address >>> 32)), (int) address + 4));
+    }
+    
+    boolean contains(final long id) {
+        readLock.lock();
+        try {
+            return index.get(id) != LongLongMap.MISSING;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    int size() {
+        readLock.lock();
+        try {
+            return index.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * @return A copy of the ids in this store.
+     */
+    @Nonnull
+    long[] keys() {
+        readLock.lock();
+        try {
+            return index.keys();
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * @return How many bytes of direct memory this store's slabs take up.
+     */
+    long capacity() {
+        readLock.lock();
+        try {
+            return capacity;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    void clear() {
+        writeLock.lock();
+        try {
+            slabs = new ArrayList<>(1);
+            current = null;
+            index = new LongLongMap();
+            live = 0;
+            garbage = 0;
+            capacity = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private void release(final long address) {
+        final int size = slabs.get((int) (address >>> 32)).getInt((int) address) + 4;
+        live -= size;
+        garbage += size;
+        if(garbage > live && garbage >= MIN_SLAB) {
+            compact();
+        }
+    }
+    
+    private long append(@Nonnull final byte[] record, final int length) {
+        final int size = length + 4;
+        if(current == null || current.remaining() < size) {
+            final int last = current == null ? 0 : current.capacity();
+            final int slabSize = Math.max(size, Math.max(MIN_SLAB, Math.min(MAX_SLAB, last << 1)));
+            current = ByteBuffer.allocateDirect(slabSize);
+            slabs.add(current);
+            capacity += slabSize;
+        }
+        final int offset = current.position();
+        current.putInt(length);
+        current.put(record, 0, length);
+        return address(slabs.size() - 1, offset);
+    }
+    
+    private void compact() {
+        final List<ByteBuffer> oldSlabs = slabs;
+        final LongLongMap oldIndex = index;
+        // Start with a slab that fits everything, if we can
+        final int first = (int) Math.max(MIN_SLAB, Math.min(MAX_SLAB, live));
+        current = ByteBuffer.allocateDirect(first);
+        slabs = new ArrayList<>(1);
+        slabs.add(current);
+        index = new LongLongMap(oldIndex.size());
+        capacity = first;
+        final byte[][] scratch = {new byte[256]};
+        oldIndex.forEach((id, address) -> {
+            final ByteBuffer slab = oldSlabs.get((int) (address >>> 32));
+            final int offset = (int) address;
+            final int length = slab.getInt(offset);
+            if(scratch[0].length < length) {
+                scratch[0] = new byte[length];
+            }
+            final ByteBuffer view = slab.duplicate();
+            view.position(offset + 4);
+            view.get(scratch[0], 0, length);
+            index.put(id, append(scratch[0], length));
+        });
+        garbage = 0;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes an entity into a reusable on-heap buffer, which a
+ * {@link SlabStore} then copies off-heap, or a
+ * {@link com.mewna.catnip.cache.CacheSnapshot} writes out to disk.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+public final class SlabWriter {
+    private static final ThreadLocal<SlabWriter> WRITERS = ThreadLocal.withInitial(SlabWriter::new);
+    
+    private byte[] buffer = new byte[256];
+    private int length;
+    
+    private SlabWriter() {
+    }
+    
+    /**
+     * @return This thread's writer, emptied.
+     */
+    @Nonnull
+    public static SlabWriter get() {
+        final SlabWriter writer = WRITERS.get();
+        writer.length = 0;
+        return writer;
+    }
+    
+    @Nonnull
+    public byte[] buffer() {
+        return buffer;
+    }
+    
+    public int length() {
+        return length;
+    }
+    
+    private void ensure(final int bytes) {
+        if(length + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + bytes));
+        }
+    }
+    
+    public void writeByte(final int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+    }
+    
+    public void writeBoolean(final boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+    
+    public void writeInt(final int value) {
+        ensure(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+    
+    public void writeLong(final long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+    
+    /**
+     * Writes a non-negative int in as few bytes as possible, 7 bits at a
+     * time.
+     */
+    public void writeVarInt(int value) {
+        while((value & ~0x7F) != 0) {
+            writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+    
+    /**
+     * Writes a snowflake. Snowflakes are never 0, so 0 stands in for
+     * {@code null}.
+     */
+    public void writeSnowflake(@Nullable final String id) {
+        writeLong(id == null ? 0L : Long.parseUnsignedLong(id));
+    }
+    
+    public void writeString(@Nullable final String value) {
+        if(value == null) {
+            writeVarInt(0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Length is shifted by one so that 0 can mean null
+        writeVarInt(bytes.length + 1);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+}
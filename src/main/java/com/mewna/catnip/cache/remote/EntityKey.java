@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.remote;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Identifies a single entity in a {@link RemoteStore}.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+@Value
+@Accessors(fluent = true)
+public class EntityKey {
+    @Nonnull
+    private Kind kind;
+    /**
+     * The guild the entity belongs to, or 0 for entities that aren't cached
+     * per guild, ie. guilds, users and presences.
+     */
+    private long guildId;
+    private long id;
+    
+    @Nonnull
+    public static EntityKey of(@Nonnull final Kind kind, final long id) {
+        return new EntityKey(kind, 0L, id);
+    }
+    
+    @Nonnull
+    public static EntityKey of(@Nonnull final Kind kind, final long guildId, final long id) {
+        return new EntityKey(kind, guildId, id);
+    }
+    
+    public enum Kind {
+        GUILD,
+        USER,
+        PRESENCE,
+        MEMBER,
+        ROLE,
+        CHANNEL,
+        EMOJI,
+        VOICE_STATE,
+    }
+}
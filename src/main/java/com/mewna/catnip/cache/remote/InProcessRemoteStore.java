@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.remote;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link RemoteStore} that keeps everything in a map in this process, for
+ * testing and benchmarking without a real store. Every call can be given a
+ * fixed latency, to stand in for a round trip over the network, and entities
+ * are copied on the way in and out, as they would be by a real store.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+public final class InProcessRemoteStore implements RemoteStore {
+    private final Map<EntityKey, byte[]> entities = new ConcurrentHashMap<>();
+    private final long latencyNanos;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    
+    /**
+     * Creates a store that completes every call right away.
+     */
+    public InProcessRemoteStore() {
+        this(Duration.ZERO);
+    }
+    
+    public InProcessRemoteStore(@Nonnull final Duration latency) {
+        latencyNanos = latency.toNanos();
+        if(latencyNanos > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "catnip-in-process-store");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            scheduler = null;
+        }
+    }
+    
+    private <T> CompletionStage<T> later(@Nonnull final Supplier<T> call) {
+        if(scheduler == null) {
+            return CompletableFuture.completedFuture(call.get());
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(call.get()), latencyNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+    
+    @Nonnull
+    @Override
+    public CompletionStage<Map<EntityKey, byte[]>> getAll(@Nonnull final Collection<EntityKey> keys) {
+        gets.incrementAndGet();
+        return later(() -> {
+            final Map<EntityKey, byte[]> found = new HashMap<>();
+            for(final EntityKey key : keys) {
+                final byte[] entity = entities.get(key);
+                if(entity != null) {
+                    found.put(key, entity.clone());
+                }
+            }
+            return found;
+        });
+    }
+    
+    @Nonnull
+    @Override
+    public CompletionStage<Void> writeAll(@Nonnull final Map<EntityKey, byte[]> puts,
+                                         @Nonnull final Collection<EntityKey> removals) {
+        writes.incrementAndGet();
+        return later(() -> {
+            puts.forEach((key, entity) -> entities.put(key, entity.clone()));
+            removals.forEach(entities::remove);
+            return null;
+        });
+    }
+    
+    @Nonnull
+    @Override
+    public CompletionStage<Void> removeGuilds(@Nonnull final Collection<Long> guildIds) {
+        writes.incrementAndGet();
+        return later(() -> {
+            entities.keySet().removeIf(key -> guildIds.contains(key.guildId()));
+            return null;
+        });
+    }
+    
+    /**
+     * @return Whether or not the store holds an entity for the key.
+     */
+    public boolean contains(@Nonnull final EntityKey key) {
+        return entities.containsKey(key);
+    }
+    
+    /**
+     * @return How many entities the store holds.
+     */
+    public int size() {
+        return entities.size();
+    }
+    
+    /**
+     * @return How many times {@link #getAll(Collection)} has been called.
+     */
+    public long gets() {
+        return gets.get();
+    }
+    
+    /**
+     * @return How many times {@link #writeAll(Map, Collection)} and
+     * {@link #removeGuilds(Collection)} have been called.
+     */
+    public long writes() {
+        return writes.get();
+    }
+    
+    public void shutdown() {
+        if(scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
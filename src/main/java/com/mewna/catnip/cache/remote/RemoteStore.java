@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.remote;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An out-of-process store of encoded entities, such as Redis, that a
+ * {@link com.mewna.catnip.cache.NearCachedEntityCache} keeps its entities
+ * in. Entities are stored as opaque bytes; the store doesn't need to know
+ * anything about them.
+ * <p/>
+ * Every method is only ever called with a batch, so that each is a single
+ * round trip, and must not block the calling thread.
+ *
+ * @author amy
+ * @since 1/10/19.
+ */
+public interface RemoteStore {
+    /**
+     * Fetch several entities at once.
+     *
+     * @return The entities that were found. Keys that weren't found are left
+     * out.
+     */
+    @Nonnull
+    CompletionStage<Map<EntityKey, byte[]>> getAll(@Nonnull Collection<EntityKey> keys);
+    
+    /**
+     * Write and remove several entities at once. A key is never in both.
+     */
+    @Nonnull
+    CompletionStage<Void> writeAll(@Nonnull Map<EntityKey, byte[]> puts, @Nonnull Collection<EntityKey> removals);
+    
+    /**
+     * Remove everything cached per guild for several guilds at once, ie.
+     * every entity whose key has one of the given guild ids.
+     */
+    @Nonnull
+    CompletionStage<Void> removeGuilds(@Nonnull Collection<Long> guildIds);
+}
@@ -32,6 +32,7 @@ import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.LongConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -105,6 +106,19 @@ public interface CacheView<T> extends Iterable<T> {
     @Nonnull
     <C extends Collection<T>> C find(@Nonnull Predicate<T> filter, @Nonnull Supplier<C> supplier);
     
+    /**
+     * Invokes the provided consumer with the id of every element in this
+     * cache. Implementations backed by primitive maps can do this without
+     * boxing the ids, unlike iterating {@link #keys()}.
+     *
+     * @param consumer Consumer for the ids.
+     */
+    default void forEachKey(@Nonnull final LongConsumer consumer) {
+        for(final Long key : keys()) {
+            consumer.accept(key);
+        }
+    }
+    
     /**
      * @return A view of all the keys in this cache. Updated if this cache is modified.
      *
@@ -30,8 +30,10 @@ package com.mewna.catnip.cache.view;
 import com.mewna.catnip.util.Utils;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * A {@link NamedCacheView NamedCacheView} that's equivalent to a collection of provided ones.
@@ -53,25 +55,48 @@ public class CompositeNamedCacheView<T> extends CompositeCacheView<T> implements
     @Nonnull
     @Override
     public Collection<T> findByName(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? name(e).equalsIgnoreCase(name) : name(e).equals(name));
+        return findByName(v -> v.findByName(name, ignoreCase),
+                e -> ignoreCase ? name(e).equalsIgnoreCase(name) : name(e).equals(name));
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameContains(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.containsIgnoreCase(name(e), name) : name(e).contains(name));
+        return findByName(v -> v.findByNameContains(name, ignoreCase),
+                e -> ignoreCase ? Utils.containsIgnoreCase(name(e), name) : name(e).contains(name));
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameStartsWith(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.startsWithIgnoreCase(name(e), name) : name(e).startsWith(name));
+        return findByName(v -> v.findByNameStartsWith(name, ignoreCase),
+                e -> ignoreCase ? Utils.startsWithIgnoreCase(name(e), name) : name(e).startsWith(name));
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameEndsWith(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.endsWithIgnoreCase(name(e), name) : name(e).endsWith(name));
+        return findByName(v -> v.findByNameEndsWith(name, ignoreCase),
+                e -> ignoreCase ? Utils.endsWithIgnoreCase(name(e), name) : name(e).endsWith(name));
+    }
+    
+    /**
+     * Sources with a name index are asked to look the name up themselves;
+     * they're expected to use the same name function as this view. The rest
+     * are scanned.
+     */
+    @Nonnull
+    private Collection<T> findByName(@Nonnull final Function<NamedCacheView<T>, Collection<T>> indexed,
+                                     @Nonnull final Predicate<T> filter) {
+        final Collection<T> collection = new ArrayList<>();
+        for(final CacheView<T> source : sources) {
+            if(source instanceof DefaultNamedCacheView && ((DefaultNamedCacheView<T>) source).nameIndexEnabled()) {
+                collection.addAll(indexed.apply((NamedCacheView<T>) source));
+            } else {
+                source.find(filter, () -> collection);
+            }
+        }
+        return collection;
     }
     
     private String name(@Nonnull final T element) {
@@ -27,16 +27,19 @@
 
 package com.mewna.catnip.cache.view;
 
+import com.mewna.catnip.util.ConcurrentLongMap;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
- * Default {@link CacheView CacheView} implementation.
+ * Default {@link CacheView CacheView} implementation, backed by a
+ * {@link ConcurrentLongMap} so that snowflakes are never boxed.
  *
  * @param <T> Type of the entity held by this cache.
  *
@@ -44,8 +47,35 @@ import java.util.stream.Collectors;
  * @since 12/15/18
  */
 public class DefaultCacheView<T> implements CacheView<T> {
-    protected final Map<Long, T> map = new ConcurrentHashMap<>();
+    protected final ConcurrentLongMap<T> entities;
+    /**
+     * A boxing {@link Map} view of {@link #entities}. Writes go through to
+     * this cache.
+     */
+    protected final Map<Long, T> map;
+    
+    public DefaultCacheView() {
+        this(new ConcurrentLongMap<>());
+    }
+    
+    /**
+     * @param concurrency How many threads can write to this cache at the same
+     *                    time. See {@link ConcurrentLongMap#ConcurrentLongMap(int)}.
+     */
+    public DefaultCacheView(final int concurrency) {
+        this(new ConcurrentLongMap<>(concurrency));
+    }
+    
+    private DefaultCacheView(final ConcurrentLongMap<T> entities) {
+        this.entities = entities;
+        map = entities.asMap();
+    }
     
+    /**
+     * @return A {@link Map} view of this cache. Writes go through to this
+     * cache, but keys are boxed on every access; prefer the methods on this
+     * class.
+     */
     @Nonnull
     public Map<Long, T> map() {
         return map;
@@ -53,7 +83,7 @@ public class DefaultCacheView<T> implements CacheView<T> {
     
     @Nullable
     public T put(final long key, @Nonnull final T value) {
-        return map.put(key, value);
+        return entities.put(key, value);
     }
     
     @Nullable
@@ -63,7 +93,7 @@ public class DefaultCacheView<T> implements CacheView<T> {
     
     @Nullable
     public T remove(final long key) {
-        return map.remove(key);
+        return entities.remove(key);
     }
     
     @Nullable
@@ -73,72 +103,83 @@ public class DefaultCacheView<T> implements CacheView<T> {
     
     @Override
     public long size() {
-        return map.size();
+        return entities.size();
     }
     
     @Override
     public T getById(final long id) {
-        return map.get(id);
+        return entities.get(id);
     }
     
     @Override
     public T findAny(@Nonnull final Predicate<T> filter) {
-        return map.values()
-                .stream()
-                .filter(filter)
-                .findAny()
-                .orElse(null);
+        final Iterator<T> iterator = entities.valueIterator();
+        while(iterator.hasNext()) {
+            final T element = iterator.next();
+            if(filter.test(element)) {
+                return element;
+            }
+        }
+        return null;
     }
     
     @Nonnull
     @Override
     public Collection<T> find(@Nonnull final Predicate<T> filter) {
-        return map.values()
-                .stream()
-                .filter(filter)
-                .collect(Collectors.toList());
+        return find(filter, ArrayList::new);
     }
     
     @Nonnull
     @Override
     public <C extends Collection<T>> C find(@Nonnull final Predicate<T> filter, @Nonnull final Supplier<C> supplier) {
         final C collection = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
-        return map.values()
-                .stream()
-                .filter(filter)
-                .collect(Collectors.toCollection(() -> collection));
+        entities.forEachValue(e -> {
+            if(filter.test(e)) {
+                collection.add(e);
+            }
+        });
+        return collection;
+    }
+    
+    @Override
+    public void forEachKey(@Nonnull final LongConsumer consumer) {
+        entities.forEachKey(consumer);
+    }
+    
+    @Override
+    public void forEach(@Nonnull final Consumer<? super T> action) {
+        entities.forEachValue(action);
     }
     
     @Nonnull
     @Override
     public Set<Long> keys() {
-        return Collections.unmodifiableSet(map.keySet());
+        return entities.keySet();
     }
     
     @Nonnull
     @Override
     public Collection<T> values() {
-        return Collections.unmodifiableCollection(map.values());
+        return entities.values();
     }
     
     @Nonnull
     @Override
     public Collection<T> snapshot() {
-        return snapshot(() -> new ArrayList<>((int)size()));
+        return snapshot(() -> new ArrayList<>((int) size()));
     }
     
     @Nonnull
     @Override
     public <C extends Collection<T>> C snapshot(@Nonnull final Supplier<C> supplier) {
-        final Collection<T> values = map.values();
         final C r = Objects.requireNonNull(supplier.get(), "Provided collection may not be null");
-        r.addAll(values);
+        entities.forEachValue(r::add);
         return r;
     }
     
     @Nonnull
     @Override
     public Iterator<T> iterator() {
-        return map.values().iterator();
+        return entities.valueIterator();
     }
 }
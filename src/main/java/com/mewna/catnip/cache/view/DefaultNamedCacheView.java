@@ -30,11 +30,24 @@ package com.mewna.catnip.cache.view;
 import com.mewna.catnip.util.Utils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 /**
  * Default {@link NamedCacheView NamedCacheView} implementation.
+ * <p/>
+ * Name lookups scan the whole cache, unless the name index has been enabled
+ * with {@link #enableNameIndex()}. With the index, exact and starts-with
+ * lookups only look at matching entities, and contains and ends-with
+ * lookups scan indexed names instead of entities, at the cost of roughly
+ * two hundred bytes of heap per entity. Entities removed through
+ * {@link #iterator()} stay in the index until their id is next written or
+ * refreshed; lookups re-check every entity they return, so this only costs
+ * memory.
  *
  * @param <T> Type of the entity held by this cache.
  *
@@ -43,36 +56,160 @@ import java.util.function.Function;
  */
 public class DefaultNamedCacheView<T> extends DefaultCacheView<T> implements NamedCacheView<T> {
     private final Function<T, String> nameFunction;
+    private volatile NameIndex index;
     
     public DefaultNamedCacheView(final Function<T, String> nameFunction) {
         this.nameFunction = nameFunction;
     }
     
+    public DefaultNamedCacheView(final Function<T, String> nameFunction, final int concurrency) {
+        super(concurrency);
+        this.nameFunction = nameFunction;
+    }
+    
+    /**
+     * Starts maintaining a name index for this cache, indexing everything
+     * already in it. Does nothing if the index is already enabled.
+     *
+     * @return Itself.
+     */
+    @Nonnull
+    public synchronized DefaultNamedCacheView<T> enableNameIndex() {
+        if(index == null) {
+            // Published before it's filled, so that concurrent writes aren't
+            // missed; refreshing an id twice is harmless
+            index = new NameIndex(this::currentName);
+            forEachKey(index::refresh);
+        }
+        return this;
+    }
+    
+    public boolean nameIndexEnabled() {
+        return index != null;
+    }
+    
+    /**
+     * Updates the name index for the entity with the given id. Writes to
+     * this cache do this automatically; call it when an entity's name is
+     * derived from something else, and that changes.
+     *
+     * @param id The id of the entity whose name may have changed.
+     */
+    public void refreshName(final long id) {
+        final NameIndex index = this.index;
+        if(index != null) {
+            index.refresh(id);
+        }
+    }
+    
+    /**
+     * @return The current name of the entity with the given id, or
+     * {@code null} if there's no such entity. Subclasses that store entities
+     * in another form may override this to avoid building the entity.
+     */
+    @Nullable
+    protected String currentName(final long id) {
+        final T element = getById(id);
+        return element == null ? null : name(element);
+    }
+    
+    @Nullable
+    @Override
+    public T put(final long key, @Nonnull final T value) {
+        final T old = super.put(key, value);
+        refreshName(key);
+        return old;
+    }
+    
+    @Nullable
+    @Override
+    public T remove(final long key) {
+        final T old = super.remove(key);
+        refreshName(key);
+        return old;
+    }
+    
     @Nonnull
     @Override
     public Collection<T> findByName(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? name(e).equalsIgnoreCase(name) : name(e).equals(name));
+        final NameIndex index = this.index;
+        final Predicate<String> filter = ignoreCase ? e -> e.equalsIgnoreCase(name) : e -> e.equals(name);
+        if(index == null || name.isEmpty()) {
+            return findByName(filter);
+        }
+        final Collection<T> collection = new ArrayList<>();
+        final LongConsumer add = id -> addIfNamed(collection, id, filter);
+        if(ignoreCase) {
+            index.forEachFolded(name, add);
+        } else {
+            index.forEachExact(name, add);
+        }
+        return collection;
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameContains(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.containsIgnoreCase(name(e), name) : name(e).contains(name));
+        return findByNameUsingNames(e -> ignoreCase ? Utils.containsIgnoreCase(e, name) : e.contains(name));
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameStartsWith(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.startsWithIgnoreCase(name(e), name) : name(e).startsWith(name));
+        final NameIndex index = this.index;
+        final Predicate<String> filter = e -> ignoreCase ? Utils.startsWithIgnoreCase(e, name) : e.startsWith(name);
+        // Unnamed entities aren't indexed, and an empty prefix matches them
+        if(index == null || name.isEmpty()) {
+            return findByName(filter);
+        }
+        final Collection<T> collection = new ArrayList<>();
+        index.forEachPrefixed(name, id -> addIfNamed(collection, id, filter));
+        return collection;
     }
     
     @Nonnull
     @Override
     public Collection<T> findByNameEndsWith(@Nonnull final String name, final boolean ignoreCase) {
-        return find(e -> ignoreCase ? Utils.endsWithIgnoreCase(name(e), name) : name(e).endsWith(name));
+        return findByNameUsingNames(e -> ignoreCase ? Utils.endsWithIgnoreCase(e, name) : e.endsWith(name));
+    }
+    
+    /**
+     * Finds all entities whose name matches the filter, without using the
+     * name index.
+     */
+    @Nonnull
+    protected Collection<T> findByName(@Nonnull final Predicate<String> filter) {
+        return find(e -> filter.test(name(e)));
     }
     
-    private String name(@Nonnull final T element) {
+    @Nonnull
+    private Collection<T> findByNameUsingNames(@Nonnull final Predicate<String> filter) {
+        final NameIndex index = this.index;
+        // Unnamed entities aren't indexed, so filters that match them have
+        // to look at everything
+        if(index == null || filter.test("")) {
+            return findByName(filter);
+        }
+        final Collection<T> collection = new ArrayList<>();
+        index.forEachName((id, name) -> {
+            if(filter.test(name)) {
+                addIfNamed(collection, id, filter);
+            }
+        });
+        return collection;
+    }
+    
+    private void addIfNamed(@Nonnull final Collection<T> collection, final long id, @Nonnull final Predicate<String> filter) {
+        // The index may be a step behind the cache, so check the entity
+        // itself too
+        final T element = getById(id);
+        if(element != null && filter.test(name(element))) {
+            collection.add(element);
+        }
+    }
+    
+    @Nonnull
+    protected String name(@Nonnull final T element) {
         final String name = nameFunction.apply(element);
         return name == null ? "" : name;
     }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.view;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+import com.mewna.catnip.util.ConcurrentLongMap.EntryConsumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Secondary indexes over the names of the entities in a named cache view:
+ * an exact-match hash index, and a sorted index of case-folded names for
+ * case-insensitive and starts-with lookups. It also remembers the name each
+ * entity was indexed under, so that contains and ends-with lookups can scan
+ * names without touching the entities.
+ * <p/>
+ * The index never trusts the caller about what changed. {@link #refresh(long)}
+ * looks up the entity's current name and moves it in the index if needed,
+ * which keeps derived names (ex. a member named after their user) correct as
+ * long as something refreshes them when they change. Lookups only return
+ * candidates; the view re-checks every entity it returns.
+ * <p/>
+ * The ids under each name are a {@link ConcurrentLongMap} used as a set, so
+ * adding one doesn't copy the rest, even when thousands of entities share a
+ * name. Entities with no name, or an empty one, aren't indexed by name at
+ * all; lookups that could match them have to scan the view instead.
+ *
+ * @author amy
+ * @since 12/31/18.
+ */
+final class NameIndex {
+    private static final Boolean PRESENT = Boolean.TRUE;
+    // Writes are serialized by refresh anyway
+    private static final int CONCURRENCY = 1;
+    
+    private final LongFunction<String> names;
+    private final ConcurrentLongMap<String> indexed = new ConcurrentLongMap<>();
+    private final Map<String, ConcurrentLongMap<Boolean>> exact = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<String, ConcurrentLongMap<Boolean>> folded = new ConcurrentSkipListMap<>();
+    
+    /**
+     * @param names Gets the current name of the entity with the given id, or
+     *              {@code null} if there's no such entity.
+     */
+    NameIndex(@Nonnull final LongFunction<String> names) {
+        this.names = names;
+    }
+    
+    /**
+     * Folds case one char at a time, the same way
+     * {@link String#equalsIgnoreCase(String)} compares chars, so that folded
+     * names are the same length and prefixes stay prefixes.
+     */
+    @Nonnull
+    static String fold(@Nonnull final String name) {
+        final char[] chars = name.toCharArray();
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+    
+    private static void add(@Nonnull final Map<String, ConcurrentLongMap<Boolean>> index, @Nonnull final String name,
+                            final long id) {
+        index.computeIfAbsent(name, __ -> new ConcurrentLongMap<>(CONCURRENCY)).put(id, PRESENT);
+    }
+    
+    private static void remove(@Nonnull final Map<String, ConcurrentLongMap<Boolean>> index, @Nonnull final String name,
+                               final long id) {
+        final ConcurrentLongMap<Boolean> ids = index.get(name);
+        if(ids != null && ids.remove(id) != null && ids.isEmpty()) {
+            // Only refresh adds to the index, and it holds the lock
+            index.remove(name);
+        }
+    }
+    
+    /**
+     * Brings the index up to date with the entity with the given id, whether
+     * it was added, renamed, or removed.
+     */
+    synchronized void refresh(final long id) {
+        final String name = names.apply(id);
+        final String old = indexed.get(id);
+        if(Objects.equals(name, old)) {
+            return;
+        }
+        if(old != null) {
+            remove(exact, old, id);
+            remove(folded, fold(old), id);
+            indexed.remove(id);
+        }
+        if(name != null && !name.isEmpty()) {
+            add(exact, name, id);
+            add(folded, fold(name), id);
+            indexed.put(id, name);
+        }
+    }
+    
+    /**
+     * Passes the id of every entity with exactly the given name.
+     */
+    void forEachExact(@Nonnull final String name, @Nonnull final LongConsumer consumer) {
+        final ConcurrentLongMap<Boolean> ids = exact.get(name);
+        if(ids != null) {
+            ids.forEachKey(consumer);
+        }
+    }
+    
+    /**
+     * Passes the id of every entity with the given name, ignoring case.
+     */
+    void forEachFolded(@Nonnull final String name, @Nonnull final LongConsumer consumer) {
+        final ConcurrentLongMap<Boolean> ids = folded.get(fold(name));
+        if(ids != null) {
+            ids.forEachKey(consumer);
+        }
+    }
+    
+    /**
+     * Passes the id of every entity whose folded name starts with the folded
+     * prefix.
+     */
+    void forEachPrefixed(@Nonnull final String prefix, @Nonnull final LongConsumer consumer) {
+        final String from = fold(prefix);
+        for(final ConcurrentLongMap<Boolean> ids : folded.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            ids.forEachKey(consumer);
+        }
+    }
+    
+    /**
+     * Passes every id indexed by name, with the name it's indexed under.
+     */
+    void forEachName(@Nonnull final EntryConsumer<String> consumer) {
+        indexed.forEach(consumer);
+    }
+    
+    @Nullable
+    String indexedName(final long id) {
+        return indexed.get(id);
+    }
+}
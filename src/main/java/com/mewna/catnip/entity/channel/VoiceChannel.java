@@ -30,9 +30,11 @@ package com.mewna.catnip.entity.channel;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.mewna.catnip.entity.impl.VoiceChannelImpl;
+import com.mewna.catnip.entity.user.VoiceState;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
+import java.util.List;
 
 /**
  * A voice channel in a guild.
@@ -71,6 +73,15 @@ public interface VoiceChannel extends GuildChannel {
         catnip().openVoiceConnection(guildId(), id());
     }
     
+    /**
+     * @return The cached voice states of everyone connected to this channel.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default List<VoiceState> voiceStates() {
+        return catnip().cache().channelVoiceStates(guildId(), id());
+    }
+    
     @Override
     @JsonIgnore
     @CheckReturnValue
@@ -306,6 +306,17 @@ public interface Guild extends Snowflake {
         return catnip().cache().members(id());
     }
     
+    /**
+     * @param roleId The ID of the role.
+     *
+     * @return All members in this guild with the given role.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default List<Member> roleMembers(@Nonnull final String roleId) {
+        return catnip().cache().roleMembers(id(), roleId);
+    }
+    
     /**
      * @return All channels in this guild.
      */
@@ -324,6 +335,17 @@ public interface Guild extends Snowflake {
         return catnip().cache().voiceStates(id());
     }
     
+    /**
+     * @param channelId The ID of the voice channel.
+     *
+     * @return The voice states of everyone connected to the given channel.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default List<VoiceState> channelVoiceStates(@Nonnull final String channelId) {
+        return catnip().cache().channelVoiceStates(id(), channelId);
+    }
+    
     // REST methods
     
     /**
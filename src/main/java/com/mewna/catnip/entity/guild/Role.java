@@ -34,6 +34,7 @@ import com.mewna.catnip.entity.util.Permission;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -135,4 +136,15 @@ public interface Role extends Snowflake {
      */
     @CheckReturnValue
     boolean mentionable();
+    
+    /**
+     * The cached members of the guild this role is from that have this role.
+     *
+     * @return List of the members with this role. Never null.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default List<Member> members() {
+        return catnip().cache().roleMembers(guildId(), id());
+    }
 }
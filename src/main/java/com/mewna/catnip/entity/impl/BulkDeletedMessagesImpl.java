@@ -32,6 +32,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.entity.RequiresCatnip;
 import com.mewna.catnip.entity.message.BulkDeletedMessages;
+import com.mewna.catnip.entity.message.Message;
 import lombok.*;
 import lombok.experimental.Accessors;
 
@@ -55,6 +56,7 @@ public class BulkDeletedMessagesImpl implements BulkDeletedMessages, RequiresCat
     private List<String> ids;
     private String channelId;
     private String guildId;
+    private List<Message> cachedMessages;
     
     @Override
     public void catnip(@Nonnull final Catnip catnip) {
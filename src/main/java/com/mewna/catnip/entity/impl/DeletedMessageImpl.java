@@ -32,6 +32,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.entity.RequiresCatnip;
 import com.mewna.catnip.entity.message.DeletedMessage;
+import com.mewna.catnip.entity.message.Message;
 import lombok.*;
 import lombok.experimental.Accessors;
 
@@ -54,6 +55,7 @@ public class DeletedMessageImpl implements DeletedMessage, RequiresCatnip {
     private String id;
     private String channelId;
     private String guildId;
+    private Message cachedMessage;
     
     @Override
     public void catnip(@Nonnull final Catnip catnip) {
@@ -1110,6 +1110,7 @@ public final class EntityBuilder {
                 .ids(ImmutableList.copyOf(data.getJsonArray("ids").stream().map(e -> (String) e).collect(Collectors.toList())))
                 .channelId(data.getString("channel_id"))
                 .guildId(data.getString("guild_id"))
+                .cachedMessages(ImmutableList.of())
                 .build();
     }
     
@@ -1241,6 +1242,7 @@ public final class EntityBuilder {
                 .totalSessions(sessionStartLimit.getInteger("total"))
                 .remainingSessions(sessionStartLimit.getInteger("remaining"))
                 .resetAfter(sessionStartLimit.getLong("reset_after"))
+                .maxConcurrency(sessionStartLimit.getInteger("max_concurrency", 1))
                 .build();
     }
 }
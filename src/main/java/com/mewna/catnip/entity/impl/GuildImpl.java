@@ -115,6 +115,15 @@ public class GuildImpl implements Guild, RequiresCatnip, Timestamped {
         return parseTimestamp(joinedAt);
     }
     
+    /**
+     * @return The join date exactly as Discord sent it, so that it can be
+     * carried over to an updated guild without parsing and re-formatting it.
+     */
+    @Nullable
+    public String rawJoinedAt() {
+        return joinedAt;
+    }
+    
     @Override
     public String toString() {
         return String.format("Guild (%s, %s)", name, id);
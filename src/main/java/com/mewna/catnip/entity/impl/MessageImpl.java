@@ -79,6 +79,7 @@ public class MessageImpl implements Message, RequiresCatnip, Timestamped {
     private MessageType type;
     private Member member;
     private String guildId;
+    private Message previous;
     
     @Override
     public void catnip(@Nonnull final Catnip catnip) {
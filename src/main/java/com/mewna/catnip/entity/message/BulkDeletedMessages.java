@@ -57,4 +57,13 @@ public interface BulkDeletedMessages extends Entity {
      */
     @Nullable
     String guildId();
+    
+    /**
+     * @return The deleted messages that were in the message cache, as they
+     * were when they were deleted. Empty if none were.
+     *
+     * @see com.mewna.catnip.cache.MemoryEntityCache#messagesPerChannel(int)
+     */
+    @Nonnull
+    List<Message> cachedMessages();
 }
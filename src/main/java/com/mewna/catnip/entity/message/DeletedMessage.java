@@ -50,4 +50,13 @@ public interface DeletedMessage extends Snowflake {
      */
     @Nullable
     String guildId();
+    
+    /**
+     * @return The message as it was when it was deleted, if it was in the
+     * message cache.
+     *
+     * @see com.mewna.catnip.cache.MemoryEntityCache#messagesPerChannel(int)
+     */
+    @Nullable
+    Message cachedMessage();
 }
@@ -161,6 +161,19 @@ public interface Message extends Snowflake {
     @Nullable
     OffsetDateTime editedTimestamp();
     
+    /**
+     * For messages from {@code MESSAGE_UPDATE} events, the message as it was
+     * before this edit, if it was in the message cache. Only one edit back is
+     * kept; the previous message's own previous version is always null.
+     *
+     * @return The message before this edit, or {@code null} if this isn't an
+     * edit or the message wasn't cached.
+     *
+     * @see com.mewna.catnip.cache.MemoryEntityCache#messagesPerChannel(int)
+     */
+    @Nullable
+    Message previous();
+    
     /**
      * The message's content.
      * //TODO: Check if embed-only messages return null.
@@ -43,4 +43,11 @@ public interface GatewayInfo extends Entity {
     int remainingSessions();
     
     long resetAfter();
+    
+    /**
+     * @return How many shards may IDENTIFY at the same time. Shards are
+     * split into this many buckets by {@code shard_id % max_concurrency},
+     * and each bucket may IDENTIFY once every 5 seconds.
+     */
+    int maxConcurrency();
 }
@@ -59,15 +59,25 @@ public abstract class AbstractExtension extends AbstractVerticle implements Exte
     @Override
     public Extension registerHook(@Nonnull final CatnipHook hook) {
         hooks.add(hook);
+        refreshHooks();
         return this;
     }
     
     @Override
     public Extension unregisterHook(@Nonnull final CatnipHook hook) {
         hooks.remove(hook);
+        refreshHooks();
         return this;
     }
     
+    private void refreshHooks() {
+        // Hooks may be registered before the extension is loaded, in which
+        // case the extension manager will pick them up when it loads it
+        if(catnip != null) {
+            catnip.extensionManager().refreshHooks();
+        }
+    }
+    
     @Override
     public Set<CatnipHook> hooks() {
         return ImmutableSet.copyOf(hooks);
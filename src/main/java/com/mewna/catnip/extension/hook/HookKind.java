@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.extension.hook;
+
+import com.mewna.catnip.rest.ResponsePayload;
+import com.mewna.catnip.rest.Routes.Route;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The distinct hook points exposed by {@link CatnipHook}. Extension managers
+ * use this to keep a separate, precompiled list of hooks per hook point, so
+ * that a hook that only touches REST payloads never costs anything on the
+ * gateway path (and vice versa).
+ *
+ * @author amy
+ * @since 12/26/18.
+ */
+public enum HookKind {
+    GATEWAY_RECEIVE("rawGatewayReceiveHook", JsonObject.class),
+    GATEWAY_SEND("rawGatewaySendHook", JsonObject.class),
+    REST_RECEIVE("rawRestReceiveDataHook", Route.class, ResponsePayload.class),
+    REST_SEND("rawRestSendObjectHook", Route.class, JsonObject.class),
+    ;
+    
+    private final String method;
+    private final Class<?>[] parameters;
+    
+    HookKind(final String method, final Class<?>... parameters) {
+        this.method = method;
+        this.parameters = parameters;
+    }
+    
+    /**
+     * Whether or not the given hook actually does anything at this hook
+     * point, ie. whether it overrides the identity default from
+     * {@link CatnipHook}. Hooks whose implementation can't be inspected are
+     * assumed to apply.
+     *
+     * @param hook The hook to check.
+     *
+     * @return {@code true} if the hook should be run at this hook point.
+     */
+    public boolean appliesTo(@Nonnull final CatnipHook hook) {
+        try {
+            return hook.getClass().getMethod(method, parameters).getDeclaringClass() != CatnipHook.class;
+        } catch(final NoSuchMethodException | SecurityException e) {
+            return true;
+        }
+    }
+}
@@ -27,9 +27,13 @@
 
 package com.mewna.catnip.extension.manager;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.extension.Extension;
+import com.mewna.catnip.extension.hook.CatnipHook;
+import com.mewna.catnip.extension.hook.HookKind;
 import io.vertx.core.impl.ConcurrentHashSet;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -37,10 +41,18 @@ import lombok.experimental.Accessors;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
+ * Hooks are flattened into one immutable list per {@link HookKind} whenever
+ * an extension is loaded or unloaded, or its hooks change, so the gateway and
+ * REST hot paths never copy or walk the extension set.
+ *
  * @author amy
  * @since 9/6/18
  */
@@ -50,22 +62,46 @@ public class DefaultExtensionManager implements ExtensionManager {
     @Getter
     private final Catnip catnip;
     private final Collection<Extension> loadedExtensions = new ConcurrentHashSet<>();
+    private final Map<Extension, String> deployments = new ConcurrentHashMap<>();
+    private volatile Set<Extension> extensions = ImmutableSet.of();
+    private volatile Map<HookKind, List<CatnipHook>> hooks = buildHooks(ImmutableSet.of());
     
     @Override
-    public ExtensionManager loadExtension(@Nonnull final Extension extension) {
+    public synchronized ExtensionManager loadExtension(@Nonnull final Extension extension) {
         if(!loadedExtensions.contains(extension)) {
             extension.catnip(catnip);
-            catnip.vertx().deployVerticle(extension);
+            // Hooks are usually registered in start(), so rebuild again once
+            // the deployment has actually finished
+            catnip.vertx().deployVerticle(extension, res -> {
+                synchronized(this) {
+                    if(res.succeeded()) {
+                        if(loadedExtensions.contains(extension)) {
+                            deployments.put(extension, res.result());
+                        } else {
+                            // Unloaded before the deployment finished
+                            catnip.vertx().undeploy(res.result());
+                        }
+                    }
+                    refreshHooks();
+                }
+            });
             loadedExtensions.add(extension);
+            refresh();
         }
         return this;
     }
     
     @Override
-    public ExtensionManager unloadExtension(@Nonnull final Extension extension) {
+    public synchronized ExtensionManager unloadExtension(@Nonnull final Extension extension) {
         if(loadedExtensions.contains(extension)) {
-            catnip.vertx().undeploy(extension.deploymentID());
             loadedExtensions.remove(extension);
+            // If the deployment hasn't finished yet, the deploy handler will
+            // take care of undeploying it
+            final String deployment = deployments.remove(extension);
+            if(deployment != null) {
+                catnip.vertx().undeploy(deployment);
+            }
+            refresh();
         }
         return this;
     }
@@ -73,7 +109,7 @@ public class DefaultExtensionManager implements ExtensionManager {
     @Nonnull
     @Override
     public Set<Extension> matchingExtensions(@Nonnull final String regex) {
-        return ImmutableSet.copyOf(loadedExtensions.stream()
+        return ImmutableSet.copyOf(extensions.stream()
                 .filter(e -> e.name().matches(regex))
                 .collect(Collectors.toSet()));
     }
@@ -81,7 +117,7 @@ public class DefaultExtensionManager implements ExtensionManager {
     @Nonnull
     @Override
     public <T extends Extension> Set<Extension> matchingExtensions(@Nonnull final Class<T> extensionClass) {
-        return ImmutableSet.copyOf(loadedExtensions.stream()
+        return ImmutableSet.copyOf(extensions.stream()
                 .filter(e -> extensionClass.isAssignableFrom(e.getClass()))
                 .collect(Collectors.toSet()));
     }
@@ -89,6 +125,38 @@ public class DefaultExtensionManager implements ExtensionManager {
     @Nonnull
     @Override
     public Set<Extension> extensions() {
-        return ImmutableSet.copyOf(loadedExtensions);
+        return extensions;
+    }
+    
+    @Nonnull
+    @Override
+    public List<CatnipHook> hooks(@Nonnull final HookKind kind) {
+        return hooks.get(kind);
+    }
+    
+    @Override
+    public synchronized void refreshHooks() {
+        hooks = buildHooks(extensions);
+    }
+    
+    private void refresh() {
+        extensions = ImmutableSet.copyOf(loadedExtensions);
+        refreshHooks();
+    }
+    
+    private static Map<HookKind, List<CatnipHook>> buildHooks(final Set<Extension> extensions) {
+        final Map<HookKind, List<CatnipHook>> out = new EnumMap<>(HookKind.class);
+        for(final HookKind kind : HookKind.values()) {
+            final ImmutableList.Builder<CatnipHook> builder = ImmutableList.builder();
+            for(final Extension extension : extensions) {
+                for(final CatnipHook hook : extension.hooks()) {
+                    if(kind.appliesTo(hook)) {
+                        builder.add(hook);
+                    }
+                }
+            }
+            out.put(kind, builder.build());
+        }
+        return Maps.immutableEnumMap(out);
     }
 }
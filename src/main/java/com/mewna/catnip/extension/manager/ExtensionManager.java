@@ -29,10 +29,14 @@ package com.mewna.catnip.extension.manager;
 
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.extension.Extension;
+import com.mewna.catnip.extension.hook.CatnipHook;
+import com.mewna.catnip.extension.hook.HookKind;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * An {@link ExtensionManager} implementation is exactly what it sounds like:
@@ -119,5 +123,33 @@ public interface ExtensionManager {
     @Nonnull
     Set<Extension> extensions();
     
+    /**
+     * Get the hooks of all loaded extensions that apply to the given hook
+     * point, flattened into a single list. This is called for every payload
+     * that passes through a hook point, so implementations should precompute
+     * the returned list rather than building it on each call; see
+     * {@link #refreshHooks()}. The default implementation does NOT do this.
+     *
+     * @param kind The hook point to get hooks for.
+     *
+     * @return A possibly-empty, immutable list of hooks.
+     */
+    @Nonnull
+    default List<CatnipHook> hooks(@Nonnull final HookKind kind) {
+        return extensions().stream()
+                .flatMap(e -> e.hooks().stream())
+                .filter(kind::appliesTo)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Rebuild any precomputed hook lists returned by {@link #hooks(HookKind)}.
+     * {@link com.mewna.catnip.extension.AbstractExtension} calls this when
+     * hooks are registered or unregistered; extensions that don't extend it
+     * should do the same.
+     */
+    default void refreshHooks() {
+    }
+    
     Catnip catnip();
 }
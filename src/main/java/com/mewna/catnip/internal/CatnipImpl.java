@@ -27,10 +27,12 @@
 
 package com.mewna.catnip.internal;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.CatnipOptions;
 import com.mewna.catnip.cache.CacheFlag;
+import com.mewna.catnip.cache.CacheSnapshot;
 import com.mewna.catnip.cache.EntityCacheWorker;
 import com.mewna.catnip.entity.impl.*;
 import com.mewna.catnip.entity.impl.PresenceImpl.ActivityImpl;
@@ -49,14 +51,18 @@ import com.mewna.catnip.internal.ratelimit.Ratelimiter;
 import com.mewna.catnip.rest.Rest;
 import com.mewna.catnip.rest.RestRequester;
 import com.mewna.catnip.shard.CatnipShard;
+import com.mewna.catnip.shard.GatewayEncoding;
+import com.mewna.catnip.shard.LocalDispatcher;
 import com.mewna.catnip.shard.ShardInfo;
+import com.mewna.catnip.shard.event.DispatchLanes;
 import com.mewna.catnip.shard.event.EventBuffer;
+import com.mewna.catnip.shard.event.LaneStats;
 import com.mewna.catnip.shard.manager.ShardManager;
 import com.mewna.catnip.shard.session.SessionManager;
 import com.mewna.catnip.util.JsonPojoCodec;
 import com.mewna.catnip.util.PermissionUtil;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonObject;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -65,8 +71,13 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.HashSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -79,6 +90,7 @@ import java.util.function.Consumer;
 @Accessors(fluent = true, chain = true)
 public class CatnipImpl implements Catnip {
     private final Vertx vertx;
+    private final TrackingEventBus eventBus;
     private final RestRequester requester;
     private final String token;
     private final ShardManager shardManager;
@@ -87,6 +99,7 @@ public class CatnipImpl implements Catnip {
     private final Rest rest = new Rest(this);
     private final LogAdapter logAdapter;
     private final ExtensionManager extensionManager = new DefaultExtensionManager(this);
+    private final LocalDispatcher dispatcher = new LocalDispatcher(this);
     private final EventBuffer eventBuffer;
     private final EntityCacheWorker cache;
     private final Set<CacheFlag> cacheFlags;
@@ -94,14 +107,19 @@ public class CatnipImpl implements Catnip {
     private final boolean emitEventObjects;
     private final boolean enforcePermissions;
     private final Presence initialPresence;
+    private final GatewayEncoding gatewayEncoding;
+    private final boolean compressGateway;
+    private final DispatchLanes dispatchLanes;
+    private final Path cacheSnapshot;
     
     private final AtomicReference<User> selfUser = new AtomicReference<>(null);
-    private final Set<String> unavailableGuilds = new HashSet<>();
+    private final Set<String> unavailableGuilds = ConcurrentHashMap.newKeySet();
     private final Set<String> disabledEvents;
     private final AtomicReference<GatewayInfo> gatewayInfo = new AtomicReference<>(null);
     
     public CatnipImpl(@Nonnull final Vertx vertx, @Nonnull final CatnipOptions options) {
         this.vertx = vertx;
+        eventBus = new TrackingEventBus(vertx, options.trackEventBusConsumers());
         requester = new RestRequester(this, options.restBucketBackend(), options.restHttpClient());
         token = options.token();
         shardManager = options.shardManager();
@@ -116,13 +134,22 @@ public class CatnipImpl implements Catnip {
         enforcePermissions = options.enforcePermissions();
         initialPresence = options.presence();
         disabledEvents = ImmutableSet.copyOf(options.disabledEvents());
+        gatewayEncoding = options.gatewayEncoding();
+        compressGateway = options.compressGateway();
+        dispatchLanes = options.dispatchLanes() > 0 ? new DispatchLanes(this, options.dispatchLanes()) : null;
+        cacheSnapshot = options.cacheSnapshot();
     }
     
     @Nonnull
     @Override
     @CheckReturnValue
-    public EventBus eventBus() {
-        return vertx.eventBus();
+    public TrackingEventBus eventBus() {
+        return eventBus;
+    }
+    
+    @Override
+    public boolean hasEventBusConsumers(@Nonnull final String address) {
+        return eventBus.hasConsumers(address);
     }
     
     @Nonnull
@@ -140,12 +167,56 @@ public class CatnipImpl implements Catnip {
     
     @Override
     public void shutdown(final boolean vertx) {
-        shardManager.shutdown();
-        if(vertx) {
-            this.vertx.close();
+        // Shards store their seqnum as soon as an event comes in, before it's
+        // been cached, so they're stopped first, and everything they'd
+        // already received is run through the lanes and the cache before
+        // anything is saved
+        shardManager.shutdownAsync()
+                .compose(__ -> dispatchLanes == null ? Future.<Void>succeededFuture() : dispatchLanes.drain())
+                .compose(__ -> cache.flush())
+                .setHandler(res -> {
+                    if(res.failed()) {
+                        logAdapter.warn("Couldn't finish caching events from before shutdown", res.cause());
+                    } else if(cacheSnapshot != null) {
+                        writeCacheSnapshot();
+                    }
+                    cache.shutdown();
+                    if(dispatchLanes != null) {
+                        dispatchLanes.close();
+                    }
+                    if(vertx) {
+                        // Shards reply over this instance's event bus
+                        this.vertx.close();
+                    }
+                });
+    }
+    
+    private void writeCacheSnapshot() {
+        try {
+            final long start = System.nanoTime();
+            final long records = CacheSnapshot.write(cacheSnapshot, this);
+            logAdapter.info("Wrote {} records to cache snapshot {} in {}ms", records, cacheSnapshot,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch(final IOException | RuntimeException e) {
+            logAdapter.error("Couldn't write cache snapshot {}", cacheSnapshot, e);
         }
     }
     
+    /**
+     * @return The lanes events are processed on, or {@code null} if events
+     * are processed on each shard's event loop.
+     */
+    @Nullable
+    public DispatchLanes dispatchLanes() {
+        return dispatchLanes;
+    }
+    
+    @Nonnull
+    @Override
+    public List<LaneStats> dispatchLaneStats() {
+        return dispatchLanes == null ? ImmutableList.of() : dispatchLanes.stats();
+    }
+    
     @Nonnull
     @SuppressWarnings("UnusedReturnValue")
     public Catnip selfUser(@Nonnull final User self) {
@@ -337,6 +408,18 @@ public class CatnipImpl implements Catnip {
     
     @Nonnull
     public Catnip connect() {
+        if(cacheSnapshot != null && Files.exists(cacheSnapshot)) {
+            try {
+                final long start = System.nanoTime();
+                final long records = CacheSnapshot.load(cacheSnapshot, this);
+                logAdapter.info("Loaded {} records from cache snapshot {} in {}ms", records, cacheSnapshot,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch(final IOException | RuntimeException e) {
+                // Shards just IDENTIFY as if there were no snapshot, and
+                // replace whatever was loaded as their guilds come in
+                logAdapter.error("Couldn't load cache snapshot {}", cacheSnapshot, e);
+            }
+        }
         shardManager.start();
         return this;
     }
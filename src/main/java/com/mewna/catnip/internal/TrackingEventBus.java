@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.internal;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.*;
+import io.vertx.core.streams.ReadStream;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link EventBus} that delegates everything to the vert.x event bus, but
+ * keeps count of the consumers registered through it. This lets catnip skip
+ * work (parsing, building entities, publishing) for addresses that nobody is
+ * listening on.
+ * <p/>
+ * Only consumers registered through this bus (ie. via
+ * {@link com.mewna.catnip.Catnip#eventBus()} or
+ * {@link com.mewna.catnip.Catnip#on(com.mewna.catnip.shard.EventType)}) can be
+ * counted, so this is opt-in through
+ * {@link com.mewna.catnip.CatnipOptions#trackEventBusConsumers(boolean)};
+ * otherwise every address is treated as having consumers, so that consumers
+ * registered straight on the vert.x event bus keep getting everything. When
+ * vert.x is clustered, consumers may live on other nodes, so every address is
+ * treated as having consumers as well.
+ *
+ * @author amy
+ * @since 12/21/18.
+ */
+@SuppressWarnings("unused")
+public final class TrackingEventBus implements EventBus {
+    private final Vertx vertx;
+    private final EventBus delegate;
+    private final boolean track;
+    private final Map<String, AtomicInteger> consumers = new ConcurrentHashMap<>();
+    
+    public TrackingEventBus(@Nonnull final Vertx vertx, final boolean track) {
+        this.vertx = vertx;
+        this.track = track;
+        delegate = vertx.eventBus();
+    }
+    
+    /**
+     * @param address The address to check.
+     *
+     * @return Whether or not anything may be consuming messages sent to the
+     * given address.
+     */
+    @CheckReturnValue
+    public boolean hasConsumers(@Nonnull final String address) {
+        if(!track || vertx.isClustered()) {
+            return true;
+        }
+        final AtomicInteger count = consumers.get(address);
+        return count != null && count.get() > 0;
+    }
+    
+    private void track(final String address) {
+        consumers.computeIfAbsent(address, __ -> new AtomicInteger()).incrementAndGet();
+    }
+    
+    private void untrack(final String address) {
+        final AtomicInteger count = consumers.get(address);
+        if(count != null) {
+            count.decrementAndGet();
+        }
+    }
+    
+    @Override
+    public EventBus send(final String address, final Object message) {
+        delegate.send(address, message);
+        return this;
+    }
+    
+    @Override
+    public <T> EventBus send(final String address, final Object message, final Handler<AsyncResult<Message<T>>> replyHandler) {
+        delegate.send(address, message, replyHandler);
+        return this;
+    }
+    
+    @Override
+    public EventBus send(final String address, final Object message, final DeliveryOptions options) {
+        delegate.send(address, message, options);
+        return this;
+    }
+    
+    @Override
+    public <T> EventBus send(final String address, final Object message, final DeliveryOptions options,
+                             final Handler<AsyncResult<Message<T>>> replyHandler) {
+        delegate.send(address, message, options, replyHandler);
+        return this;
+    }
+    
+    @Override
+    public EventBus publish(final String address, final Object message) {
+        delegate.publish(address, message);
+        return this;
+    }
+    
+    @Override
+    public EventBus publish(final String address, final Object message, final DeliveryOptions options) {
+        delegate.publish(address, message, options);
+        return this;
+    }
+    
+    @Override
+    public <T> MessageConsumer<T> consumer(final String address) {
+        return new TrackedConsumer<>(delegate.consumer(address));
+    }
+    
+    @Override
+    public <T> MessageConsumer<T> consumer(final String address, final Handler<Message<T>> handler) {
+        final TrackedConsumer<T> consumer = new TrackedConsumer<>(delegate.consumer(address));
+        consumer.handler(handler);
+        return consumer;
+    }
+    
+    @Override
+    public <T> MessageConsumer<T> localConsumer(final String address) {
+        return new TrackedConsumer<>(delegate.localConsumer(address));
+    }
+    
+    @Override
+    public <T> MessageConsumer<T> localConsumer(final String address, final Handler<Message<T>> handler) {
+        final TrackedConsumer<T> consumer = new TrackedConsumer<>(delegate.localConsumer(address));
+        consumer.handler(handler);
+        return consumer;
+    }
+    
+    @Override
+    public <T> MessageProducer<T> sender(final String address) {
+        return delegate.sender(address);
+    }
+    
+    @Override
+    public <T> MessageProducer<T> sender(final String address, final DeliveryOptions options) {
+        return delegate.sender(address, options);
+    }
+    
+    @Override
+    public <T> MessageProducer<T> publisher(final String address) {
+        return delegate.publisher(address);
+    }
+    
+    @Override
+    public <T> MessageProducer<T> publisher(final String address, final DeliveryOptions options) {
+        return delegate.publisher(address, options);
+    }
+    
+    @Override
+    @SuppressWarnings("rawtypes")
+    public EventBus registerCodec(final MessageCodec codec) {
+        delegate.registerCodec(codec);
+        return this;
+    }
+    
+    @Override
+    public EventBus unregisterCodec(final String name) {
+        delegate.unregisterCodec(name);
+        return this;
+    }
+    
+    @Override
+    public <T> EventBus registerDefaultCodec(final Class<T> clazz, final MessageCodec<T, ?> codec) {
+        delegate.registerDefaultCodec(clazz, codec);
+        return this;
+    }
+    
+    @Override
+    @SuppressWarnings("rawtypes")
+    public EventBus unregisterDefaultCodec(final Class clazz) {
+        delegate.unregisterDefaultCodec(clazz);
+        return this;
+    }
+    
+    @Override
+    public void start(final Handler<AsyncResult<Void>> completionHandler) {
+        delegate.start(completionHandler);
+    }
+    
+    @Override
+    public void close(final Handler<AsyncResult<Void>> completionHandler) {
+        delegate.close(completionHandler);
+    }
+    
+    @Override
+    public EventBus addInterceptor(final Handler<SendContext> interceptor) {
+        delegate.addInterceptor(interceptor);
+        return this;
+    }
+    
+    @Override
+    public EventBus removeInterceptor(final Handler<SendContext> interceptor) {
+        delegate.removeInterceptor(interceptor);
+        return this;
+    }
+    
+    @Override
+    public boolean isMetricsEnabled() {
+        return delegate.isMetricsEnabled();
+    }
+    
+    /**
+     * vert.x only registers a consumer once it has a handler, and setting a
+     * {@code null} handler unregisters it, so that's what we count.
+     */
+    private final class TrackedConsumer<T> implements MessageConsumer<T> {
+        private final MessageConsumer<T> consumer;
+        private final AtomicBoolean tracked = new AtomicBoolean(false);
+        
+        private TrackedConsumer(final MessageConsumer<T> consumer) {
+            this.consumer = consumer;
+        }
+        
+        private void track() {
+            if(tracked.compareAndSet(false, true)) {
+                TrackingEventBus.this.track(consumer.address());
+            }
+        }
+        
+        private void untrack() {
+            if(tracked.compareAndSet(true, false)) {
+                TrackingEventBus.this.untrack(consumer.address());
+            }
+        }
+        
+        @Override
+        public MessageConsumer<T> exceptionHandler(final Handler<Throwable> handler) {
+            consumer.exceptionHandler(handler);
+            return this;
+        }
+        
+        @Override
+        public MessageConsumer<T> handler(final Handler<Message<T>> handler) {
+            if(handler != null) {
+                track();
+                consumer.handler(handler);
+            } else {
+                consumer.handler(null);
+                untrack();
+            }
+            return this;
+        }
+        
+        @Override
+        public MessageConsumer<T> pause() {
+            consumer.pause();
+            return this;
+        }
+        
+        @Override
+        public MessageConsumer<T> resume() {
+            consumer.resume();
+            return this;
+        }
+        
+        @Override
+        public MessageConsumer<T> endHandler(final Handler<Void> endHandler) {
+            consumer.endHandler(endHandler);
+            return this;
+        }
+        
+        @Override
+        public ReadStream<T> bodyStream() {
+            // The body stream registers on the underlying consumer directly,
+            // so we can't see when it does; assume that it will.
+            track();
+            return consumer.bodyStream();
+        }
+        
+        @Override
+        public boolean isRegistered() {
+            return consumer.isRegistered();
+        }
+        
+        @Override
+        public String address() {
+            return consumer.address();
+        }
+        
+        @Override
+        public MessageConsumer<T> setMaxBufferedMessages(final int maxBufferedMessages) {
+            consumer.setMaxBufferedMessages(maxBufferedMessages);
+            return this;
+        }
+        
+        @Override
+        public int getMaxBufferedMessages() {
+            return consumer.getMaxBufferedMessages();
+        }
+        
+        @Override
+        public void completionHandler(final Handler<AsyncResult<Void>> completionHandler) {
+            consumer.completionHandler(completionHandler);
+        }
+        
+        @Override
+        public void unregister() {
+            consumer.unregister();
+            untrack();
+        }
+        
+        @Override
+        public void unregister(final Handler<AsyncResult<Void>> completionHandler) {
+            consumer.unregister(completionHandler);
+            untrack();
+        }
+    }
+}
@@ -59,11 +59,26 @@ public final class MemoryRatelimiter implements Ratelimiter {
         }
     }
     
+    static long retryAfterInternal(final Map<String, Bucket> buckets, final String id) {
+        final Bucket bucket = buckets.get(id);
+        if(bucket == null || bucket.remaining > 0) {
+            return 0L;
+        }
+        // Buckets reset once resetAt is in the past, see above
+        final long now = System.currentTimeMillis();
+        return bucket.resetAt < now ? 0L : bucket.resetAt - now + 1;
+    }
+    
     @Override
     public ImmutablePair<Boolean, Long> checkRatelimit(final String id, final long periodMs, final long limit) {
         return checkRatelimitInternal(buckets, id, periodMs, limit);
     }
     
+    @Override
+    public long retryAfter(final String id, final long periodMs, final long limit) {
+        return retryAfterInternal(buckets, id);
+    }
+    
     @AllArgsConstructor
     static final class Bucket {
         private long limit;
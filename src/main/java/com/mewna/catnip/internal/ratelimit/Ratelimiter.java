@@ -46,4 +46,21 @@ public interface Ratelimiter {
      * @return A (isRatelimited, amountRemaining) tuple
      */
     ImmutablePair<Boolean, Long> checkRatelimit(String id, long periodMs, long limit);
+    
+    /**
+     * Returns how long to wait before the id can be used again. Unlike
+     * {@link #checkRatelimit(String, long, long)}, this does not use up a
+     * permit. Implementations that can't tell should return a conservative
+     * estimate; the default is a full period.
+     *
+     * @param id       id to check
+     * @param periodMs period of ratelimit reset
+     * @param limit    max "uses" before ratelimit for a given period is hit
+     *
+     * @return The number of milliseconds until the id is no longer
+     * ratelimited, or 0 if it isn't right now.
+     */
+    default long retryAfter(final String id, final long periodMs, final long limit) {
+        return periodMs;
+    }
 }
@@ -28,8 +28,8 @@
 package com.mewna.catnip.rest;
 
 import com.mewna.catnip.Catnip;
-import com.mewna.catnip.extension.Extension;
 import com.mewna.catnip.extension.hook.CatnipHook;
+import com.mewna.catnip.extension.hook.HookKind;
 import com.mewna.catnip.rest.Routes.Route;
 import com.mewna.catnip.rest.bucket.BucketBackend;
 import com.mewna.catnip.util.CatnipMeta;
@@ -162,10 +162,9 @@ public class RestRequester {
             } else {
                 // We're good, run it through hooks and complete the future.
                 bucket.updateFromHeaders(headers);
-                for(final Extension extension : catnip.extensionManager().extensions()) {
-                    for(final CatnipHook hook : extension.hooks()) {
-                        payload = hook.rawRestReceiveDataHook(r.route, payload);
-                    }
+                final List<CatnipHook> hooks = catnip.extensionManager().hooks(HookKind.REST_RECEIVE);
+                for(int i = 0; i < hooks.size(); i++) {
+                    payload = hooks.get(i).rawRestReceiveDataHook(r.route, payload);
                 }
                 r.future.complete(payload);
                 bucket.finishRequest();
@@ -229,11 +228,7 @@ public class RestRequester {
                             builder.addFormDataPart("file" + index, pair.left, new MultipartRequestBody(pair.right));
                         }
                         if(r.object != null) {
-                            for(final Extension extension : catnip.extensionManager().extensions()) {
-                                for(final CatnipHook hook : extension.hooks()) {
-                                    r.object = hook.rawRestSendObjectHook(route, r.object);
-                                }
-                            }
+                            r.object = runSendHooks(route, r.object);
                             builder.addFormDataPart("payload_json", r.object.encode());
                         } else if(r.array != null) {
                             builder.addFormDataPart("payload_json", r.array.encode());
@@ -250,11 +245,7 @@ public class RestRequester {
                 } else {
                     final String encoded;
                     if(r.object != null) {
-                        for(final Extension extension : catnip.extensionManager().extensions()) {
-                            for(final CatnipHook hook : extension.hooks()) {
-                                r.object = hook.rawRestSendObjectHook(route, r.object);
-                            }
-                        }
+                        r.object = runSendHooks(route, r.object);
                         encoded = r.object.encode();
                     } else if(r.array != null) {
                         encoded = r.array.encode();
@@ -288,6 +279,14 @@ public class RestRequester {
         }
     }
     
+    private JsonObject runSendHooks(final Route route, JsonObject object) {
+        final List<CatnipHook> hooks = catnip.extensionManager().hooks(HookKind.REST_SEND);
+        for(int i = 0; i < hooks.size(); i++) {
+            object = hooks.get(i).rawRestSendObjectHook(route, object);
+        }
+        return object;
+    }
+    
     private void executeHttpRequest(final OutboundRequest r, final Route route, final Bucket bucket, final RequestBody body) {
         bucket.lastRequest(System.currentTimeMillis());
         final Context context = catnip.vertx().getOrCreateContext();
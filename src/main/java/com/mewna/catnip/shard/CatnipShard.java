@@ -29,38 +29,45 @@ package com.mewna.catnip.shard;
 
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.entity.impl.PresenceImpl;
+import com.mewna.catnip.entity.misc.GatewayInfo;
 import com.mewna.catnip.entity.user.Presence;
-import com.mewna.catnip.extension.Extension;
 import com.mewna.catnip.extension.hook.CatnipHook;
+import com.mewna.catnip.extension.hook.HookKind;
+import com.mewna.catnip.internal.CatnipImpl;
 import com.mewna.catnip.shard.LifecycleEvent.Raw;
-import com.mewna.catnip.util.BufferOutputStream;
+import com.mewna.catnip.shard.OutboundScheduler.Lane;
+import com.mewna.catnip.shard.etf.ETFDecoder;
+import com.mewna.catnip.shard.etf.ETFEncoder;
+import com.mewna.catnip.shard.event.DispatchLanes;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.WebSocket;
 import io.vertx.core.http.WebSocketFrame;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterOutputStream;
+import java.util.zip.DataFormatException;
 
 import static com.mewna.catnip.shard.CatnipShard.ShardConnectState.*;
 
@@ -70,23 +77,30 @@ import static com.mewna.catnip.shard.CatnipShard.ShardConnectState.*;
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class CatnipShard extends AbstractVerticle {
-    public static final int ZLIB_SUFFIX = 0x0000FFFF;
+    public static final int ZLIB_SUFFIX = GatewayInflater.ZLIB_SUFFIX;
     public static final int LARGE_THRESHOLD = 250;
+    /**
+     * Set in the verticle config of shards that are hosted together in one
+     * verticle.
+     */
+    public static final String SHARD_GROUP_CONFIG_KEY = "catnip-shard-group";
     
     private final Catnip catnip;
     private final int id;
     private final int limit;
     private final Presence presence;
+    private final String[] recvAddresses;
     
-    private final HttpClient client;
+    private HttpClient client;
     
     private final AtomicReference<ShardState> stateRef = new AtomicReference<>(null);
     private final AtomicReference<Presence> currentPresence = new AtomicReference<>(null);
     private final AtomicBoolean heartbeatAcked = new AtomicBoolean(true);
-    private final byte[] decompressBuffer = new byte[1024];
     
-    private final Deque<JsonObject> messageQueue = new ConcurrentLinkedDeque<>();
-    private final Deque<PresenceImpl> presenceQueue = new ConcurrentLinkedDeque<>();
+    private final List<MessageConsumer<?>> consumers = new ArrayList<>();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile Thread eventLoopThread;
+    private OutboundScheduler scheduler;
     
     private List<String> trace = new ArrayList<>();
     
@@ -96,10 +110,10 @@ public class CatnipShard extends AbstractVerticle {
         this.id = id;
         this.limit = limit;
         this.presence = presence;
-        
-        client = catnip.vertx().createHttpClient(new HttpClientOptions()
-                .setMaxWebsocketFrameSize(Integer.MAX_VALUE)
-                .setMaxWebsocketMessageSize(Integer.MAX_VALUE));
+        recvAddresses = new String[GatewayOp.values().length];
+        for(final GatewayOp op : GatewayOp.values()) {
+            recvAddresses[op.ordinal()] = "catnip:gateway:ws-incoming:" + id + ':' + op.name();
+        }
     }
     
     /**
@@ -143,59 +157,91 @@ public class CatnipShard extends AbstractVerticle {
         return "catnip:gateway:ws-outgoing:" + id + ":voice-state-update:queue";
     }
     
+    /**
+     * Whether or not the shard is hosted in a shared verticle along with
+     * other shards, rather than deployed as its own verticle. See
+     * {@link com.mewna.catnip.shard.manager.ShardPlacement}.
+     *
+     * @param config The verticle config.
+     *
+     * @return Whether or not the config is from a shard group.
+     */
+    public static boolean isShardGroup(@Nonnull final JsonObject config) {
+        return config.containsKey(SHARD_GROUP_CONFIG_KEY);
+    }
+    
     @Override
     public void start() {
-        catnip.eventBus().consumer(controlAddress(id), this::handleControlMessage);
-        catnip.eventBus().consumer(websocketMessageSendAddress(), this::handleSocketSend);
-        catnip.eventBus().consumer(websocketMessageQueueAddress(), this::handleSocketQueue);
-        catnip.eventBus().consumer(websocketMessagePresenceUpdateQueueAddress(), this::handlePresenceUpdateQueue);
-        catnip.eventBus().consumer(websocketMessagePresenceUpdateAddress(), this::handlePresenceUpdate);
-        catnip.eventBus().consumer(websocketMessagePresenceUpdatePollAddress(), presence -> {
-            if(stateRef.get() != null) {
-                while(!presenceQueue.isEmpty()) {
-                    if(catnip.gatewayRatelimiter().checkRatelimit(websocketMessagePresenceUpdateAddress(), 60_000L, 5).left) {
-                        break;
-                    }
-                    final PresenceImpl update = presenceQueue.pop();
-                    final JsonObject object = new JsonObject()
-                            .put("op", GatewayOp.STATUS_UPDATE.opcode())
-                            .put("d", update.asJson());
-                    catnip.eventBus().publish(websocketMessageSendAddress(), object);
-                    currentPresence.set(update);
-                }
-            }
-            catnip.vertx().setTimer(500, __ -> catnip.eventBus().publish(websocketMessagePresenceUpdatePollAddress(), null));
-        });
-        catnip.eventBus().<JsonObject>consumer(websocketMessageVoiceStateUpdateQueueAddress(),
-                state -> catnip.eventBus().send(websocketMessageQueueAddress(), basePayload(
-                        GatewayOp.VOICE_STATE_UPDATE,
-                        state.body()
-                )));
-        catnip.eventBus().consumer(websocketMessagePollAddress(), msg -> {
-            if(stateRef.get() != null) {
-                while(!messageQueue.isEmpty()) {
-                    // We only do up to 110 messages/min, to allow for room just in case
-                    final ImmutablePair<Boolean, Long> check = catnip.gatewayRatelimiter()
-                            .checkRatelimit("catnip:gateway:" + id + ":outgoing-send", 60_000L, 110);
-                    if(check.left) {
-                        // We got ratelimited, stop sending
-                        break;
-                    }
-                    
-                    final JsonObject payload = messageQueue.pop();
-                    catnip.eventBus().publish(websocketMessageSendAddress(), payload);
-                }
-            }
-            // Poll again in half a second
-            catnip.vertx().setTimer(500, __ -> catnip.eventBus().publish(websocketMessagePollAddress(), null));
-        });
-        // Start gateway poll
-        catnip.eventBus().publish(websocketMessagePollAddress(), null);
-        catnip.eventBus().publish(websocketMessagePresenceUpdatePollAddress(), null);
+        // Shards may be placed on a different Vert.x instance than the one
+        // catnip uses for its event bus, so all networking and timers use
+        // the shard's own instance.
+        eventLoopThread = Thread.currentThread();
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setMaxWebsocketFrameSize(Integer.MAX_VALUE)
+                .setMaxWebsocketMessageSize(Integer.MAX_VALUE));
+        final GatewayInfo gatewayInfo = catnip.getGatewayInfo();
+        // Scheduled payloads are published to the send address rather than
+        // written straight to the socket, so that anything else observing
+        // that address still sees everything the shard sends; the shard's
+        // own consumer below does the actual write
+        scheduler = new OutboundScheduler(vertx, catnip.gatewayRatelimiter(), id,
+                gatewayInfo == null ? 1 : gatewayInfo.maxConcurrency(),
+                payload -> catnip.eventBus().publish(websocketMessageSendAddress(), payload));
+        
+        consume(controlAddress(id), this::handleControlMessage);
+        consume(websocketMessageSendAddress(), this::handleSocketSend);
+        consume(websocketMessageQueueAddress(), this::handleSocketQueue);
+        consume(websocketMessagePresenceUpdateQueueAddress(), this::handlePresenceUpdateQueue);
+        consume(websocketMessagePresenceUpdateAddress(), this::handlePresenceUpdate);
+        this.<JsonObject>consume(websocketMessageVoiceStateUpdateQueueAddress(),
+                state -> scheduler.enqueue(Lane.VOICE, basePayload(GatewayOp.VOICE_STATE_UPDATE, state.body())));
     }
     
     @Override
     public void stop() {
+        consumers.forEach(MessageConsumer::unregister);
+        consumers.clear();
+    }
+    
+    /**
+     * @return The event loop thread this shard runs on, or {@code null} if
+     * it hasn't been started yet.
+     */
+    @Nullable
+    public Thread eventLoopThread() {
+        return eventLoopThread;
+    }
+    
+    /**
+     * @return The total time this shard has spent handling gateway frames
+     * and control messages, in nanoseconds.
+     */
+    public long busyNanos() {
+        return busyNanos.get();
+    }
+    
+    /**
+     * Registers a consumer on catnip's event bus whose handler always runs on
+     * this shard's context, even if the shard lives on another Vert.x
+     * instance.
+     */
+    private <T> void consume(final String address, final Handler<Message<T>> handler) {
+        consumers.add(catnip.eventBus().<T>consumer(address, msg -> {
+            if(Vertx.currentContext() == context) {
+                timed(() -> handler.handle(msg));
+            } else {
+                context.runOnContext(__ -> timed(() -> handler.handle(msg)));
+            }
+        }));
+    }
+    
+    private void timed(final Runnable task) {
+        final long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+        }
     }
     
     private void handlePresenceUpdate(final Message<PresenceImpl> message) {
@@ -221,7 +267,21 @@ public class CatnipShard extends AbstractVerticle {
             }
             case "SHUTDOWN": {
                 doStop();
-                catnip.vertx().undeploy(deploymentID());
+                if(isShardGroup(config())) {
+                    // Shares its deployment with other shards
+                    stop();
+                    msg.reply(true);
+                } else {
+                    vertx.undeploy(deploymentID(), __ -> msg.reply(true));
+                }
+                break;
+            }
+            case "RESYNC": {
+                // The cache couldn't keep up with this shard, so everything
+                // has to be sent again, which takes a new session
+                catnip.sessionManager().clearSession(id);
+                catnip.sessionManager().clearSeqnum(id);
+                doStop();
                 break;
             }
             case "TRACE": {
@@ -248,22 +308,22 @@ public class CatnipShard extends AbstractVerticle {
             stateRef.get().socket().close((short) 4000);
             stateRef.get().socketOpen().set(false);
         }
-        messageQueue.clear();
-        presenceQueue.clear();
+        scheduler.clear();
         heartbeatAcked.set(true);
     }
     
     private void connectSocket(final Message<JsonObject> msg) {
         catnip.eventBus().publish(Raw.CONNECTING, shardInfo());
         
-        client.websocketAbs(catnip.getGatewayInfo().url(), null, null, null,
+        client.websocketAbs(gatewayUrl(), null, null, null,
                 socket -> {
                     catnip.eventBus().publish(Raw.CONNECTED, shardInfo());
-                    socket.frameHandler(frame -> handleSocketFrame(msg, frame))
+                    socket.frameHandler(frame -> timed(() -> handleSocketFrame(msg, frame)))
                             .closeHandler(this::handleSocketClose)
                             .exceptionHandler(Throwable::printStackTrace);
                     stateRef.set(new ShardState(socket));
                     stateRef.get().socketOpen().set(true);
+                    scheduler.connected();
                 },
                 failure -> {
                     stateRef.set(null);
@@ -271,53 +331,149 @@ public class CatnipShard extends AbstractVerticle {
                     catnip.eventBus().publish("RAW_STATUS", new JsonObject().put("status", "down:fail-connect")
                             .put("shard", id));
                     // If we totally fail to connect socket, don't need to worry as much
-                    catnip.vertx().setTimer(500L, __ -> msg.reply(new JsonObject().put("state", FAILED.name())));
+                    vertx.setTimer(500L, __ -> msg.reply(new JsonObject().put("state", FAILED.name())));
                 });
     }
     
-    private void handleBinaryData(final Message<JsonObject> msg, final Buffer binary) {
+    private String gatewayUrl() {
+        final String url = catnip.getGatewayInfo().url() + "?v=6&encoding=" + catnip.gatewayEncoding().param();
+        return catnip.compressGateway() ? url + "&compress=zlib-stream" : url;
+    }
+    
+    private void handleBinaryData(final Message<JsonObject> msg, final Buffer binary, final boolean finalFrame) {
         final ShardState state = stateRef.get();
         if(state == null) {
             return;
         }
-        final boolean isEnd = binary.getInt(binary.length() - 4) == ZLIB_SUFFIX;
-        if(!isEnd || state.readBufferPosition() > 0) {
-            final int position = state.readBufferPosition();
-            state.readBuffer().setBuffer(position, binary);
-            state.readBufferPosition(position + binary.length());
-        }
-        if(isEnd) {
-            final Buffer decompressed = state.decompressBuffer();
-            final Buffer dataToDecompress = state.readBufferPosition() > 0 ? state.readBuffer() : binary;
-            try(final InflaterOutputStream ios = new InflaterOutputStream(new BufferOutputStream(decompressed, 0), state.inflater())) {
-                synchronized(decompressBuffer) {
-                    final int length = Math.max(state.readBufferPosition(), binary.length());
-                    int r = 0;
-                    while(r < length) {
-                        //how many bytes we can read
-                        final int read = Math.min(decompressBuffer.length, length - r);
-                        dataToDecompress.getBytes(r, r + read, decompressBuffer);
-                        //decompress
-                        ios.write(decompressBuffer, 0, read);
-                        r += read;
+        if(catnip.compressGateway()) {
+            final GatewayInflater inflater = state.inflater();
+            try {
+                if(inflater.inflate(binary.getByteBuf())) {
+                    try {
+                        handlePayloadData(msg, inflater.buffer(), inflater.length());
+                    } finally {
+                        inflater.reset();
                     }
                 }
-                handleSocketData(msg, decompressed.toJsonObject());
+            } catch(final DataFormatException e) {
+                // The zlib stream is shared by the whole connection, so once
+                // it's corrupt every frame after this one would fail too.
+                // Reconnect to get a fresh stream; the socket's close handler
+                // queues the reconnect.
+                catnip.logAdapter().error("Shard {}: error decompressing payload, reconnecting", id, e);
+                if(stateRef.compareAndSet(state, null)) {
+                    inflater.close();
+                    state.socketOpen().set(false);
+                    state.socket().close((short) 4000);
+                }
             } catch(final IOException e) {
-                catnip.logAdapter().error("Error decompressing payload", e);
-            } finally {
-                state.readBufferPosition(0);
+                catnip.logAdapter().error("Error decoding payload", e);
+                inflater.reset();
+            }
+        } else {
+            // Uncompressed ETF payloads may be split across continuation
+            // frames; collect them until the message is complete.
+            final byte[] data;
+            if(!finalFrame || state.fragments() != null) {
+                if(state.fragments() == null) {
+                    state.fragments(Buffer.buffer());
+                }
+                state.fragments().appendBuffer(binary);
+                if(!finalFrame) {
+                    return;
+                }
+                data = state.fragments().getBytes();
+                state.fragments(null);
+            } else {
+                data = binary.getBytes();
+            }
+            try {
+                handlePayloadData(msg, data, data.length);
+            } catch(final IOException e) {
+                catnip.logAdapter().error("Error decoding payload", e);
+            }
+        }
+    }
+    
+    private void handlePayloadData(final Message<JsonObject> msg, final byte[] data, final int length) throws IOException {
+        if(catnip.gatewayEncoding() == GatewayEncoding.ETF) {
+            if(!canSniff() || !dropUnused(PayloadSniffer.sniffEtf(data, 0, length))) {
+                handleSocketData(msg, ETFDecoder.decodeObject(data, 0, length));
+            }
+        } else {
+            if(!canSniff() || !dropUnused(PayloadSniffer.sniff(data, 0, length))) {
+                handleSocketData(msg, decodeJson(data, length));
             }
         }
     }
     
+    /**
+     * @return Whether or not there's any point in sniffing payloads, ie.
+     * whether any event types are disabled.
+     */
+    private boolean canSniff() {
+        return !catnip.emitEventObjects() || !catnip.disabledEvents().isEmpty();
+    }
+    
+    /**
+     * Drops a dispatch if nothing will ever look at it: the event won't be
+     * emitted, the event buffer doesn't need it (ex. for caching), there are
+     * no hooks that might want to see it, and nothing is consuming the raw
+     * payloads. The seqnum is still tracked for dropped payloads.
+     *
+     * @param header The sniffed payload header.
+     *
+     * @return Whether or not the payload was dropped.
+     */
+    private boolean dropUnused(@Nullable final PayloadSniffer.Header header) {
+        if(header == null || header.op() != GatewayOp.DISPATCH.opcode() || header.type() == null) {
+            return false;
+        }
+        final String type = header.type();
+        // These need to be seen for connection bookkeeping
+        if(type.equals(DiscordEvent.Raw.READY) || type.equals(DiscordEvent.Raw.RESUMED)) {
+            return false;
+        }
+        if(catnip.emitEventObjects() && !catnip.disabledEvents().contains(type)) {
+            return false;
+        }
+        if(catnip.eventBuffer().requiresEvent(type) || !catnip.extensionManager().hooks(HookKind.GATEWAY_RECEIVE).isEmpty()) {
+            return false;
+        }
+        if(catnip.hasEventBusConsumers("RAW_DISPATCH") || catnip.hasEventBusConsumers("RAW_WS")
+                || catnip.hasEventBusConsumers(websocketMessageRecvAddress(GatewayOp.DISPATCH))) {
+            return false;
+        }
+        if(header.seq() != null) {
+            catnip.sessionManager().seqnum(id, header.seq());
+        }
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static JsonObject decodeJson(final byte[] data, final int length) throws IOException {
+        return new JsonObject((Map<String, Object>) Json.mapper.readValue(data, 0, length, Map.class));
+    }
+    
     private void handleSocketFrame(final Message<JsonObject> msg, final WebSocketFrame frame) {
         try {
+            final ShardState state = stateRef.get();
             if(frame.isText()) {
-                handleSocketData(msg, new JsonObject(frame.textData()));
+                if(state != null) {
+                    state.binaryMessage(false);
+                }
+                final String text = frame.textData();
+                if(!canSniff() || !dropUnused(PayloadSniffer.sniff(text))) {
+                    handleSocketData(msg, new JsonObject(text));
+                }
             }
-            if(frame.isBinary()) {
-                handleBinaryData(msg, frame.binaryData());
+            // Large zlib-stream payloads may be split across continuation
+            // frames; the inflater handles them as they come in.
+            if(frame.isBinary() || frame.isContinuation() && state != null && state.binaryMessage()) {
+                if(frame.isBinary() && state != null) {
+                    state.binaryMessage(true);
+                }
+                handleBinaryData(msg, frame.binaryData(), frame.isFinal());
             }
             if(frame.isClose()) {
                 final short closeCode = frame.closeStatusCode();
@@ -339,7 +495,9 @@ public class CatnipShard extends AbstractVerticle {
                     catnip.logAdapter().warn("Shard {}: gateway websocket closing with code {}: {}",
                             id, closeCode, frame.closeReason());
                 }
-                stateRef.get().socketOpen().set(false);
+                if(state != null) {
+                    state.socketOpen().set(false);
+                }
             }
         } catch(final Exception e) {
             e.printStackTrace();
@@ -347,10 +505,9 @@ public class CatnipShard extends AbstractVerticle {
     }
     
     private void handleSocketData(final Message<JsonObject> msg, JsonObject payload) {
-        for(final Extension extension : catnip.extensionManager().extensions()) {
-            for(final CatnipHook hook : extension.hooks()) {
-                payload = hook.rawGatewayReceiveHook(payload);
-            }
+        final List<CatnipHook> hooks = catnip.extensionManager().hooks(HookKind.GATEWAY_RECEIVE);
+        for(int i = 0; i < hooks.size(); i++) {
+            payload = hooks.get(i).rawGatewayReceiveHook(payload);
         }
         
         final GatewayOp op = GatewayOp.byId(payload.getInteger("op"));
@@ -388,8 +545,13 @@ public class CatnipShard extends AbstractVerticle {
             }
         }
         // Emit messages for subconsumers
-        catnip.eventBus().publish(websocketMessageRecvAddress(op), payload);
-        catnip.eventBus().publish("RAW_WS", payload);
+        final String address = websocketMessageRecvAddress(op);
+        if(catnip.hasEventBusConsumers(address)) {
+            catnip.eventBus().publish(address, payload);
+        }
+        if(catnip.hasEventBusConsumers("RAW_WS")) {
+            catnip.eventBus().publish("RAW_WS", payload);
+        }
     }
     
     private void handleSocketClose(final Void __) {
@@ -398,7 +560,11 @@ public class CatnipShard extends AbstractVerticle {
         try {
             catnip.eventBus().publish("RAW_STATUS", new JsonObject().put("status", "down:socket-close")
                     .put("shard", id));
-            stateRef.set(null);
+            final ShardState state = stateRef.getAndSet(null);
+            if(state != null) {
+                state.inflater().close();
+            }
+            scheduler.disconnected();
             catnip.shardManager().addToConnectQueue(id);
         } catch(final Exception e) {
             catnip.logAdapter().error("Failure closing socket:", e);
@@ -406,23 +572,32 @@ public class CatnipShard extends AbstractVerticle {
     }
     
     private void handleSocketQueue(final Message<JsonObject> msg) {
-        messageQueue.addLast(msg.body());
+        scheduler.enqueue(Lane.forPayload(msg.body()), msg.body());
     }
     
     private void handlePresenceUpdateQueue(final Message<PresenceImpl> msg) {
-        presenceQueue.addLast(msg.body());
+        final PresenceImpl update = msg.body();
+        scheduler.enqueue(Lane.PRESENCE, basePayload(GatewayOp.STATUS_UPDATE, update.asJson()),
+                () -> currentPresence.set(update));
     }
     
     private void handleSocketSend(final Message<JsonObject> msg) {
+        sendPayload(msg.body());
+    }
+    
+    private void sendPayload(final JsonObject body) {
         final ShardState shardState = stateRef.get();
         if(shardState != null && shardState.socket() != null && shardState.socketOpen().get()) {
-            JsonObject payload = msg.body();
-            for(final Extension extension : catnip.extensionManager().extensions()) {
-                for(final CatnipHook hook : extension.hooks()) {
-                    payload = hook.rawGatewaySendHook(payload);
-                }
+            JsonObject payload = body;
+            final List<CatnipHook> hooks = catnip.extensionManager().hooks(HookKind.GATEWAY_SEND);
+            for(int i = 0; i < hooks.size(); i++) {
+                payload = hooks.get(i).rawGatewaySendHook(payload);
+            }
+            if(catnip.gatewayEncoding() == GatewayEncoding.ETF) {
+                shardState.socket().writeBinaryMessage(ETFEncoder.encode(payload));
+            } else {
+                shardState.socket().writeTextMessage(payload.encode());
             }
-            shardState.socket().writeTextMessage(payload.encode());
         }
     }
     
@@ -430,29 +605,32 @@ public class CatnipShard extends AbstractVerticle {
         final JsonObject payload = event.getJsonObject("d");
         trace = payload.getJsonArray("_trace").stream().map(e -> (String) e).collect(Collectors.toList());
         
-        catnip.vertx().setPeriodic(payload.getInteger("heartbeat_interval"), timerId -> {
+        vertx.setPeriodic(payload.getInteger("heartbeat_interval"), timerId -> {
             final ShardState shardState = stateRef.get();
             if(shardState != null && shardState.socket() != null && shardState.socketOpen().get()) {
                 if(!heartbeatAcked.get()) {
                     // Zombie
                     catnip.logAdapter().warn("Shard {} zombied, queueing reconnect!", id);
-                    catnip.vertx().cancelTimer(timerId);
+                    vertx.cancelTimer(timerId);
                     catnip.eventBus().publish(controlAddress(id), new JsonObject().put("mode", "STOP"));
                     return;
                 }
-                catnip.eventBus().publish(websocketMessageSendAddress(),
-                        basePayload(GatewayOp.HEARTBEAT, catnip.sessionManager().seqnum(id)));
+                scheduler.enqueue(Lane.HEARTBEAT, basePayload(GatewayOp.HEARTBEAT, catnip.sessionManager().seqnum(id)));
                 heartbeatAcked.set(false);
             } else {
-                catnip.vertx().cancelTimer(timerId);
+                vertx.cancelTimer(timerId);
             }
         });
         
         // Check if we can RESUME instead
         if(catnip.sessionManager().session(id) != null && catnip.sessionManager().seqnum(id) > 0) {
-            catnip.eventBus().publish(websocketMessageSendAddress(), resume());
+            scheduler.enqueue(Lane.RESUME, resume());
         } else {
-            catnip.eventBus().publish(websocketMessageSendAddress(), identify());
+            // Everything this shard cached is sent again after a fresh
+            // IDENTIFY, and anything that isn't is stale
+            catnip.cacheWorker().invalidateShard(id);
+            // Waits for this shard's IDENTIFY bucket if needed
+            scheduler.enqueue(Lane.IDENTIFY, identify());
         }
     }
     
@@ -474,20 +652,17 @@ public class CatnipShard extends AbstractVerticle {
         
         switch(type) {
             case "READY": {
-                // Reply after IDENTIFY ratelimit
                 catnip.sessionManager().session(id, data.getString("session_id"));
-                if(id == limit - 1) {
-                    // No need to delay
-                    msg.reply(new JsonObject().put("state", READY.name()));
-                } else {
-                    // More shards to go, delay
-                    catnip.vertx().setTimer(5500L, __ -> msg.reply(new JsonObject().put("state", READY.name())));
-                }
+                scheduler.identified();
+                // No need to delay; the next shard's IDENTIFY waits for its
+                // bucket in the outbound scheduler
+                msg.reply(new JsonObject().put("state", READY.name()));
                 catnip.eventBus().publish(Raw.IDENTIFIED, shardInfo());
                 break;
             }
             case "RESUMED": {
                 // RESUME is fine, just reply immediately
+                scheduler.identified();
                 msg.reply(new JsonObject().put("state", RESUMED.name()));
                 catnip.eventBus().publish(Raw.RESUMED, shardInfo());
                 break;
@@ -501,14 +676,41 @@ public class CatnipShard extends AbstractVerticle {
         // it can be accurate in the case of ex. buffering events until a shard
         // has finished booting.
         event.put("shard", new JsonObject().put("id", id).put("limit", limit));
-        catnip.eventBuffer().buffer(event);
-        catnip.eventBus().publish("RAW_DISPATCH", event);
+        final DispatchLanes lanes = ((CatnipImpl) catnip).dispatchLanes();
+        final String guild = lanes == null ? null : guildOf(type, data);
+        if(guild == null) {
+            catnip.eventBuffer().buffer(event);
+        } else {
+            lanes.execute(guild, () -> catnip.eventBuffer().buffer(event));
+        }
+        if(catnip.hasEventBusConsumers("RAW_DISPATCH")) {
+            catnip.eventBus().publish("RAW_DISPATCH", event);
+        }
+    }
+    
+    /**
+     * The guild an event belongs to, for picking its dispatch lane. Events
+     * without one (READY, DMs, ...) stay on the shard's context, which keeps
+     * them in order and ensures READY has set up buffering before any of its
+     * guilds arrive.
+     */
+    @Nullable
+    private static String guildOf(final String type, final JsonObject data) {
+        switch(type) {
+            case DiscordEvent.Raw.GUILD_CREATE:
+            case DiscordEvent.Raw.GUILD_UPDATE:
+            case DiscordEvent.Raw.GUILD_DELETE: {
+                return data.getString("id", null);
+            }
+            default: {
+                return data.getString("guild_id", null);
+            }
+        }
     }
     
     private void handleHeartbeat(final Message<JsonObject> msg, final JsonObject event) {
         //heartbeatAcked.set(false);
-        catnip.eventBus().publish(websocketMessageSendAddress(),
-                basePayload(GatewayOp.HEARTBEAT, catnip.sessionManager().seqnum(id)));
+        scheduler.enqueue(Lane.HEARTBEAT, basePayload(GatewayOp.HEARTBEAT, catnip.sessionManager().seqnum(id)));
     }
     
     private void handleHeartbeatAck(final Message<JsonObject> msg, final JsonObject event) {
@@ -546,7 +748,7 @@ public class CatnipShard extends AbstractVerticle {
      * @return Socket payload recv. msg. address
      */
     public String websocketMessageRecvAddress(final GatewayOp op) {
-        return "catnip:gateway:ws-incoming:" + id + ':' + op.name();
+        return recvAddresses[op.ordinal()];
     }
     
     public String websocketMessageSendAddress() {
@@ -557,18 +759,10 @@ public class CatnipShard extends AbstractVerticle {
         return websocketMessageQueueAddress(id);
     }
     
-    private String websocketMessagePollAddress() {
-        return "catnip:gateway:ws-outgoing:" + id + ":poll";
-    }
-    
     private String websocketMessagePresenceUpdateAddress() {
         return websocketMessagePresenceUpdateAddress(id);
     }
     
-    private String websocketMessagePresenceUpdatePollAddress() {
-        return "catnip:gateway:ws-outgoing:" + id + ":presence-update:poll";
-    }
-    
     private String websocketMessagePresenceUpdateQueueAddress() {
         return "catnip:gateway:ws-outgoing:" + id + ":presence-update:queue";
     }
@@ -608,7 +802,11 @@ public class CatnipShard extends AbstractVerticle {
         );
     }
     
-    private ShardInfo shardInfo() {
+    /**
+     * @return The id and shard count of this shard.
+     */
+    @Nonnull
+    public ShardInfo shardInfo() {
         return new ShardInfo(id, limit);
     }
     
@@ -623,24 +821,18 @@ public class CatnipShard extends AbstractVerticle {
         @Getter
         private final WebSocket socket;
         @Getter
-        private final Inflater inflater;
-        @Getter
-        private final Buffer readBuffer = Buffer.buffer();
-        @Getter
-        private final Buffer decompressBuffer = Buffer.buffer();
+        private final GatewayInflater inflater = new GatewayInflater();
         @Getter
         private final AtomicBoolean socketOpen = new AtomicBoolean(false);
         @Getter
         @Setter
-        private int readBufferPosition;
+        private boolean binaryMessage;
+        @Getter
+        @Setter
+        private Buffer fragments;
         
         ShardState(final WebSocket socket) {
-            this(socket, new Inflater());
-        }
-        
-        ShardState(final WebSocket socket, final Inflater inflater) {
             this.socket = socket;
-            this.inflater = inflater;
         }
     }
 }
@@ -28,17 +28,21 @@
 package com.mewna.catnip.shard;
 
 import com.mewna.catnip.Catnip;
-import com.mewna.catnip.entity.Snowflake;
-import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.impl.BulkDeletedMessagesImpl;
+import com.mewna.catnip.entity.impl.DeletedMessageImpl;
 import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.MessageImpl;
+import com.mewna.catnip.entity.message.Message;
 import com.mewna.catnip.entity.misc.Ready;
-import com.mewna.catnip.entity.misc.Resumed;
 import com.mewna.catnip.entity.user.User;
 import com.mewna.catnip.internal.CatnipImpl;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static com.mewna.catnip.shard.DiscordEvent.Raw;
 
@@ -49,10 +53,12 @@ import static com.mewna.catnip.shard.DiscordEvent.Raw;
 public final class DispatchEmitter {
     private final Catnip catnip;
     private final EntityBuilder entityBuilder;
+    private final LocalDispatcher dispatcher;
     
     public DispatchEmitter(@Nonnull final Catnip catnip) {
         this.catnip = catnip;
         entityBuilder = new EntityBuilder(catnip);
+        dispatcher = catnip.dispatcher();
     }
     
     public void emit(@Nonnull final JsonObject payload) {
@@ -70,6 +76,25 @@ public final class DispatchEmitter {
         }
     }
     
+    /**
+     * Whether or not anything - local listeners or event bus consumers - is
+     * listening for the given event. This is checked on every event, so
+     * listeners added or removed at runtime are picked up immediately. If
+     * nothing is, we don't build the entity at all.
+     */
+    private boolean wanted(@Nonnull final String type) {
+        return dispatcher.hasListeners(type) || catnip.hasEventBusConsumers(type);
+    }
+    
+    private void publish(@Nonnull final String type, @Nonnull final Object event) {
+        dispatcher.dispatch(type, event);
+        // Skip the address lookup, codec and delivery context entirely when
+        // nobody's on the bus for this event
+        if(catnip.hasEventBusConsumers(type)) {
+            catnip.eventBus().publish(type, event);
+        }
+    }
+    
     private void emit0(@Nonnull final JsonObject payload) {
         final String type = payload.getString("t");
         final JsonObject data = payload.getJsonObject("d");
@@ -80,176 +105,255 @@ public final class DispatchEmitter {
                 final JsonArray guilds = data.getJsonArray("guilds");
                 // All READY guilds are unavailable, marked available as the gateway
                 // streams them to us
-                guilds.stream()
-                        .map(e -> (JsonObject) e)
-                        .map(entityBuilder::createUnavailableGuild)
-                        .map(Snowflake::id)
-                        .forEach(((CatnipImpl) catnip)::markUnavailable);
-                final Ready ready = entityBuilder.createReady(data);
-                ((CatnipImpl) catnip).selfUser(ready.user());
-                catnip.eventBus().publish(type, ready);
+                for(final Object guild : guilds) {
+                    ((CatnipImpl) catnip).markUnavailable(((JsonObject) guild).getString("id"));
+                }
+                if(wanted(type)) {
+                    final Ready ready = entityBuilder.createReady(data);
+                    ((CatnipImpl) catnip).selfUser(ready.user());
+                    publish(type, ready);
+                } else {
+                    ((CatnipImpl) catnip).selfUser(entityBuilder.createUser(data.getJsonObject("user")));
+                }
                 break;
             }
             case Raw.RESUMED: {
-                final Resumed resumed = entityBuilder.createResumed(data);
-                catnip.eventBus().publish(type, resumed);
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createResumed(data));
+                }
                 break;
             }
             
             // Messages
             case Raw.MESSAGE_CREATE: {
-                catnip.eventBus().publish(type, entityBuilder.createMessage(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createMessage(data));
+                }
                 break;
             }
             case Raw.MESSAGE_UPDATE: {
                 if(data.getJsonObject("author", null) == null) {
                     // Embeds update, emit the special case
-                    catnip.eventBus().publish(Raw.MESSAGE_EMBEDS_UPDATE, entityBuilder.createMessageEmbedUpdate(data));
-                } else {
-                    catnip.eventBus().publish(type, entityBuilder.createMessage(data));
+                    if(wanted(Raw.MESSAGE_EMBEDS_UPDATE)) {
+                        publish(Raw.MESSAGE_EMBEDS_UPDATE, entityBuilder.createMessageEmbedUpdate(data));
+                    }
+                } else if(wanted(type)) {
+                    // Message events are emitted before they're cached, so
+                    // the cache still has the message from before the edit
+                    final MessageImpl message = (MessageImpl) entityBuilder.createMessage(data);
+                    message.previous(catnip.cache().message(message.channelId(), message.id()));
+                    publish(type, message);
                 }
                 break;
             }
             case Raw.MESSAGE_DELETE: {
-                catnip.eventBus().publish(type, entityBuilder.createDeletedMessage(data));
+                if(wanted(type)) {
+                    final DeletedMessageImpl deleted = (DeletedMessageImpl) entityBuilder.createDeletedMessage(data);
+                    deleted.cachedMessage(catnip.cache().message(deleted.channelId(), deleted.id()));
+                    publish(type, deleted);
+                }
                 break;
             }
             case Raw.MESSAGE_DELETE_BULK: {
-                catnip.eventBus().publish(type, entityBuilder.createBulkDeletedMessages(data));
+                if(wanted(type)) {
+                    final BulkDeletedMessagesImpl deleted = (BulkDeletedMessagesImpl) entityBuilder.createBulkDeletedMessages(data);
+                    if(catnip.cacheWorker().cachesMessages()) {
+                        final List<Message> messages = new ArrayList<>();
+                        for(final String id : deleted.ids()) {
+                            final Message message = catnip.cache().message(deleted.channelId(), id);
+                            if(message != null) {
+                                messages.add(message);
+                            }
+                        }
+                        deleted.cachedMessages(Collections.unmodifiableList(messages));
+                    }
+                    publish(type, deleted);
+                }
                 break;
             }
             case Raw.TYPING_START: {
-                catnip.eventBus().publish(type, entityBuilder.createTypingUser(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createTypingUser(data));
+                }
                 break;
             }
             case Raw.MESSAGE_REACTION_REMOVE_ALL: {
-                catnip.eventBus().publish(type, entityBuilder.createBulkRemovedReactions(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createBulkRemovedReactions(data));
+                }
                 break;
             }
             case Raw.MESSAGE_REACTION_REMOVE: {
-                catnip.eventBus().publish(type, entityBuilder.createReactionUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createReactionUpdate(data));
+                }
                 break;
             }
             case Raw.MESSAGE_REACTION_ADD: {
-                catnip.eventBus().publish(type, entityBuilder.createReactionUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createReactionUpdate(data));
+                }
                 break;
             }
             
             // Channels
             case Raw.CHANNEL_CREATE: {
-                catnip.eventBus().publish(type, entityBuilder.createChannel(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createChannel(data));
+                }
                 break;
             }
             case Raw.CHANNEL_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createChannel(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createChannel(data));
+                }
                 break;
             }
             case Raw.CHANNEL_DELETE: {
-                catnip.eventBus().publish(type, entityBuilder.createChannel(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createChannel(data));
+                }
                 break;
             }
             case Raw.CHANNEL_PINS_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createChannelPinsUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createChannelPinsUpdate(data));
+                }
                 break;
             }
             case Raw.WEBHOOKS_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createWebhooksUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createWebhooksUpdate(data));
+                }
                 break;
             }
             
             // Guilds
             case Raw.GUILD_CREATE: {
                 final String id = data.getString("id");
-                final Guild guild = entityBuilder.createGuild(data);
                 if(catnip.isUnavailable(id)) {
-                    catnip.eventBus().publish(Raw.GUILD_AVAILABLE, guild);
+                    if(wanted(Raw.GUILD_AVAILABLE)) {
+                        publish(Raw.GUILD_AVAILABLE, entityBuilder.createGuild(data));
+                    }
                     ((CatnipImpl) catnip).markAvailable(id);
-                } else {
-                    catnip.eventBus().publish(type, guild);
+                } else if(wanted(type)) {
+                    publish(type, entityBuilder.createGuild(data));
                 }
                 break;
             }
             case Raw.GUILD_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createGuild(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createGuild(data));
+                }
                 break;
             }
             case Raw.GUILD_DELETE: {
                 final String id = data.getString("id");
                 if(data.getBoolean("unavailable", false)) {
                     ((CatnipImpl) catnip).markUnavailable(id);
-                    catnip.eventBus().publish(Raw.GUILD_UNAVAILABLE, entityBuilder.createUnavailableGuild(data));
-                } else {
-                    catnip.eventBus().publish(type, entityBuilder.createGuild(data, false));
+                    if(wanted(Raw.GUILD_UNAVAILABLE)) {
+                        publish(Raw.GUILD_UNAVAILABLE, entityBuilder.createUnavailableGuild(data));
+                    }
+                } else if(wanted(type)) {
+                    publish(type, entityBuilder.createGuild(data, false));
                 }
                 break;
             }
             case Raw.GUILD_BAN_ADD: {
-                catnip.eventBus().publish(type, entityBuilder.createGatewayGuildBan(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createGatewayGuildBan(data));
+                }
                 break;
             }
             case Raw.GUILD_BAN_REMOVE: {
-                catnip.eventBus().publish(type, entityBuilder.createGatewayGuildBan(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createGatewayGuildBan(data));
+                }
                 break;
             }
             case Raw.GUILD_INTEGRATIONS_UPDATE: {
-                catnip.eventBus().publish(type, data.getString("guild_id"));
+                if(wanted(type)) {
+                    publish(type, data.getString("guild_id"));
+                }
                 break;
             }
             
             // Roles
             case Raw.GUILD_ROLE_CREATE: {
-                catnip.eventBus().publish(type, entityBuilder.createRole(data.getString("guild_id"), data.getJsonObject("role")));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createRole(data.getString("guild_id"), data.getJsonObject("role")));
+                }
                 break;
             }
             case Raw.GUILD_ROLE_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createRole(data.getString("guild_id"), data.getJsonObject("role")));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createRole(data.getString("guild_id"), data.getJsonObject("role")));
+                }
                 break;
             }
             case Raw.GUILD_ROLE_DELETE: {
-                catnip.eventBus().publish(type, entityBuilder.createPartialRole(data.getString("guild_id"), data.getString("role_id")));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createPartialRole(data.getString("guild_id"), data.getString("role_id")));
+                }
                 break;
             }
             
             // Emoji
             case Raw.GUILD_EMOJIS_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createGuildEmojisUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createGuildEmojisUpdate(data));
+                }
                 break;
             }
             
             // Members
             case Raw.GUILD_MEMBER_ADD: {
-                catnip.eventBus().publish(type, entityBuilder.createMember(data.getString("guild_id"), data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createMember(data.getString("guild_id"), data));
+                }
                 break;
             }
             case Raw.GUILD_MEMBER_REMOVE: {
-                catnip.eventBus().publish(type, entityBuilder.createMember(data.getString("guild_id"), data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createMember(data.getString("guild_id"), data));
+                }
                 break;
             }
             case Raw.GUILD_MEMBER_UPDATE: {
-                final String guild = data.getString("guild_id");
-                catnip.eventBus().publish(type, entityBuilder.createPartialMember(guild, data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createPartialMember(data.getString("guild_id"), data));
+                }
                 break;
             }
             
             // Users
             case Raw.USER_UPDATE: {
+                // Always built, since we need to keep track of ourselves
                 final User user = entityBuilder.createUser(data);
-                ((CatnipImpl) user).selfUser(user);
-                catnip.eventBus().publish(type, user);
+                ((CatnipImpl) catnip).selfUser(user);
+                if(wanted(type)) {
+                    publish(type, user);
+                }
                 break;
             }
             case Raw.PRESENCE_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createPresenceUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createPresenceUpdate(data));
+                }
                 break;
             }
             
             // Voice
             case Raw.VOICE_STATE_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createVoiceState(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createVoiceState(data));
+                }
                 break;
             }
             case Raw.VOICE_SERVER_UPDATE: {
-                catnip.eventBus().publish(type, entityBuilder.createVoiceServerUpdate(data));
+                if(wanted(type)) {
+                    publish(type, entityBuilder.createVoiceServerUpdate(data));
+                }
                 break;
             }
             
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates a {@code zlib-stream} compressed gateway connection. Frames are
+ * fed straight from the Netty {@link ByteBuf} backing the websocket frame, so
+ * there's no intermediate copy of the compressed data (heap buffers are
+ * inflated in-place, direct buffers go through a small per-shard chunk), and
+ * no lock shared between shards.
+ * <p/>
+ * Because {@code zlib-stream} is a single deflate stream spanning the whole
+ * connection, fragments can be inflated as they arrive; a payload is complete
+ * once a frame ending in the {@code Z_SYNC_FLUSH} suffix is seen. The inflated
+ * bytes are held in a single array that's reused between payloads, and shrunk
+ * again once a run of small payloads follows a large one (ex. after the
+ * {@code GUILD_CREATE}s for big guilds have come through).
+ * <p/>
+ * Instances are <strong>not</strong> thread-safe, and are expected to only be
+ * used from the event loop of the shard owning them.
+ *
+ * @author amy
+ * @since 12/20/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class GatewayInflater {
+    public static final int ZLIB_SUFFIX = 0x0000FFFF;
+    
+    private static final int CHUNK_SIZE = 8192;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int RETAINED_CAPACITY = 1024 * 1024;
+    private static final int SHRINK_AFTER = 32;
+    
+    private final Inflater inflater = new Inflater();
+    private byte[] chunk;
+    private byte[] output = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int smallPayloads;
+    
+    /**
+     * @param frame A (possibly-fragmented) binary frame from the gateway.
+     *
+     * @return Whether or not the frame ended in the zlib suffix, ie. whether
+     * a full payload is now available via {@link #buffer()}.
+     */
+    public static boolean isEnd(@Nonnull final ByteBuf frame) {
+        final int readable = frame.readableBytes();
+        return readable >= 4 && frame.getInt(frame.writerIndex() - 4) == ZLIB_SUFFIX;
+    }
+    
+    /**
+     * Inflate a single frame. The frame's reader index is left untouched.
+     *
+     * @param frame The compressed frame data.
+     *
+     * @return {@code true} if a full payload is available, {@code false} if
+     * more frames are needed.
+     *
+     * @throws DataFormatException If the compressed data is invalid.
+     */
+    public boolean inflate(@Nonnull final ByteBuf frame) throws DataFormatException {
+        if(frame.hasArray()) {
+            inflate(frame.array(), frame.arrayOffset() + frame.readerIndex(), frame.readableBytes());
+        } else {
+            if(chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            int index = frame.readerIndex();
+            final int end = frame.writerIndex();
+            while(index < end) {
+                final int read = Math.min(chunk.length, end - index);
+                frame.getBytes(index, chunk, 0, read);
+                inflate(chunk, 0, read);
+                index += read;
+            }
+        }
+        return isEnd(frame);
+    }
+    
+    private void inflate(final byte[] data, final int offset, final int len) throws DataFormatException {
+        inflater.setInput(data, offset, len);
+        while(true) {
+            if(length == output.length) {
+                grow();
+            }
+            final int inflated = inflater.inflate(output, length, output.length - length);
+            length += inflated;
+            if(inflated == 0) {
+                if(inflater.needsDictionary()) {
+                    throw new DataFormatException("zlib stream requested a preset dictionary");
+                }
+                if(inflater.needsInput() || inflater.finished()) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    private void grow() {
+        final byte[] grown = new byte[output.length << 1];
+        System.arraycopy(output, 0, grown, 0, length);
+        output = grown;
+    }
+    
+    /**
+     * @return The array holding the current inflated payload. Only the first
+     * {@link #length()} bytes are valid. The array is reused, so the contents
+     * must be consumed before the next call to {@link #inflate(ByteBuf)}.
+     */
+    @Nonnull
+    public byte[] buffer() {
+        return output;
+    }
+    
+    /**
+     * @return The length of the current inflated payload.
+     */
+    @Nonnegative
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * Marks the current payload as consumed. This will shrink the output
+     * buffer if it has only been holding small payloads for a while.
+     */
+    public void reset() {
+        if(output.length > RETAINED_CAPACITY) {
+            if(length <= RETAINED_CAPACITY >> 2) {
+                if(++smallPayloads >= SHRINK_AFTER) {
+                    output = new byte[RETAINED_CAPACITY];
+                    smallPayloads = 0;
+                }
+            } else {
+                smallPayloads = 0;
+            }
+        }
+        length = 0;
+    }
+    
+    /**
+     * @return The current capacity of the output buffer.
+     */
+    @Nonnegative
+    public int capacity() {
+        return output.length;
+    }
+    
+    /**
+     * Releases the native resources used by this inflater. It may not be used
+     * afterwards.
+     */
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.Catnip;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * An in-process alternative to listening on the event bus via
+ * {@link Catnip#on(EventType, Consumer)}. Listeners are kept in a
+ * copy-on-write array per {@link EventType}, and dispatching an event is
+ * just a map lookup and a loop over that array: there is no address
+ * resolution, no message codec, and no delivery context involved.
+ * <p/>
+ * Because of this, listeners are invoked <strong>SYNCHRONOUSLY</strong> on
+ * whatever thread dispatched the event - usually a shard's event loop - and
+ * must never block. Listeners only ever see events from the local JVM; if you
+ * need events delivered across a vert.x cluster, use the event bus instead.
+ * Events are still published on the event bus whenever something is consuming
+ * them there.
+ *
+ * @author amy
+ * @since 12/26/18.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public final class LocalDispatcher {
+    private static final Consumer<?>[] EMPTY = new Consumer[0];
+    
+    private final Catnip catnip;
+    private final Map<String, Consumer<?>[]> listeners = new ConcurrentHashMap<>();
+    
+    public LocalDispatcher(@Nonnull final Catnip catnip) {
+        this.catnip = catnip;
+    }
+    
+    /**
+     * Add a listener for the given event type.
+     *
+     * @param type     The type of event to listen on.
+     * @param listener The listener to invoke with each event.
+     * @param <T>      The object type of event being listened on.
+     *
+     * @return The dispatcher instance.
+     */
+    public synchronized <T> LocalDispatcher listen(@Nonnull final EventType<T> type, @Nonnull final Consumer<? super T> listener) {
+        final Consumer<?>[] old = listeners.getOrDefault(type.key(), EMPTY);
+        final Consumer<?>[] updated = Arrays.copyOf(old, old.length + 1);
+        updated[old.length] = listener;
+        listeners.put(type.key(), updated);
+        return this;
+    }
+    
+    /**
+     * Remove a listener previously added with {@link #listen(EventType, Consumer)}.
+     * If the listener isn't registered for the given event type, this method
+     * is a no-op.
+     *
+     * @param type     The type of event the listener was added for.
+     * @param listener The listener to remove.
+     * @param <T>      The object type of event being listened on.
+     *
+     * @return The dispatcher instance.
+     */
+    public synchronized <T> LocalDispatcher unlisten(@Nonnull final EventType<T> type, @Nonnull final Consumer<? super T> listener) {
+        final Consumer<?>[] old = listeners.get(type.key());
+        if(old == null) {
+            return this;
+        }
+        for(int i = 0; i < old.length; i++) {
+            if(old[i] == listener) {
+                if(old.length == 1) {
+                    listeners.remove(type.key());
+                } else {
+                    final Consumer<?>[] updated = new Consumer[old.length - 1];
+                    System.arraycopy(old, 0, updated, 0, i);
+                    System.arraycopy(old, i + 1, updated, i, old.length - i - 1);
+                    listeners.put(type.key(), updated);
+                }
+                break;
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * @param key The event bus key of the event type to check.
+     *
+     * @return Whether or not any local listener is registered for the event.
+     */
+    @CheckReturnValue
+    public boolean hasListeners(@Nonnull final String key) {
+        return listeners.containsKey(key);
+    }
+    
+    /**
+     * Invoke all local listeners for the given event. An exception thrown by
+     * one listener is logged and does not prevent the others from running.
+     *
+     * @param key   The event bus key of the event type.
+     * @param event The event object.
+     */
+    @SuppressWarnings("unchecked")
+    void dispatch(@Nonnull final String key, @Nonnull final Object event) {
+        final Consumer<?>[] array = listeners.get(key);
+        if(array == null) {
+            return;
+        }
+        for(final Consumer<?> listener : array) {
+            try {
+                ((Consumer<Object>) listener).accept(event);
+            } catch(final Exception e) {
+                catnip.logAdapter().error("Local listener for {} threw an exception", key, e);
+            }
+        }
+    }
+}
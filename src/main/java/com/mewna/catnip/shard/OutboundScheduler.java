@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.internal.ratelimit.Ratelimiter;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Schedules outgoing gateway payloads for a single shard. Rather than polling
+ * its queues on a timer, the scheduler only runs when something is enqueued,
+ * when the shard's connection state changes, or when a ratelimit window that
+ * was blocking a lane reopens; in the last case it sets a single timer for
+ * exactly when the earliest blocked lane can send again.
+ * <p/>
+ * Payloads are split into {@link Lane lanes}, which are drained in priority
+ * order. A lane that is ratelimited doesn't hold up the lanes below it.
+ * <p/>
+ * This is confined to the owning shard's context; it must not be used from
+ * other threads.
+ *
+ * @author amy
+ * @since 12/23/18.
+ */
+final class OutboundScheduler {
+    /**
+     * Discord allows 120 payloads per minute per connection. We only queue up
+     * to 110 of them, to leave room for heartbeats and IDENTIFY / RESUME.
+     */
+    static final long SEND_PERIOD = 60_000L;
+    static final long SEND_LIMIT = 110;
+    static final long PRESENCE_PERIOD = 60_000L;
+    static final long PRESENCE_LIMIT = 5;
+    /**
+     * Each IDENTIFY bucket may be used once every 5 seconds; the extra half
+     * second is for clock skew and network jitter.
+     */
+    static final long IDENTIFY_PERIOD = 5_500L;
+    static final long IDENTIFY_LIMIT = 1;
+    
+    private final Vertx vertx;
+    private final Ratelimiter ratelimiter;
+    private final Consumer<JsonObject> sink;
+    private final String sendBucket;
+    private final String presenceBucket;
+    private final String identifyBucket;
+    private final Map<Lane, Deque<Outbound>> lanes = new EnumMap<>(Lane.class);
+    
+    private boolean connected;
+    private boolean identified;
+    private long timerId = -1L;
+    private long wakeAt = Long.MAX_VALUE;
+    
+    OutboundScheduler(@Nonnull final Vertx vertx, @Nonnull final Ratelimiter ratelimiter, @Nonnegative final int id,
+                      @Nonnegative final int maxConcurrency, @Nonnull final Consumer<JsonObject> sink) {
+        this.vertx = vertx;
+        this.ratelimiter = ratelimiter;
+        this.sink = sink;
+        // Same buckets the old poll loops used, so that shared ratelimiters
+        // keep working across versions
+        sendBucket = "catnip:gateway:" + id + ":outgoing-send";
+        presenceBucket = CatnipShard.websocketMessagePresenceUpdateAddress(id);
+        identifyBucket = identifyBucket(id, maxConcurrency);
+        for(final Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+        }
+    }
+    
+    /**
+     * Queue a payload, and send it right away if its lane allows.
+     *
+     * @param lane    The lane to queue the payload in.
+     * @param payload The payload to send.
+     */
+    void enqueue(@Nonnull final Lane lane, @Nonnull final JsonObject payload) {
+        enqueue(lane, payload, null);
+    }
+    
+    /**
+     * Queue a payload, and send it right away if its lane allows.
+     *
+     * @param lane    The lane to queue the payload in.
+     * @param payload The payload to send.
+     * @param onSend  Run right after the payload has been handed to the
+     *                socket.
+     */
+    void enqueue(@Nonnull final Lane lane, @Nonnull final JsonObject payload, @Nullable final Runnable onSend) {
+        lanes.get(lane).addLast(new Outbound(payload, onSend));
+        drain();
+    }
+    
+    /**
+     * @param id             The shard id.
+     * @param maxConcurrency The number of shards that may IDENTIFY at once.
+     *
+     * @return The ratelimit bucket that the shard's IDENTIFYs count against.
+     */
+    static String identifyBucket(@Nonnegative final int id, @Nonnegative final int maxConcurrency) {
+        return "catnip:gateway:identify:" + id % Math.max(1, maxConcurrency);
+    }
+    
+    /**
+     * Called when the socket opens. Only heartbeats and IDENTIFY / RESUME
+     * can be sent until the session is {@link #identified() identified}.
+     */
+    void connected() {
+        connected = true;
+        drain();
+    }
+    
+    /**
+     * Called once the gateway has sent READY or RESUMED.
+     */
+    void identified() {
+        identified = true;
+        drain();
+    }
+    
+    /**
+     * Called when the socket closes. Heartbeats and IDENTIFY / RESUME
+     * payloads belong to the old connection and are dropped; everything else
+     * is kept for the next one.
+     */
+    void disconnected() {
+        connected = false;
+        identified = false;
+        lanes.get(Lane.HEARTBEAT).clear();
+        lanes.get(Lane.IDENTIFY).clear();
+        lanes.get(Lane.RESUME).clear();
+        cancelWakeup();
+    }
+    
+    /**
+     * Drop everything that's queued.
+     */
+    void clear() {
+        lanes.values().forEach(Deque::clear);
+        cancelWakeup();
+    }
+    
+    /**
+     * @param lane The lane to check.
+     *
+     * @return How many payloads are waiting in the lane.
+     */
+    int queued(@Nonnull final Lane lane) {
+        return lanes.get(lane).size();
+    }
+    
+    private void drain() {
+        long wait = Long.MAX_VALUE;
+        for(final Lane lane : Lane.values()) {
+            final Deque<Outbound> queue = lanes.get(lane);
+            if(queue.isEmpty() || !canSend(lane)) {
+                continue;
+            }
+            while(!queue.isEmpty()) {
+                final String bucket = bucket(lane);
+                if(bucket != null && ratelimiter.checkRatelimit(bucket, period(lane), limit(lane)).left) {
+                    // Ask when the window reopens, and at least wait a little
+                    // bit so that a ratelimiter that can't tell doesn't spin
+                    wait = Math.min(wait, Math.max(1L, ratelimiter.retryAfter(bucket, period(lane), limit(lane))));
+                    break;
+                }
+                final Outbound outbound = queue.pollFirst();
+                sink.accept(outbound.payload());
+                if(outbound.onSend() != null) {
+                    outbound.onSend().run();
+                }
+            }
+        }
+        if(wait != Long.MAX_VALUE) {
+            scheduleWakeup(wait);
+        }
+    }
+    
+    private boolean canSend(final Lane lane) {
+        if(lane == Lane.HEARTBEAT || lane == Lane.IDENTIFY || lane == Lane.RESUME) {
+            return connected;
+        }
+        return connected && identified;
+    }
+    
+    private void scheduleWakeup(final long delay) {
+        final long at = System.currentTimeMillis() + delay;
+        if(timerId != -1L) {
+            if(wakeAt <= at) {
+                // Already waking up early enough
+                return;
+            }
+            vertx.cancelTimer(timerId);
+        }
+        wakeAt = at;
+        timerId = vertx.setTimer(delay, __ -> {
+            timerId = -1L;
+            wakeAt = Long.MAX_VALUE;
+            drain();
+        });
+    }
+    
+    private void cancelWakeup() {
+        if(timerId != -1L) {
+            vertx.cancelTimer(timerId);
+            timerId = -1L;
+            wakeAt = Long.MAX_VALUE;
+        }
+    }
+    
+    @Nullable
+    private String bucket(final Lane lane) {
+        switch(lane) {
+            case IDENTIFY: {
+                return identifyBucket;
+            }
+            case PRESENCE: {
+                return presenceBucket;
+            }
+            case VOICE:
+            case DEFAULT: {
+                return sendBucket;
+            }
+            default: {
+                // Heartbeats and RESUME use the headroom that SEND_LIMIT
+                // leaves
+                return null;
+            }
+        }
+    }
+    
+    private static long period(final Lane lane) {
+        switch(lane) {
+            case IDENTIFY: {
+                return IDENTIFY_PERIOD;
+            }
+            case PRESENCE: {
+                return PRESENCE_PERIOD;
+            }
+            default: {
+                return SEND_PERIOD;
+            }
+        }
+    }
+    
+    private static long limit(final Lane lane) {
+        switch(lane) {
+            case IDENTIFY: {
+                return IDENTIFY_LIMIT;
+            }
+            case PRESENCE: {
+                return PRESENCE_LIMIT;
+            }
+            default: {
+                return SEND_LIMIT;
+            }
+        }
+    }
+    
+    /**
+     * Outgoing payload lanes, in priority order.
+     */
+    enum Lane {
+        /**
+         * Heartbeats. Never ratelimited.
+         */
+        HEARTBEAT,
+        /**
+         * RESUME. Never ratelimited.
+         */
+        RESUME,
+        /**
+         * IDENTIFY. Limited per IDENTIFY bucket, ie. per
+         * {@code shard_id % max_concurrency}, which is shared with every
+         * other shard in the bucket.
+         */
+        IDENTIFY,
+        /**
+         * Voice state updates.
+         */
+        VOICE,
+        /**
+         * Presence updates. These have their own, much stricter, ratelimit.
+         */
+        PRESENCE,
+        /**
+         * Everything else, ex. member chunk requests.
+         */
+        DEFAULT,
+        ;
+        
+        @Nonnull
+        static Lane forPayload(@Nonnull final JsonObject payload) {
+            final Integer op = payload.getInteger("op", null);
+            if(op == null) {
+                return DEFAULT;
+            }
+            if(op == GatewayOp.HEARTBEAT.opcode()) {
+                return HEARTBEAT;
+            } else if(op == GatewayOp.RESUME.opcode()) {
+                return RESUME;
+            } else if(op == GatewayOp.IDENTIFY.opcode()) {
+                return IDENTIFY;
+            } else if(op == GatewayOp.VOICE_STATE_UPDATE.opcode()) {
+                return VOICE;
+            } else if(op == GatewayOp.STATUS_UPDATE.opcode()) {
+                return PRESENCE;
+            } else {
+                return DEFAULT;
+            }
+        }
+    }
+    
+    @Getter
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    private static final class Outbound {
+        private final JsonObject payload;
+        private final Runnable onSend;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mewna.catnip.shard.etf.ETFDecoder;
+import io.vertx.core.json.Json;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads only the {@code op}, {@code t} and {@code s} fields of a raw gateway
+ * payload, without building a {@link io.vertx.core.json.JsonObject}. The
+ * gateway sends these before {@code d}, so in practice this stops reading
+ * after the first few dozen bytes; if they come after {@code d}, it's skipped
+ * over without being materialized.
+ * <p/>
+ * This is used to drop dispatches that nothing will ever look at (see
+ * {@link CatnipShard}) before paying for parsing the whole thing.
+ *
+ * @author amy
+ * @since 12/21/18.
+ */
+public final class PayloadSniffer {
+    private static final JsonFactory FACTORY = Json.mapper.getFactory();
+    
+    private PayloadSniffer() {}
+    
+    /**
+     * @param data   Raw JSON bytes.
+     * @param offset Offset of the payload in the array.
+     * @param length Length of the payload.
+     *
+     * @return The header of the payload, or {@code null} if it couldn't be
+     * read.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static Header sniff(@Nonnull final byte[] data, final int offset, final int length) {
+        try(final JsonParser parser = FACTORY.createParser(data, offset, length)) {
+            return sniff(parser);
+        } catch(final IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @param data Raw JSON text.
+     *
+     * @return The header of the payload, or {@code null} if it couldn't be
+     * read.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static Header sniff(@Nonnull final String data) {
+        try(final JsonParser parser = FACTORY.createParser(data)) {
+            return sniff(parser);
+        } catch(final IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @param data   Raw ETF bytes.
+     * @param offset Offset of the payload in the array.
+     * @param length Length of the payload.
+     *
+     * @return The header of the payload, or {@code null} if it couldn't be
+     * read.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static Header sniffEtf(@Nonnull final byte[] data, final int offset, final int length) {
+        try {
+            final Map<String, Object> keys = ETFDecoder.decodeKeys(data, offset, length, "op", "t", "s");
+            final Object op = keys.get("op");
+            final Object type = keys.get("t");
+            final Object seq = keys.get("s");
+            if(!(op instanceof Integer)) {
+                return null;
+            }
+            return new Header((Integer) op, type instanceof String ? (String) type : null,
+                    seq instanceof Integer ? (Integer) seq : null);
+        } catch(final IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static Header sniff(final JsonParser parser) throws IOException {
+        if(parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        int op = -1;
+        String type = null;
+        Integer seq = null;
+        boolean seenType = false;
+        boolean seenSeq = false;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch(field) {
+                case "op": {
+                    op = parser.getIntValue();
+                    break;
+                }
+                case "t": {
+                    type = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                    seenType = true;
+                    break;
+                }
+                case "s": {
+                    seq = value == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+                    seenSeq = true;
+                    break;
+                }
+                default: {
+                    parser.skipChildren();
+                    break;
+                }
+            }
+            if(op != -1 && seenType && seenSeq) {
+                break;
+            }
+        }
+        return op == -1 ? null : new Header(op, type, seq);
+    }
+    
+    @Getter
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    public static final class Header {
+        private final int op;
+        @Nullable
+        private final String type;
+        @Nullable
+        private final Integer seq;
+    }
+}
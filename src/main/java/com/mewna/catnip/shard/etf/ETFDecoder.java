@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.etf;
+
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.mewna.catnip.shard.etf.ETFTags.*;
+
+/**
+ * Decodes Erlang External Term Format payloads from the gateway into the same
+ * {@link JsonObject} model that JSON payloads are parsed into, so that the
+ * rest of catnip doesn't need to care about which encoding is in use:
+ * <ul>
+ * <li>Maps become {@link Map}s (wrapped as {@link JsonObject}s), with atom or
+ * binary keys turned into strings.</li>
+ * <li>Lists and tuples become {@link List}s.</li>
+ * <li>Binaries become strings, and the atoms {@code nil}, {@code true} and
+ * {@code false} become {@code null} and booleans. Other atoms become strings.</li>
+ * <li>Integers become {@link Integer}s or {@link Long}s, except for snowflakes,
+ * which become strings just like they are in JSON.</li>
+ * </ul>
+ * Over ETF, Discord sends snowflakes as 64-bit integers. The only other
+ * integers on the gateway that don't fit in 32 bits are unix millisecond
+ * timestamps (ex. activity timestamps), which are several orders of magnitude
+ * smaller than any snowflake created after the first few hours of 2015, so
+ * anything at or above {@link #SNOWFLAKE_THRESHOLD} is treated as a
+ * snowflake.
+ *
+ * @author amy
+ * @since 12/22/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ETFDecoder {
+    public static final long SNOWFLAKE_THRESHOLD = 1L << 47;
+    
+    /**
+     * Map keys repeat constantly (think of every member in a large
+     * {@code GUILD_CREATE}), so decoded keys are cached by their raw bytes to
+     * avoid decoding the same few hundred strings over and over. Entries are
+     * immutable, so racing on a slot is harmless.
+     */
+    private static final KeyEntry[] KEY_CACHE = new KeyEntry[1024];
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+    
+    private final byte[] data;
+    private final int end;
+    private int position;
+    
+    private ETFDecoder(final byte[] data, final int offset, final int length) {
+        this.data = data;
+        position = offset;
+        end = offset + length;
+    }
+    
+    /**
+     * Decode a payload that must be a map.
+     *
+     * @param data   The raw ETF data.
+     * @param offset The offset of the payload in the array.
+     * @param length The length of the payload.
+     *
+     * @return The decoded payload.
+     *
+     * @throws IllegalArgumentException If the data is not a valid ETF map.
+     */
+    @Nonnull
+    @CheckReturnValue
+    @SuppressWarnings("unchecked")
+    public static JsonObject decodeObject(@Nonnull final byte[] data, final int offset, final int length) {
+        final Object value = decode(data, offset, length);
+        if(!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a map, but got " + (value == null ? "null" : value.getClass()));
+        }
+        return new JsonObject((Map<String, Object>) value);
+    }
+    
+    /**
+     * Decode a single term.
+     *
+     * @param data   The raw ETF data.
+     * @param offset The offset of the payload in the array.
+     * @param length The length of the payload.
+     *
+     * @return The decoded term.
+     *
+     * @throws IllegalArgumentException If the data is not valid ETF.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static Object decode(@Nonnull final byte[] data, final int offset, final int length) {
+        final ETFDecoder decoder = new ETFDecoder(data, offset, length);
+        decoder.readVersion();
+        return decoder.readTerm();
+    }
+    
+    /**
+     * Read only the given top-level keys of a map payload, skipping over all
+     * other values without decoding them. Decoding stops as soon as all of
+     * the keys have been found.
+     *
+     * @param data   The raw ETF data.
+     * @param offset The offset of the payload in the array.
+     * @param length The length of the payload.
+     * @param keys   The keys to look for.
+     *
+     * @return The decoded values of the keys that were found.
+     *
+     * @throws IllegalArgumentException If the data is not a valid ETF map.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static Map<String, Object> decodeKeys(@Nonnull final byte[] data, final int offset, final int length,
+                                                 @Nonnull final String... keys) {
+        final ETFDecoder decoder = new ETFDecoder(data, offset, length);
+        decoder.readVersion();
+        if(decoder.readTag() != MAP_EXT) {
+            throw new IllegalArgumentException("Expected a map");
+        }
+        final Map<String, Object> found = new HashMap<>(keys.length);
+        final Collection<String> wanted = Arrays.asList(keys);
+        final long arity = decoder.readUnsignedInt();
+        for(long i = 0; i < arity && found.size() < keys.length; i++) {
+            final String key = String.valueOf(decoder.readTerm());
+            if(wanted.contains(key)) {
+                found.put(key, decoder.readTerm());
+            } else {
+                decoder.skipTerm();
+            }
+        }
+        return found;
+    }
+    
+    private void readVersion() {
+        final int version = readUnsignedByte();
+        if(version != VERSION) {
+            throw new IllegalArgumentException("Unknown ETF version " + version);
+        }
+    }
+    
+    private int readTag() {
+        return readUnsignedByte();
+    }
+    
+    private Object readTerm() {
+        final int tag = readTag();
+        switch(tag) {
+            case SMALL_INTEGER_EXT: {
+                return readUnsignedByte();
+            }
+            case INTEGER_EXT: {
+                return readInt();
+            }
+            case NEW_FLOAT_EXT: {
+                return Double.longBitsToDouble(readLong());
+            }
+            case FLOAT_EXT: {
+                return Double.parseDouble(readString(31, StandardCharsets.ISO_8859_1).trim());
+            }
+            case ATOM_EXT: {
+                return atom(readString(readUnsignedShort(), StandardCharsets.ISO_8859_1));
+            }
+            case SMALL_ATOM_EXT: {
+                return atom(readString(readUnsignedByte(), StandardCharsets.ISO_8859_1));
+            }
+            case ATOM_UTF8_EXT: {
+                return atom(readString(readUnsignedShort(), StandardCharsets.UTF_8));
+            }
+            case SMALL_ATOM_UTF8_EXT: {
+                return atom(readString(readUnsignedByte(), StandardCharsets.UTF_8));
+            }
+            case BINARY_EXT: {
+                return readString(checkedLength(readUnsignedInt()), StandardCharsets.UTF_8);
+            }
+            case STRING_EXT: {
+                // Erlang encodes lists of bytes this way
+                final int length = readUnsignedShort();
+                final List<Object> list = new ArrayList<>(length);
+                for(int i = 0; i < length; i++) {
+                    list.add(readUnsignedByte());
+                }
+                return list;
+            }
+            case NIL_EXT: {
+                return new ArrayList<>(0);
+            }
+            case LIST_EXT: {
+                final int length = checkedLength(readUnsignedInt());
+                final List<Object> list = new ArrayList<>(length);
+                for(int i = 0; i < length; i++) {
+                    list.add(readTerm());
+                }
+                // Proper lists end with NIL_EXT
+                if(peekTag() == NIL_EXT) {
+                    position++;
+                } else {
+                    list.add(readTerm());
+                }
+                return list;
+            }
+            case SMALL_TUPLE_EXT:
+            case LARGE_TUPLE_EXT: {
+                final int arity = tag == SMALL_TUPLE_EXT ? readUnsignedByte() : checkedLength(readUnsignedInt());
+                final List<Object> list = new ArrayList<>(arity);
+                for(int i = 0; i < arity; i++) {
+                    list.add(readTerm());
+                }
+                return list;
+            }
+            case MAP_EXT: {
+                final int arity = checkedLength(readUnsignedInt());
+                final Map<String, Object> map = new LinkedHashMap<>((int) (arity / 0.75F) + 1);
+                for(int i = 0; i < arity; i++) {
+                    final String key = readKey();
+                    map.put(key, readTerm());
+                }
+                return map;
+            }
+            case SMALL_BIG_EXT: {
+                return readBig(readUnsignedByte());
+            }
+            case LARGE_BIG_EXT: {
+                return readBig(checkedLength(readUnsignedInt()));
+            }
+            case COMPRESSED: {
+                return readCompressed();
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown ETF tag " + tag + " at " + (position - 1));
+            }
+        }
+    }
+    
+    private String readKey() {
+        final int tag = peekTag();
+        final int length;
+        final int headerLength;
+        switch(tag) {
+            case ATOM_EXT:
+            case ATOM_UTF8_EXT: {
+                ensure(3);
+                length = (data[position + 1] & 0xFF) << 8 | data[position + 2] & 0xFF;
+                headerLength = 3;
+                break;
+            }
+            case SMALL_ATOM_EXT:
+            case SMALL_ATOM_UTF8_EXT: {
+                ensure(2);
+                length = data[position + 1] & 0xFF;
+                headerLength = 2;
+                break;
+            }
+            case BINARY_EXT: {
+                ensure(5);
+                length = (data[position + 1] & 0xFF) << 24 | (data[position + 2] & 0xFF) << 16
+                        | (data[position + 3] & 0xFF) << 8 | data[position + 4] & 0xFF;
+                headerLength = 5;
+                break;
+            }
+            default: {
+                return String.valueOf(readTerm());
+            }
+        }
+        if(length < 0 || length > MAX_CACHED_KEY_LENGTH) {
+            return String.valueOf(readTerm());
+        }
+        final int start = position + headerLength;
+        ensure(headerLength + length);
+        int hash = tag;
+        for(int i = start; i < start + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        final int slot = (hash ^ hash >>> 16) & KEY_CACHE.length - 1;
+        final KeyEntry cached = KEY_CACHE[slot];
+        if(cached != null && cached.tag == tag && cached.matches(data, start, length)) {
+            position = start + length;
+            return cached.key;
+        }
+        final String key = String.valueOf(readTerm());
+        KEY_CACHE[slot] = new KeyEntry(tag, Arrays.copyOfRange(data, start, start + length), key);
+        return key;
+    }
+    
+    private void skipTerm() {
+        final int tag = readTag();
+        switch(tag) {
+            case SMALL_INTEGER_EXT: {
+                skip(1);
+                break;
+            }
+            case INTEGER_EXT: {
+                skip(4);
+                break;
+            }
+            case NEW_FLOAT_EXT: {
+                skip(8);
+                break;
+            }
+            case FLOAT_EXT: {
+                skip(31);
+                break;
+            }
+            case ATOM_EXT:
+            case ATOM_UTF8_EXT: {
+                skip(readUnsignedShort());
+                break;
+            }
+            case SMALL_ATOM_EXT:
+            case SMALL_ATOM_UTF8_EXT: {
+                skip(readUnsignedByte());
+                break;
+            }
+            case BINARY_EXT: {
+                skip(checkedLength(readUnsignedInt()));
+                break;
+            }
+            case STRING_EXT: {
+                skip(readUnsignedShort());
+                break;
+            }
+            case NIL_EXT: {
+                break;
+            }
+            case LIST_EXT: {
+                final long length = readUnsignedInt();
+                // + 1 for the tail
+                for(long i = 0; i <= length; i++) {
+                    skipTerm();
+                }
+                break;
+            }
+            case SMALL_TUPLE_EXT:
+            case LARGE_TUPLE_EXT: {
+                final long arity = tag == SMALL_TUPLE_EXT ? readUnsignedByte() : readUnsignedInt();
+                for(long i = 0; i < arity; i++) {
+                    skipTerm();
+                }
+                break;
+            }
+            case MAP_EXT: {
+                final long arity = readUnsignedInt();
+                for(long i = 0; i < arity; i++) {
+                    skipTerm();
+                    skipTerm();
+                }
+                break;
+            }
+            case SMALL_BIG_EXT: {
+                skip(readUnsignedByte() + 1);
+                break;
+            }
+            case LARGE_BIG_EXT: {
+                skip(checkedLength(readUnsignedInt()) + 1);
+                break;
+            }
+            case COMPRESSED: {
+                skip(4);
+                skip(end - position);
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown ETF tag " + tag + " at " + (position - 1));
+            }
+        }
+    }
+    
+    private Object readBig(final int length) {
+        final int sign = readUnsignedByte();
+        ensure(length);
+        if(length <= 8) {
+            long value = 0;
+            for(int i = 0; i < length; i++) {
+                value |= (data[position + i] & 0xFFL) << (i << 3);
+            }
+            position += length;
+            // Only 8-byte values with the top bit set don't fit in a long
+            if(value >= 0) {
+                return number(sign == 0 ? value : -value);
+            }
+            return unsignedNumber(sign, value);
+        }
+        final byte[] magnitude = new byte[length];
+        for(int i = 0; i < length; i++) {
+            magnitude[length - 1 - i] = data[position + i];
+        }
+        position += length;
+        final BigInteger big = new BigInteger(sign == 0 ? 1 : -1, magnitude);
+        return big.toString();
+    }
+    
+    private static Object number(final long value) {
+        if(value >= SNOWFLAKE_THRESHOLD) {
+            return Long.toString(value);
+        }
+        if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+    
+    private static Object unsignedNumber(final int sign, final long value) {
+        final String unsigned = Long.toUnsignedString(value);
+        return sign == 0 ? unsigned : '-' + unsigned;
+    }
+    
+    private Object readCompressed() {
+        final int uncompressedSize = checkedLength(readUnsignedInt());
+        final byte[] uncompressed = new byte[uncompressedSize];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, position, end - position);
+            int read = 0;
+            while(read < uncompressedSize && !inflater.finished()) {
+                final int inflated = inflater.inflate(uncompressed, read, uncompressedSize - read);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed ETF term");
+                }
+                read += inflated;
+            }
+            position = end - inflater.getRemaining();
+        } catch(final DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed ETF term", e);
+        } finally {
+            inflater.end();
+        }
+        return new ETFDecoder(uncompressed, 0, uncompressed.length).readTerm();
+    }
+    
+    private static Object atom(final String atom) {
+        switch(atom) {
+            case "nil":
+            case "null": {
+                return null;
+            }
+            case "true": {
+                return Boolean.TRUE;
+            }
+            case "false": {
+                return Boolean.FALSE;
+            }
+            default: {
+                return atom;
+            }
+        }
+    }
+    
+    private int peekTag() {
+        ensure(1);
+        return data[position] & 0xFF;
+    }
+    
+    private int readUnsignedByte() {
+        ensure(1);
+        return data[position++] & 0xFF;
+    }
+    
+    private int readUnsignedShort() {
+        ensure(2);
+        final int value = (data[position] & 0xFF) << 8 | data[position + 1] & 0xFF;
+        position += 2;
+        return value;
+    }
+    
+    private int readInt() {
+        ensure(4);
+        final int value = (data[position] & 0xFF) << 24
+                | (data[position + 1] & 0xFF) << 16
+                | (data[position + 2] & 0xFF) << 8
+                | data[position + 3] & 0xFF;
+        position += 4;
+        return value;
+    }
+    
+    private long readUnsignedInt() {
+        return readInt() & 0xFFFFFFFFL;
+    }
+    
+    private long readLong() {
+        return (long) readInt() << 32 | readUnsignedInt();
+    }
+    
+    private String readString(final int length, final Charset charset) {
+        ensure(length);
+        final String value = new String(data, position, length, charset);
+        position += length;
+        return value;
+    }
+    
+    private void skip(final int length) {
+        ensure(length);
+        position += length;
+    }
+    
+    private int checkedLength(final long length) {
+        if(length > end - position) {
+            throw new IllegalArgumentException("Length " + length + " at " + position + " runs past the end of the payload");
+        }
+        return (int) length;
+    }
+    
+    private void ensure(final int bytes) {
+        if(position + bytes > end) {
+            throw new IllegalArgumentException("Unexpected end of ETF payload at " + position);
+        }
+    }
+    
+    private static final class KeyEntry {
+        private final int tag;
+        private final byte[] bytes;
+        private final String key;
+        
+        private KeyEntry(final int tag, final byte[] bytes, final String key) {
+            this.tag = tag;
+            this.bytes = bytes;
+            this.key = key;
+        }
+        
+        private boolean matches(final byte[] data, final int start, final int length) {
+            if(bytes.length != length) {
+                return false;
+            }
+            for(int i = 0; i < length; i++) {
+                if(bytes[i] != data[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
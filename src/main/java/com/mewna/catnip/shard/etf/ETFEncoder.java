@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.etf;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.mewna.catnip.shard.etf.ETFTags.*;
+
+/**
+ * Encodes {@link JsonObject}s into the Erlang External Term Format for
+ * sending to the gateway. Strings are written as binaries, {@code null} and
+ * booleans as the atoms Discord expects, and numbers as integers or floats.
+ *
+ * @author amy
+ * @since 12/22/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ETFEncoder {
+    private static final byte[] NIL = "nil".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.ISO_8859_1);
+    
+    private ETFEncoder() {
+    }
+    
+    /**
+     * Encode the given object.
+     *
+     * @param object The object to encode.
+     *
+     * @return A buffer containing the encoded object.
+     *
+     * @throws IllegalArgumentException If the object contains a value that
+     *                                  can't be represented in ETF.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static Buffer encode(@Nonnull final JsonObject object) {
+        final Buffer buffer = Buffer.buffer(256);
+        buffer.appendByte((byte) VERSION);
+        write(buffer, object);
+        return buffer;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void write(final Buffer buffer, @Nullable final Object value) {
+        if(value == null) {
+            writeAtom(buffer, NIL);
+        } else if(value instanceof Boolean) {
+            writeAtom(buffer, (Boolean) value ? TRUE : FALSE);
+        } else if(value instanceof CharSequence) {
+            final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            buffer.appendByte((byte) BINARY_EXT).appendInt(bytes.length).appendBytes(bytes);
+        } else if(value instanceof Enum) {
+            write(buffer, ((Enum<?>) value).name());
+        } else if(value instanceof Double || value instanceof Float) {
+            buffer.appendByte((byte) NEW_FLOAT_EXT).appendDouble(((Number) value).doubleValue());
+        } else if(value instanceof BigInteger) {
+            writeBig(buffer, (BigInteger) value);
+        } else if(value instanceof Number) {
+            writeLong(buffer, ((Number) value).longValue());
+        } else if(value instanceof JsonObject) {
+            writeMap(buffer, ((JsonObject) value).getMap());
+        } else if(value instanceof Map) {
+            writeMap(buffer, (Map<String, Object>) value);
+        } else if(value instanceof JsonArray) {
+            writeList(buffer, ((JsonArray) value).getList());
+        } else if(value instanceof Collection) {
+            writeList(buffer, (Collection<Object>) value);
+        } else {
+            throw new IllegalArgumentException("Can't encode " + value.getClass() + " as ETF");
+        }
+    }
+    
+    private static void writeAtom(final Buffer buffer, final byte[] atom) {
+        buffer.appendByte((byte) SMALL_ATOM_EXT).appendByte((byte) atom.length).appendBytes(atom);
+    }
+    
+    private static void writeMap(final Buffer buffer, final Map<String, Object> map) {
+        buffer.appendByte((byte) MAP_EXT).appendInt(map.size());
+        for(final Entry<String, Object> entry : map.entrySet()) {
+            write(buffer, entry.getKey());
+            write(buffer, entry.getValue());
+        }
+    }
+    
+    private static void writeList(final Buffer buffer, final Collection<Object> list) {
+        if(list.isEmpty()) {
+            buffer.appendByte((byte) NIL_EXT);
+            return;
+        }
+        buffer.appendByte((byte) LIST_EXT).appendInt(list.size());
+        for(final Object value : list) {
+            write(buffer, value);
+        }
+        buffer.appendByte((byte) NIL_EXT);
+    }
+    
+    private static void writeLong(final Buffer buffer, final long value) {
+        if(value >= 0 && value <= 0xFF) {
+            buffer.appendByte((byte) SMALL_INTEGER_EXT).appendUnsignedByte((short) value);
+        } else if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            buffer.appendByte((byte) INTEGER_EXT).appendInt((int) value);
+        } else {
+            writeBig(buffer, BigInteger.valueOf(value));
+        }
+    }
+    
+    private static void writeBig(final Buffer buffer, final BigInteger value) {
+        final byte[] magnitude = value.abs().toByteArray();
+        // toByteArray() is big-endian and may have a leading sign byte
+        final int start = magnitude[0] == 0 && magnitude.length > 1 ? 1 : 0;
+        final int length = magnitude.length - start;
+        if(length <= 0xFF) {
+            buffer.appendByte((byte) SMALL_BIG_EXT).appendUnsignedByte((short) length);
+        } else {
+            buffer.appendByte((byte) LARGE_BIG_EXT).appendInt(length);
+        }
+        buffer.appendByte((byte) (value.signum() < 0 ? 1 : 0));
+        for(int i = magnitude.length - 1; i >= start; i--) {
+            buffer.appendByte(magnitude[i]);
+        }
+    }
+}
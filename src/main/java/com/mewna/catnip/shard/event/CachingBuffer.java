@@ -42,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static com.mewna.catnip.shard.CatnipShard.LARGE_THRESHOLD;
@@ -78,6 +79,13 @@ public class CachingBuffer extends AbstractBuffer {
             Raw.VOICE_STATE_UPDATE
     );
     
+    /**
+     * Only cached if the cache worker {@link com.mewna.catnip.cache.EntityCacheWorker#cachesMessages() caches messages}.
+     */
+    private static final Set<String> MESSAGE_EVENTS = ImmutableSet.of(
+            Raw.MESSAGE_CREATE, Raw.MESSAGE_UPDATE, Raw.MESSAGE_DELETE, Raw.MESSAGE_DELETE_BULK
+    );
+    
     private static final Set<String> DELETE_EVENTS = ImmutableSet.of(
             // Channels
             Raw.CHANNEL_DELETE,
@@ -86,7 +94,10 @@ public class CachingBuffer extends AbstractBuffer {
             // Roles
             Raw.GUILD_ROLE_DELETE,
             // Members
-            Raw.GUILD_MEMBER_REMOVE
+            Raw.GUILD_MEMBER_REMOVE,
+            // Messages; edits too, so that they can carry the message from
+            // before the edit
+            Raw.MESSAGE_UPDATE, Raw.MESSAGE_DELETE, Raw.MESSAGE_DELETE_BULK
     );
     
     private final Map<Integer, BufferState> buffers = new ConcurrentHashMap<>();
@@ -103,7 +114,7 @@ public class CachingBuffer extends AbstractBuffer {
             case Raw.READY: {
                 final Set<String> guilds = d.getJsonArray("guilds").stream()
                         .map(e -> ((JsonObject) e).getString("id"))
-                        .collect(Collectors.toSet());
+                        .collect(Collectors.toCollection(ConcurrentHashMap::newKeySet));
                 buffers.put(id, new BufferState(id, guilds));
                 catnip().logAdapter().debug("Prepared new BufferState for shard {} with {} guilds.", id, guilds.size());
                 // READY is also a cache event, as it does come with
@@ -152,12 +163,12 @@ public class CachingBuffer extends AbstractBuffer {
                                     bufferState.replayGuild(guild);
                                     // Replay all buffered events once we run out
                                     if(bufferState.readyGuilds().isEmpty()) {
-                                        buffers.remove(id);
                                         bufferState.replay();
+                                        buffers.remove(id, bufferState);
                                     }
                                 }
-                            } else {
-                                bufferState.buffer(event);
+                            } else if(!bufferState.buffer(event)) {
+                                emitter().emit(event);
                             }
                         }
                     } else {
@@ -180,8 +191,8 @@ public class CachingBuffer extends AbstractBuffer {
                             bufferState.replayGuild(guild);
                             // Replay all buffered events once we run out
                             if(bufferState.readyGuilds().isEmpty()) {
-                                buffers.remove(id);
                                 bufferState.replay();
+                                buffers.remove(id, bufferState);
                             }
                         }
                     }
@@ -203,7 +214,10 @@ public class CachingBuffer extends AbstractBuffer {
                             // have a BufferState, then it should be buffered, since it's
                             // probably that we received a (buffered) GUILD_CREATE and then
                             // started receiving events for it
-                            bufferState.buffer(event);
+                            if(!bufferState.buffer(event)) {
+                                // Already replayed from another dispatch lane
+                                cacheAndDispatch(type, d, event);
+                            }
                         }
                     } else {
                         // Emit if the payload has no guild id
@@ -218,6 +232,27 @@ public class CachingBuffer extends AbstractBuffer {
         }
     }
     
+    /**
+     * @param shardId The id of the shard.
+     *
+     * @return Whether the shard is still waiting on guilds from its
+     * {@code READY}. Events it's holding back until then haven't been cached
+     * yet, even though the shard's seqnum is already past them.
+     */
+    public boolean buffering(final int shardId) {
+        return buffers.containsKey(shardId);
+    }
+    
+    @Override
+    public boolean requiresEvent(final String type) {
+        return caches(type);
+    }
+    
+    private boolean caches(final String type) {
+        return CACHE_EVENTS.contains(type)
+                || MESSAGE_EVENTS.contains(type) && catnip().cacheWorker().cachesMessages();
+    }
+    
     // Yeah just lazy af here I know, but no need to fetch data a second time
     private void cacheAndDispatch(final String type, final JsonObject d, final JsonObject event) {
         if(DELETE_EVENTS.contains(type)) {
@@ -234,7 +269,7 @@ public class CachingBuffer extends AbstractBuffer {
     }
     
     private Future<Void> maybeCache(final String eventType, final JsonObject data) {
-        if(CACHE_EVENTS.contains(eventType)) {
+        if(caches(eventType)) {
             try {
                 return catnip().cacheWorker().updateCache(eventType, data);
             } catch(final Exception e) {
@@ -256,6 +291,7 @@ public class CachingBuffer extends AbstractBuffer {
         private final Map<String, Deque<JsonObject>> guildBuffers = new ConcurrentHashMap<>();
         private final Map<String, Counter> guildChunkCount = new ConcurrentHashMap<>();
         private final Deque<JsonObject> buffer = new ConcurrentLinkedDeque<>();
+        private final AtomicBoolean replayed = new AtomicBoolean(false);
         
         void recvGuild(final String id) {
             readyGuilds.remove(id);
@@ -266,8 +302,21 @@ public class CachingBuffer extends AbstractBuffer {
             queue.addLast(event);
         }
         
-        void buffer(final JsonObject event) {
+        /**
+         * With {@link com.mewna.catnip.CatnipOptions#dispatchLanes(int)}, the
+         * last guild may arrive on a different lane than an event being
+         * buffered, so buffering and replaying are done under a lock, and the
+         * buffer is kept in {@link #buffers} until it has been replayed.
+         *
+         * @return {@code false} if the buffer was already replayed, in which
+         * case the caller should dispatch the event itself.
+         */
+        synchronized boolean buffer(final JsonObject event) {
+            if(replayed.get()) {
+                return false;
+            }
             buffer.addLast(event);
+            return true;
         }
         
         void replayGuild(final String id) {
@@ -278,8 +327,10 @@ public class CachingBuffer extends AbstractBuffer {
             }
         }
         
-        void replay() {
-            final int count = buffer.size();
+        synchronized void replay() {
+            if(!replayed.compareAndSet(false, true)) {
+                return;
+            }
             buffer.forEach(emitter()::emit);
         }
         
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.event;
+
+import com.mewna.catnip.Catnip;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of single-threaded lanes that dispatch work is hashed onto by
+ * guild id. Work for a single guild always lands on the same lane, and so is
+ * processed in the order it was submitted, but a busy guild only holds up the
+ * guilds that share its lane, rather than every guild on the shard.
+ * <p/>
+ * Each lane is a vert.x worker context, so futures completed from a lane
+ * (ex. by an {@link com.mewna.catnip.cache.EntityCacheWorker}) call back on
+ * that same lane. Work submitted before the lanes have finished deploying is
+ * held and run in order once they have.
+ *
+ * @author amy
+ * @since 12/27/18.
+ */
+public final class DispatchLanes {
+    private final Catnip catnip;
+    private final List<Lane> lanes;
+    
+    public DispatchLanes(@Nonnull final Catnip catnip, @Nonnegative final int count) {
+        if(count < 1) {
+            throw new IllegalArgumentException("Need at least one dispatch lane, got " + count);
+        }
+        this.catnip = catnip;
+        final List<Lane> lanes = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            final Lane lane = new Lane(i);
+            lanes.add(lane);
+            catnip.vertx().deployVerticle(lane, new DeploymentOptions().setWorker(true));
+        }
+        this.lanes = Collections.unmodifiableList(lanes);
+    }
+    
+    /**
+     * @param guildId The id of the guild the work is for.
+     *
+     * @return The index of the lane that work for the guild runs on.
+     */
+    public int laneFor(@Nonnull final String guildId) {
+        final int h = guildId.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.size();
+    }
+    
+    /**
+     * Run the given task on the lane for the given guild.
+     *
+     * @param guildId The id of the guild the task is for.
+     * @param task    The task to run.
+     */
+    public void execute(@Nonnull final String guildId, @Nonnull final Runnable task) {
+        lanes.get(laneFor(guildId)).submit(task);
+    }
+    
+    /**
+     * @return The number of lanes.
+     */
+    public int size() {
+        return lanes.size();
+    }
+    
+    /**
+     * @return Queue depth and processing time of each lane, by lane index.
+     */
+    @Nonnull
+    public List<LaneStats> stats() {
+        final List<LaneStats> stats = new ArrayList<>(lanes.size());
+        for(final Lane lane : lanes) {
+            stats.add(new LaneStats(lane.index, lane.queued.get(), lane.processed.get(), lane.busyNanos.get()));
+        }
+        return stats;
+    }
+    
+    /**
+     * @return A future that's completed once everything submitted to the
+     * lanes so far has run.
+     */
+    @Nonnull
+    public Future<Void> drain() {
+        final List<Future> drained = new ArrayList<>(lanes.size());
+        for(final Lane lane : lanes) {
+            final Future<Void> future = Future.future();
+            lane.submit(future::complete);
+            drained.add(future);
+        }
+        return CompositeFuture.all(drained).mapEmpty();
+    }
+    
+    /**
+     * Undeploy all lanes. Work that is still queued is dropped.
+     */
+    public void close() {
+        for(final Lane lane : lanes) {
+            if(lane.started) {
+                catnip.vertx().undeploy(lane.deploymentID());
+            }
+        }
+    }
+    
+    private final class Lane extends AbstractVerticle {
+        private final int index;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        // Guarded by this until started
+        private final List<Runnable> pending = new ArrayList<>();
+        private volatile boolean started;
+        
+        private Lane(final int index) {
+            this.index = index;
+        }
+        
+        private void submit(final Runnable task) {
+            queued.incrementAndGet();
+            if(!started) {
+                synchronized(this) {
+                    if(!started) {
+                        pending.add(task);
+                        return;
+                    }
+                }
+            }
+            context.runOnContext(__ -> run(task));
+        }
+        
+        @Override
+        public void start() {
+            synchronized(this) {
+                // Queue pending work on the context before anything submitted
+                // after this point can be
+                pending.forEach(task -> context.runOnContext(__ -> run(task)));
+                pending.clear();
+                started = true;
+            }
+        }
+        
+        private void run(final Runnable task) {
+            final long start = System.nanoTime();
+            try {
+                task.run();
+            } catch(final Exception e) {
+                catnip.logAdapter().error("Dispatch lane {} failed to process an event", index, e);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                processed.incrementAndGet();
+                queued.decrementAndGet();
+            }
+        }
+    }
+}
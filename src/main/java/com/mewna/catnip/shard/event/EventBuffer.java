@@ -45,5 +45,19 @@ public interface EventBuffer {
      */
     void buffer(JsonObject event);
     
+    /**
+     * Whether or not this buffer needs to see events of the given type even
+     * when they won't be emitted, ex. because they're used for caching. If
+     * this returns {@code false} for a disabled event type, the shard may
+     * drop those events without ever parsing them.
+     *
+     * @param type The type of the event.
+     *
+     * @return Whether or not events of this type must always be buffered.
+     */
+    default boolean requiresEvent(final String type) {
+        return true;
+    }
+    
     void catnip(Catnip catnip);
 }
@@ -43,4 +43,9 @@ public class NoopBuffer extends AbstractBuffer {
     public void buffer(final JsonObject event) {
         emitter().emit(event);
     }
+    
+    @Override
+    public boolean requiresEvent(final String type) {
+        return false;
+    }
 }
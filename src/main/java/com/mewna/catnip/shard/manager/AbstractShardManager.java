@@ -30,6 +30,7 @@ package com.mewna.catnip.shard.manager;
 import com.google.common.collect.ImmutableList;
 import com.mewna.catnip.Catnip;
 import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -42,6 +43,7 @@ import me.escoffier.vertx.completablefuture.VertxCompletableFuture;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -62,12 +64,20 @@ public abstract class AbstractShardManager implements ShardManager {
     @Getter
     private final List<ShardCondition> conditions = new CopyOnWriteArrayList<>();
     
+    /**
+     * Where shards are deployed to. Must be set before shards are started.
+     */
+    @Getter
+    @Setter
+    @Nonnull
+    private ShardPlacement placement = ShardPlacement.perVerticle();
+    
     @SuppressWarnings("WeakerAccess")
     protected void deployShard(@Nonnegative final int id, @Nonnegative final int count) {
         // because each shard has its own presence, so no global presence on catnip class
         @SuppressWarnings("TypeMayBeWeakened")
         final CatnipShard shard = new CatnipShard(catnip, id, count, catnip.initialPresence());
-        catnip.vertx().deployVerticle(shard);
+        placement.deploy(catnip, shard);
         addToConnectQueue(id);
     }
     
@@ -112,8 +122,26 @@ public abstract class AbstractShardManager implements ShardManager {
     
     @Override
     public void shutdown() {
+        shutdownAsync();
+    }
+    
+    @Nonnull
+    @Override
+    public Future<Void> shutdownAsync() {
+        final List<Future> stopped = new ArrayList<>(shardCount());
         for(int i = 0; i < shardCount(); i++) {
-            catnip.eventBus().send(CatnipShard.controlAddress(i), new JsonObject().put("mode", "SHUTDOWN"));
+            final Future<Void> future = Future.future();
+            // Shards that never started won't reply at all, which fails this
+            // just the same
+            catnip.eventBus().send(CatnipShard.controlAddress(i), new JsonObject().put("mode", "SHUTDOWN"),
+                    reply -> future.complete());
+            stopped.add(future);
         }
+        // The shards' Vert.x instances can only be closed once they're done
+        // stopping, or they'd be closed out from under them
+        return CompositeFuture.all(stopped).map(__ -> {
+            placement.close();
+            return (Void) null;
+        });
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.manager;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how quickly a shard manager brings its shards up. A shard counts as
+ * booted the first time it reaches READY or RESUMED; later reconnects don't
+ * count.
+ *
+ * @author amy
+ * @since 12/25/18.
+ */
+public final class BootMetrics {
+    private final Set<Integer> booted = ConcurrentHashMap.newKeySet();
+    private volatile int totalShards;
+    private volatile long startedAt = -1L;
+    private volatile long allBootedAt = -1L;
+    
+    synchronized void start(@Nonnegative final int totalShards) {
+        this.totalShards = totalShards;
+        booted.clear();
+        allBootedAt = -1L;
+        startedAt = System.nanoTime();
+    }
+    
+    /**
+     * @return Whether or not this was the last shard to boot.
+     */
+    synchronized boolean booted(@Nonnegative final int shard) {
+        if(booted.add(shard) && booted.size() >= totalShards && allBootedAt == -1L) {
+            allBootedAt = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return The number of shards the shard manager is booting.
+     */
+    @CheckReturnValue
+    public int totalShards() {
+        return totalShards;
+    }
+    
+    /**
+     * @return The number of shards that have reached READY or RESUMED at
+     * least once.
+     */
+    @CheckReturnValue
+    public int bootedShards() {
+        return booted.size();
+    }
+    
+    /**
+     * @return Whether or not every shard has booted.
+     */
+    @CheckReturnValue
+    public boolean allBooted() {
+        return allBootedAt != -1L;
+    }
+    
+    /**
+     * @return The average number of shards booted per minute so far, or 0 if
+     * booting hasn't started.
+     */
+    @CheckReturnValue
+    public double shardsPerMinute() {
+        if(startedAt == -1L) {
+            return 0D;
+        }
+        final long end = allBootedAt == -1L ? System.nanoTime() : allBootedAt;
+        final long elapsed = Math.max(1L, end - startedAt);
+        return booted.size() * (double) TimeUnit.MINUTES.toNanos(1) / elapsed;
+    }
+    
+    /**
+     * @return How long it took from starting the shard manager until every
+     * shard had booted, in milliseconds, or -1 if not all shards have booted
+     * yet.
+     */
+    @CheckReturnValue
+    public long timeToAllBooted() {
+        if(allBootedAt == -1L) {
+            return -1L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(allBootedAt - startedAt);
+    }
+}
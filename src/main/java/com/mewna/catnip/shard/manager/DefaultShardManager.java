@@ -28,6 +28,7 @@
 package com.mewna.catnip.shard.manager;
 
 import com.google.common.collect.ImmutableList;
+import com.mewna.catnip.entity.misc.GatewayInfo;
 import com.mewna.catnip.shard.CatnipShard;
 import com.mewna.catnip.shard.CatnipShard.ShardConnectState;
 import io.vertx.core.json.JsonObject;
@@ -40,7 +41,9 @@ import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.stream.Collectors;
@@ -59,6 +62,21 @@ public class DefaultShardManager extends AbstractShardManager {
     private int shardCount;
     @Getter
     private OkHttpClient client;
+    /**
+     * How quickly shards are booting.
+     */
+    @Getter
+    private final BootMetrics bootMetrics = new BootMetrics();
+    /**
+     * The number of shards that may connect at once. Shards are split into
+     * this many lanes by {@code shard_id % max_concurrency}; each lane
+     * connects one shard at a time.
+     */
+    @Getter
+    private int maxConcurrency = 1;
+    // Lanes that have a shard connecting, guarded by this
+    private final Set<Integer> busyLanes = new HashSet<>();
+    private boolean pollScheduled;
     
     public DefaultShardManager() {
         this(0, new ArrayList<>());
@@ -111,6 +129,7 @@ public class DefaultShardManager extends AbstractShardManager {
             // Load shard count from API
             catnip().rest().user().getGatewayBot().thenAccept(gatewayInfo -> {
                 shardCount = gatewayInfo.shards();
+                maxConcurrency = Math.max(1, gatewayInfo.maxConcurrency());
                 catnip().logAdapter().info("Loaded expected shard count: {}", shardCount);
                 shardIds.clear();
                 shardIds.addAll(IntStream.range(0, shardCount).boxed().collect(Collectors.toList()));
@@ -119,12 +138,17 @@ public class DefaultShardManager extends AbstractShardManager {
                 throw new IllegalStateException("Couldn't load shard count from API!", e);
             });
         } else {
+            final GatewayInfo gatewayInfo = catnip().getGatewayInfo();
+            if(gatewayInfo != null) {
+                maxConcurrency = Math.max(1, gatewayInfo.maxConcurrency());
+            }
             loadShards();
         }
     }
     
     private void loadShards() {
-        catnip().logAdapter().info("Booting {}(/{}) shards", shardIds.size(), shardCount);
+        catnip().logAdapter().info("Booting {}(/{}) shards, {} at a time", shardIds.size(), shardCount, maxConcurrency);
+        bootMetrics.start(shardIds.size());
         
         // Deploy verticles
         for(final Integer id : shardIds) {
@@ -136,21 +160,60 @@ public class DefaultShardManager extends AbstractShardManager {
     }
     
     private void poll() {
-        if(connectQueue.isEmpty()) {
-            catnip().vertx().setTimer(1000L, __ -> poll());
-            return;
+        for(final int id : claimShards()) {
+            CompletableFuture.allOf(conditions().stream().map(ShardCondition::preshard).toArray(CompletableFuture[]::new))
+                    .thenAccept(__ -> connect(id))
+                    .exceptionally(e -> {
+                        catnip().logAdapter().warn("Couldn't complete shard conditions, polling again in 1s", e);
+                        connectQueue.addFirst(id);
+                        releaseLane(id);
+                        schedulePoll();
+                        return null;
+                    });
+        }
+        schedulePoll();
+    }
+    
+    /**
+     * Takes the first queued shard of every lane that doesn't have a shard
+     * connecting right now.
+     */
+    private synchronized List<Integer> claimShards() {
+        final List<Integer> claimed = new ArrayList<>();
+        for(final Integer id : connectQueue) {
+            if(busyLanes.add(lane(id))) {
+                claimed.add(id);
+            }
+        }
+        connectQueue.removeAll(claimed);
+        return claimed;
+    }
+    
+    private synchronized void releaseLane(final int id) {
+        busyLanes.remove(lane(id));
+    }
+    
+    private int lane(final int id) {
+        return id % maxConcurrency;
+    }
+    
+    /**
+     * Checks the queue again in a second, for shards that are re-queued
+     * while nothing is connecting.
+     */
+    private synchronized void schedulePoll() {
+        if(!pollScheduled) {
+            pollScheduled = true;
+            catnip().vertx().setTimer(1000L, __ -> {
+                synchronized(this) {
+                    pollScheduled = false;
+                }
+                poll();
+            });
         }
-        CompletableFuture.allOf(conditions().stream().map(ShardCondition::preshard).toArray(CompletableFuture[]::new))
-                .thenAccept(__ -> connect())
-                .exceptionally(e -> {
-                    catnip().logAdapter().warn("Couldn't complete shard conditions, polling again in 1s", e);
-                    catnip().vertx().setTimer(1000L, __ -> poll());
-                    return null;
-                });
     }
     
-    private void connect() {
-        final int nextId = connectQueue.removeFirst();
+    private void connect(final int nextId) {
         catnip().logAdapter().info("Connecting shard {} (queue len {})", nextId, connectQueue.size());
         catnip().eventBus().<JsonObject>send(CatnipShard.controlAddress(nextId), new JsonObject().put("mode", "START"),
                 reply -> {
@@ -160,6 +223,11 @@ public class DefaultShardManager extends AbstractShardManager {
                             case READY:
                             case RESUMED: {
                                 catnip().logAdapter().info("Connected shard {} with state {}", nextId, reply.result().body());
+                                if(bootMetrics.booted(nextId)) {
+                                    catnip().logAdapter().info("All {} shards booted in {}ms ({} shards/minute)",
+                                            bootMetrics.totalShards(), bootMetrics.timeToAllBooted(),
+                                            String.format("%.1f", bootMetrics.shardsPerMinute()));
+                                }
                                 break;
                             }
                             case FAILED: {
@@ -177,6 +245,7 @@ public class DefaultShardManager extends AbstractShardManager {
                         catnip().logAdapter().warn("Failed connecting shard {} entirely, re-queueing", nextId);
                         addToConnectQueue(nextId);
                     }
+                    releaseLane(nextId);
                     poll();
                 });
     }
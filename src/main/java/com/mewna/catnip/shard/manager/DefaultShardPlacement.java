@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.manager;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link ShardPlacement} behind the built-in policies. Shards are
+ * numbered in the order they're deployed in; every {@code shardsPerLoop}
+ * shards share a {@link ShardGroupVerticle}, and every {@code shardsPerVertx}
+ * shards share a Vert.x instance.
+ *
+ * @author amy
+ * @since 12/24/18.
+ */
+final class DefaultShardPlacement implements ShardPlacement {
+    private final int shardsPerLoop;
+    private final int shardsPerVertx;
+    private final VertxOptions vertxOptions;
+    private final boolean dedicated;
+    
+    private final Map<Integer, CatnipShard> shards = new ConcurrentHashMap<>();
+    private final Map<Integer, ShardGroupVerticle> loopGroups = new HashMap<>();
+    private final Map<Integer, Vertx> vertxGroups = new HashMap<>();
+    private final Map<Thread, Sample> samples = new HashMap<>();
+    private final Map<Vertx, Context> deployers = new HashMap<>();
+    private int deployed;
+    private long firstDeployAt;
+    
+    DefaultShardPlacement(@Nonnegative final int shardsPerLoop, @Nonnegative final int shardsPerVertx,
+                          @Nullable final VertxOptions vertxOptions, final boolean dedicated) {
+        this.shardsPerLoop = shardsPerLoop;
+        this.shardsPerVertx = shardsPerVertx;
+        this.vertxOptions = vertxOptions;
+        this.dedicated = dedicated;
+    }
+    
+    @Override
+    public synchronized void deploy(@Nonnull final Catnip catnip, @Nonnull final CatnipShard shard) {
+        final int index = deployed++;
+        if(index == 0) {
+            firstDeployAt = System.nanoTime();
+        }
+        shards.put(shard.shardInfo().getId(), shard);
+        final Vertx vertx = vertxFor(catnip, index);
+        if(shardsPerLoop == 1) {
+            deployFrom(vertx, () -> vertx.deployVerticle(shard));
+            return;
+        }
+        final ShardGroupVerticle group = loopGroups.computeIfAbsent(index / shardsPerLoop, __ -> {
+            final ShardGroupVerticle verticle = new ShardGroupVerticle();
+            deployFrom(vertx, () -> vertx.deployVerticle(verticle, new DeploymentOptions()
+                    .setConfig(new JsonObject().put(CatnipShard.SHARD_GROUP_CONFIG_KEY, index / shardsPerLoop))));
+            return verticle;
+        });
+        group.add(shard);
+    }
+    
+    /**
+     * Vert.x hands out event loops round-robin, to every new context. A
+     * deployment from outside of a context creates two of them (one for the
+     * caller and one for the verticle), so deploying everything from one
+     * long-lived context keeps consecutive shards on consecutive loops.
+     */
+    private void deployFrom(final Vertx vertx, final Runnable deployment) {
+        deployers.computeIfAbsent(vertx, Vertx::getOrCreateContext).runOnContext(__ -> deployment.run());
+    }
+    
+    private Vertx vertxFor(final Catnip catnip, final int index) {
+        if(dedicated) {
+            return vertxGroups.computeIfAbsent(0, __ -> Vertx.vertx(new VertxOptions()
+                    .setEventLoopPoolSize(Math.max(1, catnip.shardManager().shardIds().size()))));
+        }
+        if(shardsPerVertx > 0) {
+            return vertxGroups.computeIfAbsent(index / shardsPerVertx, __ -> Vertx.vertx(new VertxOptions(vertxOptions)));
+        }
+        return catnip.vertx();
+    }
+    
+    @Nonnull
+    @Override
+    public synchronized List<LoopStats> loopStats() {
+        final Map<Thread, List<CatnipShard>> byThread = shards.values().stream()
+                .filter(shard -> shard.eventLoopThread() != null)
+                .collect(Collectors.groupingBy(CatnipShard::eventLoopThread));
+        final long now = System.nanoTime();
+        final List<LoopStats> stats = new ArrayList<>(byThread.size());
+        for(final Entry<Thread, List<CatnipShard>> entry : byThread.entrySet()) {
+            final long busy = entry.getValue().stream().mapToLong(CatnipShard::busyNanos).sum();
+            final Sample last = samples.getOrDefault(entry.getKey(), new Sample(firstDeployAt, 0L));
+            final long elapsed = now - last.at;
+            final double utilization = elapsed <= 0 ? 0D : Math.min(1D, (busy - last.busyNanos) / (double) elapsed);
+            samples.put(entry.getKey(), new Sample(now, busy));
+            stats.add(new LoopStats(entry.getKey().getName(), entry.getValue().stream()
+                    .map(shard -> shard.shardInfo().getId())
+                    .sorted()
+                    .collect(Collectors.toList()), utilization));
+        }
+        stats.sort(Comparator.comparingDouble(LoopStats::utilization).reversed());
+        return stats;
+    }
+    
+    @Override
+    public synchronized void close() {
+        vertxGroups.values().forEach(vertx -> {
+            deployers.remove(vertx);
+            vertx.close();
+        });
+        vertxGroups.clear();
+    }
+    
+    private static final class Sample {
+        private final long at;
+        private final long busyNanos;
+        
+        private Sample(final long at, final long busyNanos) {
+            this.at = at;
+            this.busyNanos = busyNanos;
+        }
+    }
+}
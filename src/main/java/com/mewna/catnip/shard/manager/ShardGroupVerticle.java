@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.manager;
+
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.AbstractVerticle;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hosts several shards on one context, and so on one event loop. Shards can
+ * be added before or after the verticle is deployed.
+ *
+ * @author amy
+ * @since 12/24/18.
+ */
+final class ShardGroupVerticle extends AbstractVerticle {
+    // Guarded by this until started, then confined to the context
+    private final List<CatnipShard> shards = new ArrayList<>();
+    private boolean started;
+    
+    void add(@Nonnull final CatnipShard shard) {
+        synchronized(this) {
+            if(!started) {
+                shards.add(shard);
+                return;
+            }
+        }
+        context.runOnContext(__ -> {
+            shards.add(shard);
+            startShard(shard);
+        });
+    }
+    
+    @Override
+    public void start() {
+        final List<CatnipShard> pending;
+        synchronized(this) {
+            started = true;
+            pending = new ArrayList<>(shards);
+        }
+        pending.forEach(this::startShard);
+    }
+    
+    @Override
+    public void stop() {
+        shards.forEach(CatnipShard::stop);
+    }
+    
+    private void startShard(final CatnipShard shard) {
+        shard.init(vertx, context);
+        shard.start();
+    }
+}
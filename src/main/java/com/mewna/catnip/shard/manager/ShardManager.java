@@ -128,4 +128,16 @@ public interface ShardManager {
      * Shuts down all shards.
      */
     void shutdown();
+    
+    /**
+     * Shuts down all shards, like {@link #shutdown()}.
+     *
+     * @return A future that completes once every shard has stopped. Unless
+     * overridden, this is complete as soon as {@link #shutdown()} returns.
+     */
+    @Nonnull
+    default Future<Void> shutdownAsync() {
+        shutdown();
+        return Future.succeededFuture();
+    }
 }
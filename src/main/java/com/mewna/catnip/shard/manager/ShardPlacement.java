@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.manager;
+
+import com.mewna.catnip.Catnip;
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.VertxOptions;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Decides where shards run: which {@link io.vertx.core.Vertx} instance they
+ * are deployed to, and which shards share an event loop. By default, every
+ * shard is deployed as its own verticle on catnip's Vert.x instance, and
+ * Vert.x picks an event loop for it.
+ * <p/>
+ * Regardless of placement, shards always talk over catnip's event bus.
+ *
+ * @author amy
+ * @since 12/24/18.
+ */
+public interface ShardPlacement {
+    /**
+     * Deploy every shard as its own verticle on catnip's Vert.x instance.
+     * This is the default.
+     *
+     * @return The placement policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static ShardPlacement perVerticle() {
+        return new DefaultShardPlacement(1, 0, null, false);
+    }
+    
+    /**
+     * Host the given number of shards together on a single event loop of
+     * catnip's Vert.x instance. Groups are formed in the order that shards
+     * are deployed in.
+     *
+     * @param shards The number of shards per event loop.
+     *
+     * @return The placement policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static ShardPlacement shardsPerLoop(@Nonnegative final int shards) {
+        if(shards < 1) {
+            throw new IllegalArgumentException("Need at least one shard per loop, got " + shards);
+        }
+        return new DefaultShardPlacement(shards, 0, null, false);
+    }
+    
+    /**
+     * Give every shard an event loop of its own, on a separate Vert.x
+     * instance with exactly as many event loops as there are shards. Nothing
+     * else runs on those event loops.
+     *
+     * @return The placement policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static ShardPlacement dedicatedLoops() {
+        return new DefaultShardPlacement(1, 0, null, true);
+    }
+    
+    /**
+     * Split shards into groups of the given size, and give each group a
+     * separate Vert.x instance created from the given options. Within a
+     * group, every shard is deployed as its own verticle.
+     *
+     * @param shardsPerGroup The number of shards per Vert.x instance.
+     * @param options        The options used to create each instance.
+     *
+     * @return The placement policy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static ShardPlacement vertxPerGroup(@Nonnegative final int shardsPerGroup, @Nonnull final VertxOptions options) {
+        if(shardsPerGroup < 1) {
+            throw new IllegalArgumentException("Need at least one shard per group, got " + shardsPerGroup);
+        }
+        return new DefaultShardPlacement(1, shardsPerGroup, options, false);
+    }
+    
+    /**
+     * Deploy the given shard.
+     *
+     * @param catnip The catnip instance the shard belongs to.
+     * @param shard  The shard to deploy.
+     */
+    void deploy(@Nonnull Catnip catnip, @Nonnull CatnipShard shard);
+    
+    /**
+     * Returns how busy each event loop with shards on it is. Utilization is
+     * the share of wall-clock time spent handling shard work since the
+     * previous call (or since the first shard was deployed).
+     *
+     * @return Per-event loop stats, sorted by utilization, busiest first.
+     */
+    @Nonnull
+    @CheckReturnValue
+    List<LoopStats> loopStats();
+    
+    /**
+     * Closes any Vert.x instances that were created for shards.
+     */
+    void close();
+}
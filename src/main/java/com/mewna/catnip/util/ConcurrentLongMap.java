@@ -0,0 +1,780 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.util;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * A concurrent hash map with primitive {@code long} keys, used for caching
+ * entities by snowflake without boxing the key or allocating a node per
+ * entry. An entry costs a {@code long} and a reference in a pair of arrays,
+ * rather than a {@link Long} plus a map node.
+ * <p/>
+ * The map is split into a fixed number of segments, each an open-addressing
+ * table with linear probing. Reads never lock. Writes lock only the segment
+ * the key hashes to, so writes to different segments don't contend. Within a
+ * table, a slot's key never changes once set; removing an entry only clears
+ * the value, and cleared slots are reclaimed when the segment is next rehashed.
+ * Segments don't allocate a table until something is written to them, and a
+ * map that's only written to by one thread at a time (ex. a per-guild cache
+ * view) should use a single segment.
+ * <p/>
+ * {@code null} values are not allowed. Iteration is weakly consistent, as
+ * with {@link java.util.concurrent.ConcurrentHashMap}: it never throws
+ * {@link ConcurrentModificationException}, and may or may not reflect writes
+ * made while iterating.
+ *
+ * @param <V> Type of the values.
+ *
+ * @author amy
+ * @since 12/28/18.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConcurrentLongMap<V> {
+    // Key 0 marks an empty slot, so it's stored on the side
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 8;
+    // Shared by every empty segment, so that small maps stay small; its
+    // threshold of zero makes the first insert allocate a real table
+    private static final Table EMPTY_TABLE = new Table(1);
+    private static final int DEFAULT_SEGMENTS = 16;
+    
+    private final Segment[] segments;
+    private final int segmentMask;
+    
+    public ConcurrentLongMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+    
+    /**
+     * @param concurrency The number of segments, ie. how many threads can
+     *                    write at the same time. Rounded up to a power of two.
+     */
+    public ConcurrentLongMap(@Nonnegative final int concurrency) {
+        if(concurrency < 1 || concurrency > 1 << 16) {
+            throw new IllegalArgumentException("Concurrency must be between 1 and 65536, got " + concurrency);
+        }
+        final int count = concurrency == 1 ? 1 : Integer.highestOneBit(concurrency - 1) << 1;
+        segments = new Segment[count];
+        for(int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentMask = count - 1;
+    }
+    
+    private static long hash(final long key) {
+        // MurmurHash3 finalizer; snowflakes have very regular low bits
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private Segment segment(final long hash) {
+        // High bits pick the segment, low bits the slot
+        return segments[(int) (hash >>> 48) & segmentMask];
+    }
+    
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final long hash = hash(key);
+        return (V) segment(hash).get(key, hash);
+    }
+    
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+    
+    /**
+     * @return The previous value for the key, or {@code null} if there was
+     * none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(final long key, @Nonnull final V value) {
+        Objects.requireNonNull(value, "value");
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return (V) segment.put(key, hash, value, false);
+        }
+    }
+    
+    /**
+     * @return The current value for the key if there is one, in which case
+     * nothing was changed, or {@code null} if the value was added.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(final long key, @Nonnull final V value) {
+        Objects.requireNonNull(value, "value");
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return (V) segment.put(key, hash, value, true);
+        }
+    }
+    
+    /**
+     * Get the value for the key, computing and adding it if there is none.
+     * The function is called while holding the key's segment lock, so it
+     * should be quick and must not write to this map.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(final long key, @Nonnull final LongFunction<? extends V> function) {
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        final Object existing = segment.get(key, hash);
+        if(existing != null) {
+            return (V) existing;
+        }
+        synchronized(segment) {
+            final Object current = segment.get(key, hash);
+            if(current != null) {
+                return (V) current;
+            }
+            final V value = Objects.requireNonNull(function.apply(key), "computed value");
+            segment.put(key, hash, value, false);
+            return value;
+        }
+    }
+    
+    /**
+     * @return The removed value, or {@code null} if there was none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return (V) segment.remove(key, hash, null);
+        }
+    }
+    
+    /**
+     * Replace the value for the key only if there is one.
+     *
+     * @return The previous value for the key, or {@code null} if there was
+     * none, in which case nothing was changed.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V replace(final long key, @Nonnull final V value) {
+        Objects.requireNonNull(value, "value");
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return (V) segment.replace(key, hash, null, value);
+        }
+    }
+    
+    /**
+     * Replace the value for the key only if it is currently mapped to the
+     * expected value (by identity or {@link Object#equals(Object)}).
+     *
+     * @return Whether or not the value was replaced.
+     */
+    public boolean replace(final long key, @Nonnull final Object expected, @Nonnull final V value) {
+        Objects.requireNonNull(value, "value");
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return segment.replace(key, hash, expected, value) != null;
+        }
+    }
+    
+    /**
+     * Remove the entry for the key only if it is currently mapped to the given
+     * value (by identity or {@link Object#equals(Object)}).
+     *
+     * @return Whether or not the entry was removed.
+     */
+    public boolean remove(final long key, @Nonnull final Object value) {
+        final long hash = hash(key);
+        final Segment segment = segment(hash);
+        synchronized(segment) {
+            return segment.remove(key, hash, value) != null;
+        }
+    }
+    
+    public void clear() {
+        for(final Segment segment : segments) {
+            synchronized(segment) {
+                segment.clear();
+            }
+        }
+    }
+    
+    @Nonnegative
+    public int size() {
+        long size = 0;
+        for(final Segment segment : segments) {
+            size += segment.size;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+    
+    public boolean isEmpty() {
+        for(final Segment segment : segments) {
+            if(segment.size != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public void forEachKey(@Nonnull final LongConsumer consumer) {
+        for(final Segment segment : segments) {
+            if(segment.zero != null) {
+                consumer.accept(EMPTY);
+            }
+            final Table table = segment.table;
+            for(int i = 0; i < table.keys.length(); i++) {
+                final long key = table.keys.get(i);
+                if(key != EMPTY && table.values.get(i) != null) {
+                    consumer.accept(key);
+                }
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void forEachValue(@Nonnull final Consumer<? super V> consumer) {
+        for(final Segment segment : segments) {
+            final Object zero = segment.zero;
+            if(zero != null) {
+                consumer.accept((V) zero);
+            }
+            final Table table = segment.table;
+            for(int i = 0; i < table.keys.length(); i++) {
+                final Object value = table.values.get(i);
+                if(value != null && table.keys.get(i) != EMPTY) {
+                    consumer.accept((V) value);
+                }
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void forEach(@Nonnull final EntryConsumer<? super V> consumer) {
+        for(final Segment segment : segments) {
+            final Object zero = segment.zero;
+            if(zero != null) {
+                consumer.accept(EMPTY, (V) zero);
+            }
+            final Table table = segment.table;
+            for(int i = 0; i < table.keys.length(); i++) {
+                final long key = table.keys.get(i);
+                if(key != EMPTY) {
+                    final Object value = table.values.get(i);
+                    if(value != null) {
+                        consumer.accept(key, (V) value);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return An iterator over the keys. {@link Iterator#remove()} is
+     * supported.
+     */
+    @Nonnull
+    public OfLong keyIterator() {
+        return new KeyIterator();
+    }
+    
+    /**
+     * @return An iterator over the values. {@link Iterator#remove()} is
+     * supported.
+     */
+    @Nonnull
+    public Iterator<V> valueIterator() {
+        return new ValueIterator();
+    }
+    
+    /**
+     * @return A read-only {@link Set} view of the keys. Keys are boxed as they
+     * are read.
+     */
+    @Nonnull
+    public Set<Long> keySet() {
+        return new AbstractSet<Long>() {
+            @Nonnull
+            @Override
+            public Iterator<Long> iterator() {
+                final OfLong iterator = keyIterator();
+                return new Iterator<Long>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+                    
+                    @Override
+                    public Long next() {
+                        return iterator.nextLong();
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return ConcurrentLongMap.this.size();
+            }
+            
+            @Override
+            public boolean contains(final Object o) {
+                return o instanceof Long && containsKey((Long) o);
+            }
+        };
+    }
+    
+    /**
+     * @return A read-only {@link Collection} view of the values.
+     */
+    @Nonnull
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Nonnull
+            @Override
+            public Iterator<V> iterator() {
+                final Iterator<V> iterator = valueIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+                    
+                    @Override
+                    public V next() {
+                        return iterator.next();
+                    }
+                };
+            }
+            
+            @Override
+            public int size() {
+                return ConcurrentLongMap.this.size();
+            }
+        };
+    }
+    
+    /**
+     * @return A {@link ConcurrentMap} view of this map, for code that needs
+     * one. Keys are boxed on every access, so avoid this on hot paths. Writes
+     * go through to this map, and compute and merge are atomic, as they're
+     * built on {@link ConcurrentMap}'s conditional writes.
+     */
+    @Nonnull
+    public ConcurrentMap<Long, V> asMap() {
+        return new MapView();
+    }
+    
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+    
+    private final class MapView extends AbstractMap<Long, V> implements ConcurrentMap<Long, V> {
+        @Override
+        public V get(final Object key) {
+            return key instanceof Long ? ConcurrentLongMap.this.get((Long) key) : null;
+        }
+        
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof Long && ConcurrentLongMap.this.containsKey((Long) key);
+        }
+        
+        @Override
+        public V put(final Long key, final V value) {
+            return ConcurrentLongMap.this.put(key, value);
+        }
+        
+        @Override
+        public V putIfAbsent(final Long key, final V value) {
+            return ConcurrentLongMap.this.putIfAbsent(key, value);
+        }
+        
+        @Override
+        public V remove(final Object key) {
+            return key instanceof Long ? ConcurrentLongMap.this.remove((Long) key) : null;
+        }
+        
+        @Override
+        public boolean remove(final Object key, final Object value) {
+            return key instanceof Long && value != null && ConcurrentLongMap.this.remove((Long) key, value);
+        }
+        
+        @Override
+        public V replace(final Long key, final V value) {
+            return ConcurrentLongMap.this.replace(key, value);
+        }
+        
+        @Override
+        public boolean replace(final Long key, final V oldValue, final V newValue) {
+            return ConcurrentLongMap.this.replace(key, oldValue, newValue);
+        }
+        
+        @Override
+        public void clear() {
+            ConcurrentLongMap.this.clear();
+        }
+        
+        @Override
+        public int size() {
+            return ConcurrentLongMap.this.size();
+        }
+        
+        @Nonnull
+        @Override
+        public Set<Entry<Long, V>> entrySet() {
+            return new AbstractSet<Entry<Long, V>>() {
+                @Nonnull
+                @Override
+                public Iterator<Entry<Long, V>> iterator() {
+                    return new EntryIterator();
+                }
+                
+                @Override
+                public int size() {
+                    return ConcurrentLongMap.this.size();
+                }
+            };
+        }
+    }
+    
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+        // Rehash once this many slots have keys, live or not
+        private final int threshold;
+        
+        private Table(final int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+            threshold = capacity / 4 * 3;
+        }
+    }
+    
+    private static final class Segment {
+        private volatile Table table = EMPTY_TABLE;
+        private volatile Object zero;
+        private volatile int size;
+        // Slots with a key, including removed entries; guarded by this
+        private int used;
+        
+        private Object get(final long key, final long hash) {
+            if(key == EMPTY) {
+                return zero;
+            }
+            final Table table = this.table;
+            final int mask = table.mask;
+            for(int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                final long k = table.keys.get(i);
+                if(k == key) {
+                    return table.values.get(i);
+                }
+                if(k == EMPTY) {
+                    return null;
+                }
+            }
+        }
+        
+        private Object put(final long key, final long hash, final Object value, final boolean onlyIfAbsent) {
+            if(key == EMPTY) {
+                final Object old = zero;
+                if(old == null || !onlyIfAbsent) {
+                    zero = value;
+                }
+                if(old == null) {
+                    size++;
+                }
+                return old;
+            }
+            final Table table = this.table;
+            final int mask = table.mask;
+            int i = (int) hash & mask;
+            for(; ; i = (i + 1) & mask) {
+                final long k = table.keys.get(i);
+                if(k == key) {
+                    final Object old = table.values.get(i);
+                    if(old == null || !onlyIfAbsent) {
+                        table.values.set(i, value);
+                    }
+                    if(old == null) {
+                        size++;
+                    }
+                    return old;
+                }
+                if(k == EMPTY) {
+                    break;
+                }
+            }
+            if(used >= table.threshold) {
+                rehash();
+                return put(key, hash, value, onlyIfAbsent);
+            }
+            // Value first, so that a reader that sees the key sees the value
+            table.values.set(i, value);
+            table.keys.set(i, key);
+            used++;
+            size++;
+            return null;
+        }
+        
+        private Object remove(final long key, final long hash, final Object expected) {
+            if(key == EMPTY) {
+                final Object old = zero;
+                if(old != null && (expected == null || matches(old, expected))) {
+                    zero = null;
+                    size--;
+                    return old;
+                }
+                return null;
+            }
+            final Table table = this.table;
+            final int mask = table.mask;
+            for(int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                final long k = table.keys.get(i);
+                if(k == key) {
+                    final Object old = table.values.get(i);
+                    if(old != null && (expected == null || matches(old, expected))) {
+                        table.values.set(i, null);
+                        size--;
+                        return old;
+                    }
+                    return null;
+                }
+                if(k == EMPTY) {
+                    return null;
+                }
+            }
+        }
+        
+        private Object replace(final long key, final long hash, final Object expected, final Object value) {
+            if(key == EMPTY) {
+                final Object old = zero;
+                if(old != null && (expected == null || matches(old, expected))) {
+                    zero = value;
+                    return old;
+                }
+                return null;
+            }
+            final Table table = this.table;
+            final int mask = table.mask;
+            for(int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                final long k = table.keys.get(i);
+                if(k == key) {
+                    final Object old = table.values.get(i);
+                    if(old != null && (expected == null || matches(old, expected))) {
+                        table.values.set(i, value);
+                        return old;
+                    }
+                    return null;
+                }
+                if(k == EMPTY) {
+                    return null;
+                }
+            }
+        }
+        
+        private static boolean matches(final Object value, final Object expected) {
+            return value == expected || value.equals(expected);
+        }
+        
+        private void rehash() {
+            final Table old = table;
+            final int live = size - (zero == null ? 0 : 1);
+            // Keep the new table at most half full, so a rehash isn't needed
+            // again straight away
+            int capacity = MIN_CAPACITY;
+            while(capacity / 2 < live + 1) {
+                capacity <<= 1;
+            }
+            final Table table = new Table(capacity);
+            final int mask = table.mask;
+            int used = 0;
+            for(int i = 0; i < old.keys.length(); i++) {
+                final long key = old.keys.get(i);
+                final Object value = old.values.get(i);
+                if(key != EMPTY && value != null) {
+                    int slot = (int) hash(key) & mask;
+                    while(table.keys.get(slot) != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table.values.set(slot, value);
+                    table.keys.set(slot, key);
+                    used++;
+                }
+            }
+            this.used = used;
+            this.table = table;
+        }
+        
+        private void clear() {
+            table = EMPTY_TABLE;
+            zero = null;
+            size = 0;
+            used = 0;
+        }
+    }
+    
+    /**
+     * Walks the segments in order, and each segment's table as it was when
+     * the iterator reached it.
+     */
+    private abstract class BaseIterator {
+        private int segment = -1;
+        private Table table;
+        private int index;
+        private boolean zeroPending;
+        private boolean hasNext;
+        long nextKey;
+        Object nextValue;
+        private long lastKey;
+        private boolean canRemove;
+        
+        BaseIterator() {
+            advance();
+        }
+        
+        private void advance() {
+            while(true) {
+                if(zeroPending) {
+                    zeroPending = false;
+                    final Object zero = segments[segment].zero;
+                    if(zero != null) {
+                        nextKey = EMPTY;
+                        nextValue = zero;
+                        hasNext = true;
+                        return;
+                    }
+                }
+                if(table != null) {
+                    while(index < table.keys.length()) {
+                        final int i = index++;
+                        final long key = table.keys.get(i);
+                        if(key != EMPTY) {
+                            final Object value = table.values.get(i);
+                            if(value != null) {
+                                nextKey = key;
+                                nextValue = value;
+                                hasNext = true;
+                                return;
+                            }
+                        }
+                    }
+                }
+                if(++segment >= segments.length) {
+                    hasNext = false;
+                    nextValue = null;
+                    return;
+                }
+                table = segments[segment].table;
+                index = 0;
+                zeroPending = true;
+            }
+        }
+        
+        public boolean hasNext() {
+            return hasNext;
+        }
+        
+        final void step() {
+            if(!hasNext) {
+                throw new NoSuchElementException();
+            }
+            lastKey = nextKey;
+            canRemove = true;
+        }
+        
+        final void next0() {
+            advance();
+        }
+        
+        public void remove() {
+            if(!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            ConcurrentLongMap.this.remove(lastKey);
+        }
+    }
+    
+    private final class KeyIterator extends BaseIterator implements OfLong {
+        @Override
+        public long nextLong() {
+            step();
+            final long key = nextKey;
+            next0();
+            return key;
+        }
+    }
+    
+    private final class ValueIterator extends BaseIterator implements Iterator<V> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            step();
+            final V value = (V) nextValue;
+            next0();
+            return value;
+        }
+    }
+    
+    private final class EntryIterator extends BaseIterator implements Iterator<Map.Entry<Long, V>> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<Long, V> next() {
+            step();
+            final Map.Entry<Long, V> entry = new AbstractMap.SimpleImmutableEntry<>(nextKey, (V) nextValue);
+            next0();
+            return entry;
+        }
+    }
+}
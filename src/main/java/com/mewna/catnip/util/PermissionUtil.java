@@ -30,6 +30,7 @@
 package com.mewna.catnip.util;
 
 import com.mewna.catnip.Catnip;
+import com.mewna.catnip.cache.PermissionCache;
 import com.mewna.catnip.entity.channel.GuildChannel;
 import com.mewna.catnip.entity.guild.Guild;
 import com.mewna.catnip.entity.guild.Member;
@@ -40,20 +41,27 @@ import com.mewna.catnip.entity.util.Permission;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.List;
 
 public final class PermissionUtil {
     private PermissionUtil() {}
     
     private static long basePermissions(final Catnip catnip, final Member member) {
-        final Guild guild = catnip.cache().guild(member.guildId());
-        final Role publicRole = catnip.cache().role(member.guildId(), member.guildId());
+        final long guildId = Long.parseUnsignedLong(member.guildId());
+        final Guild guild = catnip.cache().guild(guildId);
+        final Role publicRole = catnip.cache().role(guildId, guildId);
         if(guild == null || publicRole == null || guild.ownerId().equals(member.id())) {
             return Permission.ALL;
         }
         long permissions = publicRole.permissionsRaw();
-        for(final Role role : member.roles()) {
-            permissions |= role.permissionsRaw();
+        // Looked up one by one rather than through Member#roles(), so that
+        // no set of roles has to be built
+        for(final String id : member.roleIds()) {
+            final Role role = catnip.cache().role(guildId, Long.parseUnsignedLong(id));
+            if(role != null) {
+                permissions |= role.permissionsRaw();
+            }
         }
         if(Permission.ADMINISTRATOR.isPresent(permissions)) {
             return Permission.ALL;
@@ -61,43 +69,14 @@ public final class PermissionUtil {
         return permissions;
     }
     
-    private static long overridePermissions(final long base, final Member member, final GuildChannel channel) {
+    private static long overridePermissions(final Catnip catnip, final long base, final Member member,
+                                            final GuildChannel channel) {
         if(Permission.ADMINISTRATOR.isPresent(base)) {
             return Permission.ALL;
         }
-        long permissions = base;
-        final Collection<PermissionOverride> list = channel.overrides();
-        final PermissionOverride everyoneOverride = find(list, member.guildId());
-        if(everyoneOverride != null) {
-            permissions &= ~everyoneOverride.denyRaw();
-            permissions |= everyoneOverride.allowRaw();
-        }
-        long deny = Permission.NONE;
-        long allow = Permission.NONE;
-        for(final String role : member.roleIds()) {
-            final PermissionOverride override = find(list, role);
-            if(override != null) {
-                allow |= override.allowRaw();
-                deny |= override.denyRaw();
-            }
-        }
-        permissions &= ~deny;
-        permissions |= allow;
-        final PermissionOverride memberOverride = find(list, member.id());
-        if(memberOverride != null) {
-            permissions &= ~memberOverride.denyRaw();
-            permissions |= memberOverride.allowRaw();
-        }
-        return permissions;
-    }
-    
-    private static PermissionOverride find(final Collection<PermissionOverride> list, final String id) {
-        for(final PermissionOverride p : list) {
-            if(p.id().equals(id)) {
-                return p;
-            }
-        }
-        return null;
+        final PermissionCache cache = catnip.cacheWorker().permissionCache();
+        final Overrides overrides = cache == null ? Overrides.of(channel) : cache.overrides(channel);
+        return overrides.apply(base, member);
     }
     
     public static long effectivePermissions(@Nonnull final Catnip catnip, @Nonnull final Member member) {
@@ -106,7 +85,7 @@ public final class PermissionUtil {
     
     public static long effectivePermissions(@Nonnull final Catnip catnip, @Nonnull final Member member,
                                             @Nonnull final GuildChannel channel) {
-        return overridePermissions(basePermissions(catnip, member), member, channel);
+        return overridePermissions(catnip, basePermissions(catnip, member), member, channel);
     }
     
     public static void checkPermissions(@Nonnull final Catnip catnip, @Nullable final String guildId,
@@ -123,7 +102,8 @@ public final class PermissionUtil {
             return;
         }
         final long needed = Permission.from(permissions);
-        final long actual = effectivePermissions(catnip, self);
+        final PermissionCache cache = catnip.cacheWorker().permissionCache();
+        final long actual = cache == null ? effectivePermissions(catnip, self) : cache.permissions(self);
         if((actual & needed) != needed) {
             final long missing = needed & ~actual;
             throw new MissingPermissionException(Permission.toSet(missing));
@@ -145,10 +125,86 @@ public final class PermissionUtil {
             return;
         }
         final long needed = Permission.from(permissions);
-        final long actual = effectivePermissions(catnip, self, channel);
+        final PermissionCache cache = catnip.cacheWorker().permissionCache();
+        final long actual = cache == null ? effectivePermissions(catnip, self, channel) : cache.permissions(self, channel);
         if((actual & needed) != needed) {
             final long missing = needed & ~actual;
             throw new MissingPermissionException(Permission.toSet(missing));
         }
     }
+    
+    /**
+     * The permission overrides of a channel, mapped by the id of the role or
+     * member they're for, so that applying them to a member is a lookup per
+     * role rather than a scan of every override, and allocates nothing.
+     */
+    public static final class Overrides {
+        private final List<PermissionOverride> source;
+        // Sorted, for binary searching
+        private final long[] ids;
+        private final long[] allow;
+        private final long[] deny;
+        
+        private Overrides(@Nonnull final List<PermissionOverride> source) {
+            this.source = source;
+            final PermissionOverride[] sorted = source.toArray(new PermissionOverride[0]);
+            Arrays.sort(sorted, (a, b) -> Long.compare(Long.parseUnsignedLong(a.id()), Long.parseUnsignedLong(b.id())));
+            ids = new long[sorted.length];
+            allow = new long[sorted.length];
+            deny = new long[sorted.length];
+            for(int i = 0; i < sorted.length; i++) {
+                ids[i] = Long.parseUnsignedLong(sorted[i].id());
+                allow[i] = sorted[i].allowRaw();
+                deny[i] = sorted[i].denyRaw();
+            }
+        }
+        
+        @Nonnull
+        public static Overrides of(@Nonnull final GuildChannel channel) {
+            return new Overrides(channel.overrides());
+        }
+        
+        /**
+         * @return Whether or not these overrides were built from the given
+         * channel entity's overrides.
+         */
+        public boolean isFor(@Nonnull final GuildChannel channel) {
+            return channel.overrides() == source;
+        }
+        
+        private int index(final long id) {
+            return ids.length == 0 ? -1 : Arrays.binarySearch(ids, id);
+        }
+        
+        /**
+         * Applies these overrides to a member's guild-wide permissions: first
+         * the {@code @everyone} override, then all of the member's role
+         * overrides at once, then the member's own override.
+         */
+        public long apply(final long base, @Nonnull final Member member) {
+            long permissions = base;
+            final int everyone = index(Long.parseUnsignedLong(member.guildId()));
+            if(everyone >= 0) {
+                permissions &= ~deny[everyone];
+                permissions |= allow[everyone];
+            }
+            long roleDeny = Permission.NONE;
+            long roleAllow = Permission.NONE;
+            for(final String role : member.roleIds()) {
+                final int index = index(Long.parseUnsignedLong(role));
+                if(index >= 0) {
+                    roleAllow |= allow[index];
+                    roleDeny |= deny[index];
+                }
+            }
+            permissions &= ~roleDeny;
+            permissions |= roleAllow;
+            final int self = index(Long.parseUnsignedLong(member.id()));
+            if(self >= 0) {
+                permissions &= ~deny[self];
+                permissions |= allow[self];
+            }
+            return permissions;
+        }
+    }
 }
@@ -36,6 +36,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Arrays;
@@ -60,6 +61,41 @@ public final class Utils {
         return instant.atOffset(ZoneOffset.UTC);
     }
     
+    /**
+     * Formats a UTC timestamp the way Discord does, ex.
+     * {@code 2018-12-30T01:02:03.456789+00:00}. Much cheaper than going
+     * through a {@link java.time.format.DateTimeFormatter}, for caches that
+     * store timestamps as numbers and rebuild the string on every access.
+     *
+     * @param epochSecond Seconds since the epoch. Must be within years 0
+     *                    to 9999.
+     * @param nanos       Nanoseconds within the second. Only microseconds
+     *                    are kept.
+     *
+     * @return The formatted timestamp.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static String formatTimestamp(final long epochSecond, final int nanos) {
+        final LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC);
+        final char[] out = "0000-00-00T00:00:00.000000+00:00".toCharArray();
+        digits(out, 0, 4, time.getYear());
+        digits(out, 5, 2, time.getMonthValue());
+        digits(out, 8, 2, time.getDayOfMonth());
+        digits(out, 11, 2, time.getHour());
+        digits(out, 14, 2, time.getMinute());
+        digits(out, 17, 2, time.getSecond());
+        digits(out, 20, 6, nanos / 1000);
+        return new String(out);
+    }
+    
+    private static void digits(@Nonnull final char[] out, final int offset, final int count, int value) {
+        for(int i = offset + count - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+    
     public static void validateImageUri(@Nonnull final URI imageUri) {
         if(!imageUri.getScheme().equals("data")) {
             throw new IllegalArgumentException("Only data URIs are supported");
@@ -139,9 +175,12 @@ public final class Utils {
     @CheckReturnValue
     public static boolean startsWithIgnoreCase(@Nonnull final String str, @Nonnull final String search) {
         final int length = search.length();
-        if(length == 0 || length > str.length()) {
+        if(length == 0) {
             return true;
         }
+        if(length > str.length()) {
+            return false;
+        }
         return str.regionMatches(true, 0, search, 0, length);
     }
     
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.manager.DefaultShardManager;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+
+/**
+ * Compares the throughput of cache updates applied on the threads that
+ * deliver them, as by default, against updates queued for
+ * {@link MemoryEntityCache#writerThreads() writer threads}. {@code producers}
+ * threads each apply {@value #BATCH} {@code GUILD_MEMBER_UPDATE}s, spread over
+ * the guilds of 16 shards, and wait for all of them to be applied.
+ * <p/>
+ * Run {@link #main(String[])} for a quick comparison, or the benchmark with
+ * {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main CacheWriterBenchmark}.
+ *
+ * @author amy
+ * @since 1/9/19.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheWriterBenchmark {
+    private static final int BATCH = 10_000;
+    private static final int SHARDS = 16;
+    private static final int GUILDS = 256;
+    private static final int MEMBERS = 100;
+    
+    @Param({"0", "4"})
+    private int writerThreads;
+    @Param({"4"})
+    private int producers;
+    
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    private ExecutorService executor;
+    private JsonObject[][] payloads;
+    
+    private static String guild(final int i) {
+        // Spreads guilds evenly over the shards
+        return Long.toUnsignedString((long) i << 22);
+    }
+    
+    private static JsonObject member(final String guild, final int i) {
+        return new JsonObject()
+                .put("guild_id", guild)
+                .put("user", new JsonObject().put("id", Integer.toString(i + 1)).put("username", "user" + i)
+                        .put("discriminator", "0001"))
+                .put("roles", new JsonArray())
+                .put("joined_at", "2019-01-09T00:00:00.000000+00:00")
+                .put("deaf", false)
+                .put("mute", false);
+    }
+    
+    public static void main(final String[] args) throws Exception {
+        for(final int writerThreads : new int[] {0, 4}) {
+            final CacheWriterBenchmark benchmark = new CacheWriterBenchmark();
+            benchmark.writerThreads = writerThreads;
+            benchmark.producers = 4;
+            benchmark.setup();
+            try {
+                for(int i = 0; i < 20; i++) {
+                    benchmark.update();
+                }
+                final int runs = 50;
+                final long start = System.nanoTime();
+                for(int i = 0; i < runs; i++) {
+                    benchmark.update();
+                }
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d writer threads: %.0f updates/s%n", writerThreads,
+                        runs * (double) BATCH * benchmark.producers / seconds);
+            } finally {
+                benchmark.tearDown();
+            }
+        }
+    }
+    
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache().writerThreads(writerThreads);
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)
+                .shardManager(new DefaultShardManager(IntStream.range(0, SHARDS)))));
+        executor = Executors.newFixedThreadPool(producers);
+        payloads = new JsonObject[producers][BATCH];
+        for(int p = 0; p < producers; p++) {
+            for(int i = 0; i < BATCH; i++) {
+                payloads[p][i] = member(guild((p * BATCH + i) % GUILDS), i % MEMBERS);
+            }
+        }
+        // Cache every member first, so that each update replaces one
+        update();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        cache.shutdown();
+        vertx.close();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void update() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(producers * BATCH);
+        for(final JsonObject[] batch : payloads) {
+            executor.execute(() -> {
+                for(final JsonObject payload : batch) {
+                    cache.updateCache(Raw.GUILD_MEMBER_ADD, payload).setHandler(__ -> done.countDown());
+                }
+            });
+        }
+        done.await();
+    }
+}
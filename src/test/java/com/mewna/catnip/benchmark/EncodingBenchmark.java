@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.mewna.catnip.shard.etf.ETFDecoder;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding gateway payloads from JSON against decoding them from
+ * ETF, both into the {@link JsonObject}s that the rest of catnip works with.
+ * The ETF payloads are encoded the way Discord sends them, ie. with
+ * snowflakes as integers.
+ * <p/>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main EncodingBenchmark}.
+ *
+ * @author amy
+ * @since 12/22/18.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    @Param({"READY", "GUILD_CREATE", "MESSAGE_CREATE"})
+    private String type;
+    
+    private byte[] json;
+    private byte[] etf;
+    
+    @Setup
+    public void setup() {
+        final JsonObject payload;
+        switch(type) {
+            case "READY": {
+                payload = Payloads.ready(1000);
+                break;
+            }
+            case "GUILD_CREATE": {
+                payload = Payloads.guildCreate(5000);
+                break;
+            }
+            default: {
+                payload = Payloads.messageCreate();
+                break;
+            }
+        }
+        json = payload.encode().getBytes(StandardCharsets.UTF_8);
+        etf = Payloads.etf(payload);
+    }
+    
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public JsonObject json() throws IOException {
+        return new JsonObject((Map<String, Object>) Json.mapper.readValue(json, 0, json.length, Map.class));
+    }
+    
+    @Benchmark
+    public JsonObject etf() {
+        return ETFDecoder.decodeObject(etf, 0, etf.length);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.cache.CacheFlag;
+import com.mewna.catnip.cache.EntityCacheWorker;
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.cache.offheap.OffHeapEntityCache;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up members and users in {@link MemoryEntityCache}, with
+ * and without {@link CacheFlag#COMPACT_MEMBERS}, and in
+ * {@link OffHeapEntityCache}. Each cache holds {@code size} members of one
+ * guild, and their users.
+ * <p/>
+ * Run {@link #main(String[])} for the memory comparison; it fills each cache
+ * in turn and prints how much heap and direct memory it retains. Run the
+ * benchmarks with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main EntityCacheBenchmark}
+ * for the lookup latency.
+ *
+ * @author amy
+ * @since 12/30/18.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityCacheBenchmark {
+    private static final long GUILD = 267500017260953601L;
+    
+    @Param({"100000"})
+    private int size;
+    
+    private Vertx vertx;
+    private long[] ids;
+    private EntityCacheWorker heap;
+    private EntityCacheWorker compact;
+    private EntityCacheWorker offHeap;
+    private int next;
+    
+    private static long[] ids(final int size) {
+        final Random random = new Random(42);
+        final long[] ids = new long[size];
+        for(int i = 0; i < size; i++) {
+            ids[i] = (1_500_000_000_000L + random.nextInt(100_000_000)) << 22 | random.nextInt(1 << 22);
+        }
+        return ids;
+    }
+    
+    private static EntityCacheWorker fill(final Vertx vertx, final EntityCacheWorker worker, final long[] ids,
+                                          final Set<CacheFlag> flags) {
+        worker.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(worker).cacheFlags(flags)));
+        final String guild = Long.toUnsignedString(GUILD);
+        final List<User> users = new ArrayList<>(ids.length);
+        final List<Member> members = new ArrayList<>(ids.length);
+        for(int i = 0; i < ids.length; i++) {
+            // Built the same way EntityBuilder does from a payload, so no
+            // strings are shared between entities
+            final String id = Long.toUnsignedString(ids[i]);
+            users.add(UserImpl.builder()
+                    .id(id)
+                    .username("user" + i)
+                    .discriminator(String.format("%04d", i % 10_000))
+                    .avatar(i % 3 == 0 ? null : Long.toHexString(ids[i]) + Long.toHexString(ids[i]))
+                    .bot(false)
+                    .build());
+            members.add(MemberImpl.builder()
+                    .id(new String(id))
+                    .guildId(new String(guild))
+                    .nick(i % 5 == 0 ? "nick" + i : null)
+                    .roleIds(ImmutableSet.of(Long.toUnsignedString(GUILD + 1 + i % 7),
+                            Long.toUnsignedString(GUILD + 10 + i % 3)))
+                    .joinedAt(new String("2018-06-01T12:34:56.789000+00:00"))
+                    .build());
+        }
+        worker.bulkCacheUsers(users);
+        worker.bulkCacheMembers(members);
+        return worker;
+    }
+    
+    private static long usedHeap() {
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static long usedDirect() {
+        for(final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if(pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+    
+    private static void measure(final Vertx vertx, final String name, final EntityCacheWorker worker,
+                                final long[] ids, final Set<CacheFlag> flags) {
+        final long heapBefore = usedHeap();
+        final long directBefore = usedDirect();
+        final EntityCacheWorker filled = fill(vertx, worker, ids, flags);
+        final long heap = usedHeap() - heapBefore;
+        final long direct = usedDirect() - directBefore;
+        System.out.printf("%-10s heap %6d B/member, direct %6d B/member (%d members)%n", name,
+                heap / ids.length, direct / ids.length, filled.members(GUILD).size());
+    }
+    
+    public static void main(final String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final Vertx vertx = Vertx.vertx();
+        final long[] ids = ids(size);
+        // Warm up class loading, so it doesn't count against the first cache
+        fill(vertx, new OffHeapEntityCache(), ids(100), EnumSet.of(CacheFlag.COMPACT_MEMBERS));
+        measure(vertx, "heap", new MemoryEntityCache(), ids, EnumSet.noneOf(CacheFlag.class));
+        measure(vertx, "compact", new MemoryEntityCache(), ids, EnumSet.of(CacheFlag.COMPACT_MEMBERS));
+        measure(vertx, "off-heap", new OffHeapEntityCache(), ids, EnumSet.noneOf(CacheFlag.class));
+        vertx.close();
+    }
+    
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        ids = ids(size);
+        heap = fill(vertx, new MemoryEntityCache(), ids, EnumSet.noneOf(CacheFlag.class));
+        compact = fill(vertx, new MemoryEntityCache(), ids, EnumSet.of(CacheFlag.COMPACT_MEMBERS));
+        offHeap = fill(vertx, new OffHeapEntityCache(), ids, EnumSet.noneOf(CacheFlag.class));
+    }
+    
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+    
+    @Benchmark
+    public Member memberHeap() {
+        return heap.member(GUILD, ids[next++ % size]);
+    }
+    
+    @Benchmark
+    public Member memberCompact() {
+        return compact.member(GUILD, ids[next++ % size]);
+    }
+    
+    @Benchmark
+    public Member memberOffHeap() {
+        return offHeap.member(GUILD, ids[next++ % size]);
+    }
+    
+    @Benchmark
+    public User userHeap() {
+        return heap.user(ids[next++ % size]);
+    }
+    
+    @Benchmark
+    public User userOffHeap() {
+        return offHeap.user(ids[next++ % size]);
+    }
+}
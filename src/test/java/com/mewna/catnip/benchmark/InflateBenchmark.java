@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.mewna.catnip.shard.GatewayInflater;
+import com.mewna.catnip.util.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Compares {@link GatewayInflater} against the old decompression path in
+ * {@code CatnipShard} (copy every fragment into a read buffer, then push it
+ * through a shared, synchronized 1 KiB array into an
+ * {@link InflaterOutputStream}). Each invocation inflates and parses a whole
+ * zlib stream made up of a {@code READY}, a large {@code GUILD_CREATE} and a
+ * {@code MESSAGE_CREATE}.
+ * <p/>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main InflateBenchmark}.
+ *
+ * @author amy
+ * @since 12/20/18.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InflateBenchmark {
+    private static final int ZLIB_SUFFIX = 0x0000FFFF;
+    
+    @Param({"1000", "25000"})
+    private int members;
+    @Param({"65536"})
+    private int frameSize;
+    
+    private List<Buffer> frames;
+    private final byte[] legacyDecompressBuffer = new byte[1024];
+    
+    @Setup
+    public void setup() {
+        frames = Payloads.zlibStream(frameSize, Payloads.ready(1000), Payloads.guildCreate(members), Payloads.messageCreate())
+                .stream()
+                .map(Buffer::buffer)
+                .collect(Collectors.toList());
+    }
+    
+    @Benchmark
+    public void legacy(final Blackhole blackhole) throws IOException {
+        final Inflater inflater = new Inflater();
+        final Buffer readBuffer = Buffer.buffer();
+        int readBufferPosition = 0;
+        for(final Buffer binary : frames) {
+            final boolean isEnd = binary.getInt(binary.length() - 4) == ZLIB_SUFFIX;
+            if(!isEnd || readBufferPosition > 0) {
+                readBuffer.setBuffer(readBufferPosition, binary);
+                readBufferPosition += binary.length();
+            }
+            if(isEnd) {
+                final Buffer decompressed = Buffer.buffer();
+                final Buffer dataToDecompress = readBufferPosition > 0 ? readBuffer : binary;
+                try(final InflaterOutputStream ios = new InflaterOutputStream(new BufferOutputStream(decompressed, 0), inflater)) {
+                    synchronized(legacyDecompressBuffer) {
+                        final int length = Math.max(readBufferPosition, binary.length());
+                        int r = 0;
+                        while(r < length) {
+                            final int read = Math.min(legacyDecompressBuffer.length, length - r);
+                            dataToDecompress.getBytes(r, r + read, legacyDecompressBuffer);
+                            ios.write(legacyDecompressBuffer, 0, read);
+                            r += read;
+                        }
+                    }
+                    blackhole.consume(decompressed.toJsonObject());
+                } finally {
+                    readBufferPosition = 0;
+                }
+            }
+        }
+        inflater.end();
+    }
+    
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void gatewayInflater(final Blackhole blackhole) throws IOException, DataFormatException {
+        final GatewayInflater inflater = new GatewayInflater();
+        for(final Buffer binary : frames) {
+            if(inflater.inflate(binary.getByteBuf())) {
+                blackhole.consume(new JsonObject((Map<String, Object>) Json.mapper.readValue(inflater.buffer(), 0,
+                        inflater.length(), Map.class)));
+                inflater.reset();
+            }
+        }
+        inflater.close();
+    }
+}
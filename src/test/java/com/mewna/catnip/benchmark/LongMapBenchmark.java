@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.mewna.catnip.util.ConcurrentLongMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ConcurrentLongMap} against the {@code ConcurrentHashMap<Long, T>}
+ * that cache views used to be backed by. {@code populate*} builds a map of
+ * {@code size} snowflake-keyed entries; run it with {@code -prof gc} and
+ * compare {@code gc.alloc.rate.norm} to see the per-map footprint. {@code get*}
+ * looks up existing keys in a populated map.
+ * <p/>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main LongMapBenchmark -prof gc}.
+ *
+ * @author amy
+ * @since 12/28/18.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongMapBenchmark {
+    private static final Object VALUE = new Object();
+    
+    @Param({"100000"})
+    private int size;
+    
+    private long[] keys;
+    private Map<Long, Object> boxed;
+    private ConcurrentLongMap<Object> primitive;
+    private int next;
+    
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        keys = new long[size];
+        for(int i = 0; i < size; i++) {
+            // Timestamp in the high bits, worker / process / increment in the low bits
+            keys[i] = (1_500_000_000_000L + random.nextInt(100_000_000)) << 22 | random.nextInt(1 << 22);
+        }
+        boxed = populateBoxed();
+        primitive = populatePrimitive();
+    }
+    
+    @Benchmark
+    public Map<Long, Object> populateBoxed() {
+        final Map<Long, Object> map = new ConcurrentHashMap<>();
+        for(final long key : keys) {
+            map.put(key, VALUE);
+        }
+        return map;
+    }
+    
+    @Benchmark
+    public ConcurrentLongMap<Object> populatePrimitive() {
+        final ConcurrentLongMap<Object> map = new ConcurrentLongMap<>();
+        for(final long key : keys) {
+            map.put(key, VALUE);
+        }
+        return map;
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object getBoxed() {
+        return boxed.get(keys[next++ % size]);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object getPrimitive() {
+        return primitive.get(keys[next++ % size]);
+    }
+}
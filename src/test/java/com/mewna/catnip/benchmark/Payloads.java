@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.mewna.catnip.shard.etf.ETFEncoder;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+/**
+ * Synthetic gateway payloads shaped like the real thing, for benchmarks.
+ * Generated from a fixed seed so that runs are comparable.
+ *
+ * @author amy
+ * @since 12/20/18.
+ */
+public final class Payloads {
+    private static final long BASE_ID = 267500017260953601L;
+    
+    private Payloads() {}
+    
+    public static JsonObject guildCreate(final int members) {
+        final Random random = new Random(members);
+        final String guildId = id(random);
+        final JsonArray roles = new JsonArray();
+        final List<String> roleIds = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            final String roleId = i == 0 ? guildId : id(random);
+            roleIds.add(roleId);
+            roles.add(new JsonObject()
+                    .put("id", roleId)
+                    .put("name", "role-" + i)
+                    .put("color", random.nextInt(0xFFFFFF))
+                    .put("hoist", random.nextBoolean())
+                    .put("position", i)
+                    .put("permissions", 104324161)
+                    .put("managed", false)
+                    .put("mentionable", random.nextBoolean()));
+        }
+        final JsonArray channels = new JsonArray();
+        for(int i = 0; i < 100; i++) {
+            channels.add(new JsonObject()
+                    .put("id", id(random))
+                    .put("type", i % 10 == 0 ? 2 : 0)
+                    .put("name", "channel-" + i)
+                    .put("position", i)
+                    .put("topic", i % 3 == 0 ? "a topic for channel " + i : null)
+                    .put("nsfw", false)
+                    .put("permission_overwrites", new JsonArray()
+                            .add(new JsonObject().put("id", guildId).put("type", "role")
+                                    .put("allow", 0).put("deny", 2048))));
+        }
+        final JsonArray memberArray = new JsonArray();
+        final JsonArray presences = new JsonArray();
+        for(int i = 0; i < members; i++) {
+            final String userId = id(random);
+            final JsonArray memberRoles = new JsonArray();
+            for(int r = random.nextInt(4); r > 0; r--) {
+                memberRoles.add(roleIds.get(1 + random.nextInt(roleIds.size() - 1)));
+            }
+            memberArray.add(new JsonObject()
+                    .put("user", user(random, userId))
+                    .put("nick", random.nextInt(5) == 0 ? "nick-" + i : null)
+                    .put("roles", memberRoles)
+                    .put("joined_at", "2018-09-12T04:20:37.117000+00:00")
+                    .put("deaf", false)
+                    .put("mute", false));
+            if(random.nextInt(3) == 0) {
+                presences.add(new JsonObject()
+                        .put("user", new JsonObject().put("id", userId))
+                        .put("status", "online")
+                        .put("game", random.nextBoolean() ? null : new JsonObject()
+                                .put("name", "game " + random.nextInt(100)).put("type", 0)));
+            }
+        }
+        final JsonObject d = new JsonObject()
+                .put("id", guildId)
+                .put("name", "benchmark guild")
+                .put("icon", "a_" + Long.toHexString(random.nextLong()))
+                .put("owner_id", id(random))
+                .put("region", "us-east")
+                .put("afk_timeout", 300)
+                .put("verification_level", 1)
+                .put("default_message_notifications", 1)
+                .put("explicit_content_filter", 2)
+                .put("mfa_level", 0)
+                .put("large", members > 250)
+                .put("unavailable", false)
+                .put("member_count", members)
+                .put("joined_at", "2018-09-12T04:20:37.117000+00:00")
+                .put("features", new JsonArray())
+                .put("emojis", new JsonArray())
+                .put("roles", roles)
+                .put("channels", channels)
+                .put("members", memberArray)
+                .put("presences", presences)
+                .put("voice_states", new JsonArray());
+        return dispatch("GUILD_CREATE", 2, d);
+    }
+    
+    public static JsonObject ready(final int guilds) {
+        final Random random = new Random(guilds);
+        final JsonArray guildArray = new JsonArray();
+        for(int i = 0; i < guilds; i++) {
+            guildArray.add(new JsonObject().put("id", id(random)).put("unavailable", true));
+        }
+        return dispatch("READY", 1, new JsonObject()
+                .put("v", 6)
+                .put("user", user(random, id(random)).put("bot", true))
+                .put("private_channels", new JsonArray())
+                .put("guilds", guildArray)
+                .put("session_id", Long.toHexString(random.nextLong()))
+                .put("_trace", new JsonArray().add("gateway-prd-main-abcd").add("discord-sessions-prd-1-1")));
+    }
+    
+    public static JsonObject messageCreate() {
+        final Random random = new Random(42);
+        return dispatch("MESSAGE_CREATE", 3, new JsonObject()
+                .put("id", id(random))
+                .put("channel_id", id(random))
+                .put("guild_id", id(random))
+                .put("author", user(random, id(random)))
+                .put("member", new JsonObject()
+                        .put("roles", new JsonArray().add(id(random)).add(id(random)))
+                        .put("joined_at", "2018-09-12T04:20:37.117000+00:00")
+                        .put("deaf", false)
+                        .put("mute", false))
+                .put("content", "!ping this is a fairly typical message with a couple words in it")
+                .put("timestamp", "2018-12-20T04:20:37.117000+00:00")
+                .putNull("edited_timestamp")
+                .put("tts", false)
+                .put("mention_everyone", false)
+                .put("mentions", new JsonArray())
+                .put("mention_roles", new JsonArray())
+                .put("attachments", new JsonArray())
+                .put("embeds", new JsonArray())
+                .put("pinned", false)
+                .put("type", 0));
+    }
+    
+    /**
+     * Compress the given payloads as a single zlib-stream, the same way the
+     * gateway does, splitting each compressed payload into frames of at most
+     * {@code frameSize} bytes.
+     *
+     * @param frameSize Maximum size of a single frame.
+     * @param payloads  Payloads to compress.
+     *
+     * @return The compressed frames, in order.
+     */
+    public static List<byte[]> zlibStream(final int frameSize, final JsonObject... payloads) {
+        final byte[][] encoded = new byte[payloads.length][];
+        for(int i = 0; i < payloads.length; i++) {
+            encoded[i] = payloads[i].encode().getBytes(StandardCharsets.UTF_8);
+        }
+        return zlibStream(frameSize, encoded);
+    }
+    
+    /**
+     * Compress already-encoded payloads into a single zlib stream.
+     *
+     * @param frameSize Maximum size of a single frame.
+     * @param payloads  Encoded payloads to compress.
+     *
+     * @return The compressed frames, in order.
+     */
+    public static List<byte[]> zlibStream(final int frameSize, final byte[]... payloads) {
+        final Deflater deflater = new Deflater();
+        final List<byte[]> frames = new ArrayList<>();
+        final byte[] chunk = new byte[8192];
+        for(final byte[] payload : payloads) {
+            deflater.setInput(payload);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int read;
+            do {
+                read = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                out.write(chunk, 0, read);
+            } while(read == chunk.length);
+            final byte[] compressed = out.toByteArray();
+            for(int i = 0; i < compressed.length; i += frameSize) {
+                final byte[] frame = new byte[Math.min(frameSize, compressed.length - i)];
+                System.arraycopy(compressed, i, frame, 0, frame.length);
+                frames.add(frame);
+            }
+        }
+        deflater.end();
+        return frames;
+    }
+    
+    /**
+     * Encode a payload as ETF the way Discord does, ie. with snowflakes sent
+     * as integers rather than strings.
+     *
+     * @param payload The payload to encode.
+     *
+     * @return The encoded payload.
+     */
+    @SuppressWarnings("unchecked")
+    public static byte[] etf(final JsonObject payload) {
+        return ETFEncoder.encode(new JsonObject((Map<String, Object>) snowflakesToLongs(payload))).getBytes();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Object snowflakesToLongs(final Object value) {
+        if(value instanceof JsonObject) {
+            return snowflakesToLongs(((JsonObject) value).getMap());
+        }
+        if(value instanceof JsonArray) {
+            return snowflakesToLongs(((JsonArray) value).getList());
+        }
+        if(value instanceof Map) {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            ((Map<String, Object>) value).forEach((k, v) -> map.put(k, snowflakesToLongs(v)));
+            return map;
+        }
+        if(value instanceof List) {
+            return ((List<Object>) value).stream().map(Payloads::snowflakesToLongs).collect(Collectors.toList());
+        }
+        if(value instanceof String && ((String) value).length() >= 17 && ((String) value).chars().allMatch(Character::isDigit)) {
+            return Long.parseUnsignedLong((String) value);
+        }
+        return value;
+    }
+    
+    private static JsonObject dispatch(final String type, final int seq, final JsonObject d) {
+        return new JsonObject().put("t", type).put("s", seq).put("op", 0).put("d", d);
+    }
+    
+    private static JsonObject user(final Random random, final String id) {
+        return new JsonObject()
+                .put("id", id)
+                .put("username", "user" + Integer.toHexString(random.nextInt()))
+                .put("discriminator", String.format("%04d", random.nextInt(10000)))
+                .put("avatar", random.nextBoolean() ? null : Long.toHexString(random.nextLong()));
+    }
+    
+    private static String id(final Random random) {
+        return Long.toUnsignedString(BASE_ID + (random.nextLong() >>> 24));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.benchmark;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.cache.CacheSnapshot;
+import com.mewna.catnip.cache.MemoryEntityCache;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.user.User;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to load a {@link CacheSnapshot} of one guild
+ * with {@code size} members and their users into an empty
+ * {@link MemoryEntityCache}, ie. how long a warm restart spends before its
+ * shards can start RESUMEing.
+ * <p/>
+ * Run {@link #main(String[])} for a quick single measurement, along with the
+ * size of the snapshot, or the benchmark with
+ * {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main SnapshotBenchmark}.
+ *
+ * @author amy
+ * @since 1/4/19.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotBenchmark {
+    private static final String GUILD = "267500017260953601";
+    
+    @Param({"100000"})
+    private int size;
+    
+    private Vertx vertx;
+    private Path file;
+    
+    private static CatnipImpl catnip(final Vertx vertx) {
+        final MemoryEntityCache cache = new MemoryEntityCache();
+        final CatnipImpl catnip = new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache));
+        cache.catnip(catnip);
+        return catnip;
+    }
+    
+    private static Path write(final Vertx vertx, final int size) throws IOException {
+        final CatnipImpl catnip = catnip(vertx);
+        final List<User> users = new ArrayList<>(size);
+        final List<Member> members = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            final String id = Long.toUnsignedString(1_500_000_000_000L << 22 | i);
+            users.add(UserImpl.builder()
+                    .id(id)
+                    .username("user" + i)
+                    .discriminator(String.format("%04d", i % 10_000))
+                    .avatar(i % 3 == 0 ? null : Integer.toHexString(i))
+                    .bot(false)
+                    .build());
+            members.add(MemberImpl.builder()
+                    .id(id)
+                    .guildId(GUILD)
+                    .nick(i % 5 == 0 ? "nick" + i : null)
+                    .roleIds(ImmutableSet.of("267500017260953602", "267500017260953603"))
+                    .joinedAt("2018-06-01T12:34:56.789000+00:00")
+                    .build());
+        }
+        catnip.cacheWorker().bulkCacheUsers(users);
+        catnip.cacheWorker().bulkCacheMembers(members);
+        final Path file = Files.createTempFile("catnip", ".snapshot");
+        CacheSnapshot.write(file, catnip);
+        return file;
+    }
+    
+    public static void main(final String[] args) throws IOException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final Vertx vertx = Vertx.vertx();
+        final Path file = write(vertx, size);
+        try {
+            // Warm up, so class loading and JIT don't count
+            for(int i = 0; i < 3; i++) {
+                CacheSnapshot.load(file, catnip(vertx));
+            }
+            final long start = System.nanoTime();
+            final long records = CacheSnapshot.load(file, catnip(vertx));
+            System.out.printf("Loaded %d records (%d KB) in %dms%n", records, Files.size(file) >> 10,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            Files.deleteIfExists(file);
+            vertx.close();
+        }
+    }
+    
+    @Setup
+    public void setup() throws IOException {
+        vertx = Vertx.vertx();
+        file = write(vertx, size);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        vertx.close();
+    }
+    
+    @Benchmark
+    public long load() throws IOException {
+        return CacheSnapshot.load(file, catnip(vertx));
+    }
+}
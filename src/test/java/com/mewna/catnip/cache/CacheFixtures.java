@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.mewna.catnip.cache;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Gateway payloads and helpers shared by the cache tests.
+ *
+ * @author amy
+ * @since 1/1/19.
+ */
+final class CacheFixtures {
+    private CacheFixtures() {
+    }
+    
+    static JsonObject user(final String id) {
+        return new JsonObject()
+                .put("id", id)
+                .put("username", "user " + id)
+                .put("discriminator", "0001");
+    }
+    
+    static JsonObject member(final String id, final String... roles) {
+        return new JsonObject()
+                .put("user", user(id))
+                .put("roles", new JsonArray(new ArrayList<>(Arrays.asList((Object[]) roles))))
+                .put("joined_at", "2019-01-01T00:00:00.000000+00:00")
+                .put("deaf", false)
+                .put("mute", false);
+    }
+    
+    static JsonObject role(final String id, final long permissions) {
+        return new JsonObject()
+                .put("id", id)
+                .put("name", "role " + id)
+                .put("color", 0)
+                .put("hoist", false)
+                .put("position", 0)
+                .put("permissions", permissions)
+                .put("managed", false)
+                .put("mentionable", false);
+    }
+    
+    /**
+     * @return A text channel named {@code general} with no overwrites.
+     */
+    static JsonObject channel(final String id) {
+        return new JsonObject()
+                .put("id", id)
+                .put("type", 0)
+                .put("name", "general")
+                .put("position", 0)
+                .put("permission_overwrites", new JsonArray());
+    }
+    
+    static JsonObject presence(final String user) {
+        return new JsonObject()
+                .put("user", new JsonObject().put("id", user))
+                .put("status", "online");
+    }
+    
+    /**
+     * @return A guild without roles or channels, holding members with the
+     * given ids.
+     */
+    static JsonObject guild(final String id, final String... members) {
+        final JsonArray memberArray = new JsonArray();
+        for(final String member : members) {
+            memberArray.add(member(member));
+        }
+        return new JsonObject()
+                .put("id", id)
+                .put("name", "guild " + id)
+                .put("owner_id", "1")
+                .put("member_count", members.length)
+                .put("roles", new JsonArray())
+                .put("channels", new JsonArray())
+                .put("members", memberArray);
+    }
+    
+    /**
+     * @return A guild with members numbered from 1 up to the given count.
+     */
+    static JsonObject guild(final String id, final int members) {
+        final String[] ids = new String[members];
+        for(int i = 0; i < members; i++) {
+            ids[i] = Integer.toString(i + 1);
+        }
+        return guild(id, ids);
+    }
+    
+    /**
+     * Waits for the future, failing the test if it failed.
+     */
+    static <T> T await(final Future<T> future) throws Exception {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        future.setHandler(res -> {
+            if(res.succeeded()) {
+                result.complete(res.result());
+            } else {
+                result.completeExceptionally(res.cause());
+            }
+        });
+        try {
+            return result.get(30, TimeUnit.SECONDS);
+        } catch(final ExecutionException e) {
+            return fail(e.getCause());
+        }
+    }
+    
+    /**
+     * Applies a cache update on a Vert.x context, as the shards do, and waits
+     * for it, failing the test if the update failed.
+     */
+    static void update(final Vertx vertx, final EntityCacheWorker cache, final String type, final JsonObject payload)
+            throws Exception {
+        final Future<Void> result = Future.future();
+        vertx.runOnContext(__ -> cache.updateCache(type, payload).setHandler(result));
+        await(result);
+    }
+}
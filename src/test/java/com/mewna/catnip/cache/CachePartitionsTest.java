@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.manager.DefaultShardManager;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/8/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CachePartitionsTest {
+    // (id >>> 22) % 2 puts these on shards 0 and 1
+    private static final String SHARD_0 = Long.toString(2L << 22);
+    private static final String SHARD_1 = Long.toString(3L << 22);
+    
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    
+    private void update(final String type, final JsonObject payload) throws Exception {
+        CacheFixtures.update(vertx, cache, type, payload);
+    }
+    
+    private String mutualGuilds(final String user) {
+        return cache.mutualGuilds(user).stream().map(Guild::id).sorted().collect(Collectors.joining(","));
+    }
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache();
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)
+                .shardManager(new DefaultShardManager(2, Arrays.asList(0, 1)))));
+        update(Raw.GUILD_CREATE, guild(SHARD_0, "1", "2"));
+        update(Raw.GUILD_CREATE, guild(SHARD_1, "1", "3"));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testPartitionsByShard() {
+        assertEquals(1, CachePartitions.shardOf(Long.parseLong(SHARD_1), 2));
+        assertEquals(2, cache.guilds().size());
+        assertEquals(4, cache.members().size());
+        assertEquals(1, cache.partitionStats(0).guilds());
+        assertEquals(2, cache.partitionStats(0).members());
+        assertEquals(1, cache.partitionStats(1).guilds());
+        assertEquals(2, cache.partitionStats(1).members());
+        assertEquals(0, cache.partitionStats(5).guilds());
+    }
+    
+    @Test
+    public void testInvalidatesShard() {
+        cache.invalidateShard(0);
+        assertNull(cache.guild(SHARD_0));
+        assertNull(cache.member(SHARD_0, "2"));
+        assertEquals(0, cache.partitionStats(0).members());
+        assertNotNull(cache.guild(SHARD_1));
+        assertEquals(2, cache.members().size());
+        assertEquals(SHARD_1, mutualGuilds("1"));
+        assertEquals("", mutualGuilds("2"));
+        assertEquals(SHARD_1, mutualGuilds("3"));
+    }
+    
+    @Test
+    public void testDropsIngestionsFromInvalidatedShard() throws Exception {
+        final String guild = Long.toString(4L << 22);
+        final Future<CompositeFuture> result = Future.future();
+        vertx.runOnContext(__ -> {
+            // Can't be committed before the shard is invalidated, since that
+            // happens on this context
+            final Future<Void> ingested = cache.updateCache(Raw.GUILD_CREATE, guild(guild, "4"));
+            final Future<Void> added = cache.updateCache(Raw.GUILD_MEMBER_ADD, member("5").put("guild_id", guild));
+            cache.invalidateShard(0);
+            CompositeFuture.all(ingested, added).setHandler(result);
+        });
+        await(result);
+        assertNull(cache.guild(guild));
+        assertEquals(0, cache.members(guild).size());
+        assertEquals("", mutualGuilds("4"));
+        assertEquals("", mutualGuilds("5"));
+        
+        // The shard's next session is cached as usual
+        update(Raw.GUILD_CREATE, guild(guild, "4"));
+        assertNotNull(cache.guild(guild));
+        assertEquals(guild, mutualGuilds("4"));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.channel.TextChannel;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.manager.DefaultShardManager;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/4/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CacheSnapshotTest {
+    private Vertx vertx;
+    private Path file;
+    
+    private CatnipImpl catnip() {
+        return catnip(new MemoryEntityCache(), null);
+    }
+    
+    private CatnipImpl catnip(final MemoryEntityCache cache, final Path snapshot) {
+        final CatnipImpl catnip = new CatnipImpl(vertx, new CatnipOptions("token")
+                .cacheWorker(cache)
+                .shardManager(new DefaultShardManager(2))
+                .cacheSnapshot(snapshot));
+        catnip.shardManager().catnip(catnip);
+        cache.catnip(catnip);
+        return catnip;
+    }
+    
+    private static JsonObject guild() {
+        final JsonObject guild = CacheFixtures.guild("10");
+        guild.getJsonArray("roles").add(role("2", 8L));
+        guild.getJsonArray("channels").add(channel("3").put("topic", "cats"));
+        guild.getJsonArray("members").add(member("1", "2").put("nick", "nick"));
+        return guild
+                .put("member_count", 1)
+                .put("presences", new JsonArray().add(presence("1").put("status", "idle")));
+    }
+    
+    @BeforeEach
+    public void setup() throws IOException {
+        vertx = Vertx.vertx();
+        file = Files.createTempFile("catnip", ".snapshot");
+    }
+    
+    @AfterEach
+    public void teardown() throws IOException {
+        vertx.close();
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        final CatnipImpl before = catnip();
+        update(vertx, before.cacheWorker(), Raw.GUILD_CREATE, guild());
+        before.sessionManager().session(1, "session");
+        before.sessionManager().seqnum(1, 42);
+        
+        assertTrue(CacheSnapshot.write(file, before) > 0);
+        
+        final CatnipImpl after = catnip();
+        final long records = CacheSnapshot.load(file, after);
+        assertTrue(records > 0);
+        assertEquals("session", after.sessionManager().session(1));
+        assertEquals(42, after.sessionManager().seqnum(1));
+        assertNull(after.sessionManager().session(0));
+        
+        final EntityCache cache = after.cache();
+        final Guild guild = cache.guild("10");
+        assertNotNull(guild);
+        assertEquals("guild 10", guild.name());
+        assertEquals("1", guild.ownerId());
+        assertEquals(8L, cache.role("10", "2").permissionsRaw());
+        assertEquals("cats", ((TextChannel) cache.channel("10", "3")).topic());
+        final Member member = cache.member("10", "1");
+        assertNotNull(member);
+        assertEquals("nick", member.nick());
+        assertTrue(member.roleIds().contains("2"));
+        assertEquals("user 1", cache.user("1").username());
+        assertEquals(OnlineStatus.IDLE, cache.presence("1").status());
+    }
+    
+    @Test
+    public void testShutdownWaitsForIngestion() throws Exception {
+        testShutdownWaitsFor(new MemoryEntityCache());
+    }
+    
+    @Test
+    public void testShutdownWaitsForWriters() throws Exception {
+        testShutdownWaitsFor(new MemoryEntityCache().writerThreads(1));
+    }
+    
+    private void testShutdownWaitsFor(final MemoryEntityCache cache) throws Exception {
+        Files.delete(file);
+        final CatnipImpl before = catnip(cache, file);
+        // Guild 10 is on shard 0; its seqnum is stored as soon as its
+        // GUILD_CREATE comes in, long before it's cached
+        before.sessionManager().session(0, "session");
+        before.sessionManager().seqnum(0, 42);
+        final CompletableFuture<Boolean> cachedEarly = new CompletableFuture<>();
+        vertx.runOnContext(__ -> {
+            cache.updateCache(Raw.GUILD_CREATE, CacheFixtures.guild("10", 20_000));
+            before.shutdown(false);
+            cachedEarly.complete(cache.guild("10") != null);
+        });
+        assertFalse(cachedEarly.get(5, TimeUnit.SECONDS));
+        
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while(!Files.exists(file)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Snapshot was never written");
+            Thread.sleep(10);
+        }
+        final CatnipImpl after = catnip();
+        CacheSnapshot.load(file, after);
+        assertEquals(42, after.sessionManager().seqnum(0));
+        final Guild guild = after.cache().guild("10");
+        assertNotNull(guild);
+        assertEquals(20_000, guild.members().size());
+    }
+    
+    @Test
+    public void testRejectsNewerVersions() throws Exception {
+        assertEquals(0, CacheSnapshot.write(file, catnip()));
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(CacheSnapshot.VERSION + 1).flip(), 4);
+        }
+        assertThrows(IOException.class, () -> CacheSnapshot.load(file, catnip()));
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/9/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CacheWriterTest {
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        // Big enough for everything the tests publish at once
+        cache = new MemoryEntityCache().writerThreads(2).writerBufferSize(1024);
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        cache.shutdown();
+        vertx.close();
+    }
+    
+    @Test
+    public void testAppliesUpdatesInOrder() throws Exception {
+        final List<Future<Void>> futures = new ArrayList<>();
+        for(int guild = 1; guild <= 4; guild++) {
+            final String id = Integer.toString(guild);
+            futures.add(cache.updateCache(Raw.GUILD_CREATE, guild(id, "1")));
+            // Not waiting for the guild to be cached first; the writer
+            // applies these after it anyway
+            for(int i = 2; i < 100; i++) {
+                futures.add(cache.updateCache(Raw.GUILD_MEMBER_ADD, member(Integer.toString(i)).put("guild_id", id)));
+            }
+            futures.add(cache.updateCache(Raw.GUILD_MEMBER_REMOVE, new JsonObject().put("guild_id", id)
+                    .put("user", new JsonObject().put("id", "50"))));
+        }
+        for(final Future<Void> future : futures) {
+            await(future);
+        }
+        // The guilds' updates were applied by the tasks that committed them,
+        // which may not have quite finished yet
+        await(cache.writerFor(0).publish(() -> {
+        }));
+        assertEquals(0, cache.writerBacklog());
+        for(int guild = 1; guild <= 4; guild++) {
+            assertNotNull(cache.guild(guild));
+            assertEquals(98, cache.members(guild).size());
+            assertNull(cache.member(guild, 50));
+        }
+    }
+    
+    @Test
+    public void testInvalidatesShardAfterQueuedUpdates() throws Exception {
+        final Future<Void> created = cache.updateCache(Raw.GUILD_CREATE, guild("1", "1"));
+        cache.invalidateShard(0);
+        await(created);
+        // Anything published after the invalidation is applied after it
+        await(cache.updateCache(Raw.USER_UPDATE, new JsonObject().put("id", "1").put("username", "user")
+                .put("discriminator", "0001")));
+        assertNull(cache.guild(1));
+        assertEquals(0, cache.members(1).size());
+    }
+    
+    @Test
+    public void testCompletesOnPublishingContext() throws Exception {
+        final CompletableFuture<Boolean> onContext = new CompletableFuture<>();
+        vertx.runOnContext(__ -> {
+            final Context context = Vertx.currentContext();
+            cache.updateCache(Raw.USER_UPDATE, new JsonObject().put("id", "1").put("username", "user")
+                    .put("discriminator", "0001"))
+                    .setHandler(res -> onContext.complete(res.succeeded() && Vertx.currentContext() == context));
+        });
+        assertTrue(onContext.get(30, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testKeepsRoomForTasks() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<String> applied = new CopyOnWriteArrayList<>();
+        final CacheWriter writer = new CacheWriter("test-writer", 8, (type, payload) -> {
+            try {
+                blocked.await();
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            applied.add(type);
+            return Future.succeededFuture();
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for(int i = 0; i < 7; i++) {
+                futures.add(writer.publish(Raw.USER_UPDATE, new JsonObject()));
+            }
+            // The writer's stuck on the first, which keeps its slot until
+            // it's been applied, so only the slot held back for tasks is left
+            assertTrue(writer.publish(Raw.USER_UPDATE, new JsonObject()).failed());
+            futures.add(writer.publish(() -> applied.add("first task")));
+            // Has to wait for the writer now
+            final CompletableFuture<Future<Void>> waiting = CompletableFuture.supplyAsync(
+                    () -> writer.publish(() -> applied.add("second task")));
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            blocked.countDown();
+            futures.add(waiting.get(30, TimeUnit.SECONDS));
+            for(final Future<Void> future : futures) {
+                await(future);
+            }
+            assertEquals(9, applied.size());
+            assertEquals("first task", applied.get(7));
+            assertEquals("second task", applied.get(8));
+            assertEquals(0, writer.backlog());
+        } finally {
+            writer.stop();
+        }
+    }
+    
+    @Test
+    public void testResyncsShardWhenFull() throws Exception {
+        final MemoryEntityCache cache = new MemoryEntityCache().writerThreads(1).writerBufferSize(16);
+        final CatnipImpl catnip = new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache));
+        cache.catnip(catnip);
+        final CompletableFuture<String> resync = new CompletableFuture<>();
+        catnip.eventBus().<JsonObject>consumer(CatnipShard.controlAddress(0),
+                msg -> resync.complete(msg.body().getString("mode")));
+        try {
+            update(vertx, cache, Raw.GUILD_CREATE, guild("10", 3));
+            final CountDownLatch blocked = new CountDownLatch(1);
+            cache.writerFor(0).publish(() -> {
+                try {
+                    blocked.await();
+                } catch(final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            
+            final CompletableFuture<List<Future<Void>>> published = new CompletableFuture<>();
+            vertx.runOnContext(__ -> {
+                final List<Future<Void>> futures = new ArrayList<>();
+                futures.add(cache.updateCache(Raw.GUILD_MEMBER_REMOVE, new JsonObject().put("guild_id", "10")
+                        .put("user", new JsonObject().put("id", "1"))));
+                for(int i = 100; i < 120; i++) {
+                    futures.add(cache.updateCache(Raw.GUILD_MEMBER_ADD,
+                            member(Integer.toString(i)).put("guild_id", "10")));
+                }
+                published.complete(futures);
+            });
+            final List<Future<Void>> futures = published.get(30, TimeUnit.SECONDS);
+            assertTrue(futures.stream().anyMatch(Future::failed));
+            assertEquals("RESYNC", resync.get(30, TimeUnit.SECONDS));
+            // Ignored until the shard has IDENTIFYed again
+            await(cache.updateCache(Raw.GUILD_MEMBER_ADD, member("200").put("guild_id", "10")));
+            
+            blocked.countDown();
+            for(final Future<Void> future : futures) {
+                if(!future.failed()) {
+                    await(future);
+                }
+            }
+            // Dropped once whatever was queued before the overflow had been
+            // applied, so none of it is left behind
+            await(cache.writerFor(0).publish(() -> {
+            }));
+            assertNull(cache.guild(10));
+            assertEquals(0, cache.members(10).size());
+            assertEquals(0, cache.mutualGuilds(2).size());
+            
+            // What the shard's next session sends
+            cache.invalidateShard(0);
+            update(vertx, cache, Raw.GUILD_CREATE, guild("10", "2", "3", "100"));
+            update(vertx, cache, Raw.GUILD_MEMBER_ADD, member("4").put("guild_id", "10"));
+            assertNotNull(cache.guild(10));
+            assertEquals(4, cache.members(10).size());
+            assertNull(cache.member(10, 1));
+            assertNull(cache.member(10, 119));
+            assertNull(cache.member(10, 200));
+            assertEquals(0, cache.mutualGuilds(1).size());
+            assertEquals(1, cache.mutualGuilds(4).size());
+        } finally {
+            cache.shutdown();
+        }
+    }
+    
+    @Test
+    public void testInvalidatesOnWriterWhenFull() throws Exception {
+        update(vertx, cache, Raw.GUILD_CREATE, guild("1", "1"));
+        final CacheWriter writer = cache.writerFor(0);
+        // The guild's commit can still be holding a slot, which would free
+        // up once the ring had been filled
+        await(writer.publish(() -> {
+        }));
+        final CountDownLatch blocked = new CountDownLatch(1);
+        writer.publish(() -> {
+            try {
+                blocked.await();
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while(writer.backlog() < 1024) {
+            writer.publish(() -> {
+            });
+        }
+        final CompletableFuture<Void> invalidated = CompletableFuture.runAsync(() -> cache.invalidateShard(0));
+        Thread.sleep(100);
+        // Waiting for room rather than dropping the shard alongside the writer
+        assertFalse(invalidated.isDone());
+        assertNotNull(cache.guild(1));
+        blocked.countDown();
+        invalidated.get(30, TimeUnit.SECONDS);
+        await(writer.publish(() -> {
+        }));
+        assertNull(cache.guild(1));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/29/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CompactMemberCacheViewTest {
+    private static final long GUILD = 267500017260953601L;
+    
+    private static Member member(final String id, final String nick, final String... roles) {
+        return MemberImpl.builder()
+                .id(id)
+                .guildId(Long.toUnsignedString(GUILD))
+                .nick(nick)
+                .roleIds(ImmutableSet.copyOf(roles))
+                .joinedAt("2018-12-29T01:02:03.456+00:00")
+                .deaf(true)
+                .mute(false)
+                .build();
+    }
+    
+    @Test
+    public void testMaterializesMembers() {
+        final CompactMemberCacheView view = new CompactMemberCacheView(null, GUILD, __ -> null);
+        assertNull(view.put(1L, member("1", "nick", "12", "18446744073709551615")));
+        assertEquals(1, view.size());
+        
+        final Member member = view.getById("1");
+        assertNotNull(member);
+        assertEquals("1", member.id());
+        assertEquals(Long.toUnsignedString(GUILD), member.guildId());
+        assertEquals("nick", member.nick());
+        assertEquals(ImmutableSet.of("12", "18446744073709551615"), member.roleIds());
+        assertEquals(OffsetDateTime.of(2018, 12, 29, 1, 2, 3, 456_000_000, ZoneOffset.UTC), member.joinedAt());
+        assertTrue(member.deaf());
+        assertFalse(member.mute());
+        
+        assertNull(view.getById(2L));
+        assertEquals("nick", view.remove(1L).nick());
+        assertEquals(0, view.size());
+    }
+    
+    @Test
+    public void testSharesRoleArrays() {
+        final CompactMemberCacheView view = new CompactMemberCacheView(null, GUILD, __ -> null);
+        view.put(1L, member("1", null, "5", "3", "4"));
+        view.put(2L, member("2", null, "4", "5", "3"));
+        view.put(3L, member("3", null, "4"));
+        view.put(4L, member("4", null));
+        view.put(5L, member("5", null));
+        
+        assertArrayEquals(new long[] {3, 4, 5}, view.compact(1L).roleIds);
+        assertSame(view.compact(1L).roleIds, view.compact(2L).roleIds);
+        assertNotSame(view.compact(1L).roleIds, view.compact(3L).roleIds);
+        assertSame(view.compact(4L).roleIds, view.compact(5L).roleIds);
+    }
+    
+    @Test
+    public void testNameLookups() {
+        final Map<Long, User> users = new HashMap<>();
+        users.put(1L, UserImpl.builder().id("1").username("Alice").build());
+        users.put(2L, UserImpl.builder().id("2").username("Bob").build());
+        final CompactMemberCacheView view = new CompactMemberCacheView(null, GUILD, users::get);
+        view.put(1L, member("1", null));
+        view.put(2L, member("2", "Alicia"));
+        view.put(3L, member("3", null));
+        
+        assertEquals(1, view.findByName("alice", true).size());
+        assertEquals("1", view.findByName("Alice", false).iterator().next().id());
+        assertEquals(2, view.findByNameStartsWith("ali", true).size());
+        assertEquals(0, view.findByNameStartsWith("Bob", false).size());
+        assertEquals(3, view.find(m -> true).size());
+        assertEquals(3, view.values().size());
+        assertEquals(3, view.map().size());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.impl.GuildImpl;
+import com.mewna.catnip.entity.impl.MemberImpl;
+import com.mewna.catnip.entity.impl.UserImpl;
+import com.mewna.catnip.entity.user.Presence;
+import com.mewna.catnip.entity.user.Presence.OnlineStatus;
+import com.mewna.catnip.entity.user.User;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/3/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EntityPatcherTest {
+    private final EntityPatcher patcher = new EntityPatcher(null);
+    
+    @Test
+    public void testPatchesUsers() {
+        final User old = UserImpl.builder().id("1").username("amy").discriminator("0001").avatar("a").build();
+        assertNull(patcher.patchUser(old, new JsonObject().put("id", "1")));
+        assertNull(patcher.patchUser(old, new JsonObject().put("id", "1").put("username", "amy").put("avatar", "a")));
+        
+        final User renamed = patcher.patchUser(old, new JsonObject().put("id", "1").put("username", "cat").putNull("avatar"));
+        assertNotNull(renamed);
+        assertEquals("cat", renamed.username());
+        assertEquals("0001", renamed.discriminator());
+        assertNull(renamed.avatar());
+        assertEquals("amy", old.username());
+    }
+    
+    @Test
+    public void testPatchesMembers() {
+        final Member old = MemberImpl.builder()
+                .id("1")
+                .guildId("2")
+                .nick("nick")
+                .roleIds(ImmutableSet.of("3", "4"))
+                .joinedAt("2019-01-03T01:02:03.456+00:00")
+                .deaf(true)
+                .build();
+        final JsonObject payload = new JsonObject()
+                .put("guild_id", "2")
+                .put("user", new JsonObject().put("id", "1"))
+                .put("nick", "nick")
+                .put("roles", new JsonArray().add("4").add("3"));
+        assertNull(patcher.patchMember(old, payload));
+        
+        final Member member = patcher.patchMember(old, payload.put("roles", new JsonArray().add("5")).putNull("nick"));
+        assertNotNull(member);
+        assertNull(member.nick());
+        assertEquals(ImmutableSet.of("5"), member.roleIds());
+        assertEquals(OffsetDateTime.of(2019, 1, 3, 1, 2, 3, 456_000_000, ZoneOffset.UTC), member.joinedAt());
+        assertTrue(member.deaf());
+    }
+    
+    @Test
+    public void testPatchesPresences() {
+        final JsonObject game = new JsonObject()
+                .put("name", "catnip")
+                .put("type", 0)
+                .put("timestamps", new JsonObject().put("start", 10L))
+                .put("assets", new JsonObject().put("large_image", "cat"));
+        final JsonObject payload = new JsonObject()
+                .put("user", new JsonObject().put("id", "1"))
+                .put("status", "online")
+                .put("game", game);
+        final Presence old = new EntityBuilder(null).createPresence(payload);
+        assertNull(patcher.patchPresence(old, payload.copy()));
+        
+        final Presence idle = patcher.patchPresence(old, payload.copy().put("status", "idle"));
+        assertNotNull(idle);
+        assertEquals(OnlineStatus.IDLE, idle.status());
+        assertNotNull(patcher.patchPresence(old, payload.copy().put("game", game.copy().put("state", "playing"))));
+        assertNotNull(patcher.patchPresence(old, payload.copy().putNull("game")));
+        assertNotNull(patcher.patchPresence(null, payload));
+    }
+    
+    @Test
+    public void testPatchesGuilds() {
+        final JsonObject payload = new JsonObject()
+                .put("id", "1")
+                .put("name", "guild")
+                .put("owner_id", "2")
+                .put("joined_at", "2019-01-03T01:02:03.456+00:00")
+                .put("member_count", 100)
+                .put("large", true);
+        final Guild old = new EntityBuilder(null).createGuild(payload, false);
+        final JsonObject update = payload.copy();
+        update.remove("joined_at");
+        update.remove("member_count");
+        update.remove("large");
+        assertNull(patcher.patchGuild(old, update));
+        
+        final Guild renamed = patcher.patchGuild(old, update.put("name", "renamed"));
+        assertNotNull(renamed);
+        assertEquals("renamed", renamed.name());
+        assertEquals(100, renamed.memberCount());
+        assertTrue(renamed.large());
+        assertEquals(old.joinedAt(), renamed.joinedAt());
+        assertEquals("2019-01-03T01:02:03.456+00:00", ((GuildImpl) renamed).rawJoinedAt());
+    }
+    
+    @Test
+    public void testComparesRolesWithMissingFields() {
+        final JsonObject payload = new JsonObject()
+                .put("id", "1")
+                .put("name", "role")
+                .put("color", 0)
+                .put("hoist", false)
+                .put("position", 1)
+                .put("managed", false)
+                .put("mentionable", false);
+        final Role old = new EntityBuilder(null).createRole("2", payload);
+        assertTrue(EntityPatcher.sameRole(old, payload));
+        
+        final JsonObject partial = new JsonObject().put("id", "1").put("name", "role").put("position", 1);
+        assertTrue(EntityPatcher.sameRole(old, partial));
+        assertFalse(EntityPatcher.sameRole(old, partial.put("hoist", true)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/1/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class GuildIngestorTest {
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    
+    private static JsonObject guild(final long id, final int members) {
+        final JsonObject guild = CacheFixtures.guild(Long.toUnsignedString(id), members);
+        for(final Object member : guild.getJsonArray("members")) {
+            ((JsonObject) member).getJsonArray("roles").add("2");
+        }
+        guild.getJsonArray("roles").add(role("2", 0L));
+        guild.getJsonArray("channels").add(channel("3"));
+        return guild.put("presences", new JsonArray().add(presence("1")));
+    }
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache().guildIngestThreads(4);
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testUpdatesWaitForIngestion() throws Exception {
+        final Future<Void> created = Future.future();
+        final Future<Boolean> added = Future.future();
+        final Future<Void> deleted = Future.future();
+        vertx.runOnContext(__ -> {
+            cache.updateCache(Raw.GUILD_CREATE, guild(1, 2500)).setHandler(created);
+            // Nothing's visible until the whole guild has been built
+            assertNull(cache.guild(1));
+            assertEquals(0, cache.members(1).size());
+            cache.updateCache(Raw.GUILD_MEMBER_ADD, member("5000", "2").put("guild_id", "1"))
+                    .setHandler(res -> added.complete(cache.guild(1) != null));
+            cache.updateCache(Raw.GUILD_ROLE_DELETE, new JsonObject().put("guild_id", "1").put("role_id", "2"))
+                    .setHandler(deleted);
+        });
+        await(created);
+        assertTrue(await(added), "update for a guild was applied before the guild was cached");
+        await(deleted);
+        
+        assertEquals("guild 1", cache.guild(1).name());
+        assertEquals(2501, cache.members(1).size());
+        assertNotNull(cache.member(1, 2500));
+        assertNotNull(cache.member(1, 5000));
+        assertEquals("user 2500", cache.user(2500).username());
+        assertEquals("general", cache.channel(1, 3).name());
+        assertNotNull(cache.presence(1));
+        // Ran after the guild was ingested, so it stuck
+        assertNull(cache.role(1, 2));
+    }
+    
+    @Test
+    public void testIngestsGuildsInParallel() throws Exception {
+        final Future<Void> done = Future.future();
+        vertx.runOnContext(__ -> {
+            final List<Future> futures = new ArrayList<>();
+            for(int i = 1; i <= 50; i++) {
+                futures.add(cache.updateCache(Raw.GUILD_CREATE, guild(i, i * 10)));
+            }
+            CompositeFuture.all(futures).setHandler(res -> done.complete());
+        });
+        await(done);
+        assertEquals(50, cache.guilds().size());
+        for(int i = 1; i <= 50; i++) {
+            assertEquals(i * 10, cache.members(i).size());
+            assertEquals(1, cache.roles(i).size());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.message.Message;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/6/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MessageCacheTest {
+    private static byte[] bytes(final int length) {
+        return new byte[length];
+    }
+    
+    private static String lengths(final List<byte[]> messages) {
+        return messages.stream().map(m -> String.valueOf(m.length)).collect(Collectors.joining(","));
+    }
+    
+    private static JsonObject message(final String id, final String content) {
+        return new JsonObject()
+                .put("id", id)
+                .put("channel_id", "5")
+                .put("author", new JsonObject().put("id", "1").put("username", "amy").put("discriminator", "0001"))
+                .put("content", content)
+                .put("timestamp", "2019-01-06T00:00:00.000000+00:00")
+                .put("type", 0);
+    }
+    
+    @Test
+    public void testRingKeepsLatestMessages() {
+        final MessageCache cache = new MessageCache(20, Long.MAX_VALUE);
+        // Message lengths stand in for their contents
+        for(int i = 1; i <= 25; i++) {
+            cache.put(1, i, bytes(i));
+        }
+        assertEquals(20, cache.all(1).size());
+        assertNull(cache.get(1, 5));
+        assertEquals(6, cache.get(1, 6).length);
+        assertEquals(25, cache.get(1, 25).length);
+        
+        cache.remove(1, 10);
+        assertNull(cache.get(1, 10));
+        assertEquals(19, cache.all(1).size());
+        cache.update(1, 11, old -> bytes(100));
+        assertEquals(100, cache.get(1, 11).length);
+        
+        long expected = 100;
+        for(int i = 12; i <= 25; i++) {
+            expected += i;
+        }
+        for(int i = 6; i <= 9; i++) {
+            expected += i;
+        }
+        assertEquals(expected, cache.bytes());
+        
+        cache.removeChannel(1);
+        assertEquals(0, cache.bytes());
+        assertEquals(0, cache.all(1).size());
+    }
+    
+    @Test
+    public void testEvictsLeastRecentlyActiveChannels() {
+        final MessageCache cache = new MessageCache(10, 100);
+        cache.put(1, 1, bytes(40));
+        cache.put(2, 1, bytes(40));
+        cache.put(1, 2, bytes(10));
+        // Channel 2 is now the least recently active
+        cache.put(3, 1, bytes(40));
+        assertNull(cache.get(2, 1));
+        assertEquals("40,10", lengths(cache.all(1)));
+        assertEquals(90, cache.bytes());
+    }
+    
+    @Test
+    public void testCachesMessageEvents() throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            final MemoryEntityCache cache = new MemoryEntityCache().messagesPerChannel(10);
+            cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+            assertTrue(cache.cachesMessages());
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            vertx.runOnContext(__ -> {
+                cache.updateCache(Raw.MESSAGE_CREATE, message("10", "meow"));
+                cache.updateCache(Raw.MESSAGE_CREATE, message("11", "purr"));
+                cache.updateCache(Raw.MESSAGE_UPDATE, new JsonObject().put("id", "10").put("channel_id", "5")
+                        .put("content", "mrrp").put("edited_timestamp", "2019-01-06T00:01:00.000000+00:00"));
+                cache.updateCache(Raw.MESSAGE_DELETE_BULK, new JsonObject().put("channel_id", "5")
+                        .put("ids", new JsonArray().add("11").add("12")));
+                done.complete(null);
+            });
+            done.get(30, TimeUnit.SECONDS);
+            
+            final Message message = cache.message("5", "10");
+            assertNotNull(message);
+            assertEquals("mrrp", message.content());
+            assertEquals("amy", message.author().username());
+            assertNotNull(message.editedTimestamp());
+            assertNull(cache.message("5", "11"));
+            assertEquals(1, cache.messages("5").size());
+        } finally {
+            vertx.close();
+        }
+    }
+    
+    @Test
+    public void testLooksUpCachedAuthors() throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            final MemoryEntityCache cache = new MemoryEntityCache().messagesPerChannel(10);
+            cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+            final JsonObject member = new JsonObject()
+                    .put("roles", new JsonArray())
+                    .put("nick", "nick")
+                    .put("joined_at", "2019-01-06T00:00:00.000000+00:00")
+                    .put("deaf", false)
+                    .put("mute", false);
+            final JsonObject guild = new JsonObject()
+                    .put("id", "2")
+                    .put("name", "guild")
+                    .put("owner_id", "1")
+                    .put("member_count", 1)
+                    .put("roles", new JsonArray())
+                    .put("channels", new JsonArray())
+                    .put("members", new JsonArray().add(member.copy().put("user", message("0", "").getJsonObject("author"))));
+            final JsonObject payload = message("10", "meow").put("guild_id", "2").put("member", member);
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            vertx.runOnContext(__ -> cache.updateCache(Raw.GUILD_CREATE, guild)
+                    .compose(___ -> cache.updateCache(Raw.MESSAGE_CREATE, payload))
+                    .setHandler(res -> done.complete(null)));
+            done.get(30, TimeUnit.SECONDS);
+            
+            // The dispatched payload is left alone
+            assertEquals("amy", payload.getJsonObject("author").getString("username"));
+            assertTrue(payload.containsKey("member"));
+            final Message message = cache.message("5", "10");
+            assertNotNull(message);
+            assertEquals("amy", message.author().username());
+            assertNotNull(message.member());
+            assertEquals("nick", message.member().nick());
+        } finally {
+            vertx.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Collectors;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/5/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MutualGuildsTest {
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    
+    private void update(final String type, final JsonObject payload) throws Exception {
+        CacheFixtures.update(vertx, cache, type, payload);
+    }
+    
+    private String mutualGuilds(final String user) {
+        return cache.mutualGuilds(user).stream().map(Guild::id).sorted().collect(Collectors.joining(","));
+    }
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache();
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testTracksMemberships() throws Exception {
+        update(Raw.GUILD_CREATE, guild("10", "1", "2"));
+        update(Raw.GUILD_CREATE, guild("20", "1"));
+        assertEquals("10,20", mutualGuilds("1"));
+        assertEquals("10", mutualGuilds("2"));
+        assertEquals("", mutualGuilds("3"));
+        
+        update(Raw.GUILD_MEMBER_ADD, member("3").put("guild_id", "20"));
+        update(Raw.GUILD_MEMBERS_CHUNK, new JsonObject().put("guild_id", "20")
+                .put("members", new JsonArray().add(member("2"))));
+        assertEquals("20", mutualGuilds("3"));
+        assertEquals("10,20", mutualGuilds("2"));
+        
+        update(Raw.GUILD_MEMBER_REMOVE, new JsonObject().put("guild_id", "10")
+                .put("user", new JsonObject().put("id", "2")));
+        assertEquals("20", mutualGuilds("2"));
+        
+        // Guilds sent again keep members who are still in them
+        update(Raw.GUILD_CREATE, guild("10", "1"));
+        assertEquals("10,20", mutualGuilds("1"));
+        
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", "20"));
+        assertEquals("10", mutualGuilds("1"));
+        assertEquals("", mutualGuilds("2"));
+        assertEquals("", mutualGuilds("3"));
+        assertEquals(0, cache.members(20).size());
+    }
+    
+    @Test
+    public void testKeepsMembersThroughOutages() throws Exception {
+        final JsonObject guild = guild("10", "1", "2");
+        guild.getJsonArray("roles").add(role("11", 0L));
+        guild.getJsonArray("channels").add(channel("12"));
+        update(Raw.GUILD_CREATE, guild);
+        
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", "10").put("unavailable", true));
+        assertNull(cache.guild(10));
+        assertEquals(2, cache.members(10).size());
+        assertEquals(1, cache.roles(10).size());
+        assertEquals(1, cache.channels(10).size());
+        
+        update(Raw.GUILD_CREATE, guild);
+        assertEquals("10", mutualGuilds("2"));
+        
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", "10"));
+        assertNull(cache.guild(10));
+        assertEquals("", mutualGuilds("2"));
+        assertEquals(0, cache.members(10).size());
+        assertEquals(0, cache.roles(10).size());
+        assertEquals(0, cache.channels(10).size());
+    }
+}
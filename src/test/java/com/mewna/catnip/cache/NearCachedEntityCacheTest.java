@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.cache.remote.EntityKey;
+import com.mewna.catnip.cache.remote.EntityKey.Kind;
+import com.mewna.catnip.cache.remote.InProcessRemoteStore;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/10/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class NearCachedEntityCacheTest {
+    private static final String GUILD = "100";
+    
+    private Vertx vertx;
+    private InProcessRemoteStore store;
+    private NearCachedEntityCache cache;
+    
+    private NearCachedEntityCache create(final long nearCacheSize) {
+        final NearCachedEntityCache created = new NearCachedEntityCache(store).nearCacheSize(nearCacheSize)
+                .writeBehindMillis(10);
+        created.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(created)));
+        return created;
+    }
+    
+    private void update(final String type, final JsonObject payload) throws Exception {
+        CacheFixtures.update(vertx, cache, type, payload);
+    }
+    
+    private void awaitWrites() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(cache.stats().pendingWrites() > 0) {
+            assertTrue(System.nanoTime() < deadline, "writes were never sent to the store");
+            Thread.sleep(5);
+        }
+    }
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        store = new InProcessRemoteStore(Duration.ofMillis(2));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        store.shutdown();
+        vertx.close();
+    }
+    
+    @Test
+    public void testWritesBehindAndReadsThrough() throws Exception {
+        cache = create(2);
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        // Readable before it's been sent anywhere
+        assertNotNull(cache.async().member(GUILD, "1").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        awaitWrites();
+        // The guild and 8 members and users
+        assertEquals(17, store.size());
+        assertTrue(cache.stats().size() <= 2);
+        
+        final Member member = cache.async().member(GUILD, "3").toCompletableFuture().get(30, TimeUnit.SECONDS);
+        assertNotNull(member);
+        assertEquals("3", member.id());
+        assertEquals(GUILD, member.guildId());
+        assertNull(cache.async().member(GUILD, "9").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        
+        update(Raw.GUILD_MEMBER_REMOVE, new JsonObject().put("guild_id", GUILD)
+                .put("user", new JsonObject().put("id", "3")));
+        assertNull(cache.async().member(GUILD, "3").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        awaitWrites();
+        assertFalse(store.contains(EntityKey.of(Kind.MEMBER, Long.parseLong(GUILD), 3L)));
+    }
+    
+    @Test
+    public void testBatchesMisses() throws Exception {
+        cache = create(100);
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        awaitWrites();
+        
+        // A fresh cache over the same store has nothing near
+        final NearCachedEntityCache cold = create(100);
+        // Long enough that every lookup below lands in the same batch
+        cold.readBatchMillis(50);
+        final long gets = store.gets();
+        final List<CompletableFuture<Member>> lookups = new ArrayList<>();
+        for(int i = 1; i <= 8; i++) {
+            lookups.add(cold.async().member(GUILD, Integer.toString(i)).toCompletableFuture());
+        }
+        for(int i = 0; i < lookups.size(); i++) {
+            assertEquals(Integer.toString(i + 1), lookups.get(i).get(30, TimeUnit.SECONDS).id());
+        }
+        assertEquals(1, store.gets() - gets);
+        assertEquals(1, cold.stats().remoteReads());
+        assertEquals(8, cold.stats().missCount());
+        assertTrue(cold.stats().meanMissLatency() > 0);
+        
+        // Now they're near; only lookups through async() are counted
+        assertNotNull(cold.member(GUILD, "4"));
+        assertNull(cold.user("4"));
+        assertNotNull(cold.async().member(GUILD, "4").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        assertNotNull(cold.async().user("4").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        assertEquals(1, cold.stats().hitCount());
+        assertEquals(9, cold.stats().missCount());
+        cold.shutdown();
+    }
+    
+    @Test
+    public void testRemovesLeftGuilds() throws Exception {
+        cache = create(100);
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        awaitWrites();
+        
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", GUILD).put("unavailable", true));
+        awaitWrites();
+        assertNull(cache.guild(GUILD));
+        assertNotNull(cache.member(GUILD, "1"));
+        
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", GUILD));
+        // Gone before the removal has been sent
+        assertNull(cache.member(GUILD, "1"));
+        assertNull(cache.async().member(GUILD, "2").toCompletableFuture().get(30, TimeUnit.SECONDS));
+        awaitWrites();
+        // Only the users are left
+        assertEquals(8, store.size());
+        assertFalse(store.contains(EntityKey.of(Kind.MEMBER, Long.parseLong(GUILD), 1L)));
+        assertNotNull(cache.async().user("1").toCompletableFuture().get(30, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testCompletesOnUpdatingContext() throws Exception {
+        cache = create(100);
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        awaitWrites();
+        
+        // Has to look the member up in the store
+        final NearCachedEntityCache cold = create(100);
+        final CompletableFuture<Boolean> onContext = new CompletableFuture<>();
+        vertx.runOnContext(__ -> {
+            final Context context = Vertx.currentContext();
+            cold.updateCache(Raw.GUILD_MEMBER_UPDATE, member("1").put("guild_id", GUILD).put("nick", "nick"))
+                    .setHandler(res -> onContext.complete(res.succeeded() && Vertx.currentContext() == context));
+        });
+        assertTrue(onContext.get(30, TimeUnit.SECONDS));
+        assertEquals("nick", cold.member(GUILD, "1").nick());
+        cold.shutdown();
+    }
+    
+    @Test
+    public void testShutdownSendsEverything() throws Exception {
+        cache = create(100);
+        update(Raw.GUILD_CREATE, guild(GUILD, 8));
+        update(Raw.GUILD_MEMBER_ADD, member("9").put("guild_id", GUILD));
+        cache.shutdown();
+        assertEquals(0, cache.stats().pendingWrites());
+        assertEquals(19, store.size());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.util.Permission;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.util.PermissionUtil;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/7/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PermissionCacheTest {
+    private static final long VIEW = Permission.VIEW_CHANNEL.value();
+    private static final long SEND = Permission.SEND_MESSAGES.value();
+    
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    private MemoryEntityCache cache;
+    
+    private static JsonObject channel(final long deny) {
+        return CacheFixtures.channel("50")
+                .put("guild_id", "10")
+                .put("permission_overwrites", new JsonArray()
+                        .add(new JsonObject().put("id", "100").put("type", "role").put("allow", 0L).put("deny", deny)));
+    }
+    
+    private void update(final String type, final JsonObject payload) throws Exception {
+        CacheFixtures.update(vertx, cache, type, payload);
+    }
+    
+    private long permissions(final String member) {
+        final Member m = cache.member("10", member);
+        final long cached = cache.permissionCache().permissions(m);
+        assertEquals(PermissionUtil.effectivePermissions(catnip, m), cached);
+        return cached;
+    }
+    
+    private long permissions(final String member, final String channel) {
+        final Member m = cache.member("10", member);
+        final GuildChannel c = cache.channel("10", channel);
+        final long cached = cache.permissionCache().permissions(m, c);
+        assertEquals(PermissionUtil.effectivePermissions(catnip, m, c), cached);
+        return cached;
+    }
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache));
+        cache.catnip(catnip);
+        update(Raw.GUILD_CREATE, new JsonObject()
+                .put("id", "10")
+                .put("name", "guild")
+                .put("owner_id", "1")
+                .put("member_count", 3)
+                .put("roles", new JsonArray().add(role("10", VIEW)).add(role("100", SEND)))
+                .put("channels", new JsonArray().add(channel(SEND)))
+                .put("members", new JsonArray().add(member("1")).add(member("2", "100")).add(member("3")))
+                .put("voice_states", new JsonArray()));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testInvalidatesOnRoleChanges() throws Exception {
+        assertEquals(Permission.ALL, permissions("1"));
+        assertEquals(VIEW | SEND, permissions("2"));
+        assertEquals(VIEW, permissions("3"));
+        assertEquals(3, cache.permissionCache().size(10));
+        
+        // Only the members with the role are dropped
+        update(Raw.GUILD_ROLE_UPDATE, new JsonObject().put("guild_id", "10")
+                .put("role", role("100", SEND | Permission.ADD_REACTIONS.value())));
+        assertEquals(2, cache.permissionCache().size(10));
+        assertEquals(VIEW | SEND | Permission.ADD_REACTIONS.value(), permissions("2"));
+        
+        // @everyone applies to everyone
+        update(Raw.GUILD_ROLE_UPDATE, new JsonObject().put("guild_id", "10").put("role", role("10", 0L)));
+        assertEquals(0, cache.permissionCache().size(10));
+        assertEquals(0L, permissions("3"));
+        
+        update(Raw.GUILD_MEMBER_UPDATE, new JsonObject().put("guild_id", "10")
+                .put("user", new JsonObject().put("id", "3"))
+                .put("roles", new JsonArray().add("100")));
+        assertEquals(SEND | Permission.ADD_REACTIONS.value(), permissions("3"));
+        
+        update(Raw.GUILD_ROLE_DELETE, new JsonObject().put("guild_id", "10").put("role_id", "100"));
+        assertEquals(0L, permissions("2"));
+        assertEquals(0L, permissions("3"));
+    }
+    
+    @Test
+    public void testInvalidatesOnOverrideAndOwnerChanges() throws Exception {
+        assertEquals(VIEW, permissions("2", "50"));
+        assertEquals(VIEW, permissions("3", "50"));
+        
+        update(Raw.CHANNEL_UPDATE, channel(0L));
+        assertEquals(VIEW | SEND, permissions("2", "50"));
+        assertEquals(VIEW, permissions("3", "50"));
+        
+        update(Raw.GUILD_UPDATE, new JsonObject().put("id", "10").put("owner_id", "3"));
+        assertEquals(Permission.ALL, permissions("3", "50"));
+        assertEquals(VIEW, permissions("1", "50"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.user.VoiceState;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Collectors;
+
+import static com.mewna.catnip.cache.CacheFixtures.*;
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/5/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SecondaryIndexTest {
+    private Vertx vertx;
+    private MemoryEntityCache cache;
+    
+    private static JsonObject voiceState(final String user, final String channel) {
+        return new JsonObject()
+                .put("guild_id", "10")
+                .put("user_id", user)
+                .put("channel_id", channel)
+                .put("session_id", "session")
+                .put("deaf", false)
+                .put("mute", false)
+                .put("self_deaf", false)
+                .put("self_mute", false)
+                .put("suppress", false);
+    }
+    
+    private void update(final String type, final JsonObject payload) throws Exception {
+        CacheFixtures.update(vertx, cache, type, payload);
+    }
+    
+    private String roleMembers(final String role) {
+        return cache.roleMembers("10", role).stream().map(Member::id).sorted().collect(Collectors.joining(","));
+    }
+    
+    private String connected(final String channel) {
+        return cache.channelVoiceStates("10", channel).stream().map(VoiceState::userId).sorted()
+                .collect(Collectors.joining(","));
+    }
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        cache = new MemoryEntityCache();
+        cache.catnip(new CatnipImpl(vertx, new CatnipOptions("token").cacheWorker(cache)));
+        update(Raw.GUILD_CREATE, new JsonObject()
+                .put("id", "10")
+                .put("name", "guild")
+                .put("owner_id", "1")
+                .put("member_count", 3)
+                .put("roles", new JsonArray())
+                .put("channels", new JsonArray())
+                .put("members", new JsonArray().add(member("1", "100", "200")).add(member("2", "100")).add(member("3")))
+                .put("voice_states", new JsonArray().add(voiceState("1", "50")).add(voiceState("2", "50"))));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testIndexesRoleMembers() throws Exception {
+        assertEquals("1,2", roleMembers("100"));
+        assertEquals("1", roleMembers("200"));
+        assertEquals("1,2,3", roleMembers("10"));
+        assertEquals("", roleMembers("300"));
+        
+        update(Raw.GUILD_MEMBER_UPDATE, new JsonObject().put("guild_id", "10")
+                .put("user", new JsonObject().put("id", "2"))
+                .put("roles", new JsonArray().add("200").add("300")));
+        assertEquals("1", roleMembers("100"));
+        assertEquals("1,2", roleMembers("200"));
+        assertEquals("2", roleMembers("300"));
+        
+        update(Raw.GUILD_MEMBER_ADD, member("4", "300").put("guild_id", "10"));
+        assertEquals("2,4", roleMembers("300"));
+        
+        update(Raw.GUILD_MEMBER_REMOVE, new JsonObject().put("guild_id", "10")
+                .put("user", new JsonObject().put("id", "1")));
+        assertEquals("", roleMembers("100"));
+        assertEquals("2", roleMembers("200"));
+        
+        update(Raw.GUILD_ROLE_DELETE, new JsonObject().put("guild_id", "10").put("role_id", "300"));
+        assertEquals("", roleMembers("300"));
+    }
+    
+    @Test
+    public void testIndexesVoiceChannels() throws Exception {
+        assertEquals("1,2", connected("50"));
+        
+        update(Raw.VOICE_STATE_UPDATE, voiceState("2", "60"));
+        assertEquals("1", connected("50"));
+        assertEquals("2", connected("60"));
+        
+        update(Raw.VOICE_STATE_UPDATE, voiceState("1", null));
+        assertEquals("", connected("50"));
+        
+        update(Raw.GUILD_DELETE, new JsonObject().put("id", "10"));
+        assertEquals("", connected("60"));
+        assertEquals("", roleMembers("100"));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.bounded;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 1/2/19.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BoundedCacheViewTest {
+    private static BoundedCacheView<String> view(final CacheBound bound, final long pinned, final AtomicLong clock) {
+        final BoundedCacheView<String> view = new BoundedCacheView<>(s -> s);
+        view.bound(bound, key -> key == pinned, clock::get);
+        return view;
+    }
+    
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final BoundedCacheView<String> view = view(new CacheBound().maximumSize(3).policy(EvictionPolicy.LRU),
+                0, new AtomicLong());
+        view.put(1L, "1");
+        view.put(2L, "2");
+        view.put(3L, "3");
+        view.put(1L, "1");
+        view.put(4L, "4");
+        assertEquals(3, view.size());
+        assertNull(view.getById(2L));
+        assertNotNull(view.getById(1L));
+        assertEquals(1, view.stats().evictionCount());
+    }
+    
+    @Test
+    public void testTinyLfuKeepsHotEntries() {
+        final BoundedCacheView<String> view = view(new CacheBound().maximumSize(100), 0, new AtomicLong());
+        for(int round = 0; round < 10; round++) {
+            for(long key = 1; key <= 50; key++) {
+                view.put(key, "hot");
+            }
+        }
+        for(long key = 1000; key < 11000; key++) {
+            view.put(key, "cold");
+        }
+        assertEquals(100, view.size());
+        int hot = 0;
+        for(long key = 1; key <= 50; key++) {
+            if(view.getById(key) != null) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 45, "only " + hot + " hot entries survived a scan");
+    }
+    
+    @Test
+    public void testExpiresUnpinnedEntries() {
+        final AtomicLong clock = new AtomicLong();
+        final BoundedCacheView<String> view = view(new CacheBound().maximumSize(2).expireAfterWrite(Duration.ofNanos(10)),
+                1, clock);
+        view.put(1L, "pinned");
+        view.put(2L, "2");
+        clock.addAndGet(10);
+        assertEquals("pinned", view.getById(1L));
+        assertNull(view.getById(2L));
+        assertEquals(2, view.size());
+        
+        view.put(3L, "3");
+        view.put(4L, "4");
+        // 2 expired, and the pinned entry can't be evicted to make room for 4
+        assertEquals("pinned", view.getById(1L));
+        assertEquals("4", view.getById(4L));
+        assertNull(view.map().get(2L));
+        assertEquals(2, view.size());
+        
+        final EvictionStats stats = view.stats();
+        assertEquals(1, stats.expirationCount());
+        assertEquals(1, stats.evictionCount());
+        assertEquals(3, stats.hitCount());
+        assertEquals(1, stats.missCount());
+    }
+    
+    @Test
+    public void testPeekIsNotCounted() {
+        final AtomicLong clock = new AtomicLong();
+        final BoundedCacheView<String> view = view(new CacheBound().expireAfterWrite(Duration.ofNanos(10)), 0, clock);
+        view.put(1L, "1");
+        assertEquals("1", view.peek(1L));
+        assertNull(view.peek(2L));
+        clock.addAndGet(10);
+        assertNull(view.peek(1L));
+        
+        final EvictionStats stats = view.stats();
+        assertEquals(0, stats.hitCount());
+        assertEquals(0, stats.missCount());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.offheap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.mewna.catnip.entity.channel.GuildChannel;
+import com.mewna.catnip.entity.guild.Member;
+import com.mewna.catnip.entity.guild.PermissionOverride.OverrideType;
+import com.mewna.catnip.entity.guild.Role;
+import com.mewna.catnip.entity.impl.*;
+import com.mewna.catnip.entity.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/30/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class OffHeapCacheViewTest {
+    private static final String GUILD = "267500017260953601";
+    
+    private static <T> OffHeapCacheView<T> view(final EntityCodec<T> codec, final String guildId) {
+        return new OffHeapCacheView<>(codec, Object::toString, () -> null, guildId);
+    }
+    
+    private static User user(final long id, final String username) {
+        return UserImpl.builder()
+                .id(Long.toUnsignedString(id))
+                .username(username)
+                .discriminator("0001")
+                .avatar(Long.remainderUnsigned(id, 2) == 0 ? null : "a_abcdef")
+                .bot(Long.remainderUnsigned(id, 3) == 0)
+                .build();
+    }
+    
+    @Test
+    public void testRoundTrips() {
+        final OffHeapCacheView<User> users = view(EntityCodecs.USER, null);
+        users.put(-1L, user(-1L, "ünïcödé 🐱"));
+        final User user = users.getById(-1L);
+        assertEquals("18446744073709551615", user.id());
+        assertEquals("ünïcödé 🐱", user.username());
+        assertEquals("0001", user.discriminator());
+        assertEquals("a_abcdef", user.avatar());
+        assertTrue(user.bot());
+        
+        final OffHeapCacheView<Member> members = view(EntityCodecs.MEMBER, GUILD);
+        members.put(2L, MemberImpl.builder()
+                .id("2")
+                .guildId(GUILD)
+                .roleIds(ImmutableSet.of("10", "11"))
+                .joinedAt("2018-12-30T01:02:03.456789+00:00")
+                .mute(true)
+                .build());
+        final Member member = members.getById(2L);
+        assertEquals("2", member.id());
+        assertEquals(GUILD, member.guildId());
+        assertNull(member.nick());
+        assertEquals(ImmutableSet.of("10", "11"), member.roleIds());
+        assertEquals(OffsetDateTime.parse("2018-12-30T01:02:03.456789+00:00"), member.joinedAt());
+        assertFalse(member.deaf());
+        assertTrue(member.mute());
+        
+        final OffHeapCacheView<Role> roles = view(EntityCodecs.ROLE, GUILD);
+        roles.put(3L, RoleImpl.builder().id("3").guildId(GUILD).name("role").color(0xFF00FF).position(-1)
+                .permissionsRaw(Long.MAX_VALUE).hoist(true).mentionable(true).build());
+        final Role role = roles.getById(3L);
+        assertEquals("role", role.name());
+        assertEquals(GUILD, role.guildId());
+        assertEquals(0xFF00FF, role.color());
+        assertEquals(-1, role.position());
+        assertEquals(Long.MAX_VALUE, role.permissionsRaw());
+        assertTrue(role.hoist());
+        assertFalse(role.managed());
+        assertTrue(role.mentionable());
+        
+        final OffHeapCacheView<GuildChannel> channels = view(EntityCodecs.CHANNEL, GUILD);
+        channels.put(4L, TextChannelImpl.builder().id("4").guildId(GUILD).name("general").position(1).parentId("5")
+                .overrides(ImmutableList.of(PermissionOverrideImpl.builder().id("3").type(OverrideType.ROLE)
+                        .allowRaw(8).denyRaw(16).build()))
+                .topic("topic").nsfw(true).rateLimitPerUser(5).build());
+        channels.put(6L, VoiceChannelImpl.builder().id("6").guildId(GUILD).name("voice")
+                .overrides(ImmutableList.of()).bitrate(64000).userLimit(10).build());
+        channels.put(5L, CategoryImpl.builder().id("5").guildId(GUILD).name("category")
+                .overrides(ImmutableList.of()).build());
+        final GuildChannel text = channels.getById(4L);
+        assertTrue(text.isText());
+        assertEquals("general", text.name());
+        assertEquals("5", text.parentId());
+        assertEquals(OverrideType.ROLE, text.overrides().get(0).type());
+        assertEquals(16, text.overrides().get(0).denyRaw());
+        assertEquals("topic", text.asTextChannel().topic());
+        assertTrue(text.asTextChannel().nsfw());
+        assertEquals(5, text.asTextChannel().rateLimitPerUser());
+        assertEquals(10, channels.getById(6L).asVoiceChannel().userLimit());
+        assertTrue(channels.getById(5L).isCategory());
+        assertNull(channels.getById(5L).parentId());
+    }
+    
+    @Test
+    public void testMatchesHashMap() {
+        // Enough churn to grow through several slabs and compact a few times
+        final OffHeapCacheView<User> view = view(EntityCodecs.USER, null);
+        final Map<Long, String> expected = new HashMap<>();
+        final Random random = new Random(42);
+        for(int i = 0; i < 50_000; i++) {
+            final long id = random.nextInt(2_000) + 1;
+            if(random.nextInt(4) == 0) {
+                final String old = expected.remove(id);
+                final User removed = view.remove(id);
+                assertEquals(old, removed == null ? null : removed.username());
+            } else {
+                final String name = "user" + random.nextInt();
+                final String old = expected.put(id, name);
+                final User replaced = view.put(id, user(id, name));
+                assertEquals(old, replaced == null ? null : replaced.username());
+            }
+        }
+        assertEquals(expected.size(), view.size());
+        expected.forEach((id, name) -> assertEquals(name, view.getById(id).username()));
+        assertEquals(expected.keySet(), view.keys());
+        
+        // Live data is at least half of the slabs, plus the slab being
+        // filled; records here are 33 to 44 bytes
+        final long live = expected.size() * 44L;
+        assertTrue(view.offHeapBytes() < live * 4, () -> "too much direct memory: " + view.offHeapBytes());
+        
+        final Iterator<User> iterator = view.iterator();
+        while(iterator.hasNext()) {
+            if(Long.parseLong(iterator.next().id()) % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        expected.keySet().removeIf(id -> id % 2 == 0);
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.size(), view.find(u -> true).size());
+    }
+}
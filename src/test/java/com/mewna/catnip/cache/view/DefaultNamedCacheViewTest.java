@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.cache.view;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/31/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DefaultNamedCacheViewTest {
+    private static final String[] NAMES = {"amy", "Amy", "AMY", "amelia", "bob", "Bobby", "", "ÄÖÜ", "äöü", "am"};
+    
+    private static Set<String> names(final Collection<String> entities) {
+        return new HashSet<>(entities);
+    }
+    
+    private static void assertSameResults(final NamedCacheView<String> expected, final NamedCacheView<String> actual) {
+        for(final String name : NAMES) {
+            for(final boolean ignoreCase : new boolean[] {false, true}) {
+                assertEquals(names(expected.findByName(name, ignoreCase)), names(actual.findByName(name, ignoreCase)), name);
+                assertEquals(names(expected.findByNameStartsWith(name, ignoreCase)),
+                        names(actual.findByNameStartsWith(name, ignoreCase)), name);
+                assertEquals(names(expected.findByNameContains(name, ignoreCase)),
+                        names(actual.findByNameContains(name, ignoreCase)), name);
+                assertEquals(names(expected.findByNameEndsWith(name, ignoreCase)),
+                        names(actual.findByNameEndsWith(name, ignoreCase)), name);
+            }
+        }
+    }
+    
+    @Test
+    public void testIndexMatchesScan() {
+        // Entities are "<name>#<id>", named by the part before the #
+        final Function<String, String> nameFunction = e -> e.substring(0, e.indexOf('#'));
+        final DefaultNamedCacheView<String> scanned = new DefaultNamedCacheView<>(nameFunction);
+        final DefaultNamedCacheView<String> indexed = new DefaultNamedCacheView<>(nameFunction);
+        final Random random = new Random(42);
+        for(int i = 0; i < 100; i++) {
+            final String entity = NAMES[random.nextInt(NAMES.length)] + '#' + i;
+            scanned.put(i, entity);
+            indexed.put(i, entity);
+        }
+        // Enabled part way through, so it has to index what's already there
+        indexed.enableNameIndex();
+        assertTrue(indexed.nameIndexEnabled());
+        assertSameResults(scanned, indexed);
+        
+        for(int i = 0; i < 1000; i++) {
+            final long id = random.nextInt(150);
+            if(random.nextInt(3) == 0) {
+                scanned.remove(id);
+                indexed.remove(id);
+            } else {
+                final String entity = NAMES[random.nextInt(NAMES.length)] + '#' + id;
+                scanned.put(id, entity);
+                indexed.put(id, entity);
+            }
+        }
+        assertSameResults(scanned, indexed);
+        assertSameResults(new CompositeNamedCacheView<>(Arrays.asList(scanned, scanned), nameFunction),
+                new CompositeNamedCacheView<>(Arrays.asList(indexed, scanned), nameFunction));
+    }
+    
+    @Test
+    public void testSharedNames() {
+        // Like a big guild's members before their users are cached
+        final DefaultNamedCacheView<String> view = new DefaultNamedCacheView<String>(e -> e.substring(0, e.indexOf('#')))
+                .enableNameIndex();
+        for(int i = 0; i < 50_000; i++) {
+            view.put(i, (i % 2 == 0 ? "" : "same") + '#' + i);
+        }
+        assertEquals(25_000, view.findByName("same").size());
+        assertEquals(25_000, view.findByName("").size());
+        assertEquals(50_000, view.findByNameStartsWith("", false).size());
+        for(int i = 1; i < 50_000; i += 4) {
+            view.remove(i);
+        }
+        assertEquals(12_500, view.findByName("SAME", true).size());
+        assertEquals(12_500, view.findByNameEndsWith("me", false).size());
+    }
+    
+    @Test
+    public void testDerivedNames() {
+        // Named after something outside the cache, like members after users
+        final Map<String, String> usernames = new HashMap<>();
+        usernames.put("1", "amy");
+        usernames.put("2", "bob");
+        final DefaultNamedCacheView<String> view = new DefaultNamedCacheView<String>(usernames::get).enableNameIndex();
+        view.put(1, "1");
+        view.put(2, "2");
+        assertEquals(Collections.singletonList("1"), view.findByName("amy"));
+        
+        usernames.put("1", "alice");
+        // Lookups never return a stale match, even before the refresh...
+        assertTrue(view.findByName("amy").isEmpty());
+        // ...but they can't find the new name until then
+        assertTrue(view.findByName("alice").isEmpty());
+        view.refreshName(1);
+        assertEquals(Collections.singletonList("1"), view.findByName("alice"));
+        assertEquals(Collections.singletonList("1"), view.findByNameStartsWith("AL", true));
+        assertTrue(view.findByName("amy").isEmpty());
+    }
+}
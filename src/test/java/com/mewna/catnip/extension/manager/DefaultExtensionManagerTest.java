@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.extension.manager;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.extension.AbstractExtension;
+import com.mewna.catnip.extension.hook.CatnipHook;
+import com.mewna.catnip.extension.hook.HookKind;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/26/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DefaultExtensionManagerTest {
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token"));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testHooksByKind() {
+        final ExtensionManager manager = catnip.extensionManager();
+        for(final HookKind kind : HookKind.values()) {
+            assertTrue(manager.hooks(kind).isEmpty());
+        }
+        
+        final CatnipHook receive = new CatnipHook() {
+            @Override
+            public JsonObject rawGatewayReceiveHook(@Nonnull final JsonObject json) {
+                return json.put("hooked", true);
+            }
+        };
+        final AbstractExtension extension = new AbstractExtension("test") {};
+        extension.registerHook(receive);
+        manager.loadExtension(extension);
+        
+        final List<CatnipHook> hooks = manager.hooks(HookKind.GATEWAY_RECEIVE);
+        assertEquals(1, hooks.size());
+        assertSame(receive, hooks.get(0));
+        assertTrue(manager.hooks(HookKind.GATEWAY_SEND).isEmpty());
+        assertTrue(manager.hooks(HookKind.REST_RECEIVE).isEmpty());
+        assertTrue(manager.hooks(HookKind.REST_SEND).isEmpty());
+        // No copy on access
+        assertSame(hooks, manager.hooks(HookKind.GATEWAY_RECEIVE));
+        assertSame(manager.extensions(), manager.extensions());
+    }
+    
+    @Test
+    public void testHooksRebuiltOnChange() {
+        final ExtensionManager manager = catnip.extensionManager();
+        final AbstractExtension extension = new AbstractExtension("test") {};
+        manager.loadExtension(extension);
+        assertTrue(manager.hooks(HookKind.GATEWAY_SEND).isEmpty());
+        
+        final CatnipHook send = new CatnipHook() {
+            @Override
+            public JsonObject rawGatewaySendHook(@Nonnull final JsonObject json) {
+                return json;
+            }
+        };
+        extension.registerHook(send);
+        assertEquals(1, manager.hooks(HookKind.GATEWAY_SEND).size());
+        extension.unregisterHook(send);
+        assertTrue(manager.hooks(HookKind.GATEWAY_SEND).isEmpty());
+        
+        extension.registerHook(send);
+        manager.unloadExtension(extension);
+        assertTrue(manager.hooks(HookKind.GATEWAY_SEND).isEmpty());
+        assertTrue(manager.extensions().isEmpty());
+    }
+}
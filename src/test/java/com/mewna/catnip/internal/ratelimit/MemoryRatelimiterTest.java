@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author amy
@@ -129,4 +130,23 @@ public class MemoryRatelimiterTest {
         final ImmutablePair<Boolean, Long> res = MemoryRatelimiter.checkRatelimitInternal(test, key, period, limit);
         assertEquals(true, res.left);
     }
+    
+    @Test
+    public void testRetryAfter() {
+        final Map<String, Bucket> test = new HashMap<>();
+        
+        final String key = "test";
+        final long limit = 2;
+        final long period = 500L;
+        
+        assertEquals(0L, MemoryRatelimiter.retryAfterInternal(test, key));
+        MemoryRatelimiter.checkRatelimitInternal(test, key, period, limit);
+        assertEquals(0L, MemoryRatelimiter.retryAfterInternal(test, key));
+        MemoryRatelimiter.checkRatelimitInternal(test, key, period, limit);
+        final long wait = MemoryRatelimiter.retryAfterInternal(test, key);
+        assertTrue(wait > 0 && wait <= period + 1, "wait was " + wait);
+        
+        test.put(key, new Bucket(limit, 0, 1337));
+        assertEquals(0L, MemoryRatelimiter.retryAfterInternal(test, key));
+    }
 }
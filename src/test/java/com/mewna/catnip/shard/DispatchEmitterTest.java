@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.guild.Guild;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/27/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DispatchEmitterTest {
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    private DispatchEmitter emitter;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token").trackEventBusConsumers(true));
+        emitter = new DispatchEmitter(catnip);
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testSideEffectsWithoutListeners() {
+        emitter.emit(event(Raw.READY, new JsonObject()
+                .put("v", 6)
+                .put("user", user("1"))
+                .put("guilds", new JsonArray().add(new JsonObject().put("id", "10").put("unavailable", true)))
+                .put("_trace", new JsonArray())));
+        assertEquals("1", catnip.selfUser().id());
+        assertTrue(catnip.isUnavailable("10"));
+        
+        // Unavailable guilds are still marked available even if nobody
+        // wants the guild entity
+        emitter.emit(event(Raw.GUILD_CREATE, new JsonObject().put("id", "10")));
+        assertFalse(catnip.isUnavailable("10"));
+        
+        emitter.emit(event(Raw.USER_UPDATE, user("2")));
+        assertEquals("2", catnip.selfUser().id());
+    }
+    
+    @Test
+    public void testListenersPickedUpAtRuntime() {
+        final List<String> seen = new ArrayList<>();
+        final Consumer<Guild> listener = e -> seen.add(e.id());
+        emitter.emit(event(Raw.GUILD_DELETE, guild("1")));
+        catnip.onLocal(DiscordEvent.GUILD_DELETE, listener);
+        emitter.emit(event(Raw.GUILD_DELETE, guild("2")));
+        catnip.dispatcher().unlisten(DiscordEvent.GUILD_DELETE, listener);
+        emitter.emit(event(Raw.GUILD_DELETE, guild("3")));
+        assertEquals(1, seen.size());
+        assertEquals("2", seen.get(0));
+    }
+    
+    @Test
+    public void testUntrackedConsumersAlwaysCount() {
+        assertFalse(catnip.hasEventBusConsumers(Raw.GUILD_DELETE));
+        catnip.eventBus().consumer(Raw.GUILD_DELETE, __ -> {
+        });
+        assertTrue(catnip.hasEventBusConsumers(Raw.GUILD_DELETE));
+        
+        // Without tracking, consumers registered straight on vert.x's bus
+        // can't be seen, so everything has to be published
+        final CatnipImpl untracked = new CatnipImpl(vertx, new CatnipOptions("token"));
+        assertTrue(untracked.hasEventBusConsumers(Raw.GUILD_UPDATE));
+    }
+    
+    private static JsonObject event(final String type, final JsonObject data) {
+        return new JsonObject().put("t", type).put("d", data);
+    }
+    
+    private static JsonObject user(final String id) {
+        return new JsonObject().put("id", id).put("username", "catnip").put("discriminator", "0001");
+    }
+    
+    private static JsonObject guild(final String id) {
+        return new JsonObject().put("id", id);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.benchmark.Payloads;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/20/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class GatewayInflaterTest {
+    @Test
+    public void testFragmentedStream() throws DataFormatException {
+        final JsonObject ready = Payloads.ready(100);
+        final JsonObject guild = Payloads.guildCreate(2000);
+        final JsonObject message = Payloads.messageCreate();
+        final List<byte[]> frames = Payloads.zlibStream(4096, ready, guild, message);
+        
+        final GatewayInflater inflater = new GatewayInflater();
+        final JsonObject[] expected = {ready, guild, message};
+        int payload = 0;
+        for(final byte[] frame : frames) {
+            if(inflater.inflate(Buffer.buffer(frame).getByteBuf())) {
+                assertEquals(expected[payload++], Buffer.buffer().appendBytes(inflater.buffer(), 0, inflater.length()).toJsonObject());
+                inflater.reset();
+            }
+        }
+        assertEquals(expected.length, payload);
+        inflater.close();
+    }
+    
+    @Test
+    public void testDirectBuffers() throws DataFormatException {
+        final JsonObject guild = Payloads.guildCreate(500);
+        final List<byte[]> frames = Payloads.zlibStream(Integer.MAX_VALUE, guild);
+        assertEquals(1, frames.size());
+        
+        final GatewayInflater inflater = new GatewayInflater();
+        final ByteBuf direct = Unpooled.directBuffer(frames.get(0).length).writeBytes(frames.get(0));
+        assertTrue(inflater.inflate(direct));
+        assertEquals(0, direct.readerIndex());
+        assertEquals(guild, Buffer.buffer().appendBytes(inflater.buffer(), 0, inflater.length()).toJsonObject());
+        direct.release();
+        inflater.close();
+    }
+    
+    @Test
+    public void testShrinksAfterLargePayload() throws DataFormatException {
+        // Needs to be one stream, so compress everything together
+        final JsonObject small = Payloads.messageCreate();
+        final JsonObject[] payloads = new JsonObject[65];
+        payloads[0] = Payloads.guildCreate(20000);
+        for(int i = 1; i < payloads.length; i++) {
+            payloads[i] = small;
+        }
+        final List<byte[]> frames = Payloads.zlibStream(Integer.MAX_VALUE, payloads);
+        
+        final GatewayInflater inflater = new GatewayInflater();
+        assertTrue(inflater.inflate(Buffer.buffer(frames.get(0)).getByteBuf()));
+        final int grown = inflater.capacity();
+        assertTrue(grown > 1024 * 1024);
+        inflater.reset();
+        for(int i = 1; i < frames.size(); i++) {
+            assertTrue(inflater.inflate(Buffer.buffer(frames.get(i)).getByteBuf()));
+            assertEquals(small, Buffer.buffer().appendBytes(inflater.buffer(), 0, inflater.length()).toJsonObject());
+            inflater.reset();
+        }
+        assertTrue(inflater.capacity() < grown);
+        inflater.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.entity.impl.EntityBuilder;
+import com.mewna.catnip.entity.message.DeletedMessage;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mewna.catnip.shard.DiscordEvent.Raw;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/26/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocalDispatcherTest {
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token"));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testListenAndUnlisten() {
+        final LocalDispatcher dispatcher = catnip.dispatcher();
+        final List<String> seen = new ArrayList<>();
+        final Consumer<DeletedMessage> first = e -> seen.add("first:" + e.id());
+        final Consumer<DeletedMessage> second = e -> seen.add("second:" + e.id());
+        assertFalse(dispatcher.hasListeners(Raw.MESSAGE_DELETE));
+        
+        dispatcher.listen(DiscordEvent.MESSAGE_DELETE, first).listen(DiscordEvent.MESSAGE_DELETE, second);
+        assertTrue(dispatcher.hasListeners(Raw.MESSAGE_DELETE));
+        new DispatchEmitter(catnip).emit(deleted("1"));
+        
+        dispatcher.unlisten(DiscordEvent.MESSAGE_DELETE, first);
+        new DispatchEmitter(catnip).emit(deleted("2"));
+        
+        dispatcher.unlisten(DiscordEvent.MESSAGE_DELETE, second);
+        assertFalse(dispatcher.hasListeners(Raw.MESSAGE_DELETE));
+        new DispatchEmitter(catnip).emit(deleted("3"));
+        
+        assertEquals(3, seen.size());
+        assertEquals("first:1", seen.get(0));
+        assertEquals("second:1", seen.get(1));
+        assertEquals("second:2", seen.get(2));
+    }
+    
+    @Test
+    public void testFailingListenerIsIsolated() {
+        final List<String> seen = new ArrayList<>();
+        catnip.onLocal(DiscordEvent.MESSAGE_DELETE, e -> {
+            throw new IllegalStateException("boom");
+        });
+        catnip.onLocal(DiscordEvent.MESSAGE_DELETE, e -> seen.add(e.id()));
+        catnip.dispatcher().dispatch(Raw.MESSAGE_DELETE,
+                new EntityBuilder(catnip).createDeletedMessage(deleted("1").getJsonObject("d")));
+        assertEquals(1, seen.size());
+    }
+    
+    private static JsonObject deleted(final String id) {
+        return new JsonObject()
+                .put("t", Raw.MESSAGE_DELETE)
+                .put("d", new JsonObject().put("id", id).put("channel_id", "2").put("guild_id", "3"));
+    }
+}
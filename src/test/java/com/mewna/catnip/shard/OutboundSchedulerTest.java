@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.internal.ratelimit.MemoryRatelimiter;
+import com.mewna.catnip.internal.ratelimit.Ratelimiter;
+import com.mewna.catnip.shard.OutboundScheduler.Lane;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/23/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class OutboundSchedulerTest {
+    private Vertx vertx;
+    private Context context;
+    private final List<JsonObject> sent = new CopyOnWriteArrayList<>();
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        context = vertx.getOrCreateContext();
+        sent.clear();
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testLanesWaitForConnection() {
+        final OutboundScheduler scheduler = onContext(() -> new OutboundScheduler(vertx, new MemoryRatelimiter(), 0, 1, sent::add));
+        onContext(() -> {
+            scheduler.enqueue(Lane.DEFAULT, payload(GatewayOp.REQUEST_GUILD_MEMBERS));
+            scheduler.enqueue(Lane.IDENTIFY, payload(GatewayOp.IDENTIFY));
+            return null;
+        });
+        assertTrue(sent.isEmpty());
+        onContext(() -> {
+            scheduler.connected();
+            return null;
+        });
+        // Only IDENTIFY may go out before READY
+        assertEquals(1, sent.size());
+        assertEquals(GatewayOp.IDENTIFY.opcode(), (int) sent.get(0).getInteger("op"));
+        onContext(() -> {
+            scheduler.identified();
+            return null;
+        });
+        assertEquals(2, sent.size());
+        assertEquals(0, scheduler.queued(Lane.DEFAULT));
+    }
+    
+    @Test
+    public void testPriorityOrder() {
+        final OutboundScheduler scheduler = onContext(() -> new OutboundScheduler(vertx, new MemoryRatelimiter(), 0, 1, sent::add));
+        onContext(() -> {
+            scheduler.enqueue(Lane.DEFAULT, payload(GatewayOp.REQUEST_GUILD_MEMBERS));
+            scheduler.enqueue(Lane.PRESENCE, payload(GatewayOp.STATUS_UPDATE));
+            scheduler.enqueue(Lane.VOICE, payload(GatewayOp.VOICE_STATE_UPDATE));
+            scheduler.enqueue(Lane.HEARTBEAT, payload(GatewayOp.HEARTBEAT));
+            scheduler.connected();
+            scheduler.identified();
+            return null;
+        });
+        assertEquals(
+                ops(GatewayOp.HEARTBEAT, GatewayOp.VOICE_STATE_UPDATE, GatewayOp.STATUS_UPDATE, GatewayOp.REQUEST_GUILD_MEMBERS),
+                sent.stream().map(e -> e.getInteger("op")).collect(Collectors.toList()));
+    }
+    
+    @Test
+    public void testRatelimitedLaneDoesNotBlockOthers() {
+        final OutboundScheduler scheduler = onContext(() -> new OutboundScheduler(vertx, new MemoryRatelimiter(), 0, 1, sent::add));
+        onContext(() -> {
+            scheduler.connected();
+            scheduler.identified();
+            for(int i = 0; i < OutboundScheduler.PRESENCE_LIMIT + 2; i++) {
+                scheduler.enqueue(Lane.PRESENCE, payload(GatewayOp.STATUS_UPDATE));
+            }
+            scheduler.enqueue(Lane.DEFAULT, payload(GatewayOp.REQUEST_GUILD_MEMBERS));
+            return null;
+        });
+        assertEquals(OutboundScheduler.PRESENCE_LIMIT + 1, sent.size());
+        assertEquals(2, scheduler.queued(Lane.PRESENCE));
+        assertEquals(0, scheduler.queued(Lane.DEFAULT));
+    }
+    
+    @Test
+    public void testWakesUpWhenWindowReopens() throws InterruptedException {
+        final AtomicBoolean limited = new AtomicBoolean(true);
+        final Ratelimiter ratelimiter = new Ratelimiter() {
+            @Override
+            public ImmutablePair<Boolean, Long> checkRatelimit(final String id, final long periodMs, final long limit) {
+                return ImmutablePair.of(limited.get(), 0L);
+            }
+            
+            @Override
+            public long retryAfter(final String id, final long periodMs, final long limit) {
+                limited.set(false);
+                return 50L;
+            }
+        };
+        final CountDownLatch latch = new CountDownLatch(1);
+        final OutboundScheduler scheduler = onContext(() -> new OutboundScheduler(vertx, ratelimiter, 0, 1, payload -> {
+            sent.add(payload);
+            latch.countDown();
+        }));
+        onContext(() -> {
+            scheduler.connected();
+            scheduler.identified();
+            scheduler.enqueue(Lane.DEFAULT, payload(GatewayOp.REQUEST_GUILD_MEMBERS));
+            return null;
+        });
+        assertTrue(sent.isEmpty());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, sent.size());
+    }
+    
+    @Test
+    public void testIdentifyBuckets() {
+        final Ratelimiter ratelimiter = new MemoryRatelimiter();
+        final List<JsonObject> sent1 = new CopyOnWriteArrayList<>();
+        final List<JsonObject> sent2 = new CopyOnWriteArrayList<>();
+        // With a max_concurrency of 2, shards 0 and 2 share a bucket, but 1 doesn't
+        final OutboundScheduler shard0 = onContext(() -> new OutboundScheduler(vertx, ratelimiter, 0, 2, sent::add));
+        final OutboundScheduler shard1 = onContext(() -> new OutboundScheduler(vertx, ratelimiter, 1, 2, sent1::add));
+        final OutboundScheduler shard2 = onContext(() -> new OutboundScheduler(vertx, ratelimiter, 2, 2, sent2::add));
+        onContext(() -> {
+            for(final OutboundScheduler scheduler : new OutboundScheduler[] {shard0, shard1, shard2}) {
+                scheduler.connected();
+                scheduler.enqueue(Lane.forPayload(payload(GatewayOp.IDENTIFY)), payload(GatewayOp.IDENTIFY));
+            }
+            return null;
+        });
+        assertEquals(1, sent.size());
+        assertEquals(1, sent1.size());
+        assertTrue(sent2.isEmpty());
+        assertEquals(1, shard2.queued(Lane.IDENTIFY));
+        assertEquals(OutboundScheduler.identifyBucket(0, 2), OutboundScheduler.identifyBucket(2, 2));
+    }
+    
+    private static JsonObject payload(final GatewayOp op) {
+        return CatnipShard.basePayload(op);
+    }
+    
+    private static List<Integer> ops(final GatewayOp... ops) {
+        final List<Integer> list = new ArrayList<>();
+        for(final GatewayOp op : ops) {
+            list.add(op.opcode());
+        }
+        return list;
+    }
+    
+    private <T> T onContext(final Supplier<T> supplier) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        context.runOnContext(__ -> {
+            try {
+                future.complete(supplier.get());
+            } catch(final Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future.join();
+    }
+}
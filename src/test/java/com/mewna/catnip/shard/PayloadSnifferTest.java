@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard;
+
+import com.mewna.catnip.benchmark.Payloads;
+import com.mewna.catnip.shard.PayloadSniffer.Header;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/21/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PayloadSnifferTest {
+    @Test
+    public void testDispatch() {
+        final byte[] data = Payloads.guildCreate(10).encode().getBytes(StandardCharsets.UTF_8);
+        final Header header = PayloadSniffer.sniff(data, 0, data.length);
+        assertNotNull(header);
+        assertEquals(0, header.op());
+        assertEquals("GUILD_CREATE", header.type());
+        assertEquals(Integer.valueOf(2), header.seq());
+    }
+    
+    @Test
+    public void testDataBeforeHeader() {
+        final Header header = PayloadSniffer.sniff("{\"d\":{\"a\":[1,2,{\"op\":5}]},\"s\":7,\"op\":0,\"t\":\"TYPING_START\"}");
+        assertNotNull(header);
+        assertEquals(0, header.op());
+        assertEquals("TYPING_START", header.type());
+        assertEquals(Integer.valueOf(7), header.seq());
+    }
+    
+    @Test
+    public void testNonDispatch() {
+        final Header header = PayloadSniffer.sniff("{\"t\":null,\"s\":null,\"op\":11,\"d\":null}");
+        assertNotNull(header);
+        assertEquals(11, header.op());
+        assertNull(header.type());
+        assertNull(header.seq());
+    }
+    
+    @Test
+    public void testEtf() {
+        final byte[] data = Payloads.etf(Payloads.guildCreate(10));
+        final Header header = PayloadSniffer.sniffEtf(data, 0, data.length);
+        assertNotNull(header);
+        assertEquals(0, header.op());
+        assertEquals("GUILD_CREATE", header.type());
+        assertEquals(Integer.valueOf(2), header.seq());
+        assertNull(PayloadSniffer.sniffEtf(new byte[] {(byte) 131, 106}, 0, 2));
+    }
+    
+    @Test
+    public void testGarbage() {
+        assertNull(PayloadSniffer.sniff("[1,2,3]"));
+        assertNull(PayloadSniffer.sniff("{\"t\":"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.etf;
+
+import com.mewna.catnip.benchmark.Payloads;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/22/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ETFDecoderTest {
+    @Test
+    public void testRoundTrip() {
+        final JsonObject payload = new JsonObject()
+                .put("op", 2)
+                .put("d", new JsonObject()
+                        .put("token", "abc.def")
+                        .put("compress", false)
+                        .put("large_threshold", 250)
+                        .put("shard", new JsonArray().add(0).add(1))
+                        .put("presence", new JsonObject().put("since", (Object) null).put("afk", true))
+                        .put("empty", new JsonArray())
+                        .put("ratio", 0.5D)
+                        .put("negative", -300)
+                        .put("nested", new JsonObject().put("ünïcödé", "ok ✓")));
+        final byte[] data = ETFEncoder.encode(payload).getBytes();
+        assertEquals(payload, ETFDecoder.decodeObject(data, 0, data.length));
+    }
+    
+    @Test
+    public void testSnowflakesAndTimestamps() {
+        final JsonObject payload = new JsonObject()
+                .put("id", 267500017260953601L)
+                .put("start", 1545436800000L)
+                .put("ids", new JsonArray().add(267500017260953602L));
+        final byte[] data = ETFEncoder.encode(payload).getBytes();
+        final JsonObject decoded = ETFDecoder.decodeObject(data, 0, data.length);
+        // Snowflakes come out as strings, just like in JSON
+        assertEquals("267500017260953601", decoded.getString("id"));
+        assertEquals("267500017260953602", decoded.getJsonArray("ids").getString(0));
+        // Everything else stays a number
+        assertEquals(Long.valueOf(1545436800000L), decoded.getLong("start"));
+    }
+    
+    @Test
+    public void testMatchesJson() {
+        final JsonObject payload = Payloads.guildCreate(100);
+        final byte[] data = Payloads.etf(payload);
+        assertEquals(payload, ETFDecoder.decodeObject(data, 0, data.length));
+    }
+    
+    @Test
+    public void testAtomsAndCompressedTerms() {
+        // {<<"a">> => [nil, true, 'READY'], 'b' => "hi"}, compressed
+        final byte[] term = {
+                116, 0, 0, 0, 2,
+                109, 0, 0, 0, 1, 'a',
+                108, 0, 0, 0, 3,
+                /**/ 115, 3, 'n', 'i', 'l',
+                /**/ 115, 4, 't', 'r', 'u', 'e',
+                /**/ 119, 5, 'R', 'E', 'A', 'D', 'Y',
+                106,
+                100, 0, 1, 'b',
+                107, 0, 2, 'h', 'i',
+        };
+        final Deflater deflater = new Deflater();
+        deflater.setInput(term);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(131);
+        out.write(80);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(term.length);
+        final byte[] chunk = new byte[256];
+        while(!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        final byte[] data = out.toByteArray();
+        final JsonObject decoded = ETFDecoder.decodeObject(data, 0, data.length);
+        final JsonArray a = decoded.getJsonArray("a");
+        assertNull(a.getValue(0));
+        assertTrue(a.getBoolean(1));
+        assertEquals("READY", a.getString(2));
+        assertEquals(new JsonArray().add((int) 'h').add((int) 'i'), decoded.getJsonArray("b"));
+    }
+    
+    @Test
+    public void testDecodeKeys() {
+        final byte[] data = Payloads.etf(Payloads.messageCreate());
+        assertEquals("MESSAGE_CREATE", ETFDecoder.decodeKeys(data, 0, data.length, "t", "op").get("t"));
+        assertFalse(ETFDecoder.decodeKeys(data, 0, data.length, "nope").containsKey("nope"));
+    }
+    
+    @Test
+    public void testGarbage() {
+        assertThrows(IllegalArgumentException.class, () -> ETFDecoder.decode(new byte[] {1, 2, 3}, 0, 3));
+        assertThrows(IllegalArgumentException.class, () -> ETFDecoder.decode(new byte[] {(byte) 131, 116, 0, 0, 0, 9}, 0, 6));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.event;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.internal.CatnipImpl;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/27/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DispatchLanesTest {
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token").dispatchLanes(4));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testPerGuildOrdering() throws InterruptedException {
+        final DispatchLanes lanes = catnip.dispatchLanes();
+        assertNotNull(lanes);
+        final int guilds = 16;
+        final int perGuild = 200;
+        final Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(guilds * perGuild);
+        // Submitted straight away, so some of this lands before the lanes
+        // have finished deploying
+        for(int i = 0; i < perGuild; i++) {
+            for(int g = 0; g < guilds; g++) {
+                final String guild = String.valueOf(1000 + g);
+                final int n = i;
+                lanes.execute(guild, () -> {
+                    seen.computeIfAbsent(guild, __ -> new ArrayList<>()).add(n);
+                    latch.countDown();
+                });
+            }
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        seen.forEach((guild, list) -> {
+            assertEquals(perGuild, list.size());
+            for(int i = 0; i < perGuild; i++) {
+                assertEquals(i, (int) list.get(i), "Out of order for guild " + guild);
+            }
+        });
+        
+        // Lanes count a task once it's returned, which can be just after the
+        // latch was counted down, so read each lane's count from a task
+        // queued behind everything else on it
+        final AtomicLongArray processed = new AtomicLongArray(lanes.size());
+        final CountDownLatch counted = new CountDownLatch(lanes.size());
+        final boolean[] queued = new boolean[lanes.size()];
+        for(int i = 0; counted.getCount() > 0 && i < 10_000; i++) {
+            final String guild = String.valueOf(i);
+            final int lane = lanes.laneFor(guild);
+            if(!queued[lane]) {
+                queued[lane] = true;
+                lanes.execute(guild, () -> {
+                    processed.set(lane, catnip.dispatchLaneStats().get(lane).processed());
+                    counted.countDown();
+                });
+            }
+        }
+        assertTrue(counted.await(10, TimeUnit.SECONDS));
+        long total = 0;
+        for(int i = 0; i < processed.length(); i++) {
+            total += processed.get(i);
+        }
+        assertEquals(guilds * perGuild, total);
+        
+        final List<LaneStats> stats = catnip.dispatchLaneStats();
+        assertEquals(4, stats.size());
+        stats.forEach(e -> {
+            assertTrue(e.queued() >= 0);
+            assertTrue(e.busyNanos() >= 0);
+        });
+    }
+    
+    @Test
+    public void testStableLanes() {
+        final DispatchLanes lanes = catnip.dispatchLanes();
+        assertNotNull(lanes);
+        assertEquals(lanes.laneFor("81384788765712384"), lanes.laneFor("81384788765712384"));
+        for(int i = 0; i < 100; i++) {
+            final int lane = lanes.laneFor(String.valueOf(i));
+            assertTrue(lane >= 0 && lane < lanes.size());
+        }
+    }
+}
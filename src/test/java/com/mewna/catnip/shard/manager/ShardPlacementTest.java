@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.shard.manager;
+
+import com.mewna.catnip.CatnipOptions;
+import com.mewna.catnip.internal.CatnipImpl;
+import com.mewna.catnip.shard.CatnipShard;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/24/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ShardPlacementTest {
+    private Vertx vertx;
+    private CatnipImpl catnip;
+    
+    @BeforeEach
+    public void setup() {
+        vertx = Vertx.vertx();
+        catnip = new CatnipImpl(vertx, new CatnipOptions("token").shardManager(new DefaultShardManager(4)));
+    }
+    
+    @AfterEach
+    public void teardown() {
+        vertx.close();
+    }
+    
+    @Test
+    public void testShardsPerLoop() throws Exception {
+        final ShardPlacement placement = ShardPlacement.shardsPerLoop(2);
+        final List<CatnipShard> shards = deploy(placement, 4);
+        assertSame(shards.get(0).eventLoopThread(), shards.get(1).eventLoopThread());
+        assertSame(shards.get(2).eventLoopThread(), shards.get(3).eventLoopThread());
+        final List<LoopStats> stats = placement.loopStats();
+        assertEquals(4, stats.stream().mapToInt(e -> e.shards().size()).sum());
+        stats.forEach(e -> assertTrue(e.utilization() >= 0D && e.utilization() <= 1D));
+    }
+    
+    @Test
+    public void testDedicatedLoops() throws Exception {
+        final ShardPlacement placement = ShardPlacement.dedicatedLoops();
+        try {
+            deploy(placement, 4);
+            final List<LoopStats> stats = placement.loopStats();
+            assertEquals(4, stats.size());
+            stats.forEach(e -> assertEquals(1, e.shards().size()));
+        } finally {
+            placement.close();
+        }
+    }
+    
+    private List<CatnipShard> deploy(final ShardPlacement placement, final int count) throws Exception {
+        final List<CatnipShard> shards = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            final CatnipShard shard = new CatnipShard(catnip, i, count, null);
+            shards.add(shard);
+            placement.deploy(catnip, shard);
+        }
+        // Every shard should answer on catnip's event bus once it's up
+        for(final CatnipShard shard : shards) {
+            final CompletableFuture<JsonArray> trace = new CompletableFuture<>();
+            sendTrace(shard.shardInfo().getId(), trace, 50);
+            trace.get(5, TimeUnit.SECONDS);
+            assertNotNull(shard.eventLoopThread());
+        }
+        return shards;
+    }
+    
+    private void sendTrace(final int id, final CompletableFuture<JsonArray> future, final int attempts) {
+        catnip.eventBus().<JsonArray>send(CatnipShard.controlAddress(id), new JsonObject().put("mode", "TRACE"), reply -> {
+            if(reply.succeeded()) {
+                future.complete(reply.result().body());
+            } else if(attempts > 0) {
+                vertx.setTimer(20L, __ -> sendTrace(id, future, attempts - 1));
+            } else {
+                future.completeExceptionally(reply.cause());
+            }
+        });
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018 amy, All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.mewna.catnip.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author amy
+ * @since 12/28/18.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConcurrentLongMapTest {
+    @Test
+    public void testBasicOperations() {
+        final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1L, "a"));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals("b", map.putIfAbsent(1L, "c"));
+        assertNull(map.putIfAbsent(-5L, "d"));
+        assertNull(map.put(0L, "zero"));
+        assertEquals(3, map.size());
+        assertEquals("b", map.get(1L));
+        assertEquals("d", map.get(-5L));
+        assertEquals("zero", map.get(0L));
+        assertNull(map.get(2L));
+        
+        assertFalse(map.remove(1L, "x"));
+        assertTrue(map.remove(1L, "b"));
+        assertNull(map.get(1L));
+        assertEquals("zero", map.remove(0L));
+        assertNull(map.remove(0L));
+        assertEquals(1, map.size());
+        
+        // Removed slots are reused by the same key
+        assertNull(map.put(1L, "e"));
+        assertEquals("e", map.get(1L));
+        assertEquals("f", map.computeIfAbsent(7L, k -> "f"));
+        assertEquals("f", map.computeIfAbsent(7L, k -> "g"));
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(7L));
+    }
+    
+    @Test
+    public void testGrowAndShrink() {
+        final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>(4);
+        final Map<Long, Long> expected = new HashMap<>();
+        final Random random = new Random(42);
+        for(int i = 0; i < 100_000; i++) {
+            final long key = random.nextLong();
+            map.put(key, key);
+            expected.put(key, key);
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((k, v) -> assertEquals(v, map.get(k)));
+        
+        final Iterator<Long> keys = new ArrayList<>(expected.keySet()).iterator();
+        for(int i = 0; i < 90_000; i++) {
+            final long key = keys.next();
+            assertEquals(key, (long) map.remove(key));
+            expected.remove(key);
+        }
+        // Removals leave cleared slots behind; inserting should rehash them away
+        for(int i = 0; i < 50_000; i++) {
+            final long key = random.nextLong();
+            map.put(key, key);
+            expected.put(key, key);
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((k, v) -> assertEquals(v, map.get(k)));
+    }
+    
+    @Test
+    public void testIteration() {
+        final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        final Set<Long> expected = new HashSet<>();
+        for(long i = 0; i < 1000; i++) {
+            map.put(i, String.valueOf(i));
+            expected.add(i);
+        }
+        final Set<Long> seen = new HashSet<>();
+        map.forEachKey(seen::add);
+        assertEquals(expected, seen);
+        assertEquals(expected, new HashSet<>(map.keySet()));
+        assertEquals(expected, new HashSet<>(map.asMap().keySet()));
+        
+        final List<String> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertEquals(1000, values.size());
+        map.forEach((k, v) -> assertEquals(String.valueOf(k), v));
+        
+        final OfLong iterator = map.keyIterator();
+        while(iterator.hasNext()) {
+            if(iterator.nextLong() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        assertEquals(500, map.size());
+        map.forEachKey(k -> assertEquals(1, k % 2));
+        assertThrows(NoSuchElementException.class, iterator::nextLong);
+    }
+    
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+        final int threads = 4;
+        final int perThread = 50_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                final long base = (long) t * perThread;
+                futures.add(executor.submit(() -> {
+                    for(long i = 1; i <= perThread; i++) {
+                        map.put(base + i, base + i);
+                        // Reads on other threads' keys must never fail
+                        final long other = ThreadLocalRandom.current().nextLong(1, threads * perThread);
+                        final Long value = map.get(other);
+                        if(value != null) {
+                            assertEquals(other, (long) value);
+                        }
+                    }
+                }));
+            }
+            for(final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, map.size());
+        for(long i = 1; i <= threads * perThread; i++) {
+            assertEquals(i, (long) map.get(i));
+        }
+    }
+    
+    @Test
+    public void testMapView() throws Exception {
+        final ConcurrentLongMap<Integer> map = new ConcurrentLongMap<>();
+        final Map<Long, Integer> view = map.asMap();
+        assertNull(view.put(1L, 1));
+        assertEquals(1, (int) view.putIfAbsent(1L, 2));
+        assertTrue(view.replace(1L, 1, 3));
+        assertFalse(view.replace(1L, 1, 4));
+        assertEquals(3, (int) map.get(1));
+        assertNull(view.replace(2L, 5));
+        assertFalse(map.containsKey(2));
+        assertFalse(view.remove(1L, 1));
+        assertEquals(3, (int) view.remove(1L));
+        assertTrue(map.isEmpty());
+        
+        // Built on the conditional writes, so none of these can be lost
+        final int threads = 4;
+        final int perThread = 10_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for(int i = 0; i < perThread; i++) {
+                        view.merge(0L, 1, Integer::sum);
+                        view.compute(1L, (k, v) -> v == null ? 1 : v + 1);
+                    }
+                }));
+            }
+            for(final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, (int) map.get(0));
+        assertEquals(threads * perThread, (int) map.get(1));
+        view.clear();
+        assertEquals(0, map.size());
+    }
+}